@@ -0,0 +1,118 @@
+/*
+ * BenchmarkData.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates the synthetic SOAP envelopes and TcpMon captures used by the benchmarks, so that the
+ * benchmarks run without customer data.
+ */
+public class BenchmarkData {
+
+    public static final String SIZE_SMALL = "SMALL";
+    public static final String SIZE_MEDIUM = "MEDIUM";
+    public static final String SIZE_LARGE = "LARGE";
+
+    private static final String INTERFACE_NAMESPACE = "http://www.abacus.ch/abaconnect/2015.00/fibu/Account";
+
+    /**
+     * @param size one of {@link #SIZE_SMALL} (about 1 KB), {@link #SIZE_MEDIUM} (about 100 KB)
+     *             or {@link #SIZE_LARGE} (about 10 MB)
+     * @return the number of Data records to get an envelope of the specified size
+     */
+    public static int getDataRecordCount(String size) {
+        if ( SIZE_LARGE.equalsIgnoreCase(size) ) {
+            return 38500;
+        } else if ( SIZE_MEDIUM.equalsIgnoreCase(size) ) {
+            return 360;
+        }
+        return 3;
+    }
+
+    /**
+     * Creates a SaveRequest envelope with the specified number of Data records, each with an
+     * ExtendedFields block.
+     *
+     * @param dataRecordCount the number of Data records
+     * @return the envelope as single line
+     */
+    public static String createSaveRequestEnvelope(int dataRecordCount) {
+        StringBuilder sbEnvelope = new StringBuilder(200 + (dataRecordCount * 300));
+        sbEnvelope.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sbEnvelope.append("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">");
+        sbEnvelope.append("<soapenv:Header/><soapenv:Body>");
+        sbEnvelope.append("<acc:SaveRequest xmlns:acc=\"").append(INTERFACE_NAMESPACE).append("\"");
+        sbEnvelope.append(" xmlns:aba=\"").append(INTERFACE_NAMESPACE).append("Types\">");
+        sbEnvelope.append("<acc:Parameter><acc:Mandant>7777</acc:Mandant></acc:Parameter>");
+        for ( int index = 1; index <= dataRecordCount; index++ ) {
+            sbEnvelope.append("<acc:Data mode=\"SAVE\">");
+            sbEnvelope.append("<acc:AccountNumber>").append(1000 + index).append("</acc:AccountNumber>");
+            sbEnvelope.append("<acc:Text>Account &amp; Co ").append(index).append("</acc:Text>");
+            sbEnvelope.append("<acc:Currency>CHF</acc:Currency>");
+            sbEnvelope.append("<acc:ExtendedFields>");
+            sbEnvelope.append("<aba:ExtendedField Name=\"Field").append(index).append("\">Value ").append(index).append("</aba:ExtendedField>");
+            sbEnvelope.append("</acc:ExtendedFields>");
+            sbEnvelope.append("</acc:Data>");
+        }
+        sbEnvelope.append("</acc:SaveRequest></soapenv:Body></soapenv:Envelope>");
+        return sbEnvelope.toString();
+    }
+
+    /**
+     * Creates the response envelope of a request.
+     *
+     * @param operation e.g. Save or Find
+     * @param index the number written to the result
+     * @return the envelope as single line
+     */
+    public static String createResponseEnvelope(String operation, int index) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Header/><soapenv:Body>" +
+                "<acc:" + operation + "Response xmlns:acc=\"" + INTERFACE_NAMESPACE + "\"><acc:Result>OK " + index + "</acc:Result>" +
+                "</acc:" + operation + "Response></soapenv:Body></soapenv:Envelope>";
+    }
+
+    /**
+     * Writes a TcpMon capture file with the specified number of request/response pairs with the
+     * {@link TcpMonCaptureGenerator}.  The pairs are a mix of Save, Insert, Update, Find and Delete
+     * operations with ExtendedFields and different namespace prefixes.
+     *
+     * @param captureFile the file to write
+     * @param pairCount the number of request/response pairs
+     * @param dataRecordCount the number of Data records of each Save/Insert/Update request
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeCaptureFile(File captureFile, int pairCount, int dataRecordCount) throws IOException {
+        TcpMonCaptureGenerator generator = new TcpMonCaptureGenerator();
+        generator.setOperationCount(TcpMonCaptureGenerator.OPERATION_SAVE, pairCount - ((pairCount * 3) / 5));
+        generator.setOperationCount(TcpMonCaptureGenerator.OPERATION_INSERT, pairCount / 5);
+        generator.setOperationCount(TcpMonCaptureGenerator.OPERATION_FIND, pairCount / 5);
+        generator.setOperationCount(TcpMonCaptureGenerator.OPERATION_DELETE, pairCount / 5);
+        generator.setDataRecordCount(dataRecordCount);
+        generator.setExtendedFields(true);
+        generator.setNamespacePrefixVariety(true);
+        generator.generate(captureFile);
+    }
+
+    /**
+     * Creates a temporary capture file which is deleted when the JVM exits.
+     */
+    public static File createTemporaryCaptureFile(int pairCount, int dataRecordCount) throws IOException {
+        File captureFile = File.createTempFile("bench_capture_" + pairCount + "_", ".tcptxt");
+        captureFile.deleteOnExit();
+        writeCaptureFile(captureFile, pairCount, dataRecordCount);
+        return captureFile;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * CaptureScanBenchmark.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TcpMonMessageExploder#explodeTcpMonFile(String, SoapEnvelopeListener)} on synthetic
+ * captures of several sizes with the memory-mapped and the line based scanner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CaptureScanBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int pairCount;
+
+    @Param({"true", "false"})
+    public boolean useMappedScanner;
+
+    private File mCaptureFile;
+
+    @Setup(Level.Trial)
+    public void createCapture() throws IOException {
+        mCaptureFile = BenchmarkData.createTemporaryCaptureFile(pairCount, 3);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCapture() {
+        mCaptureFile.delete();
+    }
+
+    @Benchmark
+    public void explodeTcpMonFile(final Blackhole blackhole) {
+        TcpMonMessageExploder exploder = new TcpMonMessageExploder();
+        exploder.setUseMappedScanner(useMappedScanner);
+        exploder.explodeTcpMonFile(mCaptureFile.getPath(), new SoapEnvelopeListener() {
+            public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+                // Decoding the envelope is part of the scan cost of the line scanner
+                blackhole.consume(soapEnvelopeInfo.getSoapEnvelopeXml());
+                blackhole.consume(soapEnvelopeInfo.getMessageType());
+            }
+        });
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * MarkerMatcherBenchmark.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single pass {@link CaptureMarkerMatcher} with a separate search for the line end and
+ * each marker, and with reading every byte of the mapped capture as lower bound.  The score is given
+ * in operations per second over the whole capture, the throughput in MB/s is the capture size times
+ * the score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MarkerMatcherBenchmark {
+
+    private static final byte[] MARKER_POST = MappedCaptureScanner.getAsciiBytes("POST ");
+    private static final byte[] MARKER_HTTP = MappedCaptureScanner.getAsciiBytes("HTTP/1.");
+    private static final byte[] MARKER_ENVELOPE = MappedCaptureScanner.getAsciiBytes("Envelop");
+
+    @Param({"1000", "10000"})
+    public int pairCount;
+
+    private File mCaptureFile;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mCapture;
+    private int mCaptureLength;
+    private CaptureMarkerMatcher mMatcher;
+
+    @Setup(Level.Trial)
+    public void createCapture() throws IOException {
+        mCaptureFile = BenchmarkData.createTemporaryCaptureFile(pairCount, 3);
+        mRandomAccessFile = new RandomAccessFile(mCaptureFile, "r");
+        mCaptureLength = (int) mRandomAccessFile.length();
+        mCapture = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mCaptureLength);
+        mCapture.load();
+        mMatcher = new CaptureMarkerMatcher(MARKER_POST, MARKER_HTTP, MARKER_ENVELOPE);
+        System.out.println("Capture size : " + mCaptureLength + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCapture() throws IOException {
+        mRandomAccessFile.close();
+        mCaptureFile.delete();
+    }
+
+    /**
+     * Reads every byte once, the lower bound for any scan of the mapped capture.
+     */
+    @Benchmark
+    public int readBytes() {
+        MappedByteBuffer capture = mCapture;
+        int checksum = 0;
+        for ( int pos = 0; pos < mCaptureLength; pos++ ) {
+            checksum += capture.get(pos);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public int matchMarkers() {
+        CaptureMarkerMatcher matcher = mMatcher;
+        int hitCount = 0;
+        int lineStart = 0;
+        while ( lineStart < mCaptureLength ) {
+            int lineEnd = matcher.scanLine(mCapture, lineStart, mCaptureLength);
+            hitCount += matcher.getHitCount(0) + matcher.getHitCount(1) + matcher.getHitCount(2);
+            lineStart = lineEnd + 1;
+        }
+        return hitCount;
+    }
+
+    /**
+     * The line end and each marker searched separately, as the scanner did before the matcher.
+     */
+    @Benchmark
+    public int searchMarkers() {
+        MappedByteBuffer capture = mCapture;
+        int hitCount = 0;
+        int lineStart = 0;
+        while ( lineStart < mCaptureLength ) {
+            int lineEnd = lineStart;
+            while ( lineEnd < mCaptureLength && capture.get(lineEnd) != '\n' && capture.get(lineEnd) != '\r' ) {
+                lineEnd++;
+            }
+            if ( indexOf(capture, MARKER_POST, lineStart, lineEnd) >= 0 ) hitCount++;
+            if ( indexOf(capture, MARKER_HTTP, lineStart, lineEnd) >= 0 ) hitCount++;
+            if ( indexOf(capture, MARKER_ENVELOPE, lineStart, lineEnd) >= 0 ) hitCount++;
+            lineStart = lineEnd + 1;
+        }
+        return hitCount;
+    }
+
+    private static int indexOf(MappedByteBuffer capture, byte[] pattern, int fromIndex, int toIndex) {
+        byte first = pattern[0];
+        int max = toIndex - pattern.length;
+        for ( int pos = fromIndex; pos <= max; pos++ ) {
+            if ( capture.get(pos) != first ) continue;
+            int index = 1;
+            while ( index < pattern.length && capture.get(pos + index) == pattern[index] ) {
+                index++;
+            }
+            if ( index == pattern.length ) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * SoapMessageDeduplicatorCheck.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the {@link SoapMessageDeduplicator} ignores the values of the volatile SOAP header elements,
+ * also if they have another length : the same polling request and response with the message ids
+ * <code>urn:msg-1</code>, <code>urn:msg-2</code> and <code>urn:msg-10</code> are duplicates, a request with
+ * another search value is not.  The envelopes are checked as slices of a capture file and as text.
+ * <p/>
+ * Run with <code>ant -f ant_build_all.xml check</code>, exits with 1 if a check fails.
+ */
+public class SoapMessageDeduplicatorCheck {
+
+    private static int sFailedCount = 0;
+
+    public static void main(String[] args) throws IOException {
+        File captureFile = File.createTempFile("dedup_check", ".tcptxt");
+        try {
+            writeCapture(captureFile, new String[] { "urn:msg-1", "urn:msg-2", "urn:msg-10" }, "4711");
+            List<SoapEnvelopeInfo> envelopes = scanCapture(captureFile);
+            checkDuplicateCount("slices, message ids of another length", envelopes, 4);
+            checkDuplicateCount("text, message ids of another length", toTextEnvelopes(envelopes), 4);
+
+            // Only the response of the second pair is a duplicate
+            writeCapture(captureFile, new String[] { "urn:msg-1", "urn:msg-2" }, "0815");
+            envelopes = scanCapture(captureFile);
+            checkDuplicateCount("slices, another search value", envelopes, 1);
+            checkDuplicateCount("text, another search value", toTextEnvelopes(envelopes), 1);
+        } finally {
+            if ( !captureFile.delete() ) {
+                captureFile.deleteOnExit();
+            }
+        }
+        if ( sFailedCount > 0 ) {
+            System.out.println(sFailedCount + " deduplicator checks failed");
+            System.exit(1);
+        }
+        System.out.println("Deduplicator checks OK");
+    }
+
+    private static void checkDuplicateCount(String description, List<SoapEnvelopeInfo> envelopes, int expectedCount) {
+        SoapMessageDeduplicator deduplicator = new SoapMessageDeduplicator();
+        int orderIndex = 0;
+        for ( SoapEnvelopeInfo soapEnvelopeInfo : envelopes ) {
+            orderIndex++;
+            deduplicator.findFirstOccurrence(soapEnvelopeInfo, orderIndex, "SM_" + String.format("%05d", orderIndex) + ".xml");
+        }
+        if ( deduplicator.getDuplicateCount() != expectedCount ) {
+            System.out.println("FAILED " + description + " : " + deduplicator.getDuplicateCount() + " duplicates instead of " + expectedCount);
+            System.out.print(deduplicator.createManifest("\n"));
+            sFailedCount++;
+        }
+    }
+
+    /**
+     * Writes a request/response pair per message id, the requests search the account 4711 except the last request.
+     */
+    private static void writeCapture(File captureFile, String[] messageIds, String lastSearchValue) throws IOException {
+        StringBuilder sbCapture = new StringBuilder();
+        for ( int index = 0; index < messageIds.length; index++ ) {
+            String searchValue = (index == messageIds.length - 1 ? lastSearchValue : "4711");
+            appendMessage(sbCapture, "==== Request ====", "POST /abaconnect/services/Account HTTP/1.1",
+                    "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:wsa=\"http://www.w3.org/2005/08/addressing\">"
+                    + "<s:Header><wsa:MessageID>" + messageIds[index] + "</wsa:MessageID></s:Header>"
+                    + "<s:Body><acc:FindRequest xmlns:acc=\"http://www.abacus.ch/abaconnect/2015.00/fibu/Account\">"
+                    + "<acc:AccountNumber>" + searchValue + "</acc:AccountNumber></acc:FindRequest></s:Body></s:Envelope>");
+            appendMessage(sbCapture, "==== Response ====", "HTTP/1.1 200 OK",
+                    "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:wsa=\"http://www.w3.org/2005/08/addressing\">"
+                    + "<s:Header><wsa:MessageID>" + messageIds[index] + "-response</wsa:MessageID>"
+                    + "<wsa:RelatesTo>" + messageIds[index] + "</wsa:RelatesTo></s:Header>"
+                    + "<s:Body><acc:FindResponse xmlns:acc=\"http://www.abacus.ch/abaconnect/2015.00/fibu/Account\">"
+                    + "<acc:Result>OK</acc:Result></acc:FindResponse></s:Body></s:Envelope>");
+        }
+        FileOutputStream outputStream = new FileOutputStream(captureFile);
+        try {
+            outputStream.write(sbCapture.toString().getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void appendMessage(StringBuilder sbCapture, String marker, String firstHeaderLine, String soapEnvelope) throws IOException {
+        byte[] body = soapEnvelope.getBytes("UTF-8");
+        sbCapture.append(marker).append("\r\n");
+        sbCapture.append(firstHeaderLine).append("\r\n");
+        sbCapture.append("Content-Type: text/xml; charset=UTF-8\r\n");
+        sbCapture.append("Content-Length: ").append(body.length).append("\r\n");
+        sbCapture.append("\r\n");
+        sbCapture.append(soapEnvelope).append("\r\n");
+    }
+
+    private static List<SoapEnvelopeInfo> scanCapture(File captureFile) throws IOException {
+        final ArrayList<SoapEnvelopeInfo> envelopes = new ArrayList<SoapEnvelopeInfo>();
+        new MappedCaptureScanner(captureFile).scan(new SoapEnvelopeListener() {
+            public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+                envelopes.add(soapEnvelopeInfo);
+            }
+        });
+        if ( envelopes.size() == 0 || envelopes.get(0).getEnvelopeSlices() == null ) {
+            throw new IllegalStateException("The capture was not scanned into slices");
+        }
+        return envelopes;
+    }
+
+    private static List<SoapEnvelopeInfo> toTextEnvelopes(List<SoapEnvelopeInfo> envelopes) {
+        ArrayList<SoapEnvelopeInfo> textEnvelopes = new ArrayList<SoapEnvelopeInfo>();
+        for ( SoapEnvelopeInfo soapEnvelopeInfo : envelopes ) {
+            SoapEnvelopeInfo textEnvelopeInfo = new SoapEnvelopeInfo(soapEnvelopeInfo.getSoapEnvelopeXml());
+            textEnvelopeInfo.setSoapHeader(soapEnvelopeInfo.getSoapHeader());
+            textEnvelopes.add(textEnvelopeInfo);
+        }
+        return textEnvelopes;
+    }
+}
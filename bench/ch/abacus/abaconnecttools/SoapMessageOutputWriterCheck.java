@@ -0,0 +1,297 @@
+/*
+ * SoapMessageOutputWriterCheck.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Checks the output files of large SOAP envelopes, which the {@link SoapMessageOutputWriter} passes in parts
+ * to the file writer instead of formatting them into a buffer of the whole file.
+ * <p/>
+ * A capture with a large envelope and a large envelope which cannot be formatted is exploded to single files,
+ * zip archives (stored and deflated), a tar archive, with format threads and without reformatting.  Each
+ * file must have the same content as the envelope formatted into a buffer, or the unformatted envelope.
+ * <p/>
+ * With <code>-largeCapture &lt;capture file&gt;</code> a capture with a large envelope must be exploded within the
+ * heap of the check.  <code>ant -f ant_build_all.xml check</code> generates the capture with
+ * <code>TcpMonCaptureGenerator -find 1 -save 1 -base64 130M</code> (an envelope of 181 MB) and runs the check
+ * with 550 MB heap.  Exits with 1 if a check fails.
+ */
+public class SoapMessageOutputWriterCheck {
+
+    private static int sFailedCount = 0;
+
+    public static void main(String[] args) throws IOException {
+        File largeCaptureFile = null;
+        for ( int index = 0; index + 1 < args.length; index++ ) {
+            if ( "-largeCapture".equalsIgnoreCase(args[index]) ) {
+                largeCaptureFile = new File(args[++index]);
+            }
+        }
+        File directory = File.createTempFile("output_writer_check", "");
+        if ( !directory.delete() || !directory.mkdir() ) {
+            throw new IOException("The directory [" + directory + "] cannot be created");
+        }
+        try {
+            // The large capture first, while the heap is empty
+            if ( largeCaptureFile != null ) {
+                checkLargeCapture(directory, largeCaptureFile);
+            }
+            File captureFile = new File(directory, "large.tcptxt");
+            writeCapture(captureFile);
+            List<SoapEnvelopeInfo> envelopes = scanCapture(captureFile);
+            Map<String, byte[]> formattedFiles = createExpectedFiles(envelopes, true);
+            checkOutput("files", captureFile, formattedFiles);
+            checkOutput("zip stored", captureFile, formattedFiles, "-archive", "zip", "-compression", "0");
+            checkOutput("zip deflated", captureFile, formattedFiles, "-archive", "zip");
+            checkOutput("tar", captureFile, formattedFiles, "-archive", "tar");
+            checkOutput("format threads", captureFile, formattedFiles, "-formatThreads", "4");
+            formattedFiles = null;
+            checkOutput("not reformatted", captureFile, createExpectedFiles(envelopes, false), "-noReformat");
+        } finally {
+            deleteDirectory(directory);
+        }
+        if ( sFailedCount > 0 ) {
+            System.out.println(sFailedCount + " output writer checks failed");
+            System.exit(1);
+        }
+        System.out.println("Output writer checks OK");
+    }
+
+    /**
+     * Explodes a generated capture with a Save and a Find request pair, which must not fail with an OutOfMemoryError.
+     */
+    private static void checkLargeCapture(File directory, File captureFile) {
+        File outputDirectory = new File(directory, "large_capture_output");
+        int exitCode = ExplodeTcpMonBatch.runBatch(new String[] { "-batch", "-noIndex", "-outdir", outputDirectory.getPath(), captureFile.getPath() });
+        String[] filenames = findOutputDirectory(outputDirectory).list();
+        if ( exitCode != 0 || filenames == null || filenames.length != 4 ) {
+            fail("large capture", "exit code " + exitCode + ", files " + (filenames != null ? Arrays.asList(filenames) : null));
+        }
+        deleteDirectory(outputDirectory);
+    }
+
+    private static void checkOutput(String description, File captureFile, Map<String, byte[]> expectedFiles, String... options) throws IOException {
+        File outputDirectory = new File(captureFile.getParentFile(), "output");
+        deleteDirectory(outputDirectory);
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("-batch", "-noIndex", "-outdir", outputDirectory.getPath()));
+        args.addAll(Arrays.asList(options));
+        args.add(captureFile.getPath());
+        int exitCode = ExplodeTcpMonBatch.runBatch(args.toArray(new String[args.size()]));
+        if ( exitCode != 0 ) {
+            fail(description, "exit code " + exitCode);
+        }
+        Map<String, byte[]> files = readOutputFiles(findOutputDirectory(outputDirectory));
+        if ( !files.keySet().equals(expectedFiles.keySet()) ) {
+            fail(description, "files " + files.keySet() + " instead of " + expectedFiles.keySet());
+        }
+        for ( Map.Entry<String, byte[]> expectedFile : expectedFiles.entrySet() ) {
+            byte[] content = files.get(expectedFile.getKey());
+            if ( content != null && !Arrays.equals(content, expectedFile.getValue()) ) {
+                fail(description, expectedFile.getKey() + " has " + content.length + " bytes instead of the expected " + expectedFile.getValue().length + " bytes");
+            }
+        }
+        deleteDirectory(outputDirectory);
+    }
+
+    /**
+     * Creates the content of the message files like the writer does for small envelopes.
+     */
+    private static Map<String, byte[]> createExpectedFiles(List<SoapEnvelopeInfo> envelopes, boolean reformat) throws IOException {
+        LinkedHashMap<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        // The formatter of the writer without -removeNamespaces and -convertExtendedFields
+        XmlSoapAcReformatter xmlFormatter = new XmlSoapAcReformatter();
+        xmlFormatter.setConvertExtendedFieldsToXmlFormat(false);
+        xmlFormatter.setRemoveNamespacePrefixes(false);
+        int orderIndex = 0;
+        for ( SoapEnvelopeInfo soapEnvelopeInfo : envelopes ) {
+            orderIndex++;
+            String filename = "SM_" + String.format("%05d", orderIndex) + "_" + soapEnvelopeInfo.getSoapBodyName() + ".xml";
+            String soapEnvelope = soapEnvelopeInfo.getSoapEnvelopeXml();
+            byte[] content = null;
+            if ( reformat ) {
+                AsyncFileWriter.FileBuffer fileBuffer = new AsyncFileWriter.FileBuffer(soapEnvelope.length());
+                try {
+                    xmlFormatter.format(new ByteArrayInputStream(soapEnvelope.getBytes()), fileBuffer);
+                    content = fileBuffer.toByteArray();
+                } catch (Exception e) {
+                    // The envelope which is not well-formed is written unformatted
+                }
+            }
+            files.put(filename, (content != null ? content : soapEnvelope.getBytes("UTF-8")));
+        }
+        return files;
+    }
+
+    /**
+     * Writes a Save request with a value of more than {@link SoapMessageOutputWriter#LARGE_ENVELOPE_LENGTH} characters,
+     * a Save request of the same size which is not well-formed and their responses.
+     */
+    private static void writeCapture(File captureFile) throws IOException {
+        char[] value = new char[SoapMessageOutputWriter.LARGE_ENVELOPE_LENGTH + 1024];
+        for ( int index = 0; index < value.length; index++ ) {
+            value[index] = (char) ('A' + (index % 26));
+        }
+        String largeValue = new String(value);
+        StringBuilder sbCapture = new StringBuilder();
+        for ( int pair = 0; pair < 2; pair++ ) {
+            // The second envelope is not well-formed, the Data element is not closed
+            String dataEndTag = (pair == 0 ? "</acc:Data>" : "");
+            appendMessage(sbCapture, "==== Request ====", "POST /abaconnect/services/Account HTTP/1.1",
+                    "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body>"
+                    + "<acc:SaveRequest xmlns:acc=\"http://www.abacus.ch/abaconnect/2015.00/fibu/Account\">"
+                    + "<acc:Data mode=\"SAVE\"><acc:AccountNumber>" + (4711 + pair) + "</acc:AccountNumber>"
+                    + "<acc:Document>" + largeValue + "</acc:Document>" + dataEndTag
+                    + "</acc:SaveRequest></s:Body></s:Envelope>");
+            appendMessage(sbCapture, "==== Response ====", "HTTP/1.1 200 OK",
+                    "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body>"
+                    + "<acc:SaveResponse xmlns:acc=\"http://www.abacus.ch/abaconnect/2015.00/fibu/Account\">"
+                    + "<acc:Result>OK</acc:Result></acc:SaveResponse></s:Body></s:Envelope>");
+        }
+        FileOutputStream outputStream = new FileOutputStream(captureFile);
+        try {
+            outputStream.write(sbCapture.toString().getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void appendMessage(StringBuilder sbCapture, String marker, String firstHeaderLine, String soapEnvelope) throws IOException {
+        byte[] body = soapEnvelope.getBytes("UTF-8");
+        sbCapture.append(marker).append("\r\n");
+        sbCapture.append(firstHeaderLine).append("\r\n");
+        sbCapture.append("Content-Type: text/xml; charset=UTF-8\r\n");
+        sbCapture.append("Content-Length: ").append(body.length).append("\r\n");
+        sbCapture.append("\r\n");
+        sbCapture.append(soapEnvelope).append("\r\n");
+    }
+
+    private static List<SoapEnvelopeInfo> scanCapture(File captureFile) throws IOException {
+        final ArrayList<SoapEnvelopeInfo> envelopes = new ArrayList<SoapEnvelopeInfo>();
+        new MappedCaptureScanner(captureFile).scan(new SoapEnvelopeListener() {
+            public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+                envelopes.add(soapEnvelopeInfo);
+            }
+        });
+        return envelopes;
+    }
+
+    /**
+     * @return the directory of the capture file in the base output directory
+     */
+    private static File findOutputDirectory(File outputDirectory) {
+        File[] directories = outputDirectory.listFiles();
+        return (directories != null && directories.length == 1 ? directories[0] : outputDirectory);
+    }
+
+    /**
+     * Reads the message files of the directory or of the archive in the directory.
+     */
+    private static Map<String, byte[]> readOutputFiles(File directory) throws IOException {
+        LinkedHashMap<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        File[] outputFiles = directory.listFiles();
+        if ( outputFiles == null ) {
+            return files;
+        }
+        Arrays.sort(outputFiles);
+        for ( File outputFile : outputFiles ) {
+            String name = outputFile.getName();
+            InputStream inputStream = new FileInputStream(outputFile);
+            try {
+                if ( name.endsWith(".zip") ) {
+                    readZipEntries(inputStream, files);
+                } else if ( name.endsWith(".tar") ) {
+                    readTarEntries(inputStream, files);
+                } else {
+                    files.put(name, readFully(inputStream, outputFile.length()));
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+        return files;
+    }
+
+    private static void readZipEntries(InputStream inputStream, Map<String, byte[]> files) throws IOException {
+        ZipInputStream zipStream = new ZipInputStream(inputStream);
+        ZipEntry entry;
+        while ( (entry = zipStream.getNextEntry()) != null ) {
+            AsyncFileWriter.FileBuffer fileBuffer = new AsyncFileWriter.FileBuffer(8192);
+            byte[] buffer = new byte[8192];
+            int length;
+            while ( (length = zipStream.read(buffer)) > 0 ) {
+                fileBuffer.write(buffer, 0, length);
+            }
+            files.put(entry.getName(), fileBuffer.toByteArray());
+        }
+    }
+
+    /**
+     * Reads the entries of a tar archive with short names as written by the {@link ArchiveFileWriter}.
+     */
+    private static void readTarEntries(InputStream inputStream, Map<String, byte[]> files) throws IOException {
+        DataInputStream dataStream = new DataInputStream(inputStream);
+        byte[] header = new byte[512];
+        while ( true ) {
+            dataStream.readFully(header);
+            if ( header[0] == 0 ) {
+                return;
+            }
+            int nameLength = 0;
+            while ( nameLength < 100 && header[nameLength] != 0 ) {
+                nameLength++;
+            }
+            String name = new String(header, 0, nameLength, "UTF-8");
+            long size = Long.parseLong(new String(header, 124, 11, "US-ASCII").trim(), 8);
+            files.put(name, readFully(dataStream, size));
+            int padding = (int) ((512 - (size % 512)) % 512);
+            dataStream.readFully(new byte[padding]);
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream, long size) throws IOException {
+        byte[] content = new byte[(int) size];
+        new DataInputStream(inputStream).readFully(content);
+        return content;
+    }
+
+    private static void fail(String description, String message) {
+        sFailedCount++;
+        System.out.println("FAILED " + description + " : " + message);
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if ( files != null ) {
+            for ( File file : files ) {
+                deleteDirectory(file);
+            }
+        }
+        if ( directory.exists() && !directory.delete() ) {
+            directory.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * XmlElementExtractorCheck.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the {@link XmlElementExtractor} with the String search it replaced, a verbatim copy of the former
+ * <code>TcpMonMessageExploder.extractXmlElementValues()</code>.
+ * <p/>
+ * Both must find the same values and elements in well-formed texts with and without namespace prefixes.
+ * The old search does not know comments, CDATA sections, '&gt;' in quoted attribute values and nested elements
+ * with the same name, for these the extractor must return the values of the XML structure and the result of the
+ * old search is only printed.  The one difference in well-formed texts is that the old search returned an
+ * element with the character after its end tag (and failed if the end tag ends the text), the extractor returns
+ * the element without it.
+ * <p/>
+ * Run with <code>ant -f ant_build_all.xml check</code>, exits with 1 if a check fails.  Files or directories
+ * passed as arguments (e.g. the output files of the test captures) are compared as well.
+ */
+public class XmlElementExtractorCheck {
+
+    private static final XmlElementExtractor DATA_EXTRACTOR = new XmlElementExtractor("Data");
+    private static final XmlElementExtractor ENVELOPE_EXTRACTOR = new XmlElementExtractor("Envelope");
+
+    private static int sCheckCount = 0;
+    private static int sFailedCount = 0;
+
+    public static void main(String[] args) throws IOException {
+        // Well-formed texts, the old search finds the same values
+        checkSame("unprefixed", "<Request><Data>a</Data><Data mode=\"SAVE\">b</Data></Request>");
+        checkSame("prefixed", "<acc:Request><acc:Data>a</acc:Data><acc:Data mode=\"SAVE\">b</acc:Data></acc:Request>");
+        checkSame("prefixed with children", "<acc:Data mode=\"SAVE\">\n  <acc:AccountNumber>1</acc:AccountNumber>\n  <acc:Text>A &amp; B</acc:Text>\n</acc:Data>");
+        checkSame("other names", "<DataSet>x</DataSet><MetaData>y</MetaData><Data>z</Data>");
+        checkSame("no element", "<Request><Parameter/></Request>");
+
+        // Texts the old search does not handle, the values of the XML structure are expected
+        checkValues("nested same name", "<Data><Data>x</Data></Data><Data>y</Data>", "<Data>x</Data>", "y");
+        checkValues("nested same name prefixed", "<acc:Data><acc:Data>x</acc:Data></acc:Data>", "<acc:Data>x</acc:Data>");
+        checkValues("comment", "<!-- <Data>c</Data> --><Data>a</Data>", "a");
+        checkValues("CDATA", "<Data><![CDATA[</Data>]]></Data><Data>b</Data>", "<![CDATA[</Data>]]>", "b");
+        checkValues("quoted >", "<Data note=\"a>b\">v</Data>", "v");
+        checkValues("quoted > prefixed", "<acc:Data note='a>b'>v</acc:Data>", "v");
+
+        // The documented difference : the old search returned the envelope with the character after its end tag
+        String envelope = "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body/></s:Envelope>";
+        checkEnvelopes("envelopes followed by text", envelope + " " + envelope + "<");
+        checkEnvelopes("envelope at the end of the text", envelope);
+
+        for ( String arg : args ) {
+            checkFiles(new File(arg));
+        }
+        if ( sFailedCount > 0 ) {
+            System.out.println(sFailedCount + " of " + sCheckCount + " extractor checks failed");
+            System.exit(1);
+        }
+        System.out.println("Extractor checks OK (" + sCheckCount + " checks)");
+    }
+
+    /**
+     * Checks that the extractor finds the same Data values as the old search.
+     */
+    private static void checkSame(String description, String text) {
+        sCheckCount++;
+        List<String> oldValues = Arrays.asList(extractXmlElementValues("Data", text, false));
+        List<String> values = getValues(DATA_EXTRACTOR.findElements(text));
+        if ( !oldValues.equals(values) ) {
+            fail(description, "values " + values + " instead of " + oldValues);
+        }
+    }
+
+    /**
+     * Checks the Data values of a text the old search does not handle.
+     */
+    private static void checkValues(String description, String text, String... expectedValues) {
+        sCheckCount++;
+        List<String> values = getValues(DATA_EXTRACTOR.findElements(text));
+        if ( !Arrays.asList(expectedValues).equals(values) ) {
+            fail(description, "values " + values + " instead of " + Arrays.asList(expectedValues));
+        }
+        System.out.println("  " + description + " : old search " + Arrays.asList(extractXmlElementValues("Data", text, false)) + ", extractor " + values);
+    }
+
+    /**
+     * Checks the envelopes with their tags, the old search adds the character after the end tag or fails
+     * at the end of the text.
+     */
+    private static void checkEnvelopes(String description, String text) {
+        sCheckCount++;
+        XmlElementExtractor.Matches matches = ENVELOPE_EXTRACTOR.findElements(text);
+        String[] oldElements;
+        try {
+            oldElements = extractXmlElementValues("Envelope", text, true);
+        } catch (StringIndexOutOfBoundsException e) {
+            oldElements = null;
+        }
+        boolean lastAtEnd = (matches.getCount() > 0 && matches.getElementEnd(matches.getCount() - 1) == text.length());
+        if ( lastAtEnd ) {
+            if ( oldElements != null ) {
+                fail(description, "the old search did not fail at the end of the text");
+            }
+            return;
+        }
+        if ( oldElements == null || oldElements.length != matches.getCount() ) {
+            fail(description, matches.getCount() + " envelopes instead of " + (oldElements == null ? "a failure" : String.valueOf(oldElements.length)));
+            return;
+        }
+        for ( int index = 0; index < matches.getCount(); index++ ) {
+            String expectedElement = matches.getElement(index) + text.charAt(matches.getElementEnd(index));
+            if ( !expectedElement.equals(oldElements[index]) ) {
+                fail(description, "envelope " + index + " [" + matches.getElement(index) + "] does not match [" + oldElements[index] + "]");
+            }
+        }
+    }
+
+    /**
+     * Compares the Data values and the envelopes of the files, e.g. the output files of the test captures.
+     */
+    private static void checkFiles(File file) throws IOException {
+        if ( file.isDirectory() ) {
+            File[] files = file.listFiles();
+            if ( files != null ) {
+                Arrays.sort(files);
+                for ( File childFile : files ) {
+                    checkFiles(childFile);
+                }
+            }
+            return;
+        }
+        String text = readFile(file);
+        checkSame(file.getPath(), text);
+        checkEnvelopes(file.getPath(), text);
+    }
+
+    private static List<String> getValues(XmlElementExtractor.Matches matches) {
+        ArrayList<String> values = new ArrayList<String>();
+        for ( int index = 0; index < matches.getCount(); index++ ) {
+            values.add(matches.getValue(index));
+        }
+        return values;
+    }
+
+    private static void fail(String description, String message) {
+        sFailedCount++;
+        System.out.println("FAILED " + description + " : " + message);
+    }
+
+    private static String readFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Extracts an element value of a specified xmlElementName tag from an XML formatted text.
+     *
+     * @param xmlTagName the xmlElement Name tag
+     * @param text  the XML Formatted text
+     * @return the value of the specified xml element tag or blank if not found
+     */
+    static String[] extractXmlElementValues(String xmlTagName, String text, boolean includeStartEndTags) {
+        ArrayList<String> foundElements = new ArrayList<String>();
+        int currentPos = 0;
+
+        while ( currentPos >= 0 ) {
+            String startTag = "<" + xmlTagName + ">";
+            String endTag = "</" + xmlTagName + ">";
+
+            String rootStartTag = "";
+            String rootEndTag = "";
+
+            String resultText = "";
+            int startValuePos = text.indexOf(startTag,currentPos);
+            if ( startValuePos < 0 ) {
+                startTag = "<" + xmlTagName + " ";
+                startValuePos = text.indexOf(startTag,currentPos);
+            }
+            if ( startValuePos >= 0 ) {
+                int rootStartTagPos = startValuePos;
+                currentPos = -1;
+                //iPos += 3;
+                startValuePos = text.indexOf(">", startValuePos);
+                if ( startValuePos >= 0 ) {
+                    startValuePos = startValuePos + 1;
+                    int endValuePos = text.indexOf(endTag, startValuePos);
+                    if ( endValuePos >= 0 && endValuePos > startValuePos ) {
+                        resultText = text.substring(startValuePos, endValuePos);
+                        if ( includeStartEndTags ) {
+                            rootStartTag = text.substring(rootStartTagPos, startValuePos);
+                            rootEndTag = text.substring(endValuePos, endValuePos+endTag.length()+1);
+//                            System.out.println("");
+//                            System.out.println("START TAG : ]" + rootStartTag + "[");
+//                            System.out.println("END TAG   : ]" + rootEndTag + "[");
+                            foundElements.add(rootStartTag + resultText + rootEndTag);
+                        } else {
+                            foundElements.add(resultText);
+                        }
+                        currentPos = endValuePos;
+                    }
+                }
+            } else {
+                // Procedure for namespace defined tags
+                startTag = ":" + xmlTagName;
+                startValuePos = text.indexOf(startTag,currentPos);
+                if ( startValuePos < 0 ) {
+                    startTag = ":" + xmlTagName + " ";
+                    startValuePos = text.indexOf(startTag,currentPos);
+                }
+                currentPos = -1;
+                if ( startValuePos >= 0 ) {
+                    int rootStartTagPos = startValuePos;
+                    int startBracket = text.lastIndexOf("<", startValuePos );
+                    if ( startBracket >= 0 && startBracket < startValuePos ) {
+                        String nsName = text.substring(startBracket+1,startValuePos);
+                        endTag = "</" + nsName + ":" + xmlTagName + ">";
+                        startValuePos = text.indexOf(">", startValuePos);
+                        if ( startValuePos >= 0 ) {
+                            startValuePos = startValuePos + 1;
+                            int endValuePos = text.indexOf(endTag, startValuePos);
+                            if ( endValuePos >= 0 && endValuePos > startValuePos ) {
+                                resultText = text.substring(startValuePos, endValuePos);
+                                if ( includeStartEndTags ) {
+                                    rootStartTag = "<" + nsName + text.substring(rootStartTagPos, startValuePos);
+                                    rootEndTag = text.substring(endValuePos, endValuePos+endTag.length()+1);
+//                                    System.out.println("");
+//                                    System.out.println("NAMESPACE START TAG : ]" + rootStartTag + "[");
+//                                    System.out.println("NAMESPACE END TAG   : ]" + rootEndTag + "[");
+                                    foundElements.add(rootStartTag + resultText + rootEndTag);
+                                } else {
+                                    foundElements.add(resultText);
+                                }
+                                currentPos = endValuePos + endTag.length();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return foundElements.toArray(new String[foundElements.size()]);
+    }
+}
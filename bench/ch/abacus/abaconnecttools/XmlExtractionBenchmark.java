@@ -0,0 +1,77 @@
+/*
+ * XmlExtractionBenchmark.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the String based extraction helpers : the {@link XmlElementExtractor} for the Data records of the
+ * AbaConnect import file and {@link SoapEnvelopeInfo#extractActionNameFromBodyName}.
+ * <p/>
+ * The Data records are extracted from the reformatted envelope without namespace prefixes, the
+ * {@link SoapMessageOutputWriter} takes them from the formatter instead, see
+ * {@link XmlSoapAcReformatter#setCollectAbaConnectImportData(boolean)}.  <code>findDataElements</code> only
+ * finds the offsets, <code>extractDataElementValues</code> also copies each value to a String.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class XmlExtractionBenchmark {
+
+    // Finds the Data records of the AbaConnect import file
+    private static final XmlElementExtractor DATA_EXTRACTOR = new XmlElementExtractor("Data");
+
+    @Param({BenchmarkData.SIZE_SMALL, BenchmarkData.SIZE_MEDIUM, BenchmarkData.SIZE_LARGE})
+    public String envelopeSize;
+
+    private String mSoapEnvelope;
+    private String mReformattedSoapEnvelope;
+    private SoapEnvelopeInfo mSoapEnvelopeInfo;
+
+    @Setup(Level.Trial)
+    public void createEnvelope() throws SAXException, UnsupportedEncodingException {
+        mSoapEnvelope = BenchmarkData.createSaveRequestEnvelope(BenchmarkData.getDataRecordCount(envelopeSize));
+        mSoapEnvelopeInfo = new SoapEnvelopeInfo(mSoapEnvelope);
+
+        XmlSoapAcReformatter xmlFormatter = new XmlSoapAcReformatter();
+        xmlFormatter.setAbaConnectImportMode("SAVE");
+        xmlFormatter.setRemoveNamespacePrefixes(true);
+        xmlFormatter.saxParse(new ByteArrayInputStream(mSoapEnvelope.getBytes("UTF-8")));
+        mReformattedSoapEnvelope = xmlFormatter.getFormattedXml();
+    }
+
+    @Benchmark
+    public XmlElementExtractor.Matches findDataElements() {
+        return DATA_EXTRACTOR.findElements(mReformattedSoapEnvelope);
+    }
+
+    @Benchmark
+    public String[] extractDataElementValues() {
+        XmlElementExtractor.Matches data = DATA_EXTRACTOR.findElements(mReformattedSoapEnvelope);
+        String[] values = new String[data.getCount()];
+        for ( int index = 0; index < values.length; index++ ) {
+            values[index] = data.getValue(index);
+        }
+        return values;
+    }
+
+    @Benchmark
+    public String extractActionNameFromBodyName() {
+        return mSoapEnvelopeInfo.extractActionNameFromBodyName(mSoapEnvelope);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * XmlFormatterBenchmark.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the SAX reformatting of small (1 KB), medium (100 KB) and large (10 MB) SaveRequest envelopes
+ * with the {@link XmlFormatter} and the {@link XmlSoapAcReformatter} as used for the AbaConnect import.
+ * <p/>
+ * The streaming benchmarks format into a writer which discards the output, so that the allocation rate of
+ * the GC profiler (<code>gc.alloc.rate.norm</code>) is the allocation of the parser and the formatter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class XmlFormatterBenchmark {
+
+    @Param({BenchmarkData.SIZE_SMALL, BenchmarkData.SIZE_MEDIUM, BenchmarkData.SIZE_LARGE})
+    public String envelopeSize;
+
+    private byte[] mEnvelopeBytes;
+    private XmlFormatter mXmlFormatter;
+    private XmlSoapAcReformatter mXmlSoapAcReformatter;
+
+    // Receives the formatted XML of the streaming benchmarks without keeping it
+    private static final Writer DISCARD_WRITER = new Writer() {
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void createEnvelope() throws UnsupportedEncodingException {
+        mEnvelopeBytes = BenchmarkData.createSaveRequestEnvelope(BenchmarkData.getDataRecordCount(envelopeSize)).getBytes("UTF-8");
+        mXmlFormatter = new XmlFormatter();
+        mXmlSoapAcReformatter = new XmlSoapAcReformatter();
+        mXmlSoapAcReformatter.setAbaConnectImportMode("SAVE");
+        mXmlSoapAcReformatter.setRemoveNamespacePrefixes(true);
+        mXmlSoapAcReformatter.setConvertExtendedFieldsToXmlFormat(true);
+    }
+
+    @Benchmark
+    public String xmlFormatter() throws SAXException {
+        mXmlFormatter.saxParse(new ByteArrayInputStream(mEnvelopeBytes));
+        return mXmlFormatter.getFormattedXml();
+    }
+
+    @Benchmark
+    public String xmlSoapAcReformatter() throws SAXException {
+        mXmlSoapAcReformatter.saxParse(new ByteArrayInputStream(mEnvelopeBytes));
+        return mXmlSoapAcReformatter.getFormattedXml();
+    }
+
+    @Benchmark
+    public void xmlFormatterStreaming() throws SAXException, IOException {
+        mXmlFormatter.format(new ByteArrayInputStream(mEnvelopeBytes), DISCARD_WRITER);
+    }
+
+    @Benchmark
+    public void xmlSoapAcReformatterStreaming() throws SAXException, IOException {
+        mXmlSoapAcReformatter.format(new ByteArrayInputStream(mEnvelopeBytes), DISCARD_WRITER);
+    }
+}
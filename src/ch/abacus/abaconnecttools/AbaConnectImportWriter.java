@@ -0,0 +1,379 @@
+/*
+ * AbaConnectImportWriter.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes the Data records of the Save/Insert/Update requests as <code>&lt;Transaction&gt;</code> blocks to the
+ * AbaConnect import files while the messages are exploded, the import data is not collected in memory.
+ * <p/>
+ * The import data is partitioned into one <code>AbaConnectContainer</code> per application, interface and
+ * version, each partition is written to its own file <code>ac_import_data_&lt;Application&gt;_&lt;Id&gt;_&lt;Version&gt;.xml</code>.
+ * With a maximum number of transactions per file a partition is continued in the next numbered file, so that the
+ * files can be imported in parallel.  If all import data fits into a single file, the file is named
+ * <code>ac_import_data.xml</code> like before the partitioning.
+ * <p/>
+ * The transactions are written to the file of their partition in chunks, {@link #flush()} completes the files
+ * with the closing tags of the container, which are overwritten by the next transactions.  With an archive the
+ * files are written to temporary files in the output directory and added to the archive by {@link #close()}.
+ */
+public class AbaConnectImportWriter {
+
+    static final String IMPORT_FILE_BASE_NAME = "ac_import_data";
+    // The pending text of a file is written when it is longer
+    private static final int WRITE_CHUNK_LENGTH = 64 * 1024;
+    private static final String TEMPORARY_FILE_SUFFIX = ".part";
+
+    private final String mOutputDirectory;
+    private final String mLineFeed;
+    private final String mIndent;
+    private final int mMaxTransactionsPerFile;
+    private final int mSyncPolicy;
+    private final AsyncFileWriter mArchiveWriter;
+
+    // The file currently written of each partition
+    private HashMap<String, ImportFile> mPartitionFiles = new HashMap<String, ImportFile>();
+    private HashMap<String, Integer> mPartitionFileCounts = new HashMap<String, Integer>();
+    private ArrayList<ImportFile> mFiles = new ArrayList<ImportFile>();
+    private ArrayList<String> mErrorMessages = new ArrayList<String>();
+    private long mTransactionCount = 0;
+
+    /**
+     * A single import file.  The header is written with the first chunk, the footer is only written by
+     * {@link AbaConnectImportWriter#flush()} and {@link AbaConnectImportWriter#close()} behind the transactions.
+     */
+    private class ImportFile {
+        String mPartitionFilename;
+        File mFile;
+        StringBuilder mPendingText = new StringBuilder();
+        long mContentLength = 0;
+        int mTransactionCount = 0;
+        boolean mChanged = false;
+        boolean mFailed = false;
+        RandomAccessFile mRandomAccessFile = null;
+    }
+
+    /**
+     * @param outputDirectory the directory of the import files
+     * @param lineFeed the line separator of the import files
+     * @param indent the indent of a level of the import files
+     * @param maxTransactionsPerFile the maximum number of transactions in a single file, 0 for no limit
+     * @param syncPolicy {@link AsyncFileWriter#SYNC_NONE} or the policy to force the files to disk when they are completed
+     * @param archiveWriter the archive the files are added to by {@link #close()}, null to write the files to the output directory
+     */
+    public AbaConnectImportWriter(String outputDirectory, String lineFeed, String indent, int maxTransactionsPerFile, int syncPolicy, AsyncFileWriter archiveWriter) {
+        mOutputDirectory = outputDirectory;
+        mLineFeed = lineFeed;
+        mIndent = indent;
+        mMaxTransactionsPerFile = Math.max(0, maxTransactionsPerFile);
+        mSyncPolicy = syncPolicy;
+        mArchiveWriter = archiveWriter;
+    }
+
+    /**
+     * @return the number of import files written so far
+     */
+    public int getFileCount() {
+        return mFiles.size();
+    }
+
+    /**
+     * @return the number of transactions written so far
+     */
+    public long getTransactionCount() {
+        return mTransactionCount;
+    }
+
+    /**
+     * Adds the Data records of a request to the file of its partition.  The records of a request are preceded
+     * by a comment with the interface, also in the next file if the maximum number of transactions is reached.
+     *
+     * @param application the application of the interface, e.g. FIBU
+     * @param interfaceId the id of the interface, e.g. Account
+     * @param interfaceVersion the version of the interface, e.g. 2015.00
+     * @param transactionData the trimmed content of the Data elements of the request
+     */
+    public void addTransactions(String application, String interfaceId, String interfaceVersion, List<String> transactionData) {
+        if ( transactionData.isEmpty() ) {
+            return;
+        }
+        String partitionKey = application + "\n" + interfaceId + "\n" + interfaceVersion;
+        ImportFile importFile = mPartitionFiles.get(partitionKey);
+        boolean commentWritten = false;
+        for ( String data : transactionData ) {
+            if ( importFile == null || (mMaxTransactionsPerFile > 0 && importFile.mTransactionCount >= mMaxTransactionsPerFile) ) {
+                if ( importFile != null ) {
+                    completeFile(importFile);
+                }
+                importFile = createFile(partitionKey, application, interfaceId, interfaceVersion);
+                commentWritten = false;
+            }
+            StringBuilder sbText = importFile.mPendingText;
+            if ( !commentWritten ) {
+                sbText.append(mIndent).append(mIndent).append("<!-- ");
+                sbText.append(" App : ").append(application);
+                sbText.append(" Version : ").append(interfaceVersion);
+                sbText.append(" InterfaceId : ").append(interfaceId);
+                sbText.append(" -->").append(mLineFeed);
+                commentWritten = true;
+            }
+            sbText.append(mIndent).append(mIndent).append("<Transaction>").append(mLineFeed);
+            sbText.append(mIndent).append(mIndent).append(mIndent).append(data).append(mLineFeed);
+            sbText.append(mIndent).append(mIndent).append("</Transaction>").append(mLineFeed);
+            importFile.mTransactionCount++;
+            importFile.mChanged = true;
+            mTransactionCount++;
+            if ( sbText.length() >= WRITE_CHUNK_LENGTH ) {
+                writePendingText(importFile);
+            }
+        }
+    }
+
+    private ImportFile createFile(String partitionKey, String application, String interfaceId, String interfaceVersion) {
+        ImportFile importFile = new ImportFile();
+        String partitionFilename = IMPORT_FILE_BASE_NAME + "_" + getFilenamePart(application) + "_" + getFilenamePart(interfaceId) + "_" + getFilenamePart(interfaceVersion);
+        if ( mMaxTransactionsPerFile > 0 ) {
+            Integer fileCount = mPartitionFileCounts.get(partitionKey);
+            fileCount = (fileCount != null ? fileCount + 1 : 1);
+            mPartitionFileCounts.put(partitionKey, fileCount);
+            partitionFilename += "_" + String.format("%03d", fileCount);
+        }
+        importFile.mPartitionFilename = partitionFilename + ".xml";
+        String filename = importFile.mPartitionFilename + (mArchiveWriter != null ? TEMPORARY_FILE_SUFFIX : "");
+        importFile.mFile = new File(mOutputDirectory, filename);
+        importFile.mPendingText.append("<?xml version='1.0' encoding='UTF-8'?>").append(mLineFeed);
+        importFile.mPendingText.append("<AbaConnectContainer>").append(mLineFeed);
+        importFile.mPendingText.append("  <TaskCount>1</TaskCount>").append(mLineFeed);
+        importFile.mPendingText.append("  <Task>").append(mLineFeed);
+        importFile.mPendingText.append("    <Parameter>").append(mLineFeed);
+        importFile.mPendingText.append("      <Application>").append(application).append("</Application>").append(mLineFeed);
+        importFile.mPendingText.append("      <Id>").append(interfaceId).append("</Id>").append(mLineFeed);
+        importFile.mPendingText.append("      <MapId>AbaDefault</MapId>").append(mLineFeed);
+        importFile.mPendingText.append("      <Version>").append(interfaceVersion).append("</Version>").append(mLineFeed);
+        importFile.mPendingText.append("    </Parameter>").append(mLineFeed);
+        mPartitionFiles.put(partitionKey, importFile);
+        mFiles.add(importFile);
+        return importFile;
+    }
+
+    private static String getFilenamePart(String value) {
+        if ( value == null || "".equals(value) ) {
+            return "UNKNOWN";
+        }
+        StringBuilder sbFilenamePart = new StringBuilder(value.length());
+        for ( int index = 0; index < value.length(); index++ ) {
+            char character = value.charAt(index);
+            boolean isValid = (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')
+                    || (character >= '0' && character <= '9') || character == '.' || character == '-';
+            sbFilenamePart.append(isValid ? character : '_');
+        }
+        return sbFilenamePart.toString();
+    }
+
+    /**
+     * Writes the pending transactions of a file behind the transactions already written, the footer of
+     * a flushed file is overwritten.
+     */
+    private void writePendingText(ImportFile importFile) {
+        if ( importFile.mFailed || importFile.mPendingText.length() == 0 ) {
+            return;
+        }
+        try {
+            if ( importFile.mRandomAccessFile == null ) {
+                importFile.mRandomAccessFile = new RandomAccessFile(importFile.mFile, "rw");
+                if ( importFile.mContentLength == 0 ) {
+                    // Replaces the file of an earlier explode
+                    importFile.mRandomAccessFile.setLength(0);
+                }
+            }
+            byte[] bytes = getUtf8Bytes(importFile.mPendingText.toString());
+            importFile.mPendingText.setLength(0);
+            writeFully(importFile, ByteBuffer.wrap(bytes), importFile.mContentLength);
+            importFile.mContentLength += bytes.length;
+        } catch (IOException e) {
+            setFailed(importFile, e);
+        }
+    }
+
+    /**
+     * Writes the pending transactions and the footer, the file is closed.
+     */
+    private void completeFile(ImportFile importFile) {
+        writePendingText(importFile);
+        if ( importFile.mFailed || importFile.mRandomAccessFile == null ) {
+            return;
+        }
+        try {
+            byte[] footer = getUtf8Bytes("  </Task>" + mLineFeed + "</AbaConnectContainer>" + mLineFeed);
+            writeFully(importFile, ByteBuffer.wrap(footer), importFile.mContentLength);
+            importFile.mRandomAccessFile.setLength(importFile.mContentLength + footer.length);
+            if ( mSyncPolicy != AsyncFileWriter.SYNC_NONE ) {
+                importFile.mRandomAccessFile.getChannel().force(true);
+            }
+            importFile.mChanged = false;
+        } catch (IOException e) {
+            setFailed(importFile, e);
+        }
+        closeFile(importFile);
+    }
+
+    private void writeFully(ImportFile importFile, ByteBuffer buffer, long position) throws IOException {
+        int byteCount = buffer.remaining();
+        while ( buffer.hasRemaining() ) {
+            position += importFile.mRandomAccessFile.getChannel().write(buffer, position);
+        }
+        ExplodeStatistics.getInstance().addImportBytesWritten(byteCount);
+    }
+
+    private void closeFile(ImportFile importFile) {
+        if ( importFile.mRandomAccessFile != null ) {
+            try {
+                importFile.mRandomAccessFile.close();
+            } catch (IOException e) {
+                setFailed(importFile, e);
+            }
+            importFile.mRandomAccessFile = null;
+        }
+    }
+
+    private void setFailed(ImportFile importFile, IOException e) {
+        if ( !importFile.mFailed ) {
+            importFile.mFailed = true;
+            mErrorMessages.add("The AbaConnect import file [" + importFile.mFile.getPath() + "] cannot be written. [" + e.getMessage() + "]");
+            e.printStackTrace();
+        }
+        importFile.mPendingText.setLength(0);
+    }
+
+    /**
+     * Completes the files with new transactions since the last flush, so that each file is a complete container.
+     * The files stay open for further transactions.  With an archive only the pending transactions are written.
+     *
+     * @return the error messages of the files which could not be written since the last call
+     */
+    public List<String> flush() {
+        for ( ImportFile importFile : mFiles ) {
+            if ( mArchiveWriter != null ) {
+                writePendingText(importFile);
+            } else if ( importFile.mChanged ) {
+                completeFile(importFile);
+            }
+        }
+        if ( mArchiveWriter == null ) {
+            renameFiles();
+        }
+        return getErrorMessages();
+    }
+
+    /**
+     * Completes all files and adds them to the archive.
+     *
+     * @return the error messages of the files which could not be written since the last call
+     */
+    public List<String> close() {
+        for ( ImportFile importFile : mFiles ) {
+            if ( importFile.mChanged || importFile.mRandomAccessFile != null ) {
+                completeFile(importFile);
+            }
+        }
+        if ( mArchiveWriter != null ) {
+            for ( ImportFile importFile : mFiles ) {
+                addToArchive(importFile);
+            }
+        } else {
+            renameFiles();
+        }
+        mPartitionFiles.clear();
+        return getErrorMessages();
+    }
+
+    private List<String> getErrorMessages() {
+        List<String> errorMessages = new ArrayList<String>(mErrorMessages);
+        mErrorMessages.clear();
+        return errorMessages;
+    }
+
+    /**
+     * @return the name of the file in the output directory or archive
+     */
+    private String getOutputFilename(ImportFile importFile) {
+        return (mFiles.size() == 1 ? SoapMessageOutputWriter.AC_IMPORT_DATA_FILENAME : importFile.mPartitionFilename);
+    }
+
+    /**
+     * Names a single file <code>ac_import_data.xml</code>, the files of several partitions by their partition.
+     * The files are closed.
+     */
+    private void renameFiles() {
+        for ( ImportFile importFile : mFiles ) {
+            File outputFile = new File(mOutputDirectory, getOutputFilename(importFile));
+            if ( !importFile.mFailed && !outputFile.equals(importFile.mFile) && importFile.mFile.exists() ) {
+                if ( outputFile.exists() && !outputFile.delete() ) {
+                    mErrorMessages.add("The AbaConnect import file [" + outputFile.getPath() + "] cannot be replaced.");
+                } else if ( importFile.mFile.renameTo(outputFile) ) {
+                    importFile.mFile = outputFile;
+                } else {
+                    mErrorMessages.add("The AbaConnect import file [" + importFile.mFile.getPath() + "] cannot be renamed to " + outputFile.getName() + ".");
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the completed temporary file into memory, it is added to the archive by the I/O thread of the archive.
+     */
+    private void addToArchive(ImportFile importFile) {
+        if ( importFile.mFailed ) {
+            return;
+        }
+        ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        try {
+            RandomAccessFile file = new RandomAccessFile(importFile.mFile, "r");
+            try {
+                long remaining = file.length();
+                while ( remaining > 0 ) {
+                    byte[] bytes = new byte[(int) Math.min(remaining, 1024 * 1024)];
+                    file.readFully(bytes);
+                    buffers.add(ByteBuffer.wrap(bytes));
+                    remaining -= bytes.length;
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            setFailed(importFile, e);
+            return;
+        }
+        if ( !importFile.mFile.delete() ) {
+            System.out.println("The temporary file [" + importFile.mFile.getPath() + "] cannot be deleted.");
+        }
+        String outputFilename = mOutputDirectory + File.separator + getOutputFilename(importFile);
+        mArchiveWriter.writeFile(outputFilename, buffers.toArray(new ByteBuffer[buffers.size()]));
+    }
+
+    private static byte[] getUtf8Bytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * ArchiveFileWriter.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the files as entries of a single zip or tar archive instead of single files, the entries are
+ * named like the files without their directory.
+ * <p/>
+ * The archive is written sequentially by a single I/O thread, the entries are in the order in which the
+ * files were passed to {@link #writeFile(String, ByteBuffer[])}.  The archive is complete when
+ * {@link #close()} returns, an entry cannot be replaced.  The compression level is used for the zip
+ * and the gzip compressed tar archive, a zip archive with level 0 stores the entries uncompressed.
+ * <p/>
+ * The buffers of the files must be heap buffers, e.g. created with {@link ByteBuffer#wrap(byte[])}.  A file
+ * passed in parts with {@link #openFile(String, long)} is written as its parts arrive, in a zip archive with
+ * level 0 it is deflated with level 0 instead of stored, because its checksum is needed in front of the data.
+ */
+public class ArchiveFileWriter extends AsyncFileWriter {
+
+    public static final int FORMAT_NONE = 0;
+    public static final int FORMAT_ZIP = 1;
+    public static final int FORMAT_TAR = 2;
+    public static final int FORMAT_TAR_GZ = 3;
+
+    static final String ARCHIVE_BASE_NAME = "messages";
+
+    private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+    private static final int TAR_BLOCK_SIZE = 512;
+    private static final int TAR_NAME_LENGTH = 100;
+    private static final String TAR_LONG_NAME_ENTRY = "././@LongLink";
+
+    /**
+     * Gzip stream with a selectable compression level.
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        LevelGZIPOutputStream(OutputStream outputStream, int compressionLevel) throws IOException {
+            super(outputStream, OUTPUT_BUFFER_SIZE);
+            def.setLevel(compressionLevel);
+        }
+    }
+
+    private final Object mArchiveLock = new Object();
+    private final String mArchiveFilename;
+    private final int mCompressionLevel;
+    private final long mModificationTime = System.currentTimeMillis();
+
+    // State guarded by the archive lock
+    private FileOutputStream mFileStream;
+    private OutputStream mArchiveStream;
+    private ZipOutputStream mZipStream = null;
+    private boolean mForced = true;
+    private byte[] mTarHeader = new byte[TAR_BLOCK_SIZE];
+    private CRC32 mCrc = new CRC32();
+
+    /**
+     * Creates the archive file, an existing file is replaced.
+     *
+     * @param archiveFilename the name of the archive file
+     * @param format {@link #FORMAT_ZIP}, {@link #FORMAT_TAR} or {@link #FORMAT_TAR_GZ}
+     * @param compressionLevel the compression level 0-9, -1 for the default level
+     * @param syncPolicy {@link #SYNC_NONE}, {@link #SYNC_FILE} (the archive is forced after each entry) or {@link #SYNC_AWAIT}
+     * @param maxQueuedBytes the number of bytes held in the queue before {@link #writeFile(String, ByteBuffer[])} waits
+     */
+    public ArchiveFileWriter(String archiveFilename, int format, int compressionLevel, int syncPolicy, long maxQueuedBytes) throws IOException {
+        super(1, syncPolicy, maxQueuedBytes);
+        mArchiveFilename = archiveFilename;
+        mCompressionLevel = Math.max(-1, Math.min(9, compressionLevel));
+        synchronized ( mArchiveLock ) {
+            mFileStream = new FileOutputStream(archiveFilename);
+            OutputStream outputStream = new BufferedOutputStream(mFileStream, OUTPUT_BUFFER_SIZE);
+            if ( format == FORMAT_ZIP ) {
+                mZipStream = new ZipOutputStream(outputStream);
+                mZipStream.setLevel(mCompressionLevel);
+                mArchiveStream = mZipStream;
+            } else if ( format == FORMAT_TAR_GZ ) {
+                mArchiveStream = new BufferedOutputStream(new LevelGZIPOutputStream(outputStream, mCompressionLevel), OUTPUT_BUFFER_SIZE);
+            } else {
+                mArchiveStream = outputStream;
+            }
+        }
+    }
+
+    public String getArchiveFilename() {
+        return mArchiveFilename;
+    }
+
+    /**
+     * @param outputDirectory the output directory
+     * @param filenamePrefix the filename prefix of the output files
+     * @param format {@link #FORMAT_ZIP}, {@link #FORMAT_TAR} or {@link #FORMAT_TAR_GZ}
+     * @return the name of the archive file in the output directory
+     */
+    public static String getArchiveFilename(String outputDirectory, String filenamePrefix, int format) {
+        String extension = (format == FORMAT_ZIP ? ".zip" : (format == FORMAT_TAR_GZ ? ".tar.gz" : ".tar"));
+        return outputDirectory + File.separator + filenamePrefix + ARCHIVE_BASE_NAME + extension;
+    }
+
+    /**
+     * @param formatName <code>zip</code>, <code>tar</code> or <code>tgz</code>
+     * @return the archive format or -1 if the name is unknown
+     */
+    public static int getArchiveFormat(String formatName) {
+        if ( "zip".equalsIgnoreCase(formatName) ) {
+            return FORMAT_ZIP;
+        } else if ( "tar".equalsIgnoreCase(formatName) ) {
+            return FORMAT_TAR;
+        } else if ( "tgz".equalsIgnoreCase(formatName) || "tar.gz".equalsIgnoreCase(formatName) ) {
+            return FORMAT_TAR_GZ;
+        }
+        return -1;
+    }
+
+    @Override
+    protected int writeFileContent(String filename, FileContent content, long byteCount) throws IOException {
+        String entryName = new File(filename).getName();
+        synchronized ( mArchiveLock ) {
+            if ( mArchiveStream == null ) {
+                throw new IOException("The archive [" + mArchiveFilename + "] is closed, " + entryName + " cannot be added.");
+            }
+            mForced = false;
+            long writtenBytes;
+            if ( mZipStream != null ) {
+                ZipEntry entry = new ZipEntry(entryName);
+                entry.setTime(mModificationTime);
+                ByteBuffer[] buffers = null;
+                if ( mCompressionLevel == 0 && !content.isStreamed() ) {
+                    // Stored entries need the size and checksum in front of the data, a streamed entry is
+                    // deflated with level 0 instead
+                    buffers = content.nextBuffers();
+                    mCrc.reset();
+                    for ( ByteBuffer buffer : buffers ) {
+                        mCrc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    }
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(byteCount);
+                    entry.setCompressedSize(byteCount);
+                    entry.setCrc(mCrc.getValue());
+                }
+                mZipStream.putNextEntry(entry);
+                writtenBytes = writeContent(buffers, content);
+                mZipStream.closeEntry();
+            } else {
+                if ( entryName.getBytes("UTF-8").length > TAR_NAME_LENGTH ) {
+                    byte[] nameBytes = (entryName + "\0").getBytes("UTF-8");
+                    writeTarHeader(TAR_LONG_NAME_ENTRY, nameBytes.length, (byte) 'L');
+                    mArchiveStream.write(nameBytes);
+                    writeTarPadding(nameBytes.length);
+                }
+                writeTarHeader(entryName, byteCount, (byte) '0');
+                writtenBytes = writeContent(null, content);
+                if ( writtenBytes < byteCount ) {
+                    // The size is in the header, an incomplete entry is filled up to keep the archive readable
+                    byte[] fill = new byte[TAR_BLOCK_SIZE];
+                    for ( long fillBytes = byteCount - writtenBytes; fillBytes > 0; fillBytes -= fill.length ) {
+                        mArchiveStream.write(fill, 0, (int) Math.min(fill.length, fillBytes));
+                    }
+                }
+                writeTarPadding(byteCount);
+            }
+            if ( writtenBytes != byteCount ) {
+                throw new IOException(entryName + " is incomplete, " + writtenBytes + " of " + byteCount + " bytes were written");
+            }
+            if ( mSyncPolicy == SYNC_FILE ) {
+                forceArchive();
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Writes the buffers already taken from the content and the following buffers of the content.
+     *
+     * @return the number of bytes written
+     */
+    private long writeContent(ByteBuffer[] buffers, FileContent content) throws IOException {
+        long writtenBytes = 0;
+        if ( buffers == null ) {
+            buffers = content.nextBuffers();
+        }
+        while ( buffers != null ) {
+            for ( ByteBuffer buffer : buffers ) {
+                writtenBytes += buffer.remaining();
+                mArchiveStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            }
+            buffers = content.nextBuffers();
+        }
+        return writtenBytes;
+    }
+
+    /**
+     * Writes a GNU tar header, the long names are written as a <code>././@LongLink</code> entry in front of
+     * the entry with the truncated name.
+     */
+    private void writeTarHeader(String entryName, long size, byte typeFlag) throws IOException {
+        byte[] header = mTarHeader;
+        Arrays.fill(header, (byte) 0);
+        byte[] nameBytes = entryName.getBytes("UTF-8");
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, TAR_NAME_LENGTH));
+        putTarOctal(header, 100, 8, 0644);
+        putTarOctal(header, 108, 8, 0);
+        putTarOctal(header, 116, 8, 0);
+        putTarOctal(header, 124, 12, size);
+        putTarOctal(header, 136, 12, mModificationTime / 1000);
+        header[156] = typeFlag;
+        byte[] magic = "ustar  ".getBytes("US-ASCII");
+        System.arraycopy(magic, 0, header, 257, magic.length);
+        // The checksum is calculated with spaces in the checksum field
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for ( byte value : header ) {
+            checksum += (value & 0xFF);
+        }
+        putTarOctal(header, 148, 7, checksum);
+        mArchiveStream.write(header);
+    }
+
+    /**
+     * Writes the value as octal digits with leading zeros, followed by a NUL byte.
+     */
+    private static void putTarOctal(byte[] header, int offset, int length, long value) {
+        int position = offset + length - 1;
+        header[position--] = 0;
+        while ( position >= offset ) {
+            header[position--] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+    }
+
+    private void writeTarPadding(long byteCount) throws IOException {
+        int remainder = (int) (byteCount % TAR_BLOCK_SIZE);
+        if ( remainder > 0 ) {
+            mArchiveStream.write(new byte[TAR_BLOCK_SIZE - remainder]);
+        }
+    }
+
+    private void forceArchive() throws IOException {
+        if ( !mForced && mArchiveStream != null ) {
+            mArchiveStream.flush();
+            mFileStream.getChannel().force(false);
+            mForced = true;
+        }
+    }
+
+    @Override
+    protected void forceFile(String filename) throws IOException {
+        synchronized ( mArchiveLock ) {
+            forceArchive();
+        }
+    }
+
+    /**
+     * Waits until all queued files are written and completes the archive.
+     *
+     * @return the error messages of the files which could not be written since the last {@link #awaitWritten()}
+     */
+    @Override
+    public List<String> close() {
+        List<String> errorMessages = super.close();
+        synchronized ( mArchiveLock ) {
+            if ( mArchiveStream == null ) {
+                return errorMessages;
+            }
+            try {
+                if ( mZipStream != null ) {
+                    mZipStream.finish();
+                } else {
+                    // The end of a tar archive are two empty blocks
+                    mArchiveStream.write(new byte[TAR_BLOCK_SIZE * 2]);
+                }
+                mArchiveStream.flush();
+                if ( mSyncPolicy != SYNC_NONE ) {
+                    mFileStream.getChannel().force(true);
+                }
+                mArchiveStream.close();
+            } catch (IOException e) {
+                errorMessages.add("The archive [" + mArchiveFilename + "] cannot be completed. [" + e.getMessage() + "]");
+                e.printStackTrace();
+                try {
+                    mFileStream.close();
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            mArchiveStream = null;
+            mZipStream = null;
+        }
+        return errorMessages;
+    }
+}
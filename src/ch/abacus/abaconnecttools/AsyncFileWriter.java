@@ -0,0 +1,533 @@
+/*
+ * AsyncFileWriter.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Writes complete files on a small pool of I/O threads, so that the threads which produce the files do not
+ * wait for the disk.
+ * <p/>
+ * The content of a file is passed as encoded buffers with {@link #writeFile(String, ByteBuffer[])}, the I/O
+ * thread writes all buffers of the file with gathering writes of a {@link FileChannel}, usually a single
+ * system call per file.  {@link #awaitWritten()} waits until all files passed so far are written, e.g. before
+ * the written files are reported.  The durability of the files is selected with the sync policy :
+ * <ul>
+ * <li>{@link #SYNC_NONE} : the files are written to the cache of the operating system (the default)</li>
+ * <li>{@link #SYNC_FILE} : each file is forced to the disk before it is closed</li>
+ * <li>{@link #SYNC_AWAIT} : the files written since the last call are forced to the disk by {@link #awaitWritten()}</li>
+ * </ul>
+ * The buffers of the queued files are held in memory until they are written.  If they exceed the queue limit,
+ * {@link #writeFile(String, ByteBuffer[])} waits until the I/O threads have caught up.  A large file can be
+ * passed in parts through the stream of {@link #openFile(String, long)}, the queue limit then also applies to
+ * the parts of the file.
+ * <p/>
+ * Subclasses may write the files to another destination, see {@link ArchiveFileWriter}.
+ */
+public class AsyncFileWriter {
+
+    public static final int SYNC_NONE = 0;
+    public static final int SYNC_FILE = 1;
+    public static final int SYNC_AWAIT = 2;
+
+    static final long DEFAULT_MAX_QUEUED_BYTES = 64L * 1024 * 1024;
+    static final int STREAMED_PART_SIZE = 1024 * 1024;
+
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    /**
+     * Output stream into which the content of a file is encoded, the content is passed to the writer
+     * without copying it, see {@link #toByteBuffer()}.
+     */
+    public static class FileBuffer extends ByteArrayOutputStream {
+
+        public FileBuffer(int initialSize) {
+            super(Math.max(32, initialSize));
+        }
+
+        /**
+         * @return the content of the buffer, the buffer must not be changed until the file is written
+         */
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * The content of a file passed to {@link #writeFileContent(String, FileContent, long)}.
+     */
+    protected interface FileContent {
+
+        /**
+         * @return true if the file was passed in parts with {@link #openFile(String, long)}
+         */
+        boolean isStreamed();
+
+        /**
+         * Takes the next buffers of the file, waits for the next parts of a streamed file.
+         *
+         * @return all buffers of a file passed with {@link #writeFile(String, ByteBuffer[])}, the parts passed
+         *         since the last call of a streamed file or null after the last buffers
+         */
+        ByteBuffer[] nextBuffers() throws IOException;
+    }
+
+    /**
+     * A file waiting for an I/O thread.  The parts of a streamed file are added while it is written.
+     */
+    private class WriteRequest implements FileContent {
+        String mFilename;
+        ByteBuffer[] mBuffers;
+        long mByteCount;
+
+        // State of a streamed file guarded by the writer
+        LinkedList<ByteBuffer> mParts = null;
+        long mTakenBytes = 0;
+        boolean mComplete = false;
+        boolean mFinished = false;
+
+        public boolean isStreamed() {
+            return (mParts != null);
+        }
+
+        public ByteBuffer[] nextBuffers() throws IOException {
+            if ( mParts != null ) {
+                return takeParts(this);
+            }
+            ByteBuffer[] buffers = mBuffers;
+            mBuffers = null;
+            return buffers;
+        }
+    }
+
+    /**
+     * Stream of a file passed in parts, each full part is queued for the I/O threads.
+     */
+    private class PartOutputStream extends OutputStream {
+        private final WriteRequest mRequest;
+        private byte[] mPart;
+        private int mPartLength = 0;
+        private long mWrittenBytes = 0;
+        private boolean mStreamClosed = false;
+
+        PartOutputStream(WriteRequest request) {
+            mRequest = request;
+            mPart = new byte[(int) Math.min(STREAMED_PART_SIZE, Math.max(1, request.mByteCount))];
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            write(new byte[] { (byte) value }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if ( mStreamClosed ) {
+                throw new IOException("The stream of " + mRequest.mFilename + " is closed");
+            }
+            if ( mWrittenBytes + length > mRequest.mByteCount ) {
+                throw new IOException("More than the " + mRequest.mByteCount + " bytes of " + mRequest.mFilename + " were written");
+            }
+            mWrittenBytes += length;
+            while ( length > 0 ) {
+                int partLength = Math.min(length, mPart.length - mPartLength);
+                System.arraycopy(bytes, offset, mPart, mPartLength, partLength);
+                mPartLength += partLength;
+                offset += partLength;
+                length -= partLength;
+                if ( mPartLength == mPart.length ) {
+                    // The queued part is written from its array, the next part needs a new one
+                    queuePart(mRequest, ByteBuffer.wrap(mPart));
+                    mPart = new byte[mPart.length];
+                    mPartLength = 0;
+                }
+            }
+        }
+
+        /**
+         * Queues the last part, a file with fewer bytes than its size is reported as not written.
+         */
+        @Override
+        public void close() {
+            if ( mStreamClosed ) {
+                return;
+            }
+            mStreamClosed = true;
+            try {
+                if ( mPartLength > 0 ) {
+                    queuePart(mRequest, ByteBuffer.wrap(mPart, 0, mPartLength));
+                }
+            } finally {
+                mPart = null;
+                synchronized ( AsyncFileWriter.this ) {
+                    mRequest.mComplete = true;
+                    AsyncFileWriter.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    protected final int mSyncPolicy;
+    private final long mMaxQueuedBytes;
+
+    // State guarded by the writer
+    private final LinkedList<WriteRequest> mQueue = new LinkedList<WriteRequest>();
+    private long mQueuedBytes = 0;
+    private int mPendingFileCount = 0;
+    private boolean mClosed = false;
+    private final ArrayList<String> mWrittenFilenames = new ArrayList<String>();
+    private final ArrayList<String> mErrorMessages = new ArrayList<String>();
+    private int mFailedFileCount = 0;
+    private int mTotalFailedFileCount = 0;
+    private long mWrittenFileCount = 0;
+    private long mWriteCallCount = 0;
+
+    private Thread[] mThreads;
+
+    /**
+     * @param threadCount the number of I/O threads
+     * @param syncPolicy {@link #SYNC_NONE}, {@link #SYNC_FILE} or {@link #SYNC_AWAIT}
+     * @param maxQueuedBytes the number of bytes held in the queue before {@link #writeFile(String, ByteBuffer[])} waits
+     */
+    public AsyncFileWriter(int threadCount, int syncPolicy, long maxQueuedBytes) {
+        mSyncPolicy = syncPolicy;
+        mMaxQueuedBytes = Math.max(1, maxQueuedBytes);
+        mThreads = new Thread[Math.max(1, threadCount)];
+        for ( int index = 0; index < mThreads.length; index++ ) {
+            mThreads[index] = new Thread(new Runnable() {
+                public void run() {
+                    writeQueuedFiles();
+                }
+            }, "File writer " + (index + 1));
+            mThreads[index].setDaemon(true);
+            mThreads[index].start();
+        }
+    }
+
+    /**
+     * Queues a file to be written, an existing file is replaced.  With more than one I/O thread the files are
+     * written in any order.
+     *
+     * @param filename the name of the file
+     * @param buffers the content of the file, must not be changed until the file is written
+     */
+    public void writeFile(String filename, ByteBuffer[] buffers) {
+        WriteRequest request = new WriteRequest();
+        request.mFilename = filename;
+        request.mBuffers = buffers;
+        for ( ByteBuffer buffer : buffers ) {
+            request.mByteCount += buffer.remaining();
+        }
+        synchronized ( this ) {
+            if ( mClosed ) {
+                throw new IllegalStateException("The file writer is closed");
+            }
+            // A single file larger than the limit is queued when the queue is empty
+            waitForQueueSpace(filename, request.mByteCount);
+            mQueue.add(request);
+            mQueuedBytes += request.mByteCount;
+            mPendingFileCount++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Queues a file whose content is passed in parts through the returned stream, so that a large file is not
+     * held in memory as a whole.  The parts are queued like single files, the stream waits if they exceed the
+     * queue limit.  The stream must be closed, the I/O thread of the file waits for its parts until then.
+     * Only one file should be streamed at a time.
+     *
+     * @param filename the name of the file
+     * @param byteCount the size of the file, exactly this number of bytes must be written to the stream
+     * @return the stream of the content
+     */
+    public OutputStream openFile(String filename, long byteCount) {
+        WriteRequest request = new WriteRequest();
+        request.mFilename = filename;
+        request.mByteCount = byteCount;
+        request.mParts = new LinkedList<ByteBuffer>();
+        synchronized ( this ) {
+            if ( mClosed ) {
+                throw new IllegalStateException("The file writer is closed");
+            }
+            mQueue.add(request);
+            mPendingFileCount++;
+            notifyAll();
+        }
+        return new PartOutputStream(request);
+    }
+
+    private synchronized void queuePart(WriteRequest request, ByteBuffer part) {
+        waitForQueueSpace(request.mFilename, part.remaining());
+        // The parts of a file which could not be written are dropped
+        if ( !request.mFinished ) {
+            request.mParts.add(part);
+            mQueuedBytes += part.remaining();
+            notifyAll();
+        }
+    }
+
+    private void waitForQueueSpace(String filename, long byteCount) {
+        try {
+            while ( mQueuedBytes > 0 && mQueuedBytes + byteCount > mMaxQueuedBytes ) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Writing of " + filename + " was interrupted", e);
+        }
+    }
+
+    /**
+     * Takes the queued parts of a streamed file, called by the I/O thread of the file.  The parts taken
+     * before are written and no longer counted in the queue.
+     */
+    private synchronized ByteBuffer[] takeParts(WriteRequest request) throws IOException {
+        mQueuedBytes -= request.mTakenBytes;
+        request.mTakenBytes = 0;
+        notifyAll();
+        try {
+            while ( request.mParts.isEmpty() && !request.mComplete ) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Writing of " + request.mFilename + " was interrupted");
+        }
+        if ( request.mParts.isEmpty() ) {
+            return null;
+        }
+        ByteBuffer[] parts = request.mParts.toArray(new ByteBuffer[request.mParts.size()]);
+        request.mParts.clear();
+        for ( ByteBuffer part : parts ) {
+            request.mTakenBytes += part.remaining();
+        }
+        return parts;
+    }
+
+    /**
+     * Waits until all files queued so far are written and forces them to the disk with {@link #SYNC_AWAIT}.
+     *
+     * @return the error messages of the files which could not be written since the last call
+     */
+    public List<String> awaitWritten() {
+        ArrayList<String> writtenFilenames;
+        ArrayList<String> errorMessages;
+        synchronized ( this ) {
+            try {
+                while ( mPendingFileCount > 0 ) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Waiting for the written files was interrupted", e);
+            }
+            writtenFilenames = new ArrayList<String>(mWrittenFilenames);
+            mWrittenFilenames.clear();
+            errorMessages = new ArrayList<String>(mErrorMessages);
+            mErrorMessages.clear();
+            if ( mFailedFileCount > MAX_REPORTED_ERRORS ) {
+                errorMessages.add("... " + (mFailedFileCount - MAX_REPORTED_ERRORS) + " more files could not be written.");
+            }
+            mFailedFileCount = 0;
+        }
+        for ( String filename : writtenFilenames ) {
+            try {
+                forceFile(filename);
+            } catch (IOException e) {
+                errorMessages.add(e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return errorMessages;
+    }
+
+    /**
+     * Waits until all queued files are written and stops the I/O threads.
+     *
+     * @return the error messages of the files which could not be written since the last {@link #awaitWritten()}
+     */
+    public List<String> close() {
+        try {
+            return awaitWritten();
+        } finally {
+            synchronized ( this ) {
+                mClosed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of files written so far
+     */
+    public synchronized long getWrittenFileCount() {
+        return mWrittenFileCount;
+    }
+
+    /**
+     * @return the number of files which could not be written so far
+     */
+    public synchronized int getFailedFileCount() {
+        return mTotalFailedFileCount;
+    }
+
+    /**
+     * @return the number of write calls of the written files, at least one per file
+     */
+    public synchronized long getWriteCallCount() {
+        return mWriteCallCount;
+    }
+
+    private void writeQueuedFiles() {
+        while ( true ) {
+            WriteRequest request;
+            synchronized ( this ) {
+                try {
+                    while ( mQueue.isEmpty() && !mClosed ) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if ( mQueue.isEmpty() ) {
+                    return;
+                }
+                request = mQueue.removeFirst();
+            }
+            String errorMessage = null;
+            int writeCallCount = 0;
+            long startTime = System.nanoTime();
+            try {
+                writeCallCount = writeFileContent(request.mFilename, request, request.mByteCount);
+            } catch (IOException e) {
+                errorMessage = e.getMessage();
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                errorMessage = request.mFilename + " : " + e;
+                e.printStackTrace();
+            }
+            if ( errorMessage == null ) {
+                ExplodeStatistics.getInstance().addWrittenFile(request.mByteCount, System.nanoTime() - startTime);
+            } else {
+                ExplodeStatistics.getInstance().addFailedFile(System.nanoTime() - startTime);
+            }
+            synchronized ( this ) {
+                if ( request.mParts != null ) {
+                    // The parts which were not taken because the file could not be written are dropped
+                    for ( ByteBuffer part : request.mParts ) {
+                        mQueuedBytes -= part.remaining();
+                    }
+                    request.mParts.clear();
+                    mQueuedBytes -= request.mTakenBytes;
+                    request.mTakenBytes = 0;
+                    request.mFinished = true;
+                } else {
+                    mQueuedBytes -= request.mByteCount;
+                }
+                mPendingFileCount--;
+                mWriteCallCount += writeCallCount;
+                if ( errorMessage == null ) {
+                    mWrittenFileCount++;
+                    if ( mSyncPolicy == SYNC_AWAIT ) {
+                        mWrittenFilenames.add(request.mFilename);
+                    }
+                } else {
+                    mFailedFileCount++;
+                    mTotalFailedFileCount++;
+                    if ( mErrorMessages.size() < MAX_REPORTED_ERRORS ) {
+                        mErrorMessages.add(errorMessage);
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes the content of a file, called on an I/O thread.
+     *
+     * @param filename the name of the file
+     * @param content the buffers of the file
+     * @param byteCount the size of the file
+     * @return the number of write calls
+     */
+    protected int writeFileContent(String filename, FileContent content, long byteCount) throws IOException {
+        int writeCallCount = 0;
+        long writtenBytes = 0;
+        FileOutputStream outputStream = new FileOutputStream(filename);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            ByteBuffer[] buffers;
+            while ( (buffers = content.nextBuffers()) != null ) {
+                long remaining = 0;
+                for ( ByteBuffer buffer : buffers ) {
+                    remaining += buffer.remaining();
+                }
+                while ( remaining > 0 ) {
+                    long written = channel.write(buffers);
+                    remaining -= written;
+                    writtenBytes += written;
+                    writeCallCount++;
+                }
+            }
+            if ( writtenBytes != byteCount ) {
+                throw new IOException(filename + " is incomplete, " + writtenBytes + " of " + byteCount + " bytes were written");
+            }
+            if ( mSyncPolicy == SYNC_FILE ) {
+                channel.force(true);
+            }
+        } finally {
+            outputStream.close();
+        }
+        return writeCallCount;
+    }
+
+    /**
+     * Forces a written file to the disk, called by {@link #awaitWritten()} with {@link #SYNC_AWAIT}.
+     *
+     * @param filename the name of the file
+     */
+    protected void forceFile(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        try {
+            file.getChannel().force(true);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @param syncPolicyName <code>none</code>, <code>file</code> or <code>await</code>
+     * @return the sync policy or -1 if the name is unknown
+     */
+    public static int getSyncPolicy(String syncPolicyName) {
+        if ( "none".equalsIgnoreCase(syncPolicyName) ) {
+            return SYNC_NONE;
+        } else if ( "file".equalsIgnoreCase(syncPolicyName) ) {
+            return SYNC_FILE;
+        } else if ( "await".equalsIgnoreCase(syncPolicyName) ) {
+            return SYNC_AWAIT;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * BZip2InputStream.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses a bzip2 stream, the JDK only contains the gzip and zip decompression.
+ * <p/>
+ * Each block is decoded (Huffman, move-to-front and run-length of the zero runs) into the block array, the
+ * Burrows-Wheeler transform is reversed and the bytes are returned with the initial run-length decoding.
+ * The CRC of each block and of the stream are checked.  Concatenated streams (e.g. written by a parallel
+ * bzip2) are read as one stream.  Randomised blocks, which were only written by bzip2 versions before 0.9.5,
+ * are not supported.
+ */
+public class BZip2InputStream extends InputStream {
+
+    private static final int BLOCK_MAGIC_HIGH = 0x314159;
+    private static final int BLOCK_MAGIC_LOW = 0x265359;
+    private static final int END_MAGIC_HIGH = 0x177245;
+    private static final int END_MAGIC_LOW = 0x385090;
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int MAX_GROUPS = 6;
+    private static final int GROUP_SIZE = 50;
+    private static final int MAX_ALPHA_SIZE = 258;
+    private static final int MAX_CODE_LENGTH = 20;
+    private static final int MAX_SELECTORS = 18002;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for ( int index = 0; index < 256; index++ ) {
+            int crc = index << 24;
+            for ( int bit = 0; bit < 8; bit++ ) {
+                crc = ((crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1);
+            }
+            CRC_TABLE[index] = crc;
+        }
+    }
+
+    private InputStream mIn;
+    private int mBitBuffer = 0;
+    private int mBitCount = 0;
+    private boolean mEndOfStream = false;
+
+    private int mBlockSize = 0;
+    private int[] mTt = null;
+    private int mStoredStreamCrc;
+    private int mCombinedCrc;
+
+    // Decoding tables of the current block
+    private byte[] mSeqToUnseq = new byte[256];
+    private byte[] mSelectors = new byte[MAX_SELECTORS];
+    private byte[] mSelectorsMtf = new byte[MAX_SELECTORS];
+    private int[][] mLimit = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private int[][] mBase = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private int[][] mPerm = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+    private int[] mMinLength = new int[MAX_GROUPS];
+    private byte[] mCodeLengths = new byte[MAX_ALPHA_SIZE];
+    private int[] mUnzftab = new int[256];
+    private byte[] mMtf = new byte[256];
+
+    // Output state of the current block
+    private int mBlockLength = 0;
+    private int mBlockIndex = 0;
+    private int mTPos = 0;
+    private int mStoredBlockCrc;
+    private int mBlockCrc;
+    private int mLastByte = -1;
+    private int mRunLength = 0;
+    private int mRepeatRemaining = 0;
+
+    /**
+     * @param inputStream the bzip2 compressed stream, starting with the <code>BZh</code> signature
+     */
+    public BZip2InputStream(InputStream inputStream) throws IOException {
+        mIn = (inputStream instanceof BufferedInputStream ? inputStream : new BufferedInputStream(inputStream, 64 * 1024));
+        if ( !readStreamHeader(true) ) {
+            throw new IOException("The stream is not bzip2 compressed.");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        while ( true ) {
+            if ( mRepeatRemaining > 0 ) {
+                mRepeatRemaining--;
+                mBlockCrc = (mBlockCrc << 8) ^ CRC_TABLE[((mBlockCrc >>> 24) ^ mLastByte) & 0xFF];
+                return mLastByte;
+            }
+            if ( mBlockIndex >= mBlockLength ) {
+                if ( mEndOfStream || !nextBlock() ) {
+                    return -1;
+                }
+                continue;
+            }
+            mTPos = mTt[mTPos];
+            int value = mTPos & 0xFF;
+            mTPos >>>= 8;
+            mBlockIndex++;
+            if ( mRunLength == 4 ) {
+                // Four equal bytes are followed by the number of further repetitions
+                mRepeatRemaining = value;
+                mRunLength = 0;
+                continue;
+            }
+            if ( value == mLastByte ) {
+                mRunLength++;
+            } else {
+                mRunLength = 1;
+                mLastByte = value;
+            }
+            mBlockCrc = (mBlockCrc << 8) ^ CRC_TABLE[((mBlockCrc >>> 24) ^ value) & 0xFF];
+            return value;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if ( length == 0 ) {
+            return 0;
+        }
+        int count = 0;
+        while ( count < length ) {
+            int value = read();
+            if ( value < 0 ) {
+                break;
+            }
+            buffer[offset + count++] = (byte) value;
+        }
+        return (count == 0 ? -1 : count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mEndOfStream = true;
+        mTt = null;
+        mIn.close();
+    }
+
+    /**
+     * @param first true for the first stream, otherwise a further concatenated stream may follow
+     * @return false if there is no (further) stream
+     */
+    private boolean readStreamHeader(boolean first) throws IOException {
+        int signature = mIn.read();
+        if ( signature < 0 && !first ) {
+            return false;
+        }
+        if ( signature != 'B' || mIn.read() != 'Z' || mIn.read() != 'h' ) {
+            if ( first ) {
+                return false;
+            }
+            throw new IOException("Invalid data behind the end of the bzip2 stream.");
+        }
+        int level = mIn.read();
+        if ( level < '1' || level > '9' ) {
+            throw new IOException("Invalid bzip2 block size : " + level);
+        }
+        mBlockSize = (level - '0') * 100000;
+        if ( mTt == null || mTt.length < mBlockSize ) {
+            mTt = new int[mBlockSize];
+        }
+        mBitBuffer = 0;
+        mBitCount = 0;
+        mCombinedCrc = 0;
+        return true;
+    }
+
+    /**
+     * Checks the CRC of the finished block and decodes the next block.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean nextBlock() throws IOException {
+        if ( mBlockLength > 0 ) {
+            int blockCrc = ~mBlockCrc;
+            if ( blockCrc != mStoredBlockCrc ) {
+                throw new IOException("bzip2 block CRC error.");
+            }
+            mCombinedCrc = ((mCombinedCrc << 1) | (mCombinedCrc >>> 31)) ^ blockCrc;
+            mBlockLength = 0;
+        }
+        while ( true ) {
+            int magicHigh = readBits(24);
+            int magicLow = readBits(24);
+            if ( magicHigh == BLOCK_MAGIC_HIGH && magicLow == BLOCK_MAGIC_LOW ) {
+                decodeBlock();
+                return true;
+            }
+            if ( magicHigh != END_MAGIC_HIGH || magicLow != END_MAGIC_LOW ) {
+                throw new IOException("Invalid bzip2 block header.");
+            }
+            mStoredStreamCrc = readInt();
+            if ( mStoredStreamCrc != mCombinedCrc ) {
+                throw new IOException("bzip2 stream CRC error.");
+            }
+            // The stream ends at a byte boundary, a concatenated stream may follow
+            if ( !readStreamHeader(false) ) {
+                mEndOfStream = true;
+                return false;
+            }
+        }
+    }
+
+    private void decodeBlock() throws IOException {
+        mStoredBlockCrc = readInt();
+        if ( readBits(1) != 0 ) {
+            throw new IOException("Randomised bzip2 blocks are not supported.");
+        }
+        int origPtr = readBits(24);
+
+        // The bytes used in the block
+        int inUseCount = 0;
+        int inUse16 = readBits(16);
+        for ( int group = 0; group < 16; group++ ) {
+            if ( (inUse16 & (0x8000 >>> group)) != 0 ) {
+                int inUse = readBits(16);
+                for ( int index = 0; index < 16; index++ ) {
+                    if ( (inUse & (0x8000 >>> index)) != 0 ) {
+                        mSeqToUnseq[inUseCount++] = (byte) ((group * 16) + index);
+                    }
+                }
+            }
+        }
+        if ( inUseCount == 0 ) {
+            throw new IOException("Invalid bzip2 block, no bytes used.");
+        }
+        int alphaSize = inUseCount + 2;
+
+        // The Huffman table of each group of 50 symbols
+        int groupCount = readBits(3);
+        int selectorCount = readBits(15);
+        if ( groupCount < 2 || groupCount > MAX_GROUPS || selectorCount < 1 ) {
+            throw new IOException("Invalid bzip2 Huffman groups.");
+        }
+        for ( int index = 0; index < selectorCount; index++ ) {
+            int value = 0;
+            while ( readBits(1) != 0 ) {
+                value++;
+                if ( value >= groupCount ) {
+                    throw new IOException("Invalid bzip2 selector.");
+                }
+            }
+            if ( index < MAX_SELECTORS ) {
+                mSelectorsMtf[index] = (byte) value;
+            }
+        }
+        selectorCount = Math.min(selectorCount, MAX_SELECTORS);
+        byte[] positions = new byte[MAX_GROUPS];
+        for ( int index = 0; index < groupCount; index++ ) {
+            positions[index] = (byte) index;
+        }
+        for ( int index = 0; index < selectorCount; index++ ) {
+            int value = mSelectorsMtf[index];
+            byte selector = positions[value];
+            System.arraycopy(positions, 0, positions, 1, value);
+            positions[0] = selector;
+            mSelectors[index] = selector;
+        }
+        for ( int table = 0; table < groupCount; table++ ) {
+            int length = readBits(5);
+            for ( int symbol = 0; symbol < alphaSize; symbol++ ) {
+                while ( true ) {
+                    if ( length < 1 || length > MAX_CODE_LENGTH ) {
+                        throw new IOException("Invalid bzip2 code length.");
+                    }
+                    if ( readBits(1) == 0 ) {
+                        break;
+                    }
+                    length += (readBits(1) == 0 ? 1 : -1);
+                }
+                mCodeLengths[symbol] = (byte) length;
+            }
+            createDecodeTable(table, alphaSize);
+        }
+
+        // The move-to-front values with the zero runs
+        int endOfBlock = inUseCount + 1;
+        int[] tt = mTt;
+        for ( int index = 0; index < 256; index++ ) {
+            mUnzftab[index] = 0;
+            mMtf[index] = (byte) index;
+        }
+        int blockLength = 0;
+        int groupIndex = -1;
+        int groupPosition = 0;
+        int table = 0;
+        int symbol;
+        while ( true ) {
+            if ( groupPosition == 0 ) {
+                if ( ++groupIndex >= selectorCount ) {
+                    throw new IOException("Invalid bzip2 selector count.");
+                }
+                groupPosition = GROUP_SIZE;
+                table = mSelectors[groupIndex];
+            }
+            groupPosition--;
+            symbol = decodeSymbol(table);
+            if ( symbol == RUNA || symbol == RUNB ) {
+                int runLength = 0;
+                int weight = 1;
+                do {
+                    if ( weight >= 2 * 1024 * 1024 ) {
+                        throw new IOException("Invalid bzip2 run length.");
+                    }
+                    runLength += (symbol == RUNA ? weight : weight * 2);
+                    weight <<= 1;
+                    if ( groupPosition == 0 ) {
+                        if ( ++groupIndex >= selectorCount ) {
+                            throw new IOException("Invalid bzip2 selector count.");
+                        }
+                        groupPosition = GROUP_SIZE;
+                        table = mSelectors[groupIndex];
+                    }
+                    groupPosition--;
+                    symbol = decodeSymbol(table);
+                } while ( symbol == RUNA || symbol == RUNB );
+                int value = mSeqToUnseq[mMtf[0] & 0xFF] & 0xFF;
+                if ( blockLength + runLength > mBlockSize ) {
+                    throw new IOException("Invalid bzip2 block length.");
+                }
+                mUnzftab[value] += runLength;
+                while ( runLength-- > 0 ) {
+                    tt[blockLength++] = value;
+                }
+            }
+            if ( symbol == endOfBlock ) {
+                break;
+            }
+            if ( blockLength >= mBlockSize ) {
+                throw new IOException("Invalid bzip2 block length.");
+            }
+            int mtfIndex = symbol - 1;
+            byte mtfValue = mMtf[mtfIndex];
+            System.arraycopy(mMtf, 0, mMtf, 1, mtfIndex);
+            mMtf[0] = mtfValue;
+            int value = mSeqToUnseq[mtfValue & 0xFF] & 0xFF;
+            mUnzftab[value]++;
+            tt[blockLength++] = value;
+        }
+        if ( origPtr < 0 || origPtr >= blockLength ) {
+            throw new IOException("Invalid bzip2 block origin.");
+        }
+
+        // Reverses the Burrows-Wheeler transform, each entry links to the next byte
+        int[] cftab = new int[257];
+        for ( int index = 0; index < 256; index++ ) {
+            cftab[index + 1] = cftab[index] + mUnzftab[index];
+        }
+        for ( int index = 0; index < blockLength; index++ ) {
+            int value = tt[index] & 0xFF;
+            tt[cftab[value]++] |= (index << 8);
+        }
+        mTPos = tt[origPtr] >>> 8;
+        mBlockLength = blockLength;
+        mBlockIndex = 0;
+        mBlockCrc = 0xFFFFFFFF;
+        mLastByte = -1;
+        mRunLength = 0;
+        mRepeatRemaining = 0;
+    }
+
+    private void createDecodeTable(int table, int alphaSize) {
+        int minLength = MAX_CODE_LENGTH;
+        int maxLength = 0;
+        for ( int symbol = 0; symbol < alphaSize; symbol++ ) {
+            minLength = Math.min(minLength, mCodeLengths[symbol]);
+            maxLength = Math.max(maxLength, mCodeLengths[symbol]);
+        }
+        int[] perm = mPerm[table];
+        int[] base = mBase[table];
+        int[] limit = mLimit[table];
+        int permIndex = 0;
+        for ( int length = minLength; length <= maxLength; length++ ) {
+            for ( int symbol = 0; symbol < alphaSize; symbol++ ) {
+                if ( mCodeLengths[symbol] == length ) {
+                    perm[permIndex++] = symbol;
+                }
+            }
+        }
+        for ( int index = 0; index < base.length; index++ ) {
+            base[index] = 0;
+            limit[index] = 0;
+        }
+        for ( int symbol = 0; symbol < alphaSize; symbol++ ) {
+            base[mCodeLengths[symbol] + 1]++;
+        }
+        for ( int index = 1; index < base.length; index++ ) {
+            base[index] += base[index - 1];
+        }
+        int code = 0;
+        for ( int length = minLength; length <= maxLength; length++ ) {
+            code += (base[length + 1] - base[length]);
+            limit[length] = code - 1;
+            code <<= 1;
+        }
+        for ( int length = minLength + 1; length <= maxLength; length++ ) {
+            base[length] = ((limit[length - 1] + 1) << 1) - base[length];
+        }
+        // Lengths above the maximum are never reached
+        for ( int length = maxLength + 1; length < limit.length; length++ ) {
+            limit[length] = Integer.MAX_VALUE;
+        }
+        mMinLength[table] = minLength;
+    }
+
+    private int decodeSymbol(int table) throws IOException {
+        int length = mMinLength[table];
+        int[] limit = mLimit[table];
+        int code = readBits(length);
+        while ( code > limit[length] ) {
+            if ( ++length > MAX_CODE_LENGTH ) {
+                throw new IOException("Invalid bzip2 Huffman code.");
+            }
+            code = (code << 1) | readBits(1);
+        }
+        int permIndex = code - mBase[table][length];
+        if ( permIndex < 0 || permIndex >= MAX_ALPHA_SIZE ) {
+            throw new IOException("Invalid bzip2 Huffman code.");
+        }
+        return mPerm[table][permIndex];
+    }
+
+    private int readBits(int count) throws IOException {
+        while ( mBitCount < count ) {
+            int value = mIn.read();
+            if ( value < 0 ) {
+                throw new EOFException("Unexpected end of the bzip2 stream.");
+            }
+            mBitBuffer = (mBitBuffer << 8) | value;
+            mBitCount += 8;
+        }
+        mBitCount -= count;
+        return (mBitBuffer >>> mBitCount) & ((1 << count) - 1);
+    }
+
+    private int readInt() throws IOException {
+        return (readBits(16) << 16) | readBits(16);
+    }
+}
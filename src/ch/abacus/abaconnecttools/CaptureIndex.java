@@ -0,0 +1,411 @@
+/*
+ * CaptureIndex.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar index of the SOAP messages of a capture file, written next to the capture file by the first
+ * scan (<code>capture.tcptxt.idx</code>), so that a capture does not have to be scanned again when it
+ * is exploded with other options.
+ * <p/>
+ * For each message the index holds the file offsets, lengths and normalization kinds of the
+ * {@link CaptureSlice slices} of the HTTP header and the SOAP Envelope, the message type, the body name and
+ * the <code>Date</code> value of the header.  A message created from the index reads only the bytes of its
+ * slices from the capture file, with positional reads when its text is needed.  Envelopes that are not held
+ * as slices (several envelopes on one line) are stored as text.
+ * <p/>
+ * The index is only used when it still matches the capture file : the length, the modification time and
+ * a CRC32 checksum of the first and the last block of the capture file, the charset and the index version
+ * must be the same.  A full checksum is not used, it would read the whole capture file for each use of the
+ * index.
+ * <p/>
+ * The index is written while the capture file is scanned, see {@link #createIndexWriter(File, Charset)}.
+ * <pre>
+ *    int     magic, version
+ *    long    capture file length, modification time, checksum
+ *    UTF     charset name
+ *    entries : byte 1, byte message type, UTF body name, UTF header time,
+ *              int connection index, UTF WS-Addressing MessageID and RelatesTo ("" if none),
+ *              long capture timestamp,
+ *              header segments, envelope segments (int count, each long offset, int length, byte kind),
+ *              envelope text if there are no envelope segments (int length, UTF-8 bytes)
+ *    byte 0, int entry count
+ * </pre>
+ */
+public class CaptureIndex {
+
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+    // The index is written to a temporary file, which is renamed when the scan has finished
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    private static final int INDEX_MAGIC = 0x54434D49;    // TCMI
+    // Must be increased when the scanner finds different messages or slices
+    private static final int INDEX_VERSION = 3;
+    private static final int CHECKSUM_BLOCK_SIZE = 64 * 1024;
+    private static final int ENTRY_TAG = 1;
+    private static final int END_TAG = 0;
+
+    private static final byte TYPE_NONE = 0;
+    private static final byte TYPE_REQUEST = 1;
+    private static final byte TYPE_RESPONSE = 2;
+    // Longer WS-Addressing values are not indexed, they are extracted from the envelope again
+    private static final int MAX_ADDRESSING_VALUE_LENGTH = 1024;
+
+    /**
+     * The indexed values of a single message.
+     */
+    static class Entry {
+        byte mMessageType = TYPE_NONE;
+        String mBodyName = "";
+        String mHeaderTime = "";
+        int mConnectionIndex = -1;
+        long mCaptureTimestamp = -1;
+        String mWsaMessageId = "";
+        String mWsaRelatesTo = "";
+        long[] mHeaderSegments;     // { offset, length, kind } per slice
+        long[] mEnvelopeSegments;
+        String mEnvelopeText = null;
+    }
+
+    private File mCaptureFile;
+    private Charset mCharset;
+    private ArrayList<Entry> mEntries = new ArrayList<Entry>();
+
+    private CaptureIndex(File captureFile, Charset charset) {
+        mCaptureFile = captureFile;
+        mCharset = charset;
+    }
+
+    /**
+     * @return the index file of the capture file
+     */
+    public static File getIndexFile(File captureFile) {
+        return new File(captureFile.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * @return true if the file is an index file or the temporary file of an index which is written
+     */
+    public static boolean isIndexFile(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(INDEX_FILE_SUFFIX) || name.endsWith(INDEX_FILE_SUFFIX + TEMPORARY_FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the index of the capture file.
+     *
+     * @param captureFile the capture file
+     * @param charset the charset used to decode the capture file
+     * @return the index, or null if there is no index or the index does not match the capture file
+     */
+    public static CaptureIndex read(File captureFile, Charset charset) {
+        File indexFile = getIndexFile(captureFile);
+        if ( !indexFile.isFile() ) {
+            return null;
+        }
+        try {
+            DataInputStream indexIn = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if ( indexIn.readInt() != INDEX_MAGIC || indexIn.readInt() != INDEX_VERSION ) {
+                    return null;
+                }
+                long fileLength = indexIn.readLong();
+                long lastModified = indexIn.readLong();
+                long checksum = indexIn.readLong();
+                String charsetName = indexIn.readUTF();
+                if ( fileLength != captureFile.length() || lastModified != captureFile.lastModified() || !charset.name().equals(charsetName) ) {
+                    return null;
+                }
+                if ( checksum != computeChecksum(captureFile) ) {
+                    return null;
+                }
+                CaptureIndex captureIndex = new CaptureIndex(captureFile, charset);
+                while ( indexIn.readByte() == ENTRY_TAG ) {
+                    captureIndex.mEntries.add(readEntry(indexIn));
+                }
+                if ( indexIn.readInt() != captureIndex.mEntries.size() ) {
+                    return null;
+                }
+                return captureIndex;
+            } finally {
+                indexIn.close();
+            }
+        } catch (EOFException e) {
+            System.out.println("Capture index [" + indexFile + "] is incomplete.");
+            return null;
+        } catch (IOException e) {
+            // A damaged or incomplete index is not used, the capture file is scanned again
+            System.out.println("Capture index [" + indexFile + "] cannot be read. [" + e.getMessage() + "]");
+            return null;
+        }
+    }
+
+    private static Entry readEntry(DataInputStream indexIn) throws IOException {
+        Entry entry = new Entry();
+        entry.mMessageType = indexIn.readByte();
+        entry.mBodyName = indexIn.readUTF();
+        entry.mHeaderTime = indexIn.readUTF();
+        entry.mConnectionIndex = indexIn.readInt();
+        entry.mWsaMessageId = indexIn.readUTF();
+        entry.mWsaRelatesTo = indexIn.readUTF();
+        entry.mCaptureTimestamp = indexIn.readLong();
+        entry.mHeaderSegments = readSegments(indexIn);
+        entry.mEnvelopeSegments = readSegments(indexIn);
+        if ( entry.mEnvelopeSegments.length == 0 ) {
+            byte[] text = new byte[indexIn.readInt()];
+            indexIn.readFully(text);
+            entry.mEnvelopeText = new String(text, "UTF-8");
+        }
+        return entry;
+    }
+
+    private static long[] readSegments(DataInputStream indexIn) throws IOException {
+        long[] segments = new long[indexIn.readInt() * 3];
+        for ( int index = 0; index < segments.length; index += 3 ) {
+            segments[index] = indexIn.readLong();
+            segments[index + 1] = indexIn.readInt();
+            segments[index + 2] = indexIn.readByte();
+        }
+        return segments;
+    }
+
+    /**
+     * Creates the writer for a new index of the capture file.  The entries are written to a temporary
+     * file, which replaces the index when the writer is closed.
+     *
+     * @param captureFile the capture file being scanned
+     * @param charset the charset used to decode the capture file
+     * @return the writer, which must be closed or discarded
+     * @throws IOException if the index file cannot be created
+     */
+    public static IndexWriter createIndexWriter(File captureFile, Charset charset) throws IOException {
+        return new IndexWriter(captureFile, charset);
+    }
+
+    /**
+     * Writes the entries of a capture index while the capture file is scanned.
+     */
+    public static class IndexWriter implements SoapEnvelopeListener {
+        private File mIndexFile;
+        private File mTemporaryFile;
+        private DataOutputStream mIndexOut;
+        private int mEntryCount = 0;
+
+        private IndexWriter(File captureFile, Charset charset) throws IOException {
+            mIndexFile = getIndexFile(captureFile);
+            mTemporaryFile = new File(mIndexFile.getPath() + TEMPORARY_FILE_SUFFIX);
+            // The capture file is identified before it is scanned
+            long fileLength = captureFile.length();
+            long lastModified = captureFile.lastModified();
+            long checksum = computeChecksum(captureFile);
+            mIndexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTemporaryFile)));
+            mIndexOut.writeInt(INDEX_MAGIC);
+            mIndexOut.writeInt(INDEX_VERSION);
+            mIndexOut.writeLong(fileLength);
+            mIndexOut.writeLong(lastModified);
+            mIndexOut.writeLong(checksum);
+            mIndexOut.writeUTF(charset.name());
+        }
+
+        /**
+         * Writes the entry of a message.  The body name and header time are extracted from the message,
+         * they stay cached in the message.
+         */
+        public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+            try {
+                mIndexOut.writeByte(ENTRY_TAG);
+                byte messageType = TYPE_NONE;
+                if ( soapEnvelopeInfo.isRequestMessage() ) {
+                    messageType = TYPE_REQUEST;
+                } else if ( soapEnvelopeInfo.isResponseMessage() ) {
+                    messageType = TYPE_RESPONSE;
+                }
+                mIndexOut.writeByte(messageType);
+                mIndexOut.writeUTF(soapEnvelopeInfo.getSoapBodyName());
+                mIndexOut.writeUTF(soapEnvelopeInfo.getTimeFromSoapHeader());
+                mIndexOut.writeInt(soapEnvelopeInfo.getConnectionIndex());
+                writeAddressingValue(soapEnvelopeInfo.getWsaMessageId());
+                writeAddressingValue(soapEnvelopeInfo.getWsaRelatesTo());
+                mIndexOut.writeLong(soapEnvelopeInfo.getCaptureTimestamp());
+                writeSegments(soapEnvelopeInfo.getHeaderSlices());
+                CaptureSlice[] envelopeSlices = soapEnvelopeInfo.getEnvelopeSlices();
+                writeSegments(envelopeSlices);
+                if ( envelopeSlices == null || envelopeSlices.length == 0 ) {
+                    byte[] text = soapEnvelopeInfo.getSoapEnvelopeXml().getBytes("UTF-8");
+                    mIndexOut.writeInt(text.length);
+                    mIndexOut.write(text);
+                }
+                mEntryCount++;
+            } catch (IOException e) {
+                throw new RuntimeException("Capture index [" + mTemporaryFile + "] cannot be written. [" + e.getMessage() + "]", e);
+            }
+        }
+
+        private void writeAddressingValue(String value) throws IOException {
+            mIndexOut.writeUTF(value == null || value.length() > MAX_ADDRESSING_VALUE_LENGTH ? "" : value);
+        }
+
+        private void writeSegments(CaptureSlice[] slices) throws IOException {
+            if ( slices == null ) {
+                mIndexOut.writeInt(0);
+                return;
+            }
+            mIndexOut.writeInt(slices.length);
+            for ( CaptureSlice slice : slices ) {
+                mIndexOut.writeLong(slice.getOffset());
+                mIndexOut.writeInt(slice.getLength());
+                mIndexOut.writeByte(slice.getKind());
+            }
+        }
+
+        /**
+         * Completes the index and replaces the previous index of the capture file.
+         */
+        public void close() throws IOException {
+            mIndexOut.writeByte(END_TAG);
+            mIndexOut.writeInt(mEntryCount);
+            mIndexOut.close();
+            if ( mIndexFile.exists() && !mIndexFile.delete() ) {
+                throw new IOException("Previous capture index [" + mIndexFile + "] cannot be deleted.");
+            }
+            if ( !mTemporaryFile.renameTo(mIndexFile) ) {
+                throw new IOException("Capture index [" + mTemporaryFile + "] cannot be renamed.");
+            }
+        }
+
+        /**
+         * Discards the index, e.g. after a cancelled scan.
+         */
+        public void discard() {
+            try {
+                mIndexOut.close();
+            } catch (IOException e) {
+                // The temporary file is deleted anyway
+            }
+            mTemporaryFile.delete();
+        }
+    }
+
+    /**
+     * @return the checksum of the length, the first and the last block of the capture file
+     */
+    static long computeChecksum(File captureFile) throws IOException {
+        CRC32 checksum = new CRC32();
+        RandomAccessFile file = new RandomAccessFile(captureFile, "r");
+        try {
+            long length = file.length();
+            byte[] block = new byte[(int) Math.min(CHECKSUM_BLOCK_SIZE, length)];
+            file.readFully(block);
+            checksum.update(block);
+            if ( length > CHECKSUM_BLOCK_SIZE ) {
+                file.seek(Math.max(CHECKSUM_BLOCK_SIZE, length - CHECKSUM_BLOCK_SIZE));
+                int tailLength = (int) Math.min(CHECKSUM_BLOCK_SIZE, length - CHECKSUM_BLOCK_SIZE);
+                file.readFully(block, 0, tailLength);
+                checksum.update(block, 0, tailLength);
+            }
+            for ( int shift = 0; shift < 64; shift += 8 ) {
+                checksum.update((int) (length >>> shift) & 0xff);
+            }
+        } finally {
+            file.close();
+        }
+        return checksum.getValue();
+    }
+
+    public File getCaptureFile() {
+        return mCaptureFile;
+    }
+
+    public int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the message type {@link SoapEnvelopeInfo#SOAP_REQUEST_MESSAGE REQUEST},
+     *         {@link SoapEnvelopeInfo#SOAP_RESPONSE_MESSAGE RESPONSE} or blank
+     */
+    public String getMessageType(int index) {
+        byte messageType = mEntries.get(index).mMessageType;
+        if ( messageType == TYPE_REQUEST ) {
+            return SoapEnvelopeInfo.SOAP_REQUEST_MESSAGE;
+        } else if ( messageType == TYPE_RESPONSE ) {
+            return SoapEnvelopeInfo.SOAP_RESPONSE_MESSAGE;
+        }
+        return "";
+    }
+
+    public String getSoapBodyName(int index) {
+        return mEntries.get(index).mBodyName;
+    }
+
+    public String getTimeFromSoapHeader(int index) {
+        return mEntries.get(index).mHeaderTime;
+    }
+
+    /**
+     * @return the file offset after the last slice of the message, 0 if the message has no slices
+     */
+    public long getEndOffset(int index) {
+        Entry entry = mEntries.get(index);
+        long endOffset = 0;
+        for ( long[] segments : new long[][] { entry.mHeaderSegments, entry.mEnvelopeSegments } ) {
+            for ( int segment = 0; segment < segments.length; segment += 3 ) {
+                endOffset = Math.max(endOffset, segments[segment] + segments[segment + 1]);
+            }
+        }
+        return endOffset;
+    }
+
+    /**
+     * Creates a message of the index.  The header and the envelope are read from the capture file only
+     * when their text is needed.
+     *
+     * @param index the index of the message in the order of the capture file
+     * @return the message with the indexed type, body name and header time
+     */
+    public SoapEnvelopeInfo createSoapEnvelopeInfo(int index) {
+        Entry entry = mEntries.get(index);
+        SoapEnvelopeInfo soapEnvelopeInfo;
+        if ( entry.mEnvelopeText != null ) {
+            soapEnvelopeInfo = new SoapEnvelopeInfo(entry.mEnvelopeText);
+            if ( entry.mHeaderSegments.length > 0 ) {
+                soapEnvelopeInfo.setSoapHeader(CaptureSlice.getText(createSlices(entry.mHeaderSegments)));
+            }
+        } else {
+            soapEnvelopeInfo = new SoapEnvelopeInfo(createSlices(entry.mEnvelopeSegments), createSlices(entry.mHeaderSegments));
+        }
+        soapEnvelopeInfo.setIndexedValues(getMessageType(index), entry.mBodyName, entry.mHeaderTime);
+        soapEnvelopeInfo.setConnectionIndex(entry.mConnectionIndex);
+        soapEnvelopeInfo.setCaptureTimestamp(entry.mCaptureTimestamp);
+        if ( entry.mWsaMessageId.length() > 0 || entry.mWsaRelatesTo.length() > 0 ) {
+            soapEnvelopeInfo.setIndexedAddressingValues(toAddressingValue(entry.mWsaMessageId), toAddressingValue(entry.mWsaRelatesTo));
+        }
+        return soapEnvelopeInfo;
+    }
+
+    private static String toAddressingValue(String indexedValue) {
+        return (indexedValue.length() > 0 ? indexedValue : null);
+    }
+
+    private CaptureSlice[] createSlices(long[] segments) {
+        CaptureSlice[] slices = new CaptureSlice[segments.length / 3];
+        for ( int index = 0; index < slices.length; index++ ) {
+            slices[index] = new CaptureSlice(mCaptureFile, segments[index * 3], (int) segments[index * 3 + 1], (int) segments[index * 3 + 2], mCharset);
+        }
+        return slices;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * CaptureMarkerMatcher.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Finds several byte markers and the end of the line in a single left to right pass over a line of
+ * a capture file.
+ * <p/>
+ * The markers are compiled into an Aho-Corasick automaton, which is expanded to a complete transition
+ * table, so that each byte of the line costs one table lookup.  The line terminators <code>\r</code>
+ * and <code>\n</code> lead to a stop state, so that the line end is found in the same pass.  While the
+ * automaton is in its initial state, the bytes that cannot start a marker are skipped with a lookup that
+ * does not depend on the previous bytes.  The bytes are scanned in chunks copied from the buffer.
+ * <p/>
+ * The matcher keeps the last chunk and expects that the bytes of a buffer do not change.
+ * <p/>
+ * After {@link #scanLine(ByteBuffer, int, int)} the start positions of all matches of each marker in the
+ * line are available in ascending order with {@link #getHitCount(int)}, {@link #getHit(int, int)} and
+ * {@link #findHit(int, int)}.  Overlapping matches are reported.
+ */
+public class CaptureMarkerMatcher {
+
+    private static final int ALPHABET_SIZE = 256;
+    private static final int STOP_STATE = -1;
+    private static final int INITIAL_HIT_CAPACITY = 16;
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private byte[][] mMarkers;
+    private int[] mTransitions;     // state * ALPHABET_SIZE + byte -> next state, or STOP_STATE
+    private int[][] mStateMarkers;  // markers ending in a state, including the markers of the suffix states
+    private boolean[] mLeavesInitialState;  // bytes that start a marker or end the line
+
+    private int[][] mHits;
+    private int[] mHitCounts;
+
+    // The bytes are copied in chunks, scanning an array is faster than reading single bytes of a buffer
+    private byte[] mChunk = new byte[CHUNK_SIZE];
+    private ByteBuffer mChunkSource = null;
+    private ByteBuffer mChunkView = null;
+    private int mChunkStart = 0;
+    private int mChunkEnd = 0;
+
+    /**
+     * @param markers the markers to find, they must not contain line terminators
+     */
+    public CaptureMarkerMatcher(byte[]... markers) {
+        mMarkers = new byte[markers.length][];
+        for ( int index = 0; index < markers.length; index++ ) {
+            if ( markers[index] == null || markers[index].length == 0 ) {
+                throw new IllegalArgumentException("Marker " + index + " is empty");
+            }
+            mMarkers[index] = markers[index].clone();
+        }
+        mHits = new int[markers.length][INITIAL_HIT_CAPACITY];
+        mHitCounts = new int[markers.length];
+        buildAutomaton();
+    }
+
+    private void buildAutomaton() {
+        // Trie of the markers
+        List<int[]> gotoStates = new ArrayList<int[]>();
+        List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+        gotoStates.add(newGotoState());
+        outputs.add(new ArrayList<Integer>());
+        for ( int markerIndex = 0; markerIndex < mMarkers.length; markerIndex++ ) {
+            int state = 0;
+            for ( byte markerByte : mMarkers[markerIndex] ) {
+                int value = markerByte & 0xff;
+                if ( value == '\r' || value == '\n' ) {
+                    throw new IllegalArgumentException("Marker " + markerIndex + " contains a line terminator");
+                }
+                if ( gotoStates.get(state)[value] < 0 ) {
+                    gotoStates.get(state)[value] = gotoStates.size();
+                    gotoStates.add(newGotoState());
+                    outputs.add(new ArrayList<Integer>());
+                }
+                state = gotoStates.get(state)[value];
+            }
+            outputs.get(state).add(markerIndex);
+        }
+
+        // Failure links in breadth first order, the transitions are completed at the same time
+        int stateCount = gotoStates.size();
+        int[] failure = new int[stateCount];
+        mTransitions = new int[stateCount * ALPHABET_SIZE];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for ( int value = 0; value < ALPHABET_SIZE; value++ ) {
+            int next = gotoStates.get(0)[value];
+            if ( next < 0 ) {
+                mTransitions[value] = 0;
+            } else {
+                mTransitions[value] = next;
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while ( !queue.isEmpty() ) {
+            int state = queue.removeFirst();
+            outputs.get(state).addAll(outputs.get(failure[state]));
+            for ( int value = 0; value < ALPHABET_SIZE; value++ ) {
+                int next = gotoStates.get(state)[value];
+                if ( next < 0 ) {
+                    mTransitions[state * ALPHABET_SIZE + value] = mTransitions[failure[state] * ALPHABET_SIZE + value];
+                } else {
+                    mTransitions[state * ALPHABET_SIZE + value] = next;
+                    failure[next] = mTransitions[failure[state] * ALPHABET_SIZE + value];
+                    queue.add(next);
+                }
+            }
+        }
+        for ( int state = 0; state < stateCount; state++ ) {
+            mTransitions[state * ALPHABET_SIZE + '\r'] = STOP_STATE;
+            mTransitions[state * ALPHABET_SIZE + '\n'] = STOP_STATE;
+        }
+
+        mLeavesInitialState = new boolean[ALPHABET_SIZE];
+        for ( int value = 0; value < ALPHABET_SIZE; value++ ) {
+            mLeavesInitialState[value] = (mTransitions[value] != 0);
+        }
+
+        mStateMarkers = new int[stateCount][];
+        for ( int state = 0; state < stateCount; state++ ) {
+            List<Integer> stateOutputs = outputs.get(state);
+            if ( stateOutputs.size() > 0 ) {
+                mStateMarkers[state] = new int[stateOutputs.size()];
+                for ( int index = 0; index < stateOutputs.size(); index++ ) {
+                    mStateMarkers[state][index] = stateOutputs.get(index);
+                }
+            }
+        }
+    }
+
+    private static int[] newGotoState() {
+        int[] gotoState = new int[ALPHABET_SIZE];
+        Arrays.fill(gotoState, -1);
+        return gotoState;
+    }
+
+    /**
+     * Scans a line for the markers.  The hits of a previous line are cleared.
+     *
+     * @param buffer the bytes, accessed with absolute positions
+     * @param fromIndex the start of the line
+     * @param toIndex the end of the available bytes
+     * @return the position of the first line terminator, or <code>toIndex</code> if there is none
+     */
+    public int scanLine(ByteBuffer buffer, int fromIndex, int toIndex) {
+        Arrays.fill(mHitCounts, 0);
+        int[] transitions = mTransitions;
+        int[][] stateMarkers = mStateMarkers;
+        boolean[] leavesInitialState = mLeavesInitialState;
+        int state = 0;
+        int pos = fromIndex;
+        while ( pos < toIndex ) {
+            if ( buffer != mChunkSource || pos < mChunkStart || pos >= mChunkEnd ) {
+                loadChunk(buffer, pos, toIndex);
+            }
+            byte[] chunk = mChunk;
+            int chunkStart = mChunkStart;
+            int index = pos - chunkStart;
+            int endIndex = Math.min(toIndex, mChunkEnd) - chunkStart;
+            while ( index < endIndex ) {
+                if ( state == 0 ) {
+                    // Skip the bytes that cannot start a marker or end the line
+                    while ( index < endIndex && !leavesInitialState[chunk[index] & 0xff] ) {
+                        index++;
+                    }
+                    if ( index == endIndex ) break;
+                }
+                state = transitions[(state << 8) | (chunk[index] & 0xff)];
+                if ( state <= 0 ) {
+                    if ( state == STOP_STATE ) {
+                        return chunkStart + index;
+                    }
+                } else if ( stateMarkers[state] != null ) {
+                    for ( int markerIndex : stateMarkers[state] ) {
+                        addHit(markerIndex, chunkStart + index + 1 - mMarkers[markerIndex].length);
+                    }
+                }
+                index++;
+            }
+            pos = chunkStart + endIndex;
+        }
+        return toIndex;
+    }
+
+    private void loadChunk(ByteBuffer buffer, int pos, int toIndex) {
+        if ( buffer != mChunkSource ) {
+            mChunkSource = buffer;
+            mChunkView = buffer.duplicate();
+        }
+        int length = Math.min(CHUNK_SIZE, toIndex - pos);
+        mChunkView.limit(pos + length);
+        mChunkView.position(pos);
+        mChunkView.get(mChunk, 0, length);
+        mChunkStart = pos;
+        mChunkEnd = pos + length;
+    }
+
+    private void addHit(int markerIndex, int position) {
+        int count = mHitCounts[markerIndex];
+        if ( count == mHits[markerIndex].length ) {
+            mHits[markerIndex] = Arrays.copyOf(mHits[markerIndex], count * 2);
+        }
+        mHits[markerIndex][count] = position;
+        mHitCounts[markerIndex] = count + 1;
+    }
+
+    /**
+     * @return the number of matches of the marker in the last scanned line
+     */
+    public int getHitCount(int markerIndex) {
+        return mHitCounts[markerIndex];
+    }
+
+    /**
+     * @return the start position of a match of the marker in the last scanned line
+     */
+    public int getHit(int markerIndex, int hitIndex) {
+        return mHits[markerIndex][hitIndex];
+    }
+
+    /**
+     * @return the start position of the first match of the marker at or after the position, or -1
+     */
+    public int findHit(int markerIndex, int fromIndex) {
+        int[] hits = mHits[markerIndex];
+        int count = mHitCounts[markerIndex];
+        for ( int index = 0; index < count; index++ ) {
+            if ( hits[index] >= fromIndex ) {
+                return hits[index];
+            }
+        }
+        return -1;
+    }
+}
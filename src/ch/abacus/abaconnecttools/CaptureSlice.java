@@ -0,0 +1,408 @@
+/*
+ * CaptureSlice.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+
+/**
+ * A zero-copy view of a region of a capture file, defined by the file offset and length.  The bytes
+ * are only decoded to text when {@link #getText()} is called.
+ * <p/>
+ * A slice created from a {@link CaptureIndex} holds no bytes, the region is read from the capture file
+ * with a positional read each time the bytes are needed.
+ * <p/>
+ * The kind of the slice defines how the text is normalized, so that the text is the same as the
+ * text produced by the line based scanner of the {@link TcpMonMessageExploder} :
+ * <ul>
+ * <li>{@link #KIND_HEADER_LINES} : each line is trimmed and terminated with CR/LF</li>
+ * <li>{@link #KIND_RAW} : the text is used as is</li>
+ * <li>{@link #KIND_ENVELOPE_LINES} : the lines are trimmed and joined, short lines between the first
+ * and the last line (probably chunked breaks) are skipped</li>
+ * <li>{@link #KIND_BODY_LINES} : the lines are trimmed and joined, consecutive slices of this kind are
+ * one text (the data of the chunks of a HTTP body framed by {@link MappedCaptureScanner}), so a line or a
+ * character split by a chunk boundary is kept</li>
+ * </ul>
+ */
+public class CaptureSlice {
+
+    public static final int KIND_HEADER_LINES = 0;
+    public static final int KIND_RAW = 1;
+    public static final int KIND_ENVELOPE_LINES = 2;
+    public static final int KIND_BODY_LINES = 3;
+
+    private static final String LINE_FEED = "\r\n";
+
+    private long mOffset;
+    private int mLength;
+    private int mKind;
+    private ByteBuffer mBuffer;
+    private File mCaptureFile = null;
+    private Charset mCharset;
+
+    /**
+     * @param offset the offset of the slice in the capture file
+     * @param buffer the bytes of the slice, position 0 is the byte at the offset
+     * @param kind the text normalization kind
+     * @param charset the charset of the capture file
+     */
+    public CaptureSlice(long offset, ByteBuffer buffer, int kind, Charset charset) {
+        mOffset = offset;
+        mBuffer = buffer;
+        mLength = buffer.remaining();
+        mKind = kind;
+        mCharset = charset;
+    }
+
+    /**
+     * Creates a slice whose bytes are read from the capture file when they are needed.
+     *
+     * @param captureFile the capture file
+     * @param offset the offset of the slice in the capture file
+     * @param length the length of the slice
+     * @param kind the text normalization kind
+     * @param charset the charset of the capture file
+     */
+    public CaptureSlice(File captureFile, long offset, int length, int kind, Charset charset) {
+        mCaptureFile = captureFile;
+        mOffset = offset;
+        mBuffer = null;
+        mLength = length;
+        mKind = kind;
+        mCharset = charset;
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return a read-only view of the bytes of the slice (no bytes are copied)
+     */
+    public ByteBuffer getByteBuffer() {
+        return getBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the bytes of the slice, read from the capture file if the slice holds no bytes
+     */
+    private ByteBuffer getBuffer() {
+        if ( mBuffer != null ) {
+            return mBuffer;
+        }
+        try {
+            RandomAccessFile captureFile = new RandomAccessFile(mCaptureFile, "r");
+            try {
+                FileChannel channel = captureFile.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(mLength);
+                while ( buffer.hasRemaining() ) {
+                    if ( channel.read(buffer, mOffset + buffer.position()) < 0 ) {
+                        throw new IOException("Unexpected end of file at offset " + (mOffset + buffer.position()));
+                    }
+                }
+                buffer.flip();
+                return buffer;
+            } finally {
+                captureFile.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Capture file [" + mCaptureFile + "] cannot be read. [" + e.getMessage() + "]", e);
+        }
+    }
+
+    /**
+     * @return a slice of the first bytes of this slice
+     */
+    private CaptureSlice truncate(int length) {
+        if ( mBuffer == null ) {
+            return new CaptureSlice(mCaptureFile, mOffset, length, mKind, mCharset);
+        }
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.limit(length);
+        return new CaptureSlice(mOffset, buffer.slice(), mKind, mCharset);
+    }
+
+    /**
+     * @return the decoded and normalized text of the slice
+     */
+    public String getText() {
+        StringBuilder sbText = new StringBuilder(mLength + 16);
+        if ( mKind == KIND_BODY_LINES ) {
+            appendBodyLines(sbText, new CaptureSlice[] { this }, 0, 1);
+        } else {
+            appendText(sbText);
+        }
+        return sbText.toString();
+    }
+
+    /**
+     * Appends the normalized text.  The lines are split and trimmed on the bytes (the capture charset is
+     * ASCII compatible, see {@link MappedCaptureScanner}) and only the kept bytes are decoded through a
+     * small buffer, so a large envelope is not decoded into a second buffer of the full size.
+     */
+    void appendText(StringBuilder sbText) {
+        ByteBuffer bytes = getBuffer().duplicate();
+        SliceDecoder decoder = new SliceDecoder(mCharset, mLength);
+        if ( mKind == KIND_RAW ) {
+            decoder.appendDecoded(sbText, bytes, 0, mLength);
+            return;
+        }
+        int length = mLength;
+        int lineStart = 0;
+        boolean isFirstLine = true;
+        while ( lineStart <= length ) {
+            int lineEnd = lineStart;
+            while ( lineEnd < length && bytes.get(lineEnd) != '\n' && bytes.get(lineEnd) != '\r' ) {
+                lineEnd++;
+            }
+            boolean isLastLine = (lineEnd >= length);
+            // Trim the line like String.trim()
+            int trimStart = lineStart;
+            int trimEnd = lineEnd;
+            while ( trimStart < trimEnd && (bytes.get(trimStart) & 0xff) <= ' ' ) {
+                trimStart++;
+            }
+            while ( trimEnd > trimStart && (bytes.get(trimEnd - 1) & 0xff) <= ' ' ) {
+                trimEnd--;
+            }
+            if ( mKind == KIND_HEADER_LINES ) {
+                decoder.appendDecoded(sbText, bytes, trimStart, trimEnd);
+                sbText.append(LINE_FEED);
+            } else if ( isFirstLine || isLastLine || (trimEnd - trimStart) > 4 ) {
+                decoder.appendDecoded(sbText, bytes, trimStart, trimEnd);
+            }
+            if ( isLastLine ) {
+                break;
+            }
+            // Skip the line terminator : \n, \r or \r\n
+            if ( bytes.get(lineEnd) == '\r' && lineEnd + 1 < length && bytes.get(lineEnd + 1) == '\n' ) {
+                lineEnd++;
+            }
+            lineStart = lineEnd + 1;
+            isFirstLine = false;
+        }
+    }
+
+    /**
+     * Decodes byte ranges of a slice through a buffer of limited size.  Malformed input is replaced
+     * like {@link Charset#decode(ByteBuffer)} does.
+     */
+    private static class SliceDecoder {
+        private static final int DECODE_BUFFER_SIZE = 8192;
+
+        private CharsetDecoder mDecoder;
+        private CharBuffer mChars;
+
+        SliceDecoder(Charset charset, int sliceLength) {
+            mDecoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            mChars = CharBuffer.allocate(Math.max(16, Math.min(sliceLength, DECODE_BUFFER_SIZE)));
+        }
+
+        void appendDecoded(StringBuilder sbText, ByteBuffer bytes, int start, int end) {
+            if ( start >= end ) return;
+            ByteBuffer input = bytes.duplicate();
+            input.limit(end);
+            input.position(start);
+            mDecoder.reset();
+            CoderResult result;
+            do {
+                result = mDecoder.decode(input, mChars, true);
+                appendChars(sbText);
+            } while ( result.isOverflow() );
+            while ( mDecoder.flush(mChars).isOverflow() ) {
+                appendChars(sbText);
+            }
+            appendChars(sbText);
+        }
+
+        private void appendChars(StringBuilder sbText) {
+            sbText.append(mChars.array(), mChars.arrayOffset(), mChars.position());
+            mChars.clear();
+        }
+    }
+
+    /**
+     * Decodes and joins the text of several slices.
+     *
+     * @param slices the slices, may be null
+     * @return the joined text or blank if there are no slices
+     */
+    public static String getText(CaptureSlice[] slices) {
+        if ( slices == null || slices.length == 0 ) return "";
+        if ( slices.length == 1 ) return slices[0].getText();
+        int length = 0;
+        for ( CaptureSlice slice : slices ) {
+            length += slice.getLength();
+        }
+        StringBuilder sbText = new StringBuilder(length + 16);
+        int index = 0;
+        while ( index < slices.length ) {
+            if ( slices[index].getKind() == KIND_BODY_LINES ) {
+                int endIndex = index + 1;
+                while ( endIndex < slices.length && slices[endIndex].getKind() == KIND_BODY_LINES ) {
+                    endIndex++;
+                }
+                appendBodyLines(sbText, slices, index, endIndex);
+                index = endIndex;
+            } else {
+                slices[index].appendText(sbText);
+                index++;
+            }
+        }
+        return sbText.toString();
+    }
+
+    /**
+     * Decodes the first complete lines of several slices, so that a value near the start of a large text
+     * can be found without decoding the whole text.  The prefix is cut at the last line terminator within
+     * the maximum length.  The prefix is the same as the start of the full text, except that a short last
+     * line of {@link #KIND_ENVELOPE_LINES} slices is kept, so up to 4 characters at the end may differ.
+     *
+     * @param slices the slices
+     * @param maxLength the maximum number of bytes to decode
+     * @return the text of the prefix, or null if the slices are not larger than the maximum length or
+     *         there is no line terminator within the maximum length
+     */
+    public static String getTextPrefix(CaptureSlice[] slices, int maxLength) {
+        if ( slices == null ) return null;
+        long length = 0;
+        for ( CaptureSlice slice : slices ) {
+            length += slice.getLength();
+        }
+        if ( length <= maxLength ) return null;
+
+        ArrayList<CaptureSlice> prefixSlices = new ArrayList<CaptureSlice>();
+        int remaining = maxLength;
+        for ( int index = 0; index < slices.length && remaining > 0; index++ ) {
+            int sliceLength = Math.min(remaining, slices[index].getLength());
+            prefixSlices.add(slices[index].truncate(sliceLength));
+            remaining -= sliceLength;
+        }
+        // Cut after the last complete line
+        for ( int index = prefixSlices.size() - 1; index >= 0; index-- ) {
+            CaptureSlice slice = prefixSlices.get(index);
+            ByteBuffer bytes = slice.getBuffer();
+            for ( int pos = slice.getLength() - 1; pos >= 0; pos-- ) {
+                byte b = bytes.get(pos);
+                if ( b == '\n' || b == '\r' ) {
+                    while ( pos > 0 && (bytes.get(pos - 1) == '\n' || bytes.get(pos - 1) == '\r') ) {
+                        pos--;
+                    }
+                    prefixSlices.set(index, slice.truncate(pos));
+                    return getText(prefixSlices.subList(0, index + 1).toArray(new CaptureSlice[index + 1]));
+                }
+            }
+            prefixSlices.remove(index);
+        }
+        return null;
+    }
+
+    /**
+     * Appends the trimmed and joined lines of consecutive body slices.  The slices are decoded as one
+     * stream, so that a multi byte character split between two chunks is decoded correctly, and the lines
+     * are trimmed on the characters.
+     */
+    private static void appendBodyLines(StringBuilder sbText, CaptureSlice[] slices, int fromIndex, int toIndex) {
+        CaptureSlice[] bodySlices = new CaptureSlice[toIndex - fromIndex];
+        System.arraycopy(slices, fromIndex, bodySlices, 0, bodySlices.length);
+        Reader reader = new InputStreamReader(openInputStream(bodySlices), bodySlices[0].mCharset);
+        char[] chars = new char[8192];
+        StringBuilder sbWhitespace = new StringBuilder();
+        boolean isLineStart = true;
+        try {
+            int count;
+            while ( (count = reader.read(chars)) >= 0 ) {
+                for ( int index = 0; index < count; index++ ) {
+                    char c = chars[index];
+                    if ( c == '\n' || c == '\r' ) {
+                        // Trailing whitespace of the line is dropped
+                        sbWhitespace.setLength(0);
+                        isLineStart = true;
+                    } else if ( c <= ' ' ) {
+                        if ( !isLineStart ) {
+                            sbWhitespace.append(c);
+                        }
+                    } else {
+                        if ( sbWhitespace.length() > 0 ) {
+                            sbText.append(sbWhitespace);
+                            sbWhitespace.setLength(0);
+                        }
+                        sbText.append(c);
+                        isLineStart = false;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The slices are in memory, reading them does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Opens the raw bytes of several slices as one stream, no bytes are copied until they are read.
+     *
+     * @param slices the slices
+     * @return the stream of the joined bytes
+     */
+    public static InputStream openInputStream(final CaptureSlice[] slices) {
+        return new InputStream() {
+            private int mSliceIndex = 0;
+            private ByteBuffer mBytes = (slices.length > 0 ? slices[0].getByteBuffer() : null);
+
+            private boolean nextSlice() {
+                while ( mBytes != null && !mBytes.hasRemaining() ) {
+                    mSliceIndex++;
+                    mBytes = (mSliceIndex < slices.length ? slices[mSliceIndex].getByteBuffer() : null);
+                }
+                return mBytes != null;
+            }
+
+            @Override
+            public int read() {
+                if ( !nextSlice() ) return -1;
+                return mBytes.get() & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if ( length == 0 ) return 0;
+                if ( !nextSlice() ) return -1;
+                int count = Math.min(length, mBytes.remaining());
+                mBytes.get(buffer, offset, count);
+                return count;
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * CompressedCapture.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Detects gzip, zip and bzip2 compressed capture files and opens them as a decompressed stream, the
+ * capture is not unpacked to the disk.
+ * <p/>
+ * The format is detected by the first bytes of the file, not by the extension.  A zip archive must contain
+ * the capture as its first file entry.  The decompression runs on a {@link ReadAheadInputStream} thread.
+ */
+public class CompressedCapture {
+
+    public static final int FORMAT_NONE = 0;
+    public static final int FORMAT_GZIP = 1;
+    public static final int FORMAT_ZIP = 2;
+    public static final int FORMAT_BZIP2 = 3;
+
+    private static final String[] COMPRESSED_EXTENSIONS = {".gz", ".zip", ".bz2"};
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private CompressedCapture() {
+    }
+
+    /**
+     * @param file the capture file
+     * @return the compression format of the file, {@link #FORMAT_NONE} if it is not compressed
+     */
+    public static int getCompressionFormat(File file) throws IOException {
+        byte[] signature = new byte[4];
+        int length = 0;
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            while ( length < signature.length ) {
+                int count = inputStream.read(signature, length, signature.length - length);
+                if ( count < 0 ) {
+                    break;
+                }
+                length += count;
+            }
+        } finally {
+            inputStream.close();
+        }
+        if ( length >= 2 && (signature[0] & 0xFF) == 0x1F && (signature[1] & 0xFF) == 0x8B ) {
+            return FORMAT_GZIP;
+        } else if ( length >= 4 && signature[0] == 'P' && signature[1] == 'K' && signature[2] == 3 && signature[3] == 4 ) {
+            return FORMAT_ZIP;
+        } else if ( length >= 4 && signature[0] == 'B' && signature[1] == 'Z' && signature[2] == 'h'
+                && signature[3] >= '1' && signature[3] <= '9' ) {
+            return FORMAT_BZIP2;
+        }
+        return FORMAT_NONE;
+    }
+
+    /**
+     * Opens the decompressed content, the stream is closed with the returned stream.
+     *
+     * @param inputStream the compressed capture
+     * @param format {@link #FORMAT_GZIP}, {@link #FORMAT_ZIP} or {@link #FORMAT_BZIP2}
+     * @return the decompressed capture, read ahead by a separate thread
+     */
+    public static InputStream openDecompressed(InputStream inputStream, int format) throws IOException {
+        InputStream bufferedStream = new BufferedInputStream(inputStream, INPUT_BUFFER_SIZE);
+        InputStream decompressedStream;
+        try {
+            if ( format == FORMAT_GZIP ) {
+                decompressedStream = new GZIPInputStream(bufferedStream, INPUT_BUFFER_SIZE);
+            } else if ( format == FORMAT_ZIP ) {
+                ZipInputStream zipStream = new ZipInputStream(bufferedStream);
+                ZipEntry entry = zipStream.getNextEntry();
+                while ( entry != null && entry.isDirectory() ) {
+                    entry = zipStream.getNextEntry();
+                }
+                if ( entry == null ) {
+                    throw new IOException("The zip archive does not contain a capture file.");
+                }
+                decompressedStream = zipStream;
+            } else if ( format == FORMAT_BZIP2 ) {
+                decompressedStream = new BZip2InputStream(bufferedStream);
+            } else {
+                throw new IllegalArgumentException("Unknown compression format " + format);
+            }
+        } catch (IOException e) {
+            bufferedStream.close();
+            throw e;
+        }
+        return new ReadAheadInputStream(decompressedStream);
+    }
+
+    /**
+     * @param filename the name of a file
+     * @return true if the filename has the extension of a compressed file
+     */
+    public static boolean isCompressedFilename(String filename) {
+        return removeCompressedExtension(filename).length() < filename.length();
+    }
+
+    /**
+     * @param filename the name of a file, e.g. <code>capture.tcptxt.gz</code>
+     * @return the filename without the extension of the compressed file, e.g. <code>capture.tcptxt</code>
+     */
+    public static String removeCompressedExtension(String filename) {
+        String lowerFilename = filename.toLowerCase();
+        for ( String extension : COMPRESSED_EXTENSIONS ) {
+            if ( lowerFilename.endsWith(extension) && filename.length() > extension.length() ) {
+                return filename.substring(0, filename.length() - extension.length());
+            }
+        }
+        return filename;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * ExplodeStatistics.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timings of the explode phases of the process : scanning the captures, reformatting the envelopes,
+ * writing the output files and the AbaConnect import files.  The statistics are shared by all explodes of the
+ * process and may be updated from any thread, they are exposed as JMX MBean with {@link #registerMBean()} and
+ * printed at the end of a batch run, see {@link #getSummary()}.
+ * <p/>
+ * The times of a phase are the sums of the times of all threads, so the format and write times of several
+ * threads may be larger than the elapsed time.  The scan time does not include the time of the listener which
+ * receives the envelopes, in streaming mode that is the output of the envelopes.  The format times of the
+ * envelopes are kept in {@link LatencyHistogram}s in microseconds.  The peak heap is the sum of the peaks of the
+ * heap memory pools since the last {@link #reset()}, an upper limit of the heap used at one time.
+ */
+public final class ExplodeStatistics implements ExplodeStatisticsMBean {
+
+    static final String OBJECT_NAME = "ch.abacus.abaconnecttools:type=ExplodeStatistics";
+
+    private static final ExplodeStatistics INSTANCE = new ExplodeStatistics();
+
+    private final AtomicLong mCaptureCount = new AtomicLong();
+    private final AtomicLong mBytesScanned = new AtomicLong();
+    private final AtomicLong mLinesScanned = new AtomicLong();
+    private final AtomicLong mScanNanos = new AtomicLong();
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mResponseCount = new AtomicLong();
+    private final AtomicLong mUnknownMessageCount = new AtomicLong();
+    private final AtomicLong mFormatNanos = new AtomicLong();
+    private final AtomicLong mFormatUtf8RetryCount = new AtomicLong();
+    private final AtomicLong mFailedFormatCount = new AtomicLong();
+    private final AtomicLong mFilesWritten = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private final AtomicLong mFailedFileCount = new AtomicLong();
+    private final AtomicLong mWriteNanos = new AtomicLong();
+    private final AtomicLong mImportTransactionCount = new AtomicLong();
+    private final AtomicLong mImportBytesWritten = new AtomicLong();
+    private final AtomicLong mImportNanos = new AtomicLong();
+
+    // Guarded by the statistics
+    private LatencyHistogram mFormatMicros = new LatencyHistogram();
+    private LatencyHistogram mRequestFormatMicros = new LatencyHistogram();
+    private LatencyHistogram mResponseFormatMicros = new LatencyHistogram();
+
+    private ExplodeStatistics() {
+    }
+
+    public static ExplodeStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the statistics at the platform MBean server, a second call has no effect.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if ( !mbeanServer.isRegistered(objectName) ) {
+                mbeanServer.registerMBean(INSTANCE, objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("The explode statistics cannot be registered as MBean. [" + e.getMessage() + "]");
+        }
+    }
+
+    public void reset() {
+        mCaptureCount.set(0);
+        mBytesScanned.set(0);
+        mLinesScanned.set(0);
+        mScanNanos.set(0);
+        mRequestCount.set(0);
+        mResponseCount.set(0);
+        mUnknownMessageCount.set(0);
+        mFormatNanos.set(0);
+        mFormatUtf8RetryCount.set(0);
+        mFailedFormatCount.set(0);
+        mFilesWritten.set(0);
+        mBytesWritten.set(0);
+        mFailedFileCount.set(0);
+        mWriteNanos.set(0);
+        mImportTransactionCount.set(0);
+        mImportBytesWritten.set(0);
+        mImportNanos.set(0);
+        synchronized ( this ) {
+            mFormatMicros = new LatencyHistogram();
+            mRequestFormatMicros = new LatencyHistogram();
+            mResponseFormatMicros = new LatencyHistogram();
+        }
+        for ( MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans() ) {
+            if ( memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid() ) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Counts a scanned capture, the time excludes the listener of the envelopes.
+     */
+    public void addScannedCapture(long bytesScanned, long linesScanned, long scanNanos) {
+        mCaptureCount.incrementAndGet();
+        addScanned(bytesScanned, linesScanned, scanNanos);
+    }
+
+    /**
+     * Adds the part of a capture scanned since the last call, e.g. the appended part of a followed capture.
+     */
+    public void addScanned(long bytesScanned, long linesScanned, long scanNanos) {
+        mBytesScanned.addAndGet(bytesScanned);
+        mLinesScanned.addAndGet(linesScanned);
+        mScanNanos.addAndGet(scanNanos);
+    }
+
+    public void addFoundEnvelope(SoapEnvelopeInfo soapEnvelopeInfo) {
+        if ( soapEnvelopeInfo.isRequestMessage() ) {
+            mRequestCount.incrementAndGet();
+        } else if ( soapEnvelopeInfo.isResponseMessage() ) {
+            mResponseCount.incrementAndGet();
+        } else {
+            mUnknownMessageCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param requestMessage true for a request, false for a response or an envelope of unknown type
+     * @param formatNanos the time to reformat the envelope, including a retry with UTF-8
+     */
+    public void addFormattedEnvelope(boolean requestMessage, long formatNanos) {
+        mFormatNanos.addAndGet(formatNanos);
+        long formatMicros = TimeUnit.NANOSECONDS.toMicros(formatNanos);
+        synchronized ( this ) {
+            mFormatMicros.recordValue(formatMicros);
+            (requestMessage ? mRequestFormatMicros : mResponseFormatMicros).recordValue(formatMicros);
+        }
+    }
+
+    /**
+     * Counts an envelope which could only be formatted when it was read as UTF-8.
+     */
+    public void addFormatUtf8Retry() {
+        mFormatUtf8RetryCount.incrementAndGet();
+    }
+
+    /**
+     * Counts an envelope which could not be formatted and was written unformatted.
+     */
+    public void addFailedFormat() {
+        mFailedFormatCount.incrementAndGet();
+    }
+
+    public void addWrittenFile(long byteCount, long writeNanos) {
+        mFilesWritten.incrementAndGet();
+        mBytesWritten.addAndGet(byteCount);
+        mWriteNanos.addAndGet(writeNanos);
+    }
+
+    public void addFailedFile(long writeNanos) {
+        mFailedFileCount.incrementAndGet();
+        mWriteNanos.addAndGet(writeNanos);
+    }
+
+    public void addImportTransactions(long transactionCount) {
+        mImportTransactionCount.addAndGet(transactionCount);
+    }
+
+    public void addImportBytesWritten(long byteCount) {
+        mImportBytesWritten.addAndGet(byteCount);
+    }
+
+    public void addImportNanos(long importNanos) {
+        mImportNanos.addAndGet(importNanos);
+    }
+
+    public long getCaptureCount() {
+        return mCaptureCount.get();
+    }
+
+    public long getBytesScanned() {
+        return mBytesScanned.get();
+    }
+
+    public long getLinesScanned() {
+        return mLinesScanned.get();
+    }
+
+    public long getScanMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mScanNanos.get());
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getResponseCount() {
+        return mResponseCount.get();
+    }
+
+    public long getUnknownMessageCount() {
+        return mUnknownMessageCount.get();
+    }
+
+    public synchronized long getFormatCount() {
+        return mFormatMicros.getTotalCount();
+    }
+
+    public long getFormatMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mFormatNanos.get());
+    }
+
+    public synchronized double getFormatMeanMicros() {
+        return mFormatMicros.getMean();
+    }
+
+    public synchronized long getFormatP50Micros() {
+        return mFormatMicros.getValueAtPercentile(50.0);
+    }
+
+    public synchronized long getFormatP90Micros() {
+        return mFormatMicros.getValueAtPercentile(90.0);
+    }
+
+    public synchronized long getFormatP99Micros() {
+        return mFormatMicros.getValueAtPercentile(99.0);
+    }
+
+    public synchronized long getFormatMaxMicros() {
+        return mFormatMicros.getMaxValue();
+    }
+
+    public long getFormatUtf8RetryCount() {
+        return mFormatUtf8RetryCount.get();
+    }
+
+    public long getFailedFormatCount() {
+        return mFailedFormatCount.get();
+    }
+
+    public long getFilesWritten() {
+        return mFilesWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    public long getFailedFileCount() {
+        return mFailedFileCount.get();
+    }
+
+    public long getWriteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mWriteNanos.get());
+    }
+
+    public long getImportTransactionCount() {
+        return mImportTransactionCount.get();
+    }
+
+    public long getImportBytesWritten() {
+        return mImportBytesWritten.get();
+    }
+
+    public long getImportMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mImportNanos.get());
+    }
+
+    public long getPeakHeapBytes() {
+        long peakHeapBytes = 0;
+        for ( MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans() ) {
+            if ( memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid() ) {
+                peakHeapBytes += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return Math.max(peakHeapBytes, getUsedHeapBytes());
+    }
+
+    public long getUsedHeapBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public String getSummary() {
+        return createSummary("\n");
+    }
+
+    /**
+     * @param lineFeed the line separator of the summary
+     * @return the counters and times of all phases, one line per phase
+     */
+    public String createSummary(String lineFeed) {
+        StringBuilder sbSummary = new StringBuilder();
+        sbSummary.append(String.format("Scan   : %d captures, %d bytes, %d lines in %d ms",
+                getCaptureCount(), getBytesScanned(), getLinesScanned(), getScanMillis())).append(lineFeed);
+        sbSummary.append(String.format("Found  : %d requests, %d responses, %d of unknown type",
+                getRequestCount(), getResponseCount(), getUnknownMessageCount())).append(lineFeed);
+        synchronized ( this ) {
+            sbSummary.append(String.format("Format : %d envelopes in %d ms, %d formatted with UTF-8, %d failed",
+                    mFormatMicros.getTotalCount(), getFormatMillis(), getFormatUtf8RetryCount(), getFailedFormatCount())).append(lineFeed);
+            if ( mFormatMicros.getTotalCount() > 0 ) {
+                appendFormatTimes(sbSummary, "requests", mRequestFormatMicros, lineFeed);
+                appendFormatTimes(sbSummary, "responses", mResponseFormatMicros, lineFeed);
+            }
+        }
+        sbSummary.append(String.format("Write  : %d files, %d bytes in %d ms, %d failed",
+                getFilesWritten(), getBytesWritten(), getWriteMillis(), getFailedFileCount())).append(lineFeed);
+        sbSummary.append(String.format("Import : %d transactions, %d bytes in %d ms",
+                getImportTransactionCount(), getImportBytesWritten(), getImportMillis())).append(lineFeed);
+        sbSummary.append(String.format("Heap   : %d MB peak", getPeakHeapBytes() / (1024 * 1024))).append(lineFeed);
+        return sbSummary.toString();
+    }
+
+    private void appendFormatTimes(StringBuilder sbSummary, String messageType, LatencyHistogram formatMicros, String lineFeed) {
+        if ( formatMicros.getTotalCount() == 0 ) {
+            return;
+        }
+        sbSummary.append(String.format("         %-9s : mean %.0f us, p50 %d us, p90 %d us, p99 %d us, max %d us", messageType,
+                formatMicros.getMean(), formatMicros.getValueAtPercentile(50.0), formatMicros.getValueAtPercentile(90.0),
+                formatMicros.getValueAtPercentile(99.0), formatMicros.getMaxValue())).append(lineFeed);
+    }
+}
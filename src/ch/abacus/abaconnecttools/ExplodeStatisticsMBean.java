@@ -0,0 +1,80 @@
+/*
+ * ExplodeStatisticsMBean.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+/**
+ * The JMX management interface of the {@link ExplodeStatistics}, registered as
+ * <code>ch.abacus.abaconnecttools:type=ExplodeStatistics</code>.  The times are the sums over all threads.
+ */
+public interface ExplodeStatisticsMBean {
+
+    long getCaptureCount();
+
+    long getBytesScanned();
+
+    long getLinesScanned();
+
+    long getScanMillis();
+
+    long getRequestCount();
+
+    long getResponseCount();
+
+    long getUnknownMessageCount();
+
+    long getFormatCount();
+
+    long getFormatMillis();
+
+    double getFormatMeanMicros();
+
+    long getFormatP50Micros();
+
+    long getFormatP90Micros();
+
+    long getFormatP99Micros();
+
+    long getFormatMaxMicros();
+
+    long getFormatUtf8RetryCount();
+
+    long getFailedFormatCount();
+
+    long getFilesWritten();
+
+    long getBytesWritten();
+
+    long getFailedFileCount();
+
+    long getWriteMillis();
+
+    long getImportTransactionCount();
+
+    long getImportBytesWritten();
+
+    long getImportMillis();
+
+    long getPeakHeapBytes();
+
+    long getUsedHeapBytes();
+
+    /**
+     * @return the summary printed at the end of a batch run
+     */
+    String getSummary();
+
+    /**
+     * Sets all counters to 0 and starts a new heap peak.
+     */
+    void reset();
+}
@@ -0,0 +1,615 @@
+/*
+ * ExplodeTcpMonBatch.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless command-line mode which explodes many TcpMon capture files without showing the Swing frame.
+ * <p/>
+ * The capture files can be specified as single files, as directories (all files in the directory) or as
+ * glob patterns (e.g. <code>captures/*.tcptxt</code> or <code>captures/**&#47;*.txt</code>).  The files are
+ * exploded concurrently on a bounded worker pool, one {@link TcpMonMessageExploder} per capture file.
+ * <p/>
+ * Each capture is written to its own output directory named after the capture file, which is created beneath
+ * the <code>-outdir</code> directory or, if not specified, beneath the directory of the capture file.
+ * Compressed capture files (<code>.gz</code>, <code>.zip</code>, <code>.bz2</code>) are decompressed while they
+ * are scanned, <code>capture.tcptxt.gz</code> is written to the output directory <code>capture</code>.
+ * <pre>
+ *    java -jar explode_soap_messages_app.jar -batch -removeNamespaces -threads 8 /data/captures/*.tcptxt
+ * </pre>
+ * With <code>-follow</code> the capture files are followed while they grow, see
+ * {@link TcpMonMessageExploder#followTcpMonFile(String, String)}, until the process is stopped (e.g. with Ctrl+C).
+ * The output of the messages found so far is completed before the process ends.
+ * <p/>
+ * With <code>-proxy &lt;listenPort&gt;:&lt;targetHost&gt;:&lt;targetPort&gt;</code> no capture file is needed : the
+ * {@link SoapRecordingProxy} forwards the connections to the target and the relayed messages are written to the
+ * <code>-outdir</code> directory until the process is stopped.
+ */
+public class ExplodeTcpMonBatch {
+
+    private static final String OPTION_BATCH = "-batch";
+
+    private boolean mReformatSoapMessages = true;
+    private boolean mRemoveNamespaces = false;
+    private boolean mOutputSoapHeaders = false;
+    private boolean mConvertExtendedFieldsToXmlFormat = false;
+    private boolean mStreamingMode = false;
+    private boolean mUseCaptureIndex = true;
+    private boolean mFollowMode = false;
+    private boolean mCreateLatencyReport = false;
+    private boolean mDeduplicateMessages = false;
+    private int mProxyListenPort = -1;
+    private String mProxyTargetHost = null;
+    private int mProxyTargetPort = -1;
+    private String mFilenamePrefix = "SM_";
+    private String mOutputDirectory = "";
+    private int mThreadCount = Runtime.getRuntime().availableProcessors();
+    private int mFormatThreadCount = 0;     // 0 = share the processors between the capture files
+    private int mOutputThreadCount = 0;     // 0 = default of the exploder
+    private int mOutputSyncPolicy = AsyncFileWriter.SYNC_NONE;
+    private int mOutputArchiveFormat = ArchiveFileWriter.FORMAT_NONE;
+    private int mOutputCompressionLevel = -1;
+    private int mMaxImportTransactionsPerFile = 0;
+
+    private ArrayList<String> mInputPatterns = new ArrayList<String>();
+    private PrintStream mOut = System.out;
+
+    private final List<TcpMonMessageExploder> mRunningExploders = Collections.synchronizedList(new ArrayList<TcpMonMessageExploder>());
+    private final CountDownLatch mRunFinished = new CountDownLatch(1);
+    private volatile boolean mStopRequested = false;
+
+    /**
+     * Result of exploding a single capture file.
+     */
+    static class BatchResult {
+        File mCaptureFile;
+        String mOutputDirectory;
+        int mMessageCount = 0;
+        boolean mCaptureIndexUsed = false;
+        long mElapsedMillis = 0;
+        String mMessages = "";
+        List<String> mXmlProblemFileNameMessages = new ArrayList<String>();
+        Throwable mError = null;
+    }
+
+    public static void main(String[] args) {
+        System.exit(runBatch(args));
+    }
+
+    /**
+     * Checks whether the program should run without UI.  This is the case when the <code>-batch</code>
+     * option is specified or when no display is available.
+     *
+     * @param args the command-line arguments
+     * @return true if the batch mode should be started
+     */
+    public static boolean isBatchMode(String[] args) {
+        if ( args != null ) {
+            for ( String arg : args ) {
+                if ( OPTION_BATCH.equalsIgnoreCase(arg) ) {
+                    return true;
+                }
+            }
+        }
+        return GraphicsEnvironment.isHeadless() && args != null && args.length > 0;
+    }
+
+    /**
+     * Runs the batch mode with the specified command-line arguments.
+     *
+     * @param args the command-line arguments
+     * @return the process exit code : 0 if all files were exploded, 1 if there were errors, 2 for usage errors
+     */
+    public static int runBatch(String[] args) {
+        ExplodeTcpMonBatch batch = new ExplodeTcpMonBatch();
+        if ( !batch.parseArguments(args) ) {
+            batch.printUsage();
+            return 2;
+        }
+        return batch.run();
+    }
+
+    boolean parseArguments(String[] args) {
+        if ( args == null ) return false;
+        for ( int index = 0; index < args.length; index++ ) {
+            String arg = args[index];
+            if ( OPTION_BATCH.equalsIgnoreCase(arg) ) {
+                continue;
+            } else if ( "-reformat".equalsIgnoreCase(arg) ) {
+                mReformatSoapMessages = true;
+            } else if ( "-noReformat".equalsIgnoreCase(arg) ) {
+                mReformatSoapMessages = false;
+            } else if ( "-removeNamespaces".equalsIgnoreCase(arg) ) {
+                mRemoveNamespaces = true;
+            } else if ( "-outputHeaders".equalsIgnoreCase(arg) ) {
+                mOutputSoapHeaders = true;
+            } else if ( "-convertExtendedFields".equalsIgnoreCase(arg) ) {
+                mConvertExtendedFieldsToXmlFormat = true;
+            } else if ( "-streaming".equalsIgnoreCase(arg) ) {
+                mStreamingMode = true;
+            } else if ( "-noIndex".equalsIgnoreCase(arg) ) {
+                mUseCaptureIndex = false;
+            } else if ( "-follow".equalsIgnoreCase(arg) ) {
+                mFollowMode = true;
+            } else if ( "-latencyReport".equalsIgnoreCase(arg) ) {
+                mCreateLatencyReport = true;
+            } else if ( "-dedup".equalsIgnoreCase(arg) ) {
+                mDeduplicateMessages = true;
+            } else if ( "-proxy".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                if ( !parseProxyArgument(args[++index]) ) {
+                    mOut.println("Invalid proxy specification : " + args[index] + " (expected <listenPort>:<targetHost>:<targetPort>)");
+                    return false;
+                }
+            } else if ( "-prefix".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                mFilenamePrefix = args[++index];
+            } else if ( "-outdir".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                mOutputDirectory = args[++index];
+            } else if ( "-threads".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                try {
+                    mThreadCount = Integer.parseInt(args[++index]);
+                } catch (NumberFormatException e) {
+                    mOut.println("Invalid thread count : " + args[index]);
+                    return false;
+                }
+                if ( mThreadCount < 1 ) {
+                    mThreadCount = 1;
+                }
+            } else if ( "-formatThreads".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                try {
+                    mFormatThreadCount = Math.max(1, Integer.parseInt(args[++index]));
+                } catch (NumberFormatException e) {
+                    mOut.println("Invalid format thread count : " + args[index]);
+                    return false;
+                }
+            } else if ( "-ioThreads".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                try {
+                    mOutputThreadCount = Math.max(1, Integer.parseInt(args[++index]));
+                } catch (NumberFormatException e) {
+                    mOut.println("Invalid I/O thread count : " + args[index]);
+                    return false;
+                }
+            } else if ( "-fsync".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                mOutputSyncPolicy = AsyncFileWriter.getSyncPolicy(args[++index]);
+                if ( mOutputSyncPolicy < 0 ) {
+                    mOut.println("Invalid fsync policy : " + args[index]);
+                    return false;
+                }
+            } else if ( "-archive".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                mOutputArchiveFormat = ArchiveFileWriter.getArchiveFormat(args[++index]);
+                if ( mOutputArchiveFormat < 0 ) {
+                    mOut.println("Invalid archive format : " + args[index]);
+                    return false;
+                }
+            } else if ( "-compression".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                try {
+                    mOutputCompressionLevel = Integer.parseInt(args[++index]);
+                } catch (NumberFormatException e) {
+                    mOut.println("Invalid compression level : " + args[index]);
+                    return false;
+                }
+                if ( mOutputCompressionLevel < 0 || mOutputCompressionLevel > 9 ) {
+                    mOut.println("Invalid compression level : " + args[index]);
+                    return false;
+                }
+            } else if ( "-acMaxTransactions".equalsIgnoreCase(arg) && index + 1 < args.length ) {
+                try {
+                    mMaxImportTransactionsPerFile = Integer.parseInt(args[++index]);
+                } catch (NumberFormatException e) {
+                    mOut.println("Invalid transaction count : " + args[index]);
+                    return false;
+                }
+                if ( mMaxImportTransactionsPerFile < 0 ) {
+                    mOut.println("Invalid transaction count : " + args[index]);
+                    return false;
+                }
+            } else if ( "-help".equalsIgnoreCase(arg) || "-?".equals(arg) ) {
+                return false;
+            } else if ( arg.startsWith("-") ) {
+                mOut.println("Unknown option : " + arg);
+                return false;
+            } else {
+                mInputPatterns.add(arg);
+            }
+        }
+        return mInputPatterns.size() > 0 || mProxyListenPort >= 0;
+    }
+
+    private boolean parseProxyArgument(String proxyArgument) {
+        int firstColonPos = proxyArgument.indexOf(':');
+        int lastColonPos = proxyArgument.lastIndexOf(':');
+        if ( firstColonPos <= 0 || lastColonPos <= firstColonPos + 1 ) {
+            return false;
+        }
+        try {
+            mProxyListenPort = Integer.parseInt(proxyArgument.substring(0, firstColonPos));
+            mProxyTargetHost = proxyArgument.substring(firstColonPos + 1, lastColonPos);
+            mProxyTargetPort = Integer.parseInt(proxyArgument.substring(lastColonPos + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return mProxyListenPort >= 0 && mProxyTargetPort > 0;
+    }
+
+    void printUsage() {
+        mOut.println("Explode TCPMon SOAP Messages - " + ExplodeTcpMonMessages.getCurrentProgramVersionInfo());
+        mOut.println();
+        mOut.println("Usage : java -jar explode_soap_messages_app.jar -batch [options] <file|directory|glob> ...");
+        mOut.println("        java -jar explode_soap_messages_app.jar -batch [options] -proxy <listenPort>:<targetHost>:<targetPort>");
+        mOut.println();
+        mOut.println("Options :");
+        mOut.println("  -noReformat             Do not reformat the XML SOAP messages (reformatting is the default)");
+        mOut.println("  -removeNamespaces       Remove namespaces from messages and create the AbaConnect import file");
+        mOut.println("  -outputHeaders          Output the SOAP headers as comments in the XML files");
+        mOut.println("  -convertExtendedFields  Convert Extended Fields to XML format");
+        mOut.println("  -streaming              Write each message as soon as it is read (memory bounded by the largest message)");
+        mOut.println("  -noIndex                Neither read nor write the capture index (<capture file>" + CaptureIndex.INDEX_FILE_SUFFIX + ")");
+        mOut.println("  -follow                 Follow the growing capture files and write the appended messages until stopped");
+        mOut.println("  -latencyReport          Write the latency percentiles per operation to " + LatencyAnalytics.LATENCY_REPORT_FILENAME + " in the output directory");
+        mOut.println("  -dedup                  Write identical messages once and list the duplicates in " + SoapMessageDeduplicator.MANIFEST_FILENAME);
+        mOut.println("  -proxy <port>:<host>:<port>  Record the SOAP traffic of a local port forwarded to the target (instead of TcpMon)");
+        mOut.println("  -prefix <prefix>        Filename prefix of the output files (default SM_)");
+        mOut.println("  -outdir <directory>     Base output directory (default is the directory of each capture file)");
+        mOut.println("  -threads <count>        Number of capture files exploded concurrently (default " + Runtime.getRuntime().availableProcessors() + ")");
+        mOut.println("  -formatThreads <count>  Number of threads reformatting the messages of each capture file");
+        mOut.println("  -ioThreads <count>      Number of threads writing the output files of each capture file (default 2)");
+        mOut.println("  -fsync <none|file|await>  Force the output files to disk : not at all (default), each file or before each result");
+        mOut.println("  -archive <zip|tar|tgz>  Write the output files of each capture file to one archive (<prefix>" + ArchiveFileWriter.ARCHIVE_BASE_NAME + ".zip)");
+        mOut.println("  -compression <0-9>      Compression level of the zip or tgz archive (0 = stored, default 6)");
+        mOut.println("  -acMaxTransactions <count>  Maximum number of transactions per AbaConnect import file (default 0 = no limit)");
+    }
+
+    int run() {
+        ExplodeStatistics.registerMBean();
+        ExplodeStatistics.getInstance().reset();
+        if ( mProxyListenPort >= 0 ) {
+            return runRecordingProxy();
+        }
+        List<File> captureFiles = resolveCaptureFiles(mInputPatterns);
+        if ( captureFiles.size() == 0 ) {
+            mOut.println("No capture files found for : " + mInputPatterns);
+            return 1;
+        }
+        // A followed capture file occupies its thread until the process is stopped
+        int threadCount = (mFollowMode ? captureFiles.size() : Math.max(1, Math.min(mThreadCount, captureFiles.size())));
+        if ( mFormatThreadCount < 1 ) {
+            mFormatThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors() / threadCount);
+        }
+        if ( mFollowMode ) {
+            mOut.println("Following " + captureFiles.size() + " capture file(s), stop with Ctrl+C");
+            addStopShutdownHook();
+        } else {
+            mOut.println("Exploding " + captureFiles.size() + " capture file(s) with " + threadCount + " thread(s)");
+        }
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        ArrayList<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>();
+        try {
+            for ( final File captureFile : captureFiles ) {
+                futures.add(executor.submit(new Callable<BatchResult>() {
+                    public BatchResult call() {
+                        return explodeCaptureFile(captureFile);
+                    }
+                }));
+            }
+
+            int errorCount = 0;
+            int totalMessageCount = 0;
+            for ( Future<BatchResult> future : futures ) {
+                BatchResult result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mOut.println("Batch run was interrupted.");
+                    return 1;
+                } catch (ExecutionException e) {
+                    mOut.println("Unexpected error : " + e.getCause());
+                    errorCount++;
+                    continue;
+                }
+                printResult(result);
+                totalMessageCount += result.mMessageCount;
+                if ( result.mError != null ) {
+                    errorCount++;
+                }
+            }
+            mOut.println("A total of " + totalMessageCount + " output files were written for " + captureFiles.size()
+                    + " capture file(s) in " + (System.currentTimeMillis() - startTime) + " ms.");
+            mOut.println("SAX parser pool : " + SaxParserPool.getHitCount() + " hits, " + SaxParserPool.getMissCount() + " misses");
+            mOut.print(ExplodeStatistics.getInstance().createSummary(System.getProperty("line.separator")));
+            return (errorCount > 0 ? 1 : 0);
+        } finally {
+            executor.shutdownNow();
+            mRunFinished.countDown();
+        }
+    }
+
+    /**
+     * Records the traffic of the proxy port until the process is stopped.
+     */
+    private int runRecordingProxy() {
+        String outputDirectory = ("".equals(mOutputDirectory) ? "." : mOutputDirectory);
+        File outputDir = new File(outputDirectory);
+        if ( !outputDir.isDirectory() && !outputDir.mkdirs() ) {
+            mOut.println("Output directory [" + outputDirectory + "] cannot be created.");
+            return 1;
+        }
+        addStopShutdownHook();
+        long startTime = System.currentTimeMillis();
+        try {
+            TcpMonMessageExploder exploder = createExploder();
+            mRunningExploders.add(exploder);
+            if ( mStopRequested ) {
+                exploder.cancel();
+            }
+            mOut.println("Recording to " + outputDir.getAbsolutePath() + ", stop with Ctrl+C");
+            try {
+                exploder.recordProxyTraffic(mProxyListenPort, mProxyTargetHost, mProxyTargetPort, outputDirectory);
+            } finally {
+                mRunningExploders.remove(exploder);
+            }
+            mOut.println(exploder.getMessages().trim());
+            mOut.println("A total of " + exploder.getOutputMessageCount() + " output files were written in " + (System.currentTimeMillis() - startTime) + " ms.");
+            mOut.print(ExplodeStatistics.getInstance().createSummary(System.getProperty("line.separator")));
+            return (exploder.getMessages().contains("cannot be started") ? 1 : 0);
+        } finally {
+            mRunFinished.countDown();
+        }
+    }
+
+    private void addStopShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread("Batch Shutdown") {
+            @Override
+            public void run() {
+                stopRunningExploders();
+            }
+        });
+    }
+
+    /**
+     * Stops the followed capture files or the recording proxy and waits until the output of the messages found
+     * so far is complete.
+     */
+    private void stopRunningExploders() {
+        mStopRequested = true;
+        synchronized ( mRunningExploders ) {
+            for ( TcpMonMessageExploder exploder : mRunningExploders ) {
+                exploder.cancel();
+            }
+        }
+        try {
+            mRunFinished.await(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    BatchResult explodeCaptureFile(File captureFile) {
+        BatchResult result = new BatchResult();
+        result.mCaptureFile = captureFile;
+        long startTime = System.currentTimeMillis();
+        try {
+            String outputDirectory = getOutputDirectory(captureFile);
+            result.mOutputDirectory = outputDirectory;
+            File outputDir = new File(outputDirectory);
+            if ( !outputDir.isDirectory() && !outputDir.mkdirs() ) {
+                throw new IOException("Output directory [" + outputDirectory + "] cannot be created.");
+            }
+
+            TcpMonMessageExploder exploder = createExploder();
+
+            if ( mFollowMode ) {
+                mRunningExploders.add(exploder);
+                if ( mStopRequested ) {
+                    exploder.cancel();
+                }
+                try {
+                    exploder.followTcpMonFile(captureFile.getPath(), outputDirectory);
+                } finally {
+                    mRunningExploders.remove(exploder);
+                }
+            } else {
+                exploder.explodeAndOutputSoapMessages(captureFile.getPath(), outputDirectory);
+            }
+
+            result.mMessageCount = exploder.getOutputMessageCount();
+            result.mCaptureIndexUsed = exploder.isCaptureIndexUsed();
+            result.mMessages = exploder.getMessages();
+            result.mXmlProblemFileNameMessages = new ArrayList<String>(exploder.getXmlProblemFileNameMessages());
+        } catch (Throwable e) {
+            result.mError = e;
+        }
+        result.mElapsedMillis = System.currentTimeMillis() - startTime;
+        return result;
+    }
+
+    private TcpMonMessageExploder createExploder() {
+        TcpMonMessageExploder exploder = new TcpMonMessageExploder();
+        exploder.setFilenamePrefix(mFilenamePrefix);
+        exploder.setReformatSoapMessages(mReformatSoapMessages);
+        exploder.setRemoveNamespaces(mRemoveNamespaces);
+        exploder.setOutputSoapHeaders(mOutputSoapHeaders);
+        exploder.setConvertExtendedFieldsToXmlFormat(mConvertExtendedFieldsToXmlFormat);
+        exploder.setStreamingMode(mStreamingMode);
+        if ( mFormatThreadCount > 0 ) {
+            exploder.setFormatThreadCount(mFormatThreadCount);
+        }
+        if ( mOutputThreadCount > 0 ) {
+            exploder.setOutputThreadCount(mOutputThreadCount);
+        }
+        exploder.setOutputSyncPolicy(mOutputSyncPolicy);
+        exploder.setOutputArchiveFormat(mOutputArchiveFormat);
+        exploder.setOutputCompressionLevel(mOutputCompressionLevel);
+        exploder.setMaxImportTransactionsPerFile(mMaxImportTransactionsPerFile);
+        exploder.setUseCaptureIndex(mUseCaptureIndex);
+        exploder.setCreateLatencyReport(mCreateLatencyReport);
+        exploder.setDeduplicateMessages(mDeduplicateMessages);
+        return exploder;
+    }
+
+    private void printResult(BatchResult result) {
+        if ( result.mError != null ) {
+            mOut.println("ERROR  " + result.mCaptureFile.getPath() + " : " + result.mError);
+            return;
+        }
+        mOut.println("OK     " + result.mCaptureFile.getPath() + " : " + result.mMessageCount + " messages -> "
+                + result.mOutputDirectory + " (" + result.mElapsedMillis + " ms" + (result.mCaptureIndexUsed ? ", from capture index" : "") + ")");
+        if ( result.mMessages != null && result.mMessages.trim().length() > 0 ) {
+            mOut.println("       " + result.mMessages.trim());
+        }
+        if ( result.mXmlProblemFileNameMessages.size() > 0 ) {
+            mOut.println("       The following XML Files may have format syntax problems :");
+            for ( String problemFile : result.mXmlProblemFileNameMessages ) {
+                mOut.println("       " + problemFile);
+            }
+        }
+    }
+
+    String getOutputDirectory(File captureFile) {
+        String baseDirectory = mOutputDirectory;
+        if ( baseDirectory == null || "".equals(baseDirectory) ) {
+            File parent = captureFile.getAbsoluteFile().getParentFile();
+            baseDirectory = (parent == null ? "." : parent.getPath());
+        }
+        String captureName = CompressedCapture.removeCompressedExtension(captureFile.getName());
+        int ipos = captureName.lastIndexOf(".");
+        if ( ipos > 0 ) {
+            captureName = captureName.substring(0, ipos);
+        }
+        return baseDirectory + File.separator + captureName;
+    }
+
+    /**
+     * Resolves the command-line file arguments to a list of capture files.  Each argument may be a file,
+     * a directory (all files directly in the directory) or a glob pattern.  XML files and capture indexes
+     * are only taken if they are named explicitly.
+     *
+     * @param inputPatterns the file, directory or glob arguments
+     * @return the list of existing capture files without duplicates
+     */
+    static List<File> resolveCaptureFiles(List<String> inputPatterns) {
+        LinkedHashSet<File> captureFiles = new LinkedHashSet<File>();
+        for ( String pattern : inputPatterns ) {
+            File file = new File(pattern);
+            if ( file.isFile() ) {
+                captureFiles.add(file.getAbsoluteFile());
+            } else if ( file.isDirectory() ) {
+                File[] dirFiles = file.listFiles();
+                if ( dirFiles != null ) {
+                    ArrayList<File> sortedFiles = new ArrayList<File>();
+                    for ( File dirFile : dirFiles ) {
+                        if ( dirFile.isFile() && isCaptureFile(dirFile) ) {
+                            sortedFiles.add(dirFile.getAbsoluteFile());
+                        }
+                    }
+                    Collections.sort(sortedFiles);
+                    captureFiles.addAll(sortedFiles);
+                }
+            } else if ( isGlobPattern(pattern) ) {
+                for ( File globFile : expandGlob(pattern) ) {
+                    if ( isCaptureFile(globFile) ) {
+                        captureFiles.add(globFile);
+                    }
+                }
+            } else {
+                System.out.println("Specified filename [" + pattern + "] cannot be found.");
+            }
+        }
+        return new ArrayList<File>(captureFiles);
+    }
+
+    /**
+     * @return false for the XML files and capture indexes which are written next to the captures
+     */
+    private static boolean isCaptureFile(File file) {
+        return !file.getName().toLowerCase().endsWith(".xml") && !CaptureIndex.isIndexFile(file);
+    }
+
+    private static boolean isGlobPattern(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0 || pattern.indexOf('{') >= 0;
+    }
+
+    private static List<File> expandGlob(String pattern) {
+        final ArrayList<File> matchingFiles = new ArrayList<File>();
+        String normalizedPattern = pattern.replace('\\', '/');
+        // The base directory is the part of the pattern before the first path element with glob characters
+        int firstGlobPos = normalizedPattern.length();
+        for ( char globChar : new char[] {'*','?','[','{'} ) {
+            int ipos = normalizedPattern.indexOf(globChar);
+            if ( ipos >= 0 && ipos < firstGlobPos ) {
+                firstGlobPos = ipos;
+            }
+        }
+        int lastSlashPos = normalizedPattern.lastIndexOf('/', firstGlobPos);
+        Path baseDirectory = Paths.get(lastSlashPos > 0 ? normalizedPattern.substring(0, lastSlashPos) : (lastSlashPos == 0 ? "/" : "."));
+        String relativePattern = normalizedPattern.substring(lastSlashPos + 1);
+        if ( !Files.isDirectory(baseDirectory) ) {
+            return matchingFiles;
+        }
+        final Path base = baseDirectory;
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+        try {
+            if ( relativePattern.contains("/") ) {
+                Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if ( attrs.isRegularFile() && matcher.matches(base.relativize(file)) ) {
+                            matchingFiles.add(file.toFile().getAbsoluteFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else {
+                DirectoryStream<Path> dirStream = Files.newDirectoryStream(base);
+                try {
+                    for ( Path file : dirStream ) {
+                        if ( Files.isRegularFile(file) && matcher.matches(file.getFileName()) ) {
+                            matchingFiles.add(file.toFile().getAbsoluteFile());
+                        }
+                    }
+                } finally {
+                    dirStream.close();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Files for pattern [" + pattern + "] cannot be listed. [" + e.getMessage() + "]");
+        }
+        Collections.sort(matchingFiles);
+        return matchingFiles;
+    }
+}
@@ -22,7 +22,7 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.*;
 import java.net.URL;
-import java.util.*;
+import java.util.List;
 
 public class ExplodeTcpMonMessages  extends JFrame {
     private String m_StartPath = null;
@@ -31,8 +31,14 @@ public class ExplodeTcpMonMessages  extends JFrame {
     private static String OPTION_TEXT_REMOVE_NAMESPACES = "Remove Namespaces from Messages";
     private static String OPTION_TEXT_OUTPUT_SOAP_HEADERS = "Output SOAP Headers";
     private static String OPTION_TEXT_CONVERT_EXTENDED_FIELDS = "Convert Extended Fields to XML Format";
+    private static String OPTION_TEXT_FOLLOW_CAPTURE_FILE = "Follow Capture File (explode appended messages)";
+    private static String OPTION_TEXT_LATENCY_REPORT = "Latency Report per Operation";
+    private static String OPTION_TEXT_ZIP_ARCHIVE = "Write Messages to one ZIP Archive";
+    private static String OPTION_TEXT_DEDUPLICATE = "Write Identical Messages only once";
     private static String BUTTON_TEXT_DELETE_EXISTING_XML_FILES = "Delete existing XML Files";
     private static String BUTTON_TEXT_EXPLODE_MESSAGES = "Explode Messages";
+    private static String BUTTON_TEXT_CANCEL = "Cancel";
+    private static int PROGRESS_UPDATE_MILLIS = 250;
 
     private String m_StartXmlFileName = null;
     private JTextField m_txfTcpMonFileName = null;
@@ -41,144 +47,29 @@ public class ExplodeTcpMonMessages  extends JFrame {
     private JCheckBox m_chkRemoveNamespaces = null;
     private JCheckBox m_chkConvertExtendedFieldsToXmlFormat = null;
     private JCheckBox m_chkOutputSoapHeaders = null;
+    private JCheckBox m_chkFollowCaptureFile = null;
+    private JCheckBox m_chkLatencyReport = null;
+    private JCheckBox m_chkZipArchive = null;
+    private JCheckBox m_chkDeduplicate = null;
 
     private JTextPane m_txpInfoBox = null;
+    private JButton m_btnExplodeMessages = null;
+    private JButton m_btnCancel = null;
+    private JProgressBar m_prbExplodeProgress = null;
+
+    private TcpMonMessageExploder m_RunningExploder = null;
+    private Timer m_ProgressTimer = null;
     private boolean mIsInfoBoxHtmlFormat = true;
 
     private String m_FilenamePrefix = "SM_";
     private String m_LineFeed = "\r\n";
 
-    public StringBuilder m_sbMessages = new StringBuilder();
-    public ArrayList<SoapEnvelopeInfo> m_SoapEnvelopeList = new ArrayList<SoapEnvelopeInfo>();
-
-    private ArrayList<String> mXmlProblemFileNameMessages = new ArrayList<String>();
-
-    class SoapEnvelopeInfo implements Comparable {
-        final String SOAP_RESPONSE_MESSAGE = "RESPONSE";
-        final String SOAP_REQUEST_MESSAGE = "REQUEST";
-
-        String mSoapEnvelopeXml = "";
-        String mSoapHeader = "";
-        String mSoapBodyName = "";
-        String mMessageType = "";   // Either be REQUEST or RESPONSE
-        int mOrderIndex = -1;
-
-        SoapEnvelopeInfo(String soapEnvelopeXml) {
-            mSoapEnvelopeXml = (soapEnvelopeXml == null ? "" : soapEnvelopeXml);
-        }
-
-        @Override
-        public String toString() {
-            return getSoapEnvelopeXml();
-        }
-
-        public String getSoapEnvelopeXml() {
-            return (mSoapEnvelopeXml == null ? "" : mSoapEnvelopeXml);
-        }
-
-        public void setSoapEnvelopeXml(String soapEnvelopeXml) {
-            mSoapEnvelopeXml = (soapEnvelopeXml == null ? "" : soapEnvelopeXml);
-        }
-
-        public String getSoapHeader() {
-            return mSoapHeader;
-        }
-
-        public void setSoapHeader(String soapHeader) {
-            mSoapHeader = soapHeader;
-        }
-
-        public String getTimeFromSoapHeader() {
-            String headerTime = "";
-            if ( mSoapHeader != null ) {
-                int ipos = mSoapHeader.indexOf("Date:");
-                if ( ipos >= 0 ) {
-                    headerTime = mSoapHeader.substring(ipos);
-                    ipos = headerTime.indexOf("\n");
-                    if ( ipos > 0 ) {
-                        headerTime = headerTime.substring(0,ipos).trim();
-                    }
-                }
-            }
-            return headerTime;
-        }
-
-        public String getSoapBodyName() {
-            if ( mSoapBodyName == null || "".equals(mSoapBodyName) ) {
-                mSoapBodyName = extractActionNameFromBodyName(getSoapEnvelopeXml());
-                if ( mSoapBodyName.endsWith("/") ) {
-                    mSoapBodyName = mSoapBodyName.substring(0,mSoapBodyName.length()-1);
-                }
-            }
-            return mSoapBodyName;
-        }
-
-        public String getMessageType() {
-            if ( mMessageType == null || "".equals(mMessageType) ) {
-                if ( mSoapHeader.startsWith("HTTP/1.") ) {
-                    mMessageType = SOAP_RESPONSE_MESSAGE;
-                } else if ( mSoapHeader.startsWith("POST ") ) {
-                    mMessageType = SOAP_REQUEST_MESSAGE;
-                }
-            }
-            return mMessageType;
-        }
-
-        public boolean isRequestMessage() {
-            return SOAP_REQUEST_MESSAGE.equals(getMessageType());
-        }
-
-        public boolean isResponseMessage() {
-            return SOAP_RESPONSE_MESSAGE.equals(getMessageType());
-        }
-
-        public int getOrderIndex() {
-            return mOrderIndex;
-        }
-
-        public void setOrderIndex(int orderIndex) {
-            mOrderIndex = orderIndex;
-        }
-
-        public String extractActionNameFromBodyName(String soapEnvelope) {
-            String bodyName = "";
-            int bodyPos = soapEnvelope.indexOf("Body");
-            while ( bodyPos > 0 ) {
-                if ( soapEnvelope.charAt(bodyPos-1) == '<' || soapEnvelope.charAt(bodyPos-1) == ':' ) {
-                    int startTagPos = soapEnvelope.indexOf("<",bodyPos);
-                    if ( startTagPos > bodyPos ) {
-                        int endTagPos = soapEnvelope.indexOf(">",startTagPos);
-                        if ( endTagPos > startTagPos ) {
-                            int spacePos = soapEnvelope.indexOf(" ",startTagPos);
-                            if ( spacePos >= 0 && spacePos < endTagPos ) {
-                                endTagPos = spacePos;
-                            }
-                            int namespaceSeparatorPos = soapEnvelope.indexOf(":",startTagPos);
-                            if ( namespaceSeparatorPos < endTagPos && namespaceSeparatorPos > startTagPos) {
-                                startTagPos = namespaceSeparatorPos;
-                            }
-                            if ( endTagPos > startTagPos ) {
-                                bodyName = soapEnvelope.substring(startTagPos+1,endTagPos);
-                                return bodyName;
-                            }
-                        }
-                    }
-                }
-                bodyPos = soapEnvelope.indexOf("Body",bodyPos+1);
-            }
-            return bodyName;
-        }
-
-        @Override
-        public int compareTo(Object o) {
-            if ( o instanceof SoapEnvelopeInfo ) {
-                return new Integer(getOrderIndex()).compareTo(((SoapEnvelopeInfo)o).getOrderIndex());
-            }
-            return 0;
-        }
-    }
-
     public static void main(String[] args) {
+        if ( ExplodeTcpMonBatch.isBatchMode(args) ) {
+            System.exit(ExplodeTcpMonBatch.runBatch(args));
+            return;
+        }
+        ExplodeStatistics.registerMBean();
         String startXmlFilename = "";
         if ( args != null  &&  args.length > 0 ) {
             for (String arg : args) {
@@ -193,6 +84,7 @@ public class ExplodeTcpMonMessages  extends JFrame {
 
         frm.addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
+                frm.action_CancelExplode();
                 frm.dispose();
             }
         });
@@ -225,517 +117,6 @@ public class ExplodeTcpMonMessages  extends JFrame {
         m_StartXmlFileName = (startXmlFilename == null ? "" : startXmlFilename);
     }
 
-    public void explodeTcpMonFile(String tcpMonLogFilename) {
-        m_SoapEnvelopeList.clear();
-        if ( ! new File(tcpMonLogFilename).exists() ) {
-            addMessage("Specified filename [" + tcpMonLogFilename + "] cannot be found.");
-            return;
-        }
-        StringBuilder sbSoapEnvelope = new StringBuilder();
-        StringBuilder sbSoapHeader = new StringBuilder();
-        try {
-            BufferedReader bufIn = new BufferedReader(new InputStreamReader(new FileInputStream(tcpMonLogFilename)));
-            String inputLine;
-            String envelopeNameSpace;
-            String envelopeEndTag = "";
-            boolean inSoapEnvelope = false;
-            boolean inSoapHeader = false;
-            inputLine = bufIn.readLine();
-            // Read from the file
-            while ( inputLine != null) {
-//                System.out.println(inputLine);
-
-                if ( inputLine.contains("POST ") || inputLine.contains("HTTP/1.")) {
-                    inSoapHeader = true;
-                }
-
-    			int iEnvelopeStart = inputLine.indexOf("Envelop");
-				if ( iEnvelopeStart > 0 ) {
-                    if ( inputLine.charAt(iEnvelopeStart-1) == '<' || inputLine.charAt(iEnvelopeStart-1) == ':' ) {
-                        int startEnvelopeTag = inputLine.lastIndexOf("<", iEnvelopeStart);
-                        if ( startEnvelopeTag >= 0 && iEnvelopeStart > startEnvelopeTag ) {
-                            if ( inputLine.charAt(startEnvelopeTag+1) != '/' ) {
-    //                            int endEnvelopeTag = inputLine.indexOf(">", iEnvelopeStart);
-                                envelopeNameSpace = inputLine.substring(startEnvelopeTag+1,iEnvelopeStart);
-                                inputLine = inputLine.substring(startEnvelopeTag);
-                                envelopeEndTag = "</" + envelopeNameSpace + "Envelop";
-                                inSoapEnvelope = true;
-                                inSoapHeader = false; // The SOAP Header must have finished
-                                if ( sbSoapEnvelope.length() > 0 ) {
-                                    sbSoapEnvelope.setLength(0);
-                                }
-                            }
-                        }
-                    }
-                }
-
-                if ( inSoapHeader ) {
-                    if ( sbSoapHeader.length() == 0 ) {
-                        // Trim off preceding text when POST or HTTP is not at the start of line
-                        int ipos = inputLine.indexOf("POST ");
-                        if ( ipos > 0 ) {
-                            inputLine = inputLine.substring(ipos);
-                        } else if ( ipos < 0 ) {
-                            ipos = inputLine.indexOf("HTTP/1.");
-                            if ( ipos > 0 ) {
-                                inputLine = inputLine.substring(ipos);
-                            }
-                        }
-                    }
-                    sbSoapHeader.append(inputLine.trim());
-                    sbSoapHeader.append(m_LineFeed);
-                }
-
-                if ( inSoapEnvelope ) {
-                    int endSoapTagPos = inputLine.indexOf(envelopeEndTag);
-                    if ( endSoapTagPos >= 0 ) {
-                        String textAfterEnvelope = "";
-                        int endTagPos = inputLine.indexOf(">",endSoapTagPos);
-                        if ( endTagPos > endSoapTagPos ) {
-                            textAfterEnvelope = inputLine.substring(endTagPos+1);
-                            inputLine = inputLine.substring(0,endTagPos+1);
-                        }
-                        sbSoapEnvelope.append(inputLine.trim());
-                        inSoapEnvelope = false;
-                        SoapEnvelopeInfo soapEnvelopeInfo = new SoapEnvelopeInfo(sbSoapEnvelope.toString());
-                        soapEnvelopeInfo.setSoapHeader(sbSoapHeader.toString());
-                        m_SoapEnvelopeList.add(soapEnvelopeInfo);
-                        sbSoapEnvelope.setLength(0);
-                        sbSoapHeader.setLength(0);
-                        if ( textAfterEnvelope.contains(envelopeEndTag) ) {
-                            String soapMessages[] = extractXmlElementValues("Envelope", textAfterEnvelope, true);
-                            for ( String soapMsg : soapMessages ) {
-                                m_SoapEnvelopeList.add(new SoapEnvelopeInfo(soapMsg));
-                            }
-                        }
-                        if ( textAfterEnvelope.contains("POST ") || textAfterEnvelope.contains("HTTP/1.")) {
-                            // Trim off preceding text when POST or HTTP is not at the start of line
-                            int ipos = textAfterEnvelope.indexOf("POST ");
-                            if ( ipos > 0 ) {
-                                textAfterEnvelope = textAfterEnvelope.substring(ipos);
-                            } else if ( ipos < 0 ) {
-                                ipos = textAfterEnvelope.indexOf("HTTP/1.");
-                                if ( ipos > 0 ) {
-                                    textAfterEnvelope = textAfterEnvelope.substring(ipos);
-                                }
-                            }
-                            sbSoapHeader.append(textAfterEnvelope);
-                        }
-                    } else {
-                        if ( inputLine.trim().length() > 4 ) {
-                            sbSoapEnvelope.append(inputLine.trim());
-                        } else if ( inputLine.trim().length() > 0) {
-                            System.out.println("Suspect Line (probably chunked breaks) : " + inputLine);
-                        }
-                    }
-
-
-                }
-
-                inputLine = bufIn.readLine();
-            }
-            bufIn.close();
-        } catch (IOException e) {
-            addMessage("Input-Output Error for filename [" + tcpMonLogFilename + "]. [" + e.getMessage() + "]" );
-            e.printStackTrace();
-        }
-
-     }
-
-    public void outputSoapMessages(String outputDirectory) {
-        if ( m_SoapEnvelopeList.size() < 1 ) {
-            // Nothing to output
-            return;
-        }
-        StringBuilder sbAbaConnectImportFile = new StringBuilder();
-        ArrayList<String> requestTimingStrings = new ArrayList<String>();
-
-        boolean outputFiles = (outputDirectory != null && !"".equals(outputDirectory) );
-        XmlSoapAcReformatter xmlFormatter = new XmlSoapAcReformatter();
-        boolean createAbaConnectImportFile = false;
-        if ( m_chkRemoveNamespaces.isSelected() ) {
-            xmlFormatter.setAbaConnectImportMode("SAVE");
-            createAbaConnectImportFile = true;
-        }
-        xmlFormatter.setConvertExtendedFieldsToXmlFormat(m_chkConvertExtendedFieldsToXmlFormat.isSelected());
-
-        String singleIndent = xmlFormatter.getIndent();
-
-        xmlFormatter.setRemoveNamespacePrefixes(m_chkRemoveNamespaces.isSelected());
-        boolean reformatXml = m_chkReFormatSoapMessages.isSelected();
-        boolean outputSoapHeaders = m_chkOutputSoapHeaders.isSelected();
-
-        mXmlProblemFileNameMessages.clear();
-
-        int requestCounter = 0;
-        int responseCounter = 0;
-
-        int additiveConstant = 0;
-        int factorConstant = 10;
-        // Resort the messages for Request / Response Order
-        for ( SoapEnvelopeInfo soapEnvelopeInfo : m_SoapEnvelopeList ) {
-            // Set the Request Order in the order of appearance
-            if ( soapEnvelopeInfo.isRequestMessage() ) {
-                requestCounter++;
-                int orderIndex = ((requestCounter + additiveConstant) * factorConstant) + 1;
-                soapEnvelopeInfo.setOrderIndex(orderIndex);
-            } else if ( soapEnvelopeInfo.isResponseMessage() ) {
-                responseCounter++;
-                int orderIndex = ((responseCounter + additiveConstant) * factorConstant) + 2;
-                soapEnvelopeInfo.setOrderIndex(orderIndex);
-            } else {
-                System.out.println("NO Message Type for " + soapEnvelopeInfo.getSoapBodyName() + " possible.");
-            }
-        }
-
-        String application = "UNKNOWN";
-        String interfaceId = "";
-        String interfaceVersion = "";
-        if ( requestCounter != responseCounter ) {
-            addMessage("WARNING : Sorting of Request and Response Messages cannot be performed with uneven request and response counts !");
-        }
-        if ( requestCounter > 0 && responseCounter > 0 ) {
-            Collections.sort(m_SoapEnvelopeList);
-        }
-        int orderIndex = 0;
-        String outputFilename;
-        for ( SoapEnvelopeInfo soapEnvelopeInfo : m_SoapEnvelopeList ) {
-            orderIndex++;
-
-            String soapEnvelope = soapEnvelopeInfo.getSoapEnvelopeXml();
-
-            // Only need the SaveInsertUpdate state if the XML data will be reformatted
-            boolean isSaveInsertOrUpdateRequest = reformatXml && (soapEnvelope.contains("SaveRequest>") || soapEnvelope.contains("InsertRequest>") || soapEnvelope.contains("UpdateRequest>"));
-            if ( createAbaConnectImportFile && isSaveInsertOrUpdateRequest ) {
-                String[] interfaceValues = extractAbaConnectInterfaceFromNamespaces(soapEnvelope);
-                if ( interfaceValues != null && interfaceValues.length == 3 ) {
-                    interfaceVersion = interfaceValues[0];
-                    application = interfaceValues[1];
-                    interfaceId = interfaceValues[2];
-                }
-            }
-            String soapHeader = soapEnvelopeInfo.getSoapHeader();
-
-            String bodyName = soapEnvelopeInfo.getSoapBodyName();
-//            System.out.println("==============================");
-//            System.out.println("BodyName : [" + bodyName + "]");
-//            System.out.println(soapEnvelope);
-//            System.out.println("------------------------------");
-
-            if ( "SaveRequest".equalsIgnoreCase(bodyName) || "UpdateRequest".equalsIgnoreCase(bodyName) || "InsertRequest".equalsIgnoreCase(bodyName) || "FindRequest".equalsIgnoreCase(bodyName) || "DeleteRequest".equalsIgnoreCase(bodyName) ) {
-                requestTimingStrings.clear();
-            }
-            String soapHeaderTime = soapEnvelopeInfo.getTimeFromSoapHeader();
-            if ( !"".equals(soapHeaderTime) ) {
-                requestTimingStrings.add(soapHeaderTime);
-            }
-            if ( outputFiles ) {
-                outputFilename = outputDirectory + File.separator + m_FilenamePrefix + String.format("%05d",orderIndex) + "_" + bodyName + ".xml";
-//                System.out.println("  ORDER [" + String.format("%8d",soapEnvelopeInfo.getOrderIndex()) + "]   Filename [" +  outputFilename + "]------------------------------");
-                try {
-                    BufferedOutputStream outputFileStream = new BufferedOutputStream(new FileOutputStream(outputFilename));
-
-                    if ( reformatXml ) {
-                        try {
-                            xmlFormatter.saxParse(new ByteArrayInputStream(soapEnvelope.getBytes()));
-                            soapEnvelope = xmlFormatter.getFormattedXml();
-                        } catch (Exception e1) {
-                            try {
-                                xmlFormatter.saxParse(new ByteArrayInputStream(soapEnvelope.getBytes("UTF-8")));
-                                soapEnvelope = xmlFormatter.getFormattedXml();
-                                mXmlProblemFileNameMessages.add(outputFilename);
-                                mXmlProblemFileNameMessages.add("   File could be formatted using UTF-8 encoding");
-                            } catch (Exception e2) {
-                                System.out.println("Error reformatting the SOAP XML !!");
-                                mXmlProblemFileNameMessages.add(outputFilename);
-                                mXmlProblemFileNameMessages.add("   " + e1.getMessage());
-                                mXmlProblemFileNameMessages.add("   " + e2.getMessage());
-                                if ( e1.getCause() != null ) {
-                                    mXmlProblemFileNameMessages.add("   " + e1.getCause().toString());
-                                    mXmlProblemFileNameMessages.add("   " + e1.getCause().getMessage());
-                                }
-                                if ( e2.getCause() != null ) {
-                                    mXmlProblemFileNameMessages.add("   " + e2.getCause().toString());
-                                    mXmlProblemFileNameMessages.add("   " + e2.getCause().getMessage());
-                                }
-                                //e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-                            }
-                        }
-                    }
-
-                    outputFileStream.write(soapEnvelope.getBytes("UTF-8"));
-                    if ( createAbaConnectImportFile && isSaveInsertOrUpdateRequest ) {
-                        sbAbaConnectImportFile.append(singleIndent);
-                        sbAbaConnectImportFile.append(singleIndent);
-                        sbAbaConnectImportFile.append("<!-- ");
-                        sbAbaConnectImportFile.append(" App : ");
-                        sbAbaConnectImportFile.append(application);
-                        sbAbaConnectImportFile.append(" Version : ");
-                        sbAbaConnectImportFile.append(interfaceVersion);
-                        sbAbaConnectImportFile.append(" InterfaceId : ");
-                        sbAbaConnectImportFile.append(interfaceId);
-                        sbAbaConnectImportFile.append(" -->");
-                        sbAbaConnectImportFile.append(m_LineFeed);
-
-                        writeToAbaConnectImportFile(singleIndent, sbAbaConnectImportFile, soapEnvelope);
-                    }
-
-                    if ( outputSoapHeaders && soapHeader != null && !"".equals(soapHeader) ) {
-                        outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-                        outputFileStream.write("<!--  ".getBytes("UTF-8"));
-//                        outputFileStream.write(" <![CDATA[ ".getBytes("UTF-8"));
-                        outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-                        outputFileStream.write(getValueAsXmlCompatible(soapHeader).getBytes("UTF-8"));
-                        outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-//                        outputFileStream.write(" ]]> ".getBytes("UTF-8"));
-                        outputFileStream.write("  -->".getBytes("UTF-8"));
-                        outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-                    }
-
-                    if ( outputSoapHeaders ) {
-                        if ( requestTimingStrings.size() > 0 ) {
-                            outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-                            outputFileStream.write("<!--  Response Timing Information ".getBytes("UTF-8"));
-                            outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-                            int timeSeconds = -1;
-                            int startTimeSeconds = -1;
-                            int lastTimeSeconds = -1;
-                            for (String requestTime : requestTimingStrings) {
-                                timeSeconds = getSecondsFromTimeString(requestTime);
-                                if ( startTimeSeconds < 0 ) {
-                                    startTimeSeconds = timeSeconds;
-                                }
-                                int diffSeconds = (startTimeSeconds > 0 ? (timeSeconds - startTimeSeconds) : -1);
-                                outputFileStream.write(getValueAsXmlCompatible(requestTime).getBytes("UTF-8"));
-                                if ( diffSeconds >= 0 ) {
-                                    outputFileStream.write("  Diff(".getBytes("UTF-8"));
-                                    outputFileStream.write(String.valueOf(diffSeconds).getBytes("UTF-8"));
-                                    outputFileStream.write(")".getBytes("UTF-8"));
-                                }
-                                outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-                                lastTimeSeconds = timeSeconds;
-                            }
-                            outputFileStream.write("  -->".getBytes("UTF-8"));
-                            outputFileStream.write(m_LineFeed.getBytes("UTF-8"));
-                        }
-                    }
-
-                    outputFileStream.close();
-
-                } catch (FileNotFoundException e) {
-                    addMessage(e.getMessage());
-                    e.printStackTrace();
-                } catch (UnsupportedEncodingException e) {
-                    addMessage(e.getMessage());
-                    e.printStackTrace();
-                } catch (IOException e) {
-                    addMessage(e.getMessage());
-                    e.printStackTrace();
-                }
-
-            }
-        }
-
-        if ( sbAbaConnectImportFile.length() > 0 ) {
-            if ( outputFiles ) {
-                outputFilename = outputDirectory + File.separator + "ac_import_data.xml";
-                try {
-                    BufferedOutputStream outputFileStream = new BufferedOutputStream(new FileOutputStream(outputFilename));
-
-                    String acStartHeader = "<?xml version='1.0' encoding='UTF-8'?>" + m_LineFeed +
-                            "<AbaConnectContainer>" + m_LineFeed +
-                            "  <TaskCount>1</TaskCount>" + m_LineFeed +
-                            "  <Task>" + m_LineFeed +
-                            "    <Parameter>" + m_LineFeed +
-                            "      <Application>" + application + "</Application>" + m_LineFeed +
-                            "      <Id>" + interfaceId + "</Id>" + m_LineFeed +
-                            "      <MapId>AbaDefault</MapId>" + m_LineFeed +
-                            "      <Version>" + interfaceVersion + "</Version>" + m_LineFeed +
-                            "    </Parameter>" + m_LineFeed;
-                    outputFileStream.write(acStartHeader.getBytes("UTF-8"));
-
-                    outputFileStream.write(sbAbaConnectImportFile.toString().getBytes("UTF-8"));
-
-                    String acClosingFooter =  "  </Task>" + m_LineFeed +
-                            "</AbaConnectContainer>"  + m_LineFeed;
-                    outputFileStream.write(acClosingFooter.getBytes("UTF-8"));
-
-                    outputFileStream.close();
-
-                } catch (FileNotFoundException e) {
-                    addMessage(e.getMessage());
-                    e.printStackTrace();
-                } catch (UnsupportedEncodingException e) {
-                    addMessage(e.getMessage());
-                    e.printStackTrace();
-                } catch (IOException e) {
-                    addMessage(e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-
-        }
-    }
-
-    /**
-     * Converts the Date-Time String expected in an AbaCOnnect SOAP Response to seconds in the day starting from midnight
-     * The Date string normally looks like this "Date: Fri, 28 Aug 2015 13:36:54 GMT"
-     * @param text the Date string from the SOAP response message
-     * @return seconds in the day starting from midnight, or -1 if it cannot be parse
-     */
-    private int getSecondsFromTimeString(String text) {
-        int timeInSeconds = -1;
-        if ( text != null && !"".equals(text) ) {
-            int ipos = text.indexOf("Date:");
-            String txtDate = (ipos >= 0 ? text.substring(ipos+5).trim() : text.trim());
-            ipos = text.lastIndexOf(":");
-            if ( ipos > 0 ) {
-                int endPos = ipos + 3;
-                ipos = text.lastIndexOf(":",ipos-1);
-                if ( ipos > 0 ) {
-                    int startPos = ipos - 2;
-                    if ( startPos >= 0 && endPos > startPos ) {
-                        text = text.substring(startPos, endPos);
-                        String[] values = text.split(":");
-                        if ( values.length > 2 ) {
-                            int hours = Integer.valueOf(values[0]);
-                            int minutes = Integer.valueOf(values[1]);
-                            int seconds = Integer.valueOf(values[2]);
-                            timeInSeconds = (hours * 3600) + (minutes * 60) + seconds;
-                        }
-                    }
-                }
-            }
-        }
-        return timeInSeconds;
-    }
-
-    /**
-     * Attempts to extract the interface Version, Application and InterfaceID from the SOAP message namespaces
-     *
-     * @param soapEnvelope the soap message with full interface namespaces
-     * @return returns a String[] array with { version, application, interfaceID } - the values may be empty
-     */
-    private String[] extractAbaConnectInterfaceFromNamespaces(String soapEnvelope) {
-        String version = "20xx.00";
-        String application = "UKNOWN";
-        String interfaceID = "";
-        if ( soapEnvelope == null || "".equals(soapEnvelope) ) return new String[] {version,application,interfaceID};
-        String requestStartTag = "";
-        if ( soapEnvelope.contains("SaveRequest>") ) {
-            requestStartTag = "SaveRequest";
-        } else if ( soapEnvelope.contains("InsertRequest>")  ) {
-            requestStartTag = "InsertRequest";
-        } else if ( soapEnvelope.contains("UpdateRequest>")  ) {
-            requestStartTag = "UpdateRequest";
-        }
-        if ( !"".equals(requestStartTag) ) {
-
-            String startTag = "<" + requestStartTag + ">";
-            int startValuePos = soapEnvelope.indexOf(startTag);
-            if (startValuePos < 0) {
-                startTag = "<" + requestStartTag + " ";
-                startValuePos = soapEnvelope.indexOf(startTag);
-            }
-            if (startValuePos < 0) {
-                startTag = ":" + requestStartTag + " ";
-                startValuePos = soapEnvelope.indexOf(startTag);
-            }
-            if (startValuePos >= 0) {
-                int iEndStartTagPos = soapEnvelope.indexOf(">", startValuePos);
-
-                if (iEndStartTagPos > startValuePos) {
-                    String startNameSpaces = soapEnvelope.substring(startValuePos, iEndStartTagPos);
-
-                    String abacusNamespacePrefix = "www.abacus.ch/abaconnect/";
-                    String[] values = startNameSpaces.split(" ");
-                    for (String value : values) {
-                        int ipos = value.indexOf(abacusNamespacePrefix);
-                        if (ipos > 0) {
-                            String suffix = value.substring(ipos + abacusNamespacePrefix.length());
-                            if (suffix.endsWith("\"") || suffix.endsWith("'")) {
-                                suffix = suffix.substring(0, suffix.length() - 1);
-                            }
-                            if (!suffix.endsWith("AbaConnectTypes")) {
-                                String[] interfaceValues = suffix.split("/");
-                                if (interfaceValues.length == 3) {
-                                    version = interfaceValues[0];
-                                    application = interfaceValues[1].toUpperCase();
-                                    if ( interfaceID == null || "".equals(interfaceID) ) {
-                                        interfaceID = interfaceValues[2];
-                                    } else if ( interfaceValues[2].endsWith("Types") || interfaceID.endsWith("Types") ) {
-                                        // Special conditions to separate names with "Types" suffix : e.g. HierarchyEmployee and HierarchyEmployeeTypes
-                                        if (!interfaceValues[2].equals(interfaceID + "Types")) {
-                                            interfaceID = interfaceValues[2];  // Adopt the name without the Types suffix
-                                        } else if (interfaceID.endsWith("Types") && interfaceID.startsWith(interfaceValues[2])) {
-                                            interfaceID = interfaceValues[2];  // Adopt the name without the Types suffix
-                                        }
-                                    } else {
-                                        interfaceID = interfaceValues[2];
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return new String[] {version,application,interfaceID};
-    }
-
-    private boolean writeToAbaConnectImportFile(String singleIndent, StringBuilder sbAbaConnectImportFile, String soapEnvelope) {
-        if ( sbAbaConnectImportFile == null || soapEnvelope == null || "".equals(soapEnvelope) ) return false;
-        boolean addedToFileOutput = false;
-        String ac_mode = "";
-        if ( soapEnvelope.contains("SaveRequest>") ) {
-            ac_mode = "SAVE";
-        } else if (soapEnvelope.contains("InsertRequest>") ) {
-            ac_mode = "INSERT";
-        } else if (soapEnvelope.contains("UpdateRequest>") ) {
-            ac_mode = "UPDATE";
-        }
-        if ( "".equals(ac_mode ) ) return false;
-        String data[] = extractXmlElementValues("Data", soapEnvelope, false);
-        for ( String saveData : data) {
-            sbAbaConnectImportFile.append(singleIndent);
-            sbAbaConnectImportFile.append(singleIndent);
-            sbAbaConnectImportFile.append("<Transaction>");
-            sbAbaConnectImportFile.append(m_LineFeed);
-            sbAbaConnectImportFile.append(singleIndent);
-            sbAbaConnectImportFile.append(singleIndent);
-            sbAbaConnectImportFile.append(singleIndent);
-            sbAbaConnectImportFile.append(saveData.trim());
-            sbAbaConnectImportFile.append(m_LineFeed);
-            sbAbaConnectImportFile.append(singleIndent);
-            sbAbaConnectImportFile.append(singleIndent);
-            sbAbaConnectImportFile.append("</Transaction>");
-            sbAbaConnectImportFile.append(m_LineFeed);
-            addedToFileOutput = true;
-        }
-        return addedToFileOutput;
-    }
-
-    protected String getValueAsXmlCompatible(String value)
-    {
-        String xmlValue = value;
-
-//        xmlValue = xmlValue.replace("&", "&amp;");
-
-//        xmlValue = xmlValue.replace("'", "&apos;");
-//        xmlValue = xmlValue.replace("\"", "&quot;");
-//        xmlValue = xmlValue.replace(">", "&gt;");
-//        xmlValue = xmlValue.replace("<", "&lt;");
-//        xmlValue = xmlValue.replace("-", "&ndash;");
-        xmlValue = xmlValue.replace("--", "&#8211;&#8211;");
-
-
-        return xmlValue;
-    }
-
-    public void addMessage(String message) {
-        m_sbMessages.append(message);
-    }
-
 
 
     private void initUI() {
@@ -781,6 +162,30 @@ public class ExplodeTcpMonMessages  extends JFrame {
         m_chkOutputSoapHeaders.setPreferredSize(new Dimension(chkbxWidth,chkbxHeight));
         m_chkOutputSoapHeaders.setText(OPTION_TEXT_OUTPUT_SOAP_HEADERS);
 
+        m_chkFollowCaptureFile = new JCheckBox();
+        m_chkFollowCaptureFile.setMinimumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkFollowCaptureFile.setMaximumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkFollowCaptureFile.setPreferredSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkFollowCaptureFile.setText(OPTION_TEXT_FOLLOW_CAPTURE_FILE);
+
+        m_chkLatencyReport = new JCheckBox();
+        m_chkLatencyReport.setMinimumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkLatencyReport.setMaximumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkLatencyReport.setPreferredSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkLatencyReport.setText(OPTION_TEXT_LATENCY_REPORT);
+
+        m_chkZipArchive = new JCheckBox();
+        m_chkZipArchive.setMinimumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkZipArchive.setMaximumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkZipArchive.setPreferredSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkZipArchive.setText(OPTION_TEXT_ZIP_ARCHIVE);
+
+        m_chkDeduplicate = new JCheckBox();
+        m_chkDeduplicate.setMinimumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkDeduplicate.setMaximumSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkDeduplicate.setPreferredSize(new Dimension(chkbxWidth,chkbxHeight));
+        m_chkDeduplicate.setText(OPTION_TEXT_DEDUPLICATE);
+
         m_txfTcpMonFileName.setTransferHandler(new FileNameTransferHandler(m_txfTcpMonFileName));
 
         JButton btnXmlFileSelect = getButton();
@@ -845,6 +250,28 @@ public class ExplodeTcpMonMessages  extends JFrame {
         pnlOptionsLine2.add(m_chkConvertExtendedFieldsToXmlFormat);
         pnlOptionsLine2.add(Box.createHorizontalGlue());
 
+        JPanel pnlOptionsLine3 = new JPanel();
+        pnlOptionsLine3.setLayout(new BoxLayout(pnlOptionsLine3,BoxLayout.LINE_AXIS));
+        pnlOptionsLine3.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 0));
+        pnlOptionsLine3.setMinimumSize(new Dimension(10, 20));
+        pnlOptionsLine3.setMaximumSize(new Dimension(9999, 20));
+        pnlOptionsLine3.setPreferredSize(new Dimension(600, 20));
+        pnlOptionsLine3.add(m_chkFollowCaptureFile);
+        pnlOptionsLine3.add(Box.createHorizontalGlue());
+        pnlOptionsLine3.add(m_chkLatencyReport);
+        pnlOptionsLine3.add(Box.createHorizontalGlue());
+
+        JPanel pnlOptionsLine4 = new JPanel();
+        pnlOptionsLine4.setLayout(new BoxLayout(pnlOptionsLine4,BoxLayout.LINE_AXIS));
+        pnlOptionsLine4.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 0));
+        pnlOptionsLine4.setMinimumSize(new Dimension(10, 20));
+        pnlOptionsLine4.setMaximumSize(new Dimension(9999, 20));
+        pnlOptionsLine4.setPreferredSize(new Dimension(600, 20));
+        pnlOptionsLine4.add(m_chkZipArchive);
+        pnlOptionsLine4.add(Box.createHorizontalGlue());
+        pnlOptionsLine4.add(m_chkDeduplicate);
+        pnlOptionsLine4.add(Box.createHorizontalGlue());
+
         JPanel pnlLine = new JPanel();
         pnlLine.setLayout(new BoxLayout(pnlLine,BoxLayout.LINE_AXIS));
         pnlLine.setBorder(BorderFactory.createEmptyBorder(0,0,0,0));
@@ -852,28 +279,59 @@ public class ExplodeTcpMonMessages  extends JFrame {
         pnlLine.setMaximumSize(new Dimension(9999,20));
         pnlLine.setPreferredSize(new Dimension(600,20));
 
-        JButton btnExplodeMessages = new JButton();
-        btnExplodeMessages.setText(BUTTON_TEXT_EXPLODE_MESSAGES);
-        btnExplodeMessages.addActionListener(new ActionListener() {
+        m_btnExplodeMessages = new JButton();
+        m_btnExplodeMessages.setText(BUTTON_TEXT_EXPLODE_MESSAGES);
+        m_btnExplodeMessages.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 action_ExplodeMessages();
             }
         });
 
+        JPanel pnlProgressLine = new JPanel();
+        pnlProgressLine.setLayout(new BoxLayout(pnlProgressLine,BoxLayout.LINE_AXIS));
+        pnlProgressLine.setBorder(BorderFactory.createEmptyBorder(0,0,0,0));
+        pnlProgressLine.setMinimumSize(new Dimension(10,20));
+        pnlProgressLine.setMaximumSize(new Dimension(9999,20));
+        pnlProgressLine.setPreferredSize(new Dimension(600,20));
+
+        m_prbExplodeProgress = new JProgressBar(0, 1000);
+        m_prbExplodeProgress.setStringPainted(true);
+        m_prbExplodeProgress.setString("");
+        m_prbExplodeProgress.setMaximumSize(new Dimension(9999,20));
+
+        m_btnCancel = new JButton();
+        m_btnCancel.setText(BUTTON_TEXT_CANCEL);
+        m_btnCancel.setEnabled(false);
+        m_btnCancel.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                action_CancelExplode();
+            }
+        });
+        pnlProgressLine.add(m_prbExplodeProgress);
+        pnlProgressLine.add(Box.createHorizontalStrut(5));
+        pnlProgressLine.add(m_btnCancel);
+
         pnlLine.add(getLabel("Filename Prefix:"));
         pnlLine.add(m_txfFilenamePrefix);
         pnlLine.add(Box.createHorizontalStrut(5));
         pnlLine.add(btnDeleteExistingXmlFiles);
         pnlLine.add(Box.createHorizontalGlue());
-        pnlLine.add(btnExplodeMessages);
+        pnlLine.add(m_btnExplodeMessages);
         pnlMain.add(pnlLine);
 
+        pnlMain.add(Box.createVerticalStrut(3));
+        pnlMain.add(pnlProgressLine);
+
         pnlMain.add(Box.createVerticalStrut(3));
 
         pnlMain.add(pnlOptionsLine1);
         pnlMain.add(Box.createVerticalStrut(3));
         pnlMain.add(pnlOptionsLine2);
         pnlMain.add(Box.createVerticalStrut(3));
+        pnlMain.add(pnlOptionsLine3);
+        pnlMain.add(Box.createVerticalStrut(3));
+        pnlMain.add(pnlOptionsLine4);
+        pnlMain.add(Box.createVerticalStrut(3));
 
         m_txpInfoBox = new JTextPane();
         JScrollPane scrPane = new JScrollPane();
@@ -941,6 +399,30 @@ public class ExplodeTcpMonMessages  extends JFrame {
         sbText.append(" : Converts SOAP Extended Fields stucture blocks to plain AbaConnect XML Import file format.");
         sbText.append(linefeed);
         sbText.append(linefeed);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("<b>");
+        sbText.append(OPTION_TEXT_FOLLOW_CAPTURE_FILE);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("</b>");
+        sbText.append(" : Keeps the TcpMon file open while TcpMon is still writing it, appended messages are exploded as soon as they are complete until Cancel is pressed.");
+        sbText.append(linefeed);
+        sbText.append(linefeed);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("<b>");
+        sbText.append(OPTION_TEXT_LATENCY_REPORT);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("</b>");
+        sbText.append(" : Measures the time between each request and its response and shows the count, the requests per second and the latency percentiles per operation.  The report is also written to " + LatencyAnalytics.LATENCY_REPORT_FILENAME + " in the output directory.");
+        sbText.append(linefeed);
+        sbText.append(linefeed);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("<b>");
+        sbText.append(OPTION_TEXT_ZIP_ARCHIVE);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("</b>");
+        sbText.append(" : Writes the XML files and the AbaConnect import files (" + SoapMessageOutputWriter.AC_IMPORT_DATA_FILENAME + ") to the archive [Prefix]" + ArchiveFileWriter.ARCHIVE_BASE_NAME + ".zip in the output directory instead of single files (faster for large captures, e.g. on network shares).");
+        sbText.append(linefeed);
+        sbText.append(linefeed);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("<b>");
+        sbText.append(OPTION_TEXT_DEDUPLICATE);
+        if ( isInfoBoxHtmlFormat() ) sbText.append("</b>");
+        sbText.append(" : Reformats and writes each distinct SOAP Envelope only once (e.g. the same polling request and response), ignoring volatile header values like the WS-Addressing MessageID.  The skipped duplicates are listed in " + SoapMessageDeduplicator.MANIFEST_FILENAME + " in the output directory.");
+        sbText.append(linefeed);
+        sbText.append(linefeed);
 
         sbText.append("Buttons :");
         sbText.append(linefeed);
@@ -1028,36 +510,159 @@ public class ExplodeTcpMonMessages  extends JFrame {
         setInfoText(messageText);
     }
 
+    /**
+     * Starts the explode on a background thread, so that the frame is repainted and the messages already
+     * written can be inspected while the capture file is exploded.  The progress is polled with a Swing timer.
+     */
     private void action_ExplodeMessages() {
-        String tcpMonLogFilename = m_txfTcpMonFileName.getText();
+        if ( m_RunningExploder != null ) return;
+
+        final String tcpMonLogFilename = m_txfTcpMonFileName.getText();
         m_FilenamePrefix = getFileNamePrefix();
 
-        String outputDirectory = "";
+        String outputDirectoryName = "";
         int lastSlashPos = tcpMonLogFilename.lastIndexOf(File.separator);
         if ( lastSlashPos > 0 ) {
-            outputDirectory = tcpMonLogFilename.substring(0,lastSlashPos);
+            outputDirectoryName = tcpMonLogFilename.substring(0,lastSlashPos);
+        }
+        final String outputDirectory = outputDirectoryName;
+
+        final TcpMonMessageExploder exploder = new TcpMonMessageExploder();
+        exploder.setFilenamePrefix(m_FilenamePrefix);
+        exploder.setReformatSoapMessages(m_chkReFormatSoapMessages.isSelected());
+        exploder.setRemoveNamespaces(m_chkRemoveNamespaces.isSelected());
+        exploder.setOutputSoapHeaders(m_chkOutputSoapHeaders.isSelected());
+        exploder.setConvertExtendedFieldsToXmlFormat(m_chkConvertExtendedFieldsToXmlFormat.isSelected());
+        exploder.setCreateLatencyReport(m_chkLatencyReport.isSelected());
+        if ( m_chkZipArchive.isSelected() ) {
+            exploder.setOutputArchiveFormat(ArchiveFileWriter.FORMAT_ZIP);
+        }
+        exploder.setDeduplicateMessages(m_chkDeduplicate.isSelected());
+        final boolean followCaptureFile = m_chkFollowCaptureFile.isSelected();
+
+        m_RunningExploder = exploder;
+        m_btnExplodeMessages.setEnabled(false);
+        m_btnCancel.setEnabled(true);
+        m_prbExplodeProgress.setValue(0);
+        setInfoText("\n" + (followCaptureFile ? "Following" : "Exploding") + " the messages of\n   " + tcpMonLogFilename + "\n\nOutput Directory :\n   " + outputDirectory);
+
+        final long startTime = System.currentTimeMillis();
+        m_ProgressTimer = new Timer(PROGRESS_UPDATE_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                updateExplodeProgress(exploder, startTime);
+            }
+        });
+        m_ProgressTimer.start();
+
+        SwingWorker<Void, Void> explodeWorker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                if ( followCaptureFile ) {
+                    exploder.followTcpMonFile(tcpMonLogFilename, outputDirectory);
+                } else {
+                    exploder.explodeAndOutputSoapMessages(tcpMonLogFilename, outputDirectory);
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                String errorText = null;
+                try {
+                    get();
+                } catch (Exception e) {
+                    Throwable cause = (e.getCause() != null ? e.getCause() : e);
+                    cause.printStackTrace();
+                    errorText = cause.toString();
+                }
+                m_ProgressTimer.stop();
+                m_ProgressTimer = null;
+                updateExplodeProgress(exploder, startTime);
+                m_RunningExploder = null;
+                m_btnCancel.setEnabled(false);
+                m_btnExplodeMessages.setEnabled(true);
+                showExplodeResult(exploder, outputDirectory, errorText);
+                if ( exploder.getLatencyReport().length() > 0 ) {
+                    showLatencyReport(tcpMonLogFilename, exploder.getLatencyReport());
+                }
+            }
+        };
+        explodeWorker.execute();
+    }
+
+    private void action_CancelExplode() {
+        TcpMonMessageExploder exploder = m_RunningExploder;
+        if ( exploder != null ) {
+            exploder.cancel();
+            m_btnCancel.setEnabled(false);
         }
+    }
 
-        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        explodeTcpMonFile(tcpMonLogFilename);
-        outputSoapMessages(outputDirectory);
+    private void updateExplodeProgress(TcpMonMessageExploder exploder, long startTime) {
+        long fileSize = exploder.getCaptureFileSize();
+        long bytesScanned = exploder.getBytesScanned();
+        int foundCount = exploder.getFoundMessageCount();
+        int writtenCount = exploder.getOutputMessageCount();
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        double megaBytes = 1024.0 * 1024.0;
+        double megaBytesPerSecond = (bytesScanned / megaBytes) / (elapsedMillis / 1000.0);
+
+        int progressValue = 0;
+        if ( fileSize > 0 && bytesScanned < fileSize ) {
+            progressValue = (int) ((bytesScanned * 1000) / fileSize);
+        } else if ( foundCount > 0 ) {
+            // Scan finished, the messages are being written
+            progressValue = (int) ((writtenCount * 1000L) / foundCount);
+        }
+        m_prbExplodeProgress.setValue(progressValue);
+        m_prbExplodeProgress.setString(String.format("%.1f of %.1f MB scanned  -  %d messages found, %d written  -  %.1f MB/s",
+                bytesScanned / megaBytes, fileSize / megaBytes, foundCount, writtenCount, megaBytesPerSecond));
+    }
 
-        String helpMessage = "\nA total of " + m_SoapEnvelopeList.size() + " output files were written to the output directory.\n\nOutput Directory :\n   " + outputDirectory;
+    private void showExplodeResult(TcpMonMessageExploder exploder, String outputDirectory, String errorText) {
+        String helpMessage = "\nA total of " + exploder.getOutputMessageCount() + " output files were written to the output directory.\n\nOutput Directory :\n   " + outputDirectory;
+        if ( exploder.getOutputArchiveFormat() != ArchiveFileWriter.FORMAT_NONE ) {
+            helpMessage += "\n\nArchive :\n   " + ArchiveFileWriter.getArchiveFilename(outputDirectory, exploder.getFilenamePrefix(), exploder.getOutputArchiveFormat());
+        }
+        if ( exploder.isCancelled() ) {
+            helpMessage += "\n\nThe explode was cancelled.";
+        }
+        if ( errorText != null ) {
+            helpMessage += "\n\nError : " + errorText;
+        }
 
-        if ( mXmlProblemFileNameMessages.size() > 0 ) {
+        List<String> xmlProblemFileNameMessages = exploder.getXmlProblemFileNameMessages();
+        if ( xmlProblemFileNameMessages.size() > 0 ) {
             helpMessage += "\n\n";
             helpMessage += "The following XML Files may have format syntax problems :";
-            for( String problemFiles : mXmlProblemFileNameMessages ) {
+            for( String problemFiles : xmlProblemFileNameMessages ) {
                 helpMessage += "\n";
                 helpMessage += problemFiles;
             }
             helpMessage += "\n\n";
         }
-        setCursor(Cursor.getDefaultCursor());
 
         setInfoText(helpMessage);
     }
 
+    /**
+     * Shows the latency report in its own window, the columns need a fixed width font.
+     */
+    private void showLatencyReport(String tcpMonLogFilename, String reportText) {
+        JTextArea txaReport = new JTextArea(reportText);
+        txaReport.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        txaReport.setEditable(false);
+        txaReport.setCaretPosition(0);
+        JScrollPane scrReport = new JScrollPane(txaReport);
+        scrReport.setPreferredSize(new Dimension(900,400));
+
+        JDialog dlgReport = new JDialog(this, OPTION_TEXT_LATENCY_REPORT + " - " + new File(tcpMonLogFilename).getName(), false);
+        dlgReport.getContentPane().add(scrReport, BorderLayout.CENTER);
+        dlgReport.pack();
+        dlgReport.setLocationRelativeTo(this);
+        dlgReport.setVisible(true);
+    }
+
     public boolean isInfoBoxHtmlFormat() {
         return mIsInfoBoxHtmlFormat;
     }
@@ -1146,94 +751,6 @@ public class ExplodeTcpMonMessages  extends JFrame {
         }
     }
 
-    /**
-     * Extracts an element value of a specified xmlElementName tag from an XML formatted text.
-     *
-     * @param xmlTagName the xmlElement Name tag
-     * @param text  the XML Formatted text
-     * @return the value of the specified xml element tag or blank if not found
-     */
-    private String[] extractXmlElementValues(String xmlTagName, String text, boolean includeStartEndTags) {
-        ArrayList<String> foundElements = new ArrayList<String>();
-        int currentPos = 0;
-
-        while ( currentPos >= 0 ) {
-            String startTag = "<" + xmlTagName + ">";
-            String endTag = "</" + xmlTagName + ">";
-
-            String rootStartTag = "";
-            String rootEndTag = "";
-
-            String resultText = "";
-            int startValuePos = text.indexOf(startTag,currentPos);
-            if ( startValuePos < 0 ) {
-                startTag = "<" + xmlTagName + " ";
-                startValuePos = text.indexOf(startTag,currentPos);
-            }
-            if ( startValuePos >= 0 ) {
-                int rootStartTagPos = startValuePos;
-                currentPos = -1;
-                //iPos += 3;
-                startValuePos = text.indexOf(">", startValuePos);
-                if ( startValuePos >= 0 ) {
-                    startValuePos = startValuePos + 1;
-                    int endValuePos = text.indexOf(endTag, startValuePos);
-                    if ( endValuePos >= 0 && endValuePos > startValuePos ) {
-                        resultText = text.substring(startValuePos, endValuePos);
-                        if ( includeStartEndTags ) {
-                            rootStartTag = text.substring(rootStartTagPos, startValuePos);
-                            rootEndTag = text.substring(endValuePos, endValuePos+endTag.length()+1);
-//                            System.out.println("");
-//                            System.out.println("START TAG : ]" + rootStartTag + "[");
-//                            System.out.println("END TAG   : ]" + rootEndTag + "[");
-                            foundElements.add(rootStartTag + resultText + rootEndTag);
-                        } else {
-                            foundElements.add(resultText);
-                        }
-                        currentPos = endValuePos;
-                    }
-                }
-            } else {
-                // Procedure for namespace defined tags
-                startTag = ":" + xmlTagName;
-                startValuePos = text.indexOf(startTag,currentPos);
-                if ( startValuePos < 0 ) {
-                    startTag = ":" + xmlTagName + " ";
-                    startValuePos = text.indexOf(startTag,currentPos);
-                }
-                currentPos = -1;
-                if ( startValuePos >= 0 ) {
-                    int rootStartTagPos = startValuePos;
-                    int startBracket = text.lastIndexOf("<", startValuePos );
-                    if ( startBracket >= 0 && startBracket < startValuePos ) {
-                        String nsName = text.substring(startBracket+1,startValuePos);
-                        endTag = "</" + nsName + ":" + xmlTagName + ">";
-                        startValuePos = text.indexOf(">", startValuePos);
-                        if ( startValuePos >= 0 ) {
-                            startValuePos = startValuePos + 1;
-                            int endValuePos = text.indexOf(endTag, startValuePos);
-                            if ( endValuePos >= 0 && endValuePos > startValuePos ) {
-                                resultText = text.substring(startValuePos, endValuePos);
-                                if ( includeStartEndTags ) {
-                                    rootStartTag = "<" + nsName + text.substring(rootStartTagPos, startValuePos);
-                                    rootEndTag = text.substring(endValuePos, endValuePos+endTag.length()+1);
-//                                    System.out.println("");
-//                                    System.out.println("NAMESPACE START TAG : ]" + rootStartTag + "[");
-//                                    System.out.println("NAMESPACE END TAG   : ]" + rootEndTag + "[");
-                                    foundElements.add(rootStartTag + resultText + rootEndTag);
-                                } else {
-                                    foundElements.add(resultText);
-                                }
-                                currentPos = endValuePos + endTag.length();
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return foundElements.toArray(new String[foundElements.size()]);
-    }
-
     /**
      * Read a version string from a resource Text file.  Used for display in the Title
      * bar of some applications.
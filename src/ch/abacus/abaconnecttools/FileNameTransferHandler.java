@@ -33,6 +33,8 @@ import java.util.List;
  * <p/>
  * It can be used with the JTextField and setTransferHandler() method as follows :
  * txf_FileNameField.setTransferHandler(new FileNameTransferHandler(txf_FileNameField));
+ * <p/>
+ * A gzip, zip or bzip2 compressed file is accepted if the extension of the file it contains is allowed.
  */
 public class FileNameTransferHandler extends TransferHandler {
 
@@ -91,7 +93,8 @@ public class FileNameTransferHandler extends TransferHandler {
                         List<File> fl = (List<File>) trans.getTransferData(DataFlavor.javaFileListFlavor);
                         for (File ff : fl) {
 //                            System.out.println("  Importing filename : " + ff.getName() + "   from : " + ff.getAbsolutePath());
-                            String shortFilename = ff.getName();
+                            // A compressed file (e.g. capture.tcptxt.gz) matches with the extension of the file it contains
+                            String shortFilename = CompressedCapture.removeCompressedExtension(ff.getName());
                             int ipos = shortFilename.lastIndexOf(".");
                             if ( ipos > 0 ) {
                                 String extension = shortFilename.substring(ipos+1);
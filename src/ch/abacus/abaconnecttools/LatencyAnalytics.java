@@ -0,0 +1,452 @@
+/*
+ * LatencyAnalytics.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Collects the latency of each request/response pair per operation (the body name of the request) and the
+ * number of requests over time, and creates the latency report.
+ * <p/>
+ * The messages must be passed in the order of the capture with the order index of the
+ * {@link SoapMessageCorrelator}, the response of the request with the order index <code>n</code> has the
+ * order index <code>n+1</code>.  The timestamp of a message is
+ * <ol>
+ * <li>the capture timestamp : the time the {@link SoapRecordingProxy} received the message, or the
+ * timestamp line in front of the message in the capture (millisecond precision, see
+ * {@link #parseLineTimestamp(String)}), otherwise</li>
+ * <li>the <code>Date</code> value of the HTTP header (second precision).</li>
+ * </ol>
+ * The latency of a pair is only measured when both messages have the same kind of timestamp.
+ * <p/>
+ * The latencies are counted in a {@link LatencyHistogram} per operation and the requests in a timeline with
+ * a fixed number of intervals, the interval is doubled when the timeline is full.  The memory used does not
+ * depend on the size of the capture, only the requests without response are held.
+ */
+public class LatencyAnalytics {
+
+    public static final String LATENCY_REPORT_FILENAME = "latency_report.txt";
+
+    private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+    private static final int MAX_OPERATIONS = 500;
+    private static final String OTHER_OPERATIONS = "(other operations)";
+    private static final String ALL_OPERATIONS = "All operations";
+    private static final int TIMELINE_SLOT_COUNT = 512;
+    private static final long TIMELINE_START_INTERVAL = 1000;
+    private static final int MAX_REPORTED_INTERVALS = 60;
+
+    private static final int SOURCE_NONE = 0;
+    private static final int SOURCE_CAPTURE = 1;
+    private static final int SOURCE_DATE_HEADER = 2;
+
+    /**
+     * The counts and latencies of one operation.
+     */
+    private static class OperationStats {
+        String mName;
+        long mRequestCount = 0;
+        long mFirstRequestTime = -1;
+        long mLastRequestTime = -1;
+        LatencyHistogram mLatencies = new LatencyHistogram();
+
+        OperationStats(String name) {
+            mName = name;
+        }
+    }
+
+    /**
+     * The timestamps of a request that has not been answered yet.
+     */
+    private static class PendingTiming {
+        OperationStats mOperation;
+        long mCaptureTimestamp;
+        long mDateTimestamp;
+    }
+
+    private String mCaptureName;
+    private TreeMap<String, OperationStats> mOperations = new TreeMap<String, OperationStats>();
+    private OperationStats mAllOperations = new OperationStats(ALL_OPERATIONS);
+    private HashMap<Integer, PendingTiming> mPendingRequests = new HashMap<Integer, PendingTiming>();
+
+    private long mCapturePairCount = 0;
+    private long mDatePairCount = 0;
+    private long mUntimedPairCount = 0;
+    private long mNegativeLatencyCount = 0;
+    private long mOrphanResponseCount = 0;
+
+    // Requests per interval, the source of the first request timestamp is used for all requests
+    private long[] mTimeline = new long[TIMELINE_SLOT_COUNT];
+    private long mTimelineStart = -1;
+    private long mTimelineInterval = TIMELINE_START_INTERVAL;
+    private int mTimelineSource = SOURCE_NONE;
+
+    private SimpleDateFormat mHttpDateFormat;
+    private String mLastDateText = null;
+    private long mLastDateMillis = -1;
+
+    /**
+     * @param captureName the name of the capture file (or proxy) shown in the report
+     */
+    public LatencyAnalytics(String captureName) {
+        mCaptureName = captureName;
+        mHttpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        mHttpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    /**
+     * Adds the next message of the capture, its order index must be set.
+     */
+    public void addMessage(SoapEnvelopeInfo soapEnvelopeInfo) {
+        int orderIndex = soapEnvelopeInfo.getOrderIndex();
+        if ( soapEnvelopeInfo.isRequestMessage() ) {
+            OperationStats operation = getOperation(soapEnvelopeInfo.getSoapBodyName());
+            PendingTiming timing = new PendingTiming();
+            timing.mOperation = operation;
+            timing.mCaptureTimestamp = soapEnvelopeInfo.getCaptureTimestamp();
+            // The Date header is only needed without capture timestamp
+            timing.mDateTimestamp = (timing.mCaptureTimestamp >= 0 ? -1 : getDateHeaderMillis(soapEnvelopeInfo));
+            mPendingRequests.put(Integer.valueOf(orderIndex), timing);
+
+            operation.mRequestCount++;
+            mAllOperations.mRequestCount++;
+            if ( timing.mCaptureTimestamp >= 0 ) {
+                addRequestTime(operation, timing.mCaptureTimestamp, SOURCE_CAPTURE);
+            } else if ( timing.mDateTimestamp >= 0 ) {
+                addRequestTime(operation, timing.mDateTimestamp, SOURCE_DATE_HEADER);
+            }
+        } else if ( soapEnvelopeInfo.isResponseMessage() ) {
+            PendingTiming timing = mPendingRequests.remove(Integer.valueOf(orderIndex - 1));
+            if ( timing == null ) {
+                mOrphanResponseCount++;
+                return;
+            }
+            long latency;
+            int source;
+            long responseCaptureTimestamp = soapEnvelopeInfo.getCaptureTimestamp();
+            if ( timing.mCaptureTimestamp >= 0 && responseCaptureTimestamp >= 0 ) {
+                latency = getLatency(timing.mCaptureTimestamp, responseCaptureTimestamp);
+                source = SOURCE_CAPTURE;
+            } else {
+                long responseDateTimestamp = (responseCaptureTimestamp < 0 || timing.mDateTimestamp >= 0 ? getDateHeaderMillis(soapEnvelopeInfo) : -1);
+                if ( timing.mCaptureTimestamp < 0 && timing.mDateTimestamp < 0 && responseDateTimestamp >= 0 ) {
+                    // Usually only the responses have a Date header, the request is counted at the time of its response
+                    addRequestTime(timing.mOperation, responseDateTimestamp, SOURCE_DATE_HEADER);
+                }
+                if ( timing.mDateTimestamp < 0 || responseDateTimestamp < 0 ) {
+                    mUntimedPairCount++;
+                    return;
+                }
+                latency = getLatency(timing.mDateTimestamp, responseDateTimestamp);
+                source = SOURCE_DATE_HEADER;
+            }
+            if ( latency < 0 ) {
+                // The clocks of the messages differ
+                mNegativeLatencyCount++;
+                return;
+            }
+            if ( source == SOURCE_CAPTURE ) {
+                mCapturePairCount++;
+            } else {
+                mDatePairCount++;
+            }
+            timing.mOperation.mLatencies.recordValue(latency);
+            mAllOperations.mLatencies.recordValue(latency);
+        }
+    }
+
+    private OperationStats getOperation(String bodyName) {
+        String operationName = (bodyName == null || "".equals(bodyName) ? "(unknown)" : bodyName);
+        OperationStats operation = mOperations.get(operationName);
+        if ( operation == null ) {
+            if ( mOperations.size() >= MAX_OPERATIONS ) {
+                operationName = OTHER_OPERATIONS;
+                operation = mOperations.get(operationName);
+            }
+            if ( operation == null ) {
+                operation = new OperationStats(operationName);
+                mOperations.put(operationName, operation);
+            }
+        }
+        return operation;
+    }
+
+    private void addRequestTime(OperationStats operation, long timestamp, int source) {
+        if ( mTimelineSource == SOURCE_NONE ) {
+            mTimelineSource = source;
+        }
+        if ( source != mTimelineSource ) {
+            return;
+        }
+        updateRequestTimes(operation, timestamp);
+        updateRequestTimes(mAllOperations, timestamp);
+        addToTimeline(timestamp);
+    }
+
+    private static void updateRequestTimes(OperationStats operation, long timestamp) {
+        if ( operation.mFirstRequestTime < 0 || timestamp < operation.mFirstRequestTime ) {
+            operation.mFirstRequestTime = timestamp;
+        }
+        if ( timestamp > operation.mLastRequestTime ) {
+            operation.mLastRequestTime = timestamp;
+        }
+    }
+
+    private void addToTimeline(long timestamp) {
+        if ( mTimelineStart < 0 ) {
+            mTimelineStart = timestamp - (timestamp % mTimelineInterval);
+        }
+        long slot = Math.max(0, timestamp - mTimelineStart) / mTimelineInterval;
+        while ( slot >= TIMELINE_SLOT_COUNT ) {
+            // Merge the pairs of intervals, the second half of the timeline becomes free
+            for ( int index = 0; index < TIMELINE_SLOT_COUNT / 2; index++ ) {
+                mTimeline[index] = mTimeline[index * 2] + mTimeline[(index * 2) + 1];
+            }
+            for ( int index = TIMELINE_SLOT_COUNT / 2; index < TIMELINE_SLOT_COUNT; index++ ) {
+                mTimeline[index] = 0;
+            }
+            mTimelineInterval *= 2;
+            slot = (timestamp - mTimelineStart) / mTimelineInterval;
+        }
+        mTimeline[(int) slot]++;
+    }
+
+    /**
+     * @return the latency in milliseconds, time-of-day timestamps are continued over midnight
+     */
+    private static long getLatency(long requestTimestamp, long responseTimestamp) {
+        long latency = responseTimestamp - requestTimestamp;
+        if ( latency < 0 && requestTimestamp < DAY_MILLIS && responseTimestamp < DAY_MILLIS && latency > -(DAY_MILLIS / 2) - 1 ) {
+            latency += DAY_MILLIS;
+        }
+        return latency;
+    }
+
+    private long getDateHeaderMillis(SoapEnvelopeInfo soapEnvelopeInfo) {
+        String headerTime = soapEnvelopeInfo.getTimeFromSoapHeader();
+        if ( headerTime == null || "".equals(headerTime) ) {
+            return -1;
+        }
+        if ( headerTime.equals(mLastDateText) ) {
+            return mLastDateMillis;
+        }
+        String dateText = headerTime;
+        int ipos = dateText.indexOf("Date:");
+        if ( ipos >= 0 ) {
+            dateText = dateText.substring(ipos + 5);
+        }
+        long dateMillis;
+        try {
+            dateMillis = mHttpDateFormat.parse(dateText.trim()).getTime();
+        } catch (ParseException e) {
+            dateMillis = -1;
+        }
+        mLastDateText = headerTime;
+        mLastDateMillis = dateMillis;
+        return dateMillis;
+    }
+
+    /**
+     * Parses the timestamp at the start of a capture line, e.g. <code>2015-08-28 13:36:54.123</code>,
+     * <code>[2015-08-28T13:36:54,123]</code> or <code>13:36:54.123</code>.  The date is in the local time zone.
+     *
+     * @param line the capture line
+     * @return the time in milliseconds, the milliseconds of the day if the timestamp has no date, or -1 if the
+     *         line does not start with a timestamp
+     */
+    static long parseLineTimestamp(String line) {
+        int length = line.length();
+        int pos = 0;
+        if ( pos < length && line.charAt(pos) == '[' ) {
+            pos++;
+        }
+        int year = -1;
+        int month = -1;
+        int day = -1;
+        if ( isDigits(line, pos, 4) && isChar(line, pos + 4, '-') && isDigits(line, pos + 5, 2) && isChar(line, pos + 7, '-')
+                && isDigits(line, pos + 8, 2) && (isChar(line, pos + 10, ' ') || isChar(line, pos + 10, 'T')) ) {
+            year = Integer.parseInt(line.substring(pos, pos + 4));
+            month = Integer.parseInt(line.substring(pos + 5, pos + 7));
+            day = Integer.parseInt(line.substring(pos + 8, pos + 10));
+            pos += 11;
+        }
+        if ( !isDigits(line, pos, 2) || !isChar(line, pos + 2, ':') || !isDigits(line, pos + 3, 2) || !isChar(line, pos + 5, ':') || !isDigits(line, pos + 6, 2) ) {
+            return -1;
+        }
+        int hours = Integer.parseInt(line.substring(pos, pos + 2));
+        int minutes = Integer.parseInt(line.substring(pos + 3, pos + 5));
+        int seconds = Integer.parseInt(line.substring(pos + 6, pos + 8));
+        pos += 8;
+        int millis = 0;
+        if ( (isChar(line, pos, '.') || isChar(line, pos, ',')) && isDigits(line, pos + 1, 1) ) {
+            pos++;
+            int digitCount = 0;
+            while ( pos < length && Character.isDigit(line.charAt(pos)) ) {
+                // Digits after the milliseconds are ignored
+                if ( digitCount < 3 ) {
+                    millis = (millis * 10) + (line.charAt(pos) - '0');
+                }
+                digitCount++;
+                pos++;
+            }
+            for ( ; digitCount < 3; digitCount++ ) {
+                millis *= 10;
+            }
+        }
+        if ( (pos < length && Character.isDigit(line.charAt(pos))) || hours > 23 || minutes > 59 || seconds > 60
+                || (year >= 0 && (month < 1 || month > 12 || day < 1 || day > 31)) ) {
+            return -1;
+        }
+        if ( year < 0 ) {
+            return (((hours * 60L) + minutes) * 60L + seconds) * 1000L + millis;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hours, minutes, seconds);
+        calendar.set(Calendar.MILLISECOND, millis);
+        return calendar.getTimeInMillis();
+    }
+
+    private static boolean isDigits(String text, int pos, int count) {
+        if ( pos + count > text.length() ) return false;
+        for ( int index = pos; index < pos + count; index++ ) {
+            if ( !Character.isDigit(text.charAt(index)) ) return false;
+        }
+        return true;
+    }
+
+    private static boolean isChar(String text, int pos, char value) {
+        return pos < text.length() && text.charAt(pos) == value;
+    }
+
+    /**
+     * @return the number of request/response pairs with a measured latency
+     */
+    public long getMeasuredPairCount() {
+        return mAllOperations.mLatencies.getTotalCount();
+    }
+
+    /**
+     * Creates the report : the latency percentiles and the throughput per operation, and the requests over time.
+     *
+     * @param lineFeed the line separator of the report
+     * @return the report text
+     */
+    public String createReport(String lineFeed) {
+        StringBuilder sbReport = new StringBuilder();
+        sbReport.append("Latency report for ").append(mCaptureName).append(lineFeed);
+        sbReport.append(lineFeed);
+        sbReport.append("Pairs measured with capture timestamps (ms) : ").append(mCapturePairCount).append(lineFeed);
+        sbReport.append("Pairs measured with Date headers (s)        : ").append(mDatePairCount).append(lineFeed);
+        sbReport.append("Pairs without timestamps                    : ").append(mUntimedPairCount).append(lineFeed);
+        if ( mNegativeLatencyCount > 0 ) {
+            sbReport.append("Pairs with response before request         : ").append(mNegativeLatencyCount).append(lineFeed);
+        }
+        sbReport.append("Requests without response                   : ").append(mPendingRequests.size()).append(lineFeed);
+        sbReport.append("Responses without request                   : ").append(mOrphanResponseCount).append(lineFeed);
+        sbReport.append(lineFeed);
+
+        sbReport.append(String.format("%-32s %9s %9s %9s %9s %9s %9s %9s %9s", "Operation", "Requests", "Req/s", "Measured", "Mean ms", "p50 ms", "p90 ms", "p99 ms", "Max ms")).append(lineFeed);
+        for ( OperationStats operation : mOperations.values() ) {
+            appendOperationLine(sbReport, operation, lineFeed);
+        }
+        appendOperationLine(sbReport, mAllOperations, lineFeed);
+
+        if ( mTimelineStart >= 0 ) {
+            int usedSlotCount = 0;
+            for ( int index = 0; index < TIMELINE_SLOT_COUNT; index++ ) {
+                if ( mTimeline[index] > 0 ) {
+                    usedSlotCount = index + 1;
+                }
+            }
+            int slotsPerInterval = Math.max(1, (usedSlotCount + MAX_REPORTED_INTERVALS - 1) / MAX_REPORTED_INTERVALS);
+            long reportInterval = mTimelineInterval * slotsPerInterval;
+            SimpleDateFormat timeFormat = getTimelineFormat();
+            sbReport.append(lineFeed);
+            sbReport.append("Requests per ").append(formatInterval(reportInterval)).append(lineFeed);
+            for ( int slot = 0; slot < usedSlotCount; slot += slotsPerInterval ) {
+                long requestCount = 0;
+                for ( int index = slot; index < slot + slotsPerInterval && index < TIMELINE_SLOT_COUNT; index++ ) {
+                    requestCount += mTimeline[index];
+                }
+                long intervalStart = mTimelineStart + (slot * mTimelineInterval);
+                sbReport.append(String.format("%-24s %9d %9.1f/s", timeFormat.format(new Date(intervalStart)), requestCount, (requestCount * 1000.0) / reportInterval)).append(lineFeed);
+            }
+        }
+        return sbReport.toString();
+    }
+
+    private void appendOperationLine(StringBuilder sbReport, OperationStats operation, String lineFeed) {
+        LatencyHistogram latencies = operation.mLatencies;
+        String requestRate = "";
+        long timeSpan = operation.mLastRequestTime - operation.mFirstRequestTime;
+        if ( operation.mFirstRequestTime >= 0 && timeSpan > 0 ) {
+            requestRate = String.format("%.2f", (operation.mRequestCount * 1000.0) / timeSpan);
+        }
+        if ( latencies.getTotalCount() == 0 ) {
+            sbReport.append(String.format("%-32s %9d %9s %9d", operation.mName, operation.mRequestCount, requestRate, 0)).append(lineFeed);
+            return;
+        }
+        sbReport.append(String.format("%-32s %9d %9s %9d %9.1f %9d %9d %9d %9d", operation.mName, operation.mRequestCount, requestRate,
+                latencies.getTotalCount(), latencies.getMean(), latencies.getValueAtPercentile(50.0), latencies.getValueAtPercentile(90.0),
+                latencies.getValueAtPercentile(99.0), latencies.getMaxValue())).append(lineFeed);
+    }
+
+    private SimpleDateFormat getTimelineFormat() {
+        SimpleDateFormat timeFormat;
+        if ( mTimelineStart < DAY_MILLIS ) {
+            // Time-of-day timestamps are shown as they are written in the capture
+            timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+            timeFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        } else {
+            timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            if ( mTimelineSource == SOURCE_DATE_HEADER ) {
+                timeFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            }
+        }
+        return timeFormat;
+    }
+
+    private static String formatInterval(long intervalMillis) {
+        if ( intervalMillis % 1000 == 0 ) {
+            return (intervalMillis / 1000) + " s";
+        }
+        return intervalMillis + " ms";
+    }
+
+    /**
+     * Writes the report to {@link #LATENCY_REPORT_FILENAME} in the output directory.
+     *
+     * @return the report file
+     * @throws IOException if the file cannot be written
+     */
+    public File writeReport(String outputDirectory, String lineFeed) throws IOException {
+        File reportFile = new File(outputDirectory, LATENCY_REPORT_FILENAME);
+        FileOutputStream reportStream = new FileOutputStream(reportFile);
+        try {
+            reportStream.write(createReport(lineFeed).getBytes("UTF-8"));
+        } finally {
+            reportStream.close();
+        }
+        return reportFile;
+    }
+}
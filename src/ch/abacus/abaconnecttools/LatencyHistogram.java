@@ -0,0 +1,113 @@
+/*
+ * LatencyHistogram.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+/**
+ * Histogram of latencies in milliseconds with a fixed memory size, independent of the number of values.
+ * <p/>
+ * The values below 128 ms are counted exactly.  Larger values are counted in buckets with a width of 1/64
+ * of their power of two, so a percentile is at most 1.6% above the recorded value.  The buckets cover
+ * values up to 2^40 ms, larger values are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_COUNT = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+    private static final int MAX_VALUE_BITS = 40;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + ((MAX_VALUE_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT);
+
+    private int[] mCounts = new int[BUCKET_COUNT];
+    private long mTotalCount = 0;
+    private long mMinValue = Long.MAX_VALUE;
+    private long mMaxValue = 0;
+    private long mValueSum = 0;
+
+    /**
+     * @param value the latency in milliseconds, negative values are counted as 0
+     */
+    public void recordValue(long value) {
+        if ( value < 0 ) {
+            value = 0;
+        }
+        mCounts[getBucketIndex(value)]++;
+        mTotalCount++;
+        mValueSum += value;
+        if ( value < mMinValue ) {
+            mMinValue = value;
+        }
+        if ( value > mMaxValue ) {
+            mMaxValue = value;
+        }
+    }
+
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    public long getMinValue() {
+        return (mTotalCount > 0 ? mMinValue : 0);
+    }
+
+    public long getMaxValue() {
+        return mMaxValue;
+    }
+
+    public double getMean() {
+        return (mTotalCount > 0 ? (double) mValueSum / mTotalCount : 0.0);
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return the highest value of the bucket which contains the percentile, at most the largest recorded value
+     */
+    public long getValueAtPercentile(double percentile) {
+        if ( mTotalCount == 0 ) {
+            return 0;
+        }
+        long countAtPercentile = (long) Math.ceil((Math.min(100.0, Math.max(0.0, percentile)) / 100.0) * mTotalCount);
+        if ( countAtPercentile < 1 ) {
+            countAtPercentile = 1;
+        }
+        long count = 0;
+        for ( int index = 0; index < BUCKET_COUNT; index++ ) {
+            count += mCounts[index];
+            if ( count >= countAtPercentile ) {
+                return Math.min(getBucketHighestValue(index), mMaxValue);
+            }
+        }
+        return mMaxValue;
+    }
+
+    static int getBucketIndex(long value) {
+        if ( value < LINEAR_LIMIT ) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if ( highestBit >= MAX_VALUE_BITS ) {
+            return BUCKET_COUNT - 1;
+        }
+        // The shifted value is between SUB_BUCKET_COUNT and LINEAR_LIMIT - 1
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + ((shift - 1) * SUB_BUCKET_COUNT) + (int) ((value >> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long getBucketHighestValue(int bucketIndex) {
+        if ( bucketIndex < LINEAR_LIMIT ) {
+            return bucketIndex;
+        }
+        int shift = ((bucketIndex - LINEAR_LIMIT) / SUB_BUCKET_COUNT) + 1;
+        long subBucket = SUB_BUCKET_COUNT + ((bucketIndex - LINEAR_LIMIT) % SUB_BUCKET_COUNT);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
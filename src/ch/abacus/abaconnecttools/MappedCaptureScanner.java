@@ -0,0 +1,1009 @@
+/*
+ * MappedCaptureScanner.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Scans a TcpMon capture file for SOAP Envelopes and HTTP headers directly in the bytes of the
+ * memory-mapped file.
+ * <p/>
+ * The scanner follows the same rules as the line based scanner in {@link TcpMonMessageExploder},
+ * but no line is decoded to a String.  The headers and envelopes are delivered as zero-copy
+ * {@link CaptureSlice slices} of the mapped file, which are only decoded when the text is needed.
+ * The line end and the markers of a line are found by a {@link CaptureMarkerMatcher} in a single pass.
+ * <p/>
+ * The body of a HTTP message is framed by its <code>Content-Length</code> or <code>Transfer-Encoding:
+ * chunked</code> header.  When the framing is consistent (the chunk syntax is valid, the envelope is the
+ * last content of the body and the body is followed by the end of the capture, a TcpMon separator line or
+ * the next message) the envelope is delivered as the data of the body, without chunk size lines, and the
+ * scan continues after the body without looking at its lines.  Otherwise the line heuristics are used,
+ * for example for captures whose line terminators have been converted.
+ * <p/>
+ * Files larger than the window size are mapped in consecutive windows.  A new window always starts
+ * at the beginning of the message that is currently being scanned, so that a slice never spans two
+ * windows.
+ * <p/>
+ * In follow mode the capture file is kept open with {@link #open()} and the bytes appended since the last
+ * scan are scanned with {@link #scanAppended(SoapEnvelopeListener)}.  A line without terminator at the end of
+ * the file and a framed body that is not complete yet are left for the next scan, which resumes at the start
+ * of the message that was not delivered yet.
+ * <p/>
+ * A capture that is only available as a stream, e.g. a decompressed capture, is scanned with
+ * {@link #scanStream(InputStream, SoapEnvelopeListener)}.  The stream is read in blocks into heap buffers
+ * which are scanned like the appended bytes in follow mode, only the bytes from the start of the message
+ * that was not delivered yet are kept for the next block.
+ */
+public class MappedCaptureScanner {
+
+    static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+    static final int STREAM_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final byte[] MARKER_POST = getAsciiBytes("POST ");
+    private static final byte[] MARKER_HTTP = getAsciiBytes("HTTP/1.");
+    private static final byte[] MARKER_ENVELOPE = getAsciiBytes("Envelop");
+    private static final int MARKER_INDEX_POST = 0;
+    private static final int MARKER_INDEX_HTTP = 1;
+    private static final int MARKER_INDEX_ENVELOPE = 2;
+    private static final byte[] HEADER_CONTENT_LENGTH = getAsciiBytes("content-length:");
+    private static final byte[] HEADER_TRANSFER_ENCODING = getAsciiBytes("transfer-encoding:");
+    private static final byte[] VALUE_CHUNKED = getAsciiBytes("chunked");
+    private static final int MAX_CHUNK_LINE_LENGTH = 1024;
+    private static final int MAX_TRAILER_LINES = 100;
+    private static final int MAX_BODY_TRAILING_WHITESPACE = 128;
+    private static final byte[] MARKER_CONNECTION_REQUEST = getAsciiBytes("==== Request ====");
+    private static final int MAX_TIMESTAMP_LENGTH = 40;
+
+    private File mCaptureFile;
+    private Charset mCharset = Charset.defaultCharset();
+    private int mWindowSize = DEFAULT_WINDOW_SIZE;
+
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private long mFileSize;
+    private ByteBuffer mWindow;
+    private long mWindowStart = 0;
+    private int mWindowLength = 0;
+
+    private boolean mInSoapEnvelope = false;
+    private boolean mInSoapHeader = false;
+    private byte[] mEnvelopeEndTag = null;
+    private CaptureMarkerMatcher mMarkerMatcher = new CaptureMarkerMatcher(MARKER_POST, MARKER_HTTP, MARKER_ENVELOPE);
+    private long mEnvelopeStart = -1;
+    // Pending header segments as { offset, length, kind } in file offsets
+    private ArrayList<long[]> mHeaderSegments = new ArrayList<long[]>();
+
+    // HTTP framing of the current message, see frameHttpBody()
+    private boolean mInHttpHeader = false;
+    private boolean mHttpHeaderEnded = false;
+    private long mContentLength = -1;
+    private boolean mChunked = false;
+    private long mBodyStart = -1;
+    private long mBodyEnd = -1;     // -1 if the body is not framed
+    private long mBodyLength = 0;
+    // Data ranges of the framed body as { offset, length } in file offsets, one range per chunk
+    private ArrayList<long[]> mBodyRanges = new ArrayList<long[]>();
+    private long mSkipPosition = -1;
+
+    private boolean mFollowMode = false;
+    private boolean mWaitForData = false;
+    private boolean mBodyTruncated = false;
+    private long mResumeOffset = 0;
+    private boolean mResumeRawHeader = false;
+    private int mFramedEnvelopeCount = 0;
+    // Each TcpMon connection section starts with its request marker, see SoapEnvelopeInfo.getConnectionIndex()
+    private int mConnectionIndex = -1;
+    private long mConnectionMarkerOffset = -1;
+    // The timestamp line in front of the next message, see LatencyAnalytics.parseLineTimestamp()
+    private long mLineTimestamp = -1;
+
+    // Heap buffer of the scanned stream, see scanStream()
+    private byte[] mStreamBuffer = null;
+    private long mStreamBufferStart = 0;
+    private long mStreamLength = 0;
+
+    private volatile long mBytesScanned = 0;
+    private long mLinesScanned = 0;
+    private volatile boolean mCancelled = false;
+    private int mEnvelopeCount = 0;
+
+    public MappedCaptureScanner(File captureFile) {
+        mCaptureFile = captureFile;
+    }
+
+    public void setCharset(Charset charset) {
+        mCharset = (charset == null ? Charset.defaultCharset() : charset);
+    }
+
+    public void setWindowSize(int windowSize) {
+        mWindowSize = Math.max(1024, windowSize);
+    }
+
+    /**
+     * In follow mode the capture file is still being written : the last line is only scanned when it has
+     * its terminator and the scan waits for the rest of a framed body.
+     */
+    public void setFollowMode(boolean followMode) {
+        mFollowMode = followMode;
+    }
+
+    /**
+     * @return the file offset where the next {@link #scanAppended(SoapEnvelopeListener)} starts, all messages
+     *         before the offset have been delivered
+     */
+    public long getResumeOffset() {
+        return mResumeOffset;
+    }
+
+    /**
+     * Sets the file offset of the next scan, e.g. 0 after the capture file has been truncated.
+     */
+    public void setResumeOffset(long resumeOffset) {
+        mResumeOffset = resumeOffset;
+        mResumeRawHeader = false;
+    }
+
+    /**
+     * @return the number of bytes of the capture file scanned so far
+     */
+    public long getBytesScanned() {
+        return mBytesScanned;
+    }
+
+    /**
+     * @return the number of lines scanned so far, the lines of a framed body which is skipped are not counted
+     */
+    public long getLinesScanned() {
+        return mLinesScanned;
+    }
+
+    /**
+     * Stops the scan before the next line, may be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public int getEnvelopeCount() {
+        return mEnvelopeCount;
+    }
+
+    /**
+     * @return the number of envelopes delivered from a body framed by its HTTP header
+     */
+    public int getFramedEnvelopeCount() {
+        return mFramedEnvelopeCount;
+    }
+
+    /**
+     * Scans the capture file and passes each SOAP Envelope to the listener as soon as its
+     * closing <code>Envelope</code> tag has been found.
+     *
+     * @param soapEnvelopeListener receives the envelopes in the order of appearance
+     * @throws IOException if the file cannot be read
+     */
+    public void scan(SoapEnvelopeListener soapEnvelopeListener) throws IOException {
+        open();
+        try {
+            scanAppended(soapEnvelopeListener);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Scans a capture stream instead of the capture file, e.g. a decompressed capture, and passes each SOAP
+     * Envelope to the listener as soon as it has been read.  The stream is not closed.  If the stream cannot
+     * be read to its end (e.g. a truncated compressed capture), the bytes read so far are scanned like a
+     * capture file that ends there before the error is thrown.
+     *
+     * @param inputStream the capture
+     * @param soapEnvelopeListener receives the envelopes in the order of appearance
+     * @throws IOException if the stream cannot be read
+     */
+    public void scanStream(InputStream inputStream, SoapEnvelopeListener soapEnvelopeListener) throws IOException {
+        boolean followMode = mFollowMode;
+        mResumeOffset = 0;
+        mResumeRawHeader = false;
+        mStreamBuffer = new byte[STREAM_BLOCK_SIZE];
+        mStreamBufferStart = 0;
+        mStreamLength = 0;
+        IOException readError = null;
+        try {
+            // The message at the end of a block is completed with the next block, like an appended message
+            mFollowMode = true;
+            while ( !mCancelled ) {
+                try {
+                    if ( !readStreamBlock(inputStream) ) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    readError = e;
+                    break;
+                }
+                scanAppended(soapEnvelopeListener);
+            }
+            mFollowMode = followMode;
+            if ( !mCancelled ) {
+                scanAppended(soapEnvelopeListener);
+            }
+        } finally {
+            mFollowMode = followMode;
+            mStreamBuffer = null;
+        }
+        if ( readError != null ) {
+            throw readError;
+        }
+    }
+
+    /**
+     * Reads the next block of the stream behind the bytes still needed from the previous block.  The block is
+     * at least as large as these bytes, so a large message is not scanned again for every small block.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean readStreamBlock(InputStream inputStream) throws IOException {
+        int pendingLength = (int) (mStreamLength - mResumeOffset);
+        int blockSize = Math.max(STREAM_BLOCK_SIZE, pendingLength);
+        if ( (long) pendingLength + blockSize > Integer.MAX_VALUE - 8 ) {
+            throw new IOException("The message at offset " + mResumeOffset + " is too large to be scanned.");
+        }
+        // The delivered slices still reference the current buffer, it is never overwritten
+        byte[] buffer = new byte[pendingLength + blockSize];
+        System.arraycopy(mStreamBuffer, (int) (mResumeOffset - mStreamBufferStart), buffer, 0, pendingLength);
+        mStreamBuffer = buffer;
+        mStreamBufferStart = mResumeOffset;
+        int length = pendingLength;
+        try {
+            while ( length < buffer.length ) {
+                int count = inputStream.read(buffer, length, buffer.length - length);
+                if ( count < 0 ) {
+                    break;
+                }
+                length += count;
+            }
+        } finally {
+            mStreamLength = mStreamBufferStart + length;
+        }
+        return length > pendingLength;
+    }
+
+    /**
+     * Opens the capture file, the next scan starts at the beginning of the file.
+     */
+    public void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mCaptureFile, "r");
+        mChannel = mRandomAccessFile.getChannel();
+        mResumeOffset = 0;
+        mResumeRawHeader = false;
+    }
+
+    public void close() throws IOException {
+        mWindow = null;
+        mChannel = null;
+        if ( mRandomAccessFile != null ) {
+            mRandomAccessFile.close();
+            mRandomAccessFile = null;
+        }
+    }
+
+    /**
+     * Scans the capture file from the resume offset to its current end.  The file must be open.
+     *
+     * @param soapEnvelopeListener receives the envelopes in the order of appearance
+     * @return the number of envelopes found
+     * @throws IOException if the file cannot be read
+     */
+    public int scanAppended(SoapEnvelopeListener soapEnvelopeListener) throws IOException {
+        int envelopeCount = mEnvelopeCount;
+        mFileSize = (mChannel != null ? mChannel.size() : mStreamLength);
+        if ( mResumeOffset >= mFileSize ) {
+            return 0;
+        }
+        resetScanState();
+        long position = mResumeOffset;
+        try {
+            mapWindow(position, 0);
+            while ( position < mFileSize && !mCancelled && !mWaitForData ) {
+                int lineStart = (int) (position - mWindowStart);
+                // Finds the line end and all markers of the line in one pass
+                int lineEnd = mMarkerMatcher.scanLine(mWindow, lineStart, mWindowLength);
+                boolean atFileEnd = (mWindowStart + mWindowLength >= mFileSize);
+                if ( mFollowMode && atFileEnd && lineEnd >= mWindowLength - 1 && (lineEnd == mWindowLength || mWindow.get(lineEnd) == '\r') ) {
+                    // The line (or its \r\n terminator) is still being written
+                    break;
+                }
+                // The line must be complete in the window (including a possible \r\n terminator)
+                boolean lineComplete = (lineEnd < mWindowLength - 1) || atFileEnd;
+                if ( !lineComplete ) {
+                    long pendingStart = getPendingStart(position);
+                    mapWindow(pendingStart, (int) Math.min(Integer.MAX_VALUE, (position - pendingStart) + (long) (lineEnd - lineStart) + 2));
+                    continue;
+                }
+                if ( mResumeRawHeader ) {
+                    // The header started behind the envelope that ends in the same line
+                    mResumeRawHeader = false;
+                    mInSoapHeader = true;
+                    addHeaderSegment(position, lineEnd - lineStart, CaptureSlice.KIND_RAW);
+                    startHttpHeader();
+                } else {
+                    processLine(lineStart, lineEnd, soapEnvelopeListener);
+                }
+                mLinesScanned++;
+                int nextLineStart = lineEnd;
+                if ( lineEnd < mWindowLength ) {
+                    nextLineStart++;
+                    if ( mWindow.get(lineEnd) == '\r' && lineEnd + 1 < mWindowLength && mWindow.get(lineEnd + 1) == '\n' ) {
+                        nextLineStart++;
+                    }
+                }
+                position = mWindowStart + nextLineStart;
+                if ( mSkipPosition >= 0 ) {
+                    // The envelope was delivered from the framed body, the scan continues after the body
+                    position = mSkipPosition;
+                    mSkipPosition = -1;
+                }
+                if ( mHttpHeaderEnded ) {
+                    mHttpHeaderEnded = false;
+                    frameHttpBody(position);
+                }
+                mBytesScanned = position;
+            }
+        } finally {
+            // The message that was not delivered yet is scanned again with the appended bytes
+            mResumeOffset = getPendingStart(position);
+            mResumeRawHeader = mHeaderSegments.size() > 0 && mHeaderSegments.get(0)[0] == mResumeOffset && mHeaderSegments.get(0)[2] == CaptureSlice.KIND_RAW;
+            mWindow = null;
+        }
+        return mEnvelopeCount - envelopeCount;
+    }
+
+    private void resetScanState() {
+        mInSoapEnvelope = false;
+        mInSoapHeader = false;
+        mEnvelopeEndTag = null;
+        mEnvelopeStart = -1;
+        mHeaderSegments.clear();
+        mInHttpHeader = false;
+        mHttpHeaderEnded = false;
+        mContentLength = -1;
+        mChunked = false;
+        mBodyStart = -1;
+        mBodyEnd = -1;
+        mBodyLength = 0;
+        mBodyRanges.clear();
+        mSkipPosition = -1;
+        mWaitForData = false;
+    }
+
+    /**
+     * Maps a new window starting at the specified file offset.  The window is at least as large as the
+     * window size, or larger if the required length does not fit.
+     */
+    private void mapWindow(long windowStart, int requiredLength) throws IOException {
+        long windowSize = Math.max((long) mWindowSize, (long) requiredLength);
+        if ( mWindow != null && windowStart == mWindowStart && windowSize <= mWindowLength ) {
+            // The window must grow, the current message is larger than the window
+            windowSize = Math.min(Integer.MAX_VALUE, (long) mWindowLength * 2);
+        }
+        windowSize = Math.min(windowSize, mFileSize - windowStart);
+        if ( windowSize > Integer.MAX_VALUE ) {
+            windowSize = Integer.MAX_VALUE;
+        }
+        mWindowStart = windowStart;
+        mWindowLength = (int) windowSize;
+        if ( mChannel != null ) {
+            mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+        } else {
+            if ( windowStart < mStreamBufferStart ) {
+                throw new IOException("The stream offset " + windowStart + " is no longer available.");
+            }
+            mWindow = ByteBuffer.wrap(mStreamBuffer, (int) (windowStart - mStreamBufferStart), (int) windowSize).slice();
+        }
+    }
+
+    private SoapEnvelopeInfo createSoapEnvelopeInfo(SoapEnvelopeInfo soapEnvelopeInfo) {
+        soapEnvelopeInfo.setConnectionIndex(mConnectionIndex);
+        // The timestamp only belongs to the first message behind it
+        soapEnvelopeInfo.setCaptureTimestamp(mLineTimestamp);
+        mLineTimestamp = -1;
+        return soapEnvelopeInfo;
+    }
+
+    /**
+     * @return the file offset of the first byte still needed for the message being scanned
+     */
+    private long getPendingStart(long position) {
+        long pendingStart = position;
+        if ( mInSoapEnvelope && mEnvelopeStart >= 0 && mEnvelopeStart < pendingStart ) {
+            pendingStart = mEnvelopeStart;
+        }
+        if ( mHeaderSegments.size() > 0 && mHeaderSegments.get(0)[0] < pendingStart ) {
+            pendingStart = mHeaderSegments.get(0)[0];
+        }
+        return pendingStart;
+    }
+
+    private void processLine(int lineStart, int lineEnd, SoapEnvelopeListener soapEnvelopeListener) {
+        CaptureMarkerMatcher matcher = mMarkerMatcher;
+        if ( lineEnd > lineStart && mWindow.get(lineStart) == '=' && startsWith(lineStart, lineEnd, MARKER_CONNECTION_REQUEST) ) {
+            // A resumed follow scan may see the marker again
+            long markerOffset = mWindowStart + lineStart;
+            if ( markerOffset > mConnectionMarkerOffset ) {
+                mConnectionMarkerOffset = markerOffset;
+                mConnectionIndex++;
+            }
+        }
+        if ( !mInSoapEnvelope && lineEnd > lineStart ) {
+            byte firstByte = mWindow.get(lineStart);
+            if ( (firstByte >= '0' && firstByte <= '9') || firstByte == '[' ) {
+                long lineTimestamp = LatencyAnalytics.parseLineTimestamp(createSlice(lineStart, Math.min(lineEnd - lineStart, MAX_TIMESTAMP_LENGTH), CaptureSlice.KIND_RAW).getText());
+                if ( lineTimestamp >= 0 ) {
+                    mLineTimestamp = lineTimestamp;
+                }
+            }
+        }
+        int postPos = matcher.findHit(MARKER_INDEX_POST, lineStart);
+        int httpPos = matcher.findHit(MARKER_INDEX_HTTP, lineStart);
+        if ( postPos >= 0 || httpPos >= 0 ) {
+            mInSoapHeader = true;
+            int firstByte = skipWhitespace(lineStart, lineEnd);
+            if ( postPos == firstByte || httpPos == firstByte ) {
+                startHttpHeader();
+            }
+        }
+
+        int textStart = lineStart;
+        int envelopeStart = matcher.findHit(MARKER_INDEX_ENVELOPE, lineStart);
+        if ( envelopeStart > lineStart ) {
+            byte previousByte = mWindow.get(envelopeStart - 1);
+            if ( previousByte == '<' || previousByte == ':' ) {
+                int startEnvelopeTag = lastIndexOf((byte) '<', envelopeStart, lineStart);
+                if ( startEnvelopeTag >= lineStart && envelopeStart > startEnvelopeTag ) {
+                    if ( mWindow.get(startEnvelopeTag + 1) != '/' ) {
+                        // Envelope end tag is "</" + namespace + "Envelop"
+                        int namespaceLength = envelopeStart - startEnvelopeTag - 1;
+                        mEnvelopeEndTag = new byte[2 + namespaceLength + MARKER_ENVELOPE.length];
+                        mEnvelopeEndTag[0] = '<';
+                        mEnvelopeEndTag[1] = '/';
+                        for ( int index = 0; index < namespaceLength; index++ ) {
+                            mEnvelopeEndTag[2 + index] = mWindow.get(startEnvelopeTag + 1 + index);
+                        }
+                        System.arraycopy(MARKER_ENVELOPE, 0, mEnvelopeEndTag, 2 + namespaceLength, MARKER_ENVELOPE.length);
+                        textStart = startEnvelopeTag;
+                        mEnvelopeStart = mWindowStart + startEnvelopeTag;
+                        mInSoapEnvelope = true;
+                        mInSoapHeader = false; // The SOAP Header must have finished
+                        if ( mBodyEnd >= 0 && mEnvelopeStart >= mBodyStart && mEnvelopeStart < mBodyEnd ) {
+                            if ( deliverFramedEnvelope(soapEnvelopeListener) ) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if ( mInSoapHeader ) {
+            int headerStart = textStart;
+            if ( mHeaderSegments.size() == 0 ) {
+                // Trim off preceding text when POST or HTTP is not at the start of line
+                if ( postPos > lineStart ) {
+                    headerStart = postPos;
+                } else if ( postPos < 0 && httpPos > lineStart ) {
+                    headerStart = httpPos;
+                }
+            }
+            addHeaderSegment(mWindowStart + headerStart, lineEnd - headerStart, CaptureSlice.KIND_HEADER_LINES);
+            if ( mInHttpHeader ) {
+                parseHttpHeaderLine(lineStart, lineEnd);
+            }
+        }
+
+        if ( mInSoapEnvelope ) {
+            int endSoapTagPos = findEnvelopeEndTag(textStart);
+            if ( endSoapTagPos >= 0 ) {
+                int envelopeEnd = lineEnd;
+                int textAfterEnvelope = lineEnd;
+                int endTagPos = indexOf((byte) '>', endSoapTagPos, lineEnd);
+                if ( endTagPos > endSoapTagPos ) {
+                    envelopeEnd = endTagPos + 1;
+                    textAfterEnvelope = endTagPos + 1;
+                }
+                mInSoapEnvelope = false;
+                int envelopeOffset = (int) (mEnvelopeStart - mWindowStart);
+                CaptureSlice[] envelopeSlices = new CaptureSlice[] { createSlice(envelopeOffset, envelopeEnd - envelopeOffset, CaptureSlice.KIND_ENVELOPE_LINES) };
+                CaptureSlice[] headerSlices = createHeaderSlices();
+                mEnvelopeStart = -1;
+                mEnvelopeCount++;
+                soapEnvelopeListener.soapEnvelopeFound(createSoapEnvelopeInfo(new SoapEnvelopeInfo(envelopeSlices, headerSlices)));
+
+                if ( textAfterEnvelope < lineEnd ) {
+                    if ( findEnvelopeEndTag(textAfterEnvelope) >= 0 ) {
+                        // Several envelopes in the same line
+                        String text = createSlice(textAfterEnvelope, lineEnd - textAfterEnvelope, CaptureSlice.KIND_RAW).getText();
+                        XmlElementExtractor.Matches soapMessages = TcpMonMessageExploder.ENVELOPE_EXTRACTOR.findElements(text);
+                        for ( int index = 0; index < soapMessages.getCount(); index++ ) {
+                            mEnvelopeCount++;
+                            soapEnvelopeListener.soapEnvelopeFound(createSoapEnvelopeInfo(new SoapEnvelopeInfo(soapMessages.getElement(index))));
+                        }
+                    }
+                    int afterPostPos = matcher.findHit(MARKER_INDEX_POST, textAfterEnvelope);
+                    int afterHttpPos = matcher.findHit(MARKER_INDEX_HTTP, textAfterEnvelope);
+                    if ( afterPostPos >= 0 || afterHttpPos >= 0 ) {
+                        // Trim off preceding text when POST or HTTP is not at the start of the text
+                        int headerStart = textAfterEnvelope;
+                        if ( afterPostPos > textAfterEnvelope ) {
+                            headerStart = afterPostPos;
+                        } else if ( afterPostPos < 0 && afterHttpPos > textAfterEnvelope ) {
+                            headerStart = afterHttpPos;
+                        }
+                        addHeaderSegment(mWindowStart + headerStart, lineEnd - headerStart, CaptureSlice.KIND_RAW);
+                        startHttpHeader();
+                    }
+                }
+            } else {
+                int trimStart = lineStart;
+                int trimEnd = lineEnd;
+                while ( trimStart < trimEnd && (mWindow.get(trimStart) & 0xff) <= ' ' ) {
+                    trimStart++;
+                }
+                while ( trimEnd > trimStart && (mWindow.get(trimEnd - 1) & 0xff) <= ' ' ) {
+                    trimEnd--;
+                }
+                if ( trimEnd > trimStart && trimEnd - trimStart <= 4 ) {
+                    System.out.println("Suspect Line (probably chunked breaks) : " + createSlice(lineStart, lineEnd - lineStart, CaptureSlice.KIND_RAW).getText());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the slices of the pending header segments, the segments are cleared
+     */
+    private CaptureSlice[] createHeaderSlices() {
+        CaptureSlice[] headerSlices = new CaptureSlice[mHeaderSegments.size()];
+        for ( int index = 0; index < headerSlices.length; index++ ) {
+            long[] segment = mHeaderSegments.get(index);
+            headerSlices[index] = createSlice((int) (segment[0] - mWindowStart), (int) segment[1], (int) segment[2]);
+        }
+        mHeaderSegments.clear();
+        return headerSlices;
+    }
+
+    /**
+     * A HTTP start line was found, the framing of the previous message is discarded.
+     */
+    private void startHttpHeader() {
+        mInHttpHeader = true;
+        mHttpHeaderEnded = false;
+        mContentLength = -1;
+        mChunked = false;
+        mBodyStart = -1;
+        mBodyEnd = -1;
+        mBodyLength = 0;
+        mBodyRanges.clear();
+    }
+
+    /**
+     * Reads the framing fields of a HTTP header line.  The empty line ends the header block, the body
+     * is framed before the next line is scanned.
+     */
+    private void parseHttpHeaderLine(int lineStart, int lineEnd) {
+        int fieldStart = skipWhitespace(lineStart, lineEnd);
+        if ( fieldStart == lineEnd ) {
+            mInHttpHeader = false;
+            mHttpHeaderEnded = true;
+        } else if ( startsWithIgnoreCase(fieldStart, lineEnd, HEADER_CONTENT_LENGTH) ) {
+            long contentLength = 0;
+            int pos = skipWhitespace(fieldStart + HEADER_CONTENT_LENGTH.length, lineEnd);
+            int digitsStart = pos;
+            while ( pos < lineEnd && mWindow.get(pos) >= '0' && mWindow.get(pos) <= '9' && contentLength < Integer.MAX_VALUE ) {
+                contentLength = contentLength * 10 + (mWindow.get(pos) - '0');
+                pos++;
+            }
+            if ( pos > digitsStart && skipWhitespace(pos, lineEnd) == lineEnd ) {
+                mContentLength = contentLength;
+            }
+        } else if ( startsWithIgnoreCase(fieldStart, lineEnd, HEADER_TRANSFER_ENCODING) ) {
+            // The last coding must be chunked, chunked takes precedence over Content-Length
+            int valueEnd = lineEnd;
+            while ( valueEnd > fieldStart && (mWindow.get(valueEnd - 1) & 0xff) <= ' ' ) {
+                valueEnd--;
+            }
+            int valueStart = valueEnd - VALUE_CHUNKED.length;
+            mChunked = valueStart > fieldStart && startsWithIgnoreCase(valueStart, valueEnd, VALUE_CHUNKED);
+        }
+    }
+
+    /**
+     * Frames the body of the message whose header block just ended.  The window is grown so that the
+     * whole body is mapped.  The framing is dropped if it is not consistent with the capture.
+     *
+     * @param bodyStart the file offset after the empty line
+     */
+    private void frameHttpBody(long bodyStart) throws IOException {
+        mBodyStart = bodyStart;
+        mBodyEnd = -1;
+        mBodyLength = 0;
+        mBodyRanges.clear();
+        mBodyTruncated = false;
+        long bodyEnd = -1;
+        if ( mChunked ) {
+            bodyEnd = frameChunkedBody(bodyStart);
+        } else if ( mContentLength > 0 && ensureWindow(bodyStart + mContentLength, bodyStart) ) {
+            mBodyRanges.add(new long[] { bodyStart, mContentLength });
+            bodyEnd = bodyStart + mContentLength;
+        } else if ( mContentLength > 0 && mFollowMode && bodyStart + mContentLength > mFileSize ) {
+            mWaitForData = true;
+        }
+        if ( mFollowMode && mBodyTruncated ) {
+            // The rest of the chunked body is still being written
+            mWaitForData = true;
+            bodyEnd = -1;
+        }
+        if ( bodyEnd >= 0 && isMessageEnd(bodyEnd) ) {
+            mBodyEnd = bodyEnd;
+            for ( long[] range : mBodyRanges ) {
+                mBodyLength += range[1];
+            }
+        } else {
+            mBodyRanges.clear();
+        }
+    }
+
+    /**
+     * Parses the chunks of a chunked body : hex size, optional extensions, line terminator, data and line
+     * terminator, up to the last chunk of size 0 and the trailer lines.
+     *
+     * @return the file offset after the body, or -1 if the chunk syntax is not valid
+     */
+    private long frameChunkedBody(long bodyStart) throws IOException {
+        long pos = bodyStart;
+        while ( true ) {
+            ensureWindow(Math.min(mFileSize, pos + MAX_CHUNK_LINE_LENGTH), bodyStart);
+            int lineStart = (int) (pos - mWindowStart);
+            int lineEnd = findLineTerminator(lineStart, Math.min(mWindowLength, lineStart + MAX_CHUNK_LINE_LENGTH));
+            if ( lineEnd < 0 ) {
+                mBodyTruncated = (mWindowStart + mWindowLength >= mFileSize && mWindowLength - lineStart < MAX_CHUNK_LINE_LENGTH);
+                return -1;
+            }
+            if ( mWindowStart + lineEnd + 1 >= mFileSize ) {
+                // The chunk data has not been written yet
+                mBodyTruncated = true;
+                return -1;
+            }
+            long chunkSize = 0;
+            int index = lineStart;
+            while ( index < lineEnd && chunkSize <= Integer.MAX_VALUE ) {
+                int digit = Character.digit((char) (mWindow.get(index) & 0xff), 16);
+                if ( digit < 0 ) break;
+                chunkSize = chunkSize * 16 + digit;
+                index++;
+            }
+            if ( index == lineStart || chunkSize > Integer.MAX_VALUE ) return -1;
+            byte next = (index < lineEnd ? mWindow.get(index) : (byte) ';');
+            if ( next != ';' && next != ' ' && next != '\t' ) return -1;
+            long dataStart = mWindowStart + skipLineTerminator(lineEnd);
+            if ( chunkSize == 0 ) {
+                return skipTrailer(dataStart, bodyStart);
+            }
+            long dataEnd = dataStart + chunkSize;
+            if ( dataEnd + 2 > mFileSize ) {
+                mBodyTruncated = true;
+            }
+            if ( !ensureWindow(Math.min(mFileSize, dataEnd + 2), bodyStart) || dataEnd >= mFileSize ) return -1;
+            int terminator = (int) (dataEnd - mWindowStart);
+            if ( mWindow.get(terminator) != '\r' && mWindow.get(terminator) != '\n' ) return -1;
+            mBodyRanges.add(new long[] { dataStart, chunkSize });
+            pos = mWindowStart + skipLineTerminator(terminator);
+        }
+    }
+
+    /**
+     * @return the file offset after the empty line that ends the trailer of a chunked body, or -1
+     */
+    private long skipTrailer(long pos, long bodyStart) throws IOException {
+        for ( int lineCount = 0; lineCount < MAX_TRAILER_LINES; lineCount++ ) {
+            if ( pos >= mFileSize ) {
+                mBodyTruncated = true;
+                return mFileSize;
+            }
+            ensureWindow(Math.min(mFileSize, pos + MAX_CHUNK_LINE_LENGTH), bodyStart);
+            int lineStart = (int) (pos - mWindowStart);
+            int lineEnd = findLineTerminator(lineStart, Math.min(mWindowLength, lineStart + MAX_CHUNK_LINE_LENGTH));
+            if ( lineEnd < 0 ) {
+                // A last line without terminator at the end of the capture
+                mBodyTruncated = (mWindowStart + mWindowLength >= mFileSize);
+                return (mWindowStart + mWindowLength >= mFileSize && skipWhitespace(lineStart, mWindowLength) == mWindowLength) ? mFileSize : -1;
+            }
+            pos = mWindowStart + skipLineTerminator(lineEnd);
+            if ( lineEnd == lineStart ) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the body end is followed by the end of the capture, a TcpMon separator line or
+     * the start line of the next message, with only whitespace in between
+     */
+    private boolean isMessageEnd(long bodyEnd) throws IOException {
+        if ( bodyEnd > mFileSize ) return false;
+        ensureWindow(Math.min(mFileSize, bodyEnd + MAX_BODY_TRAILING_WHITESPACE + MARKER_HTTP.length), mBodyStart);
+        int end = (int) Math.min(mWindowLength, bodyEnd + MAX_BODY_TRAILING_WHITESPACE + MARKER_HTTP.length - mWindowStart);
+        int pos = skipWhitespace((int) (bodyEnd - mWindowStart), end);
+        if ( pos == mWindowLength ) {
+            return mWindowStart + mWindowLength >= mFileSize;
+        }
+        if ( pos - (bodyEnd - mWindowStart) > MAX_BODY_TRAILING_WHITESPACE ) return false;
+        return mWindow.get(pos) == '=' || startsWith(pos, end, MARKER_POST) || startsWith(pos, end, MARKER_HTTP);
+    }
+
+    /**
+     * Grows the window so that it ends at or after the file offset.  The window starts at the first
+     * byte still needed for the message.
+     *
+     * @return false if the file offset is beyond the capture or the message does not fit in a window
+     */
+    private boolean ensureWindow(long endOffset, long position) throws IOException {
+        if ( endOffset > mFileSize ) return false;
+        if ( endOffset <= mWindowStart + mWindowLength ) return true;
+        long pendingStart = getPendingStart(position);
+        if ( endOffset - pendingStart > Integer.MAX_VALUE ) return false;
+        mapWindow(pendingStart, (int) (endOffset - pendingStart));
+        return endOffset <= mWindowStart + mWindowLength;
+    }
+
+    /**
+     * Delivers the envelope found in a framed body.  The envelope ends with the last end tag of the
+     * body, only whitespace may follow it.
+     *
+     * @return false if the body does not end with the envelope, the line heuristics are used then
+     */
+    private boolean deliverFramedEnvelope(SoapEnvelopeListener soapEnvelopeListener) {
+        long envelopeStart = toBodyIndex(mEnvelopeStart);
+        if ( envelopeStart < 0 ) return false;
+        int tailLength = (int) Math.min(mBodyLength - envelopeStart, mEnvelopeEndTag.length + MAX_BODY_TRAILING_WHITESPACE);
+        byte[] tail = copyBody(mBodyLength - tailLength, tailLength);
+        int tagClose = tailLength - 1;
+        while ( tagClose >= 0 && (tail[tagClose] & 0xff) <= ' ' ) {
+            tagClose--;
+        }
+        if ( tagClose < 0 || tail[tagClose] != '>' ) return false;
+        int endTag = -1;
+        for ( int pos = tagClose - mEnvelopeEndTag.length; pos >= 0 && endTag < 0; pos-- ) {
+            int index = 0;
+            while ( index < mEnvelopeEndTag.length && tail[pos + index] == mEnvelopeEndTag[index] ) {
+                index++;
+            }
+            if ( index == mEnvelopeEndTag.length ) {
+                endTag = pos;
+            }
+        }
+        if ( endTag < 0 ) return false;
+        long envelopeEnd = mBodyLength - tailLength + tagClose + 1;
+
+        CaptureSlice[] envelopeSlices = createBodySlices(envelopeStart, envelopeEnd);
+        CaptureSlice[] headerSlices = createHeaderSlices();
+        mInSoapEnvelope = false;
+        mEnvelopeStart = -1;
+        mSkipPosition = mBodyEnd;
+        mBodyEnd = -1;
+        mBodyRanges.clear();
+        mEnvelopeCount++;
+        mFramedEnvelopeCount++;
+        soapEnvelopeListener.soapEnvelopeFound(createSoapEnvelopeInfo(new SoapEnvelopeInfo(envelopeSlices, headerSlices)));
+        return true;
+    }
+
+    /**
+     * @return the index in the body data of the file offset, or -1 if it is not in a data range
+     */
+    private long toBodyIndex(long offset) {
+        long bodyIndex = 0;
+        for ( long[] range : mBodyRanges ) {
+            if ( offset >= range[0] && offset < range[0] + range[1] ) {
+                return bodyIndex + (offset - range[0]);
+            }
+            bodyIndex += range[1];
+        }
+        return -1;
+    }
+
+    private byte[] copyBody(long fromIndex, int length) {
+        byte[] bytes = new byte[length];
+        long rangeStart = 0;
+        for ( long[] range : mBodyRanges ) {
+            long from = Math.max(fromIndex, rangeStart);
+            long to = Math.min(fromIndex + length, rangeStart + range[1]);
+            for ( long index = from; index < to; index++ ) {
+                bytes[(int) (index - fromIndex)] = mWindow.get((int) (range[0] + (index - rangeStart) - mWindowStart));
+            }
+            rangeStart += range[1];
+        }
+        return bytes;
+    }
+
+    /**
+     * @return zero-copy slices of the body data between the indexes, one per chunk
+     */
+    private CaptureSlice[] createBodySlices(long fromIndex, long toIndex) {
+        ArrayList<CaptureSlice> slices = new ArrayList<CaptureSlice>();
+        long rangeStart = 0;
+        for ( long[] range : mBodyRanges ) {
+            long from = Math.max(fromIndex, rangeStart);
+            long to = Math.min(toIndex, rangeStart + range[1]);
+            if ( from < to ) {
+                int windowOffset = (int) (range[0] + (from - rangeStart) - mWindowStart);
+                slices.add(createSlice(windowOffset, (int) (to - from), CaptureSlice.KIND_BODY_LINES));
+            }
+            rangeStart += range[1];
+        }
+        return slices.toArray(new CaptureSlice[slices.size()]);
+    }
+
+    /**
+     * Adds a header segment.  Consecutive header lines are joined to a single segment.
+     */
+    private void addHeaderSegment(long offset, int length, int kind) {
+        int lastIndex = mHeaderSegments.size() - 1;
+        if ( lastIndex >= 0 && kind == CaptureSlice.KIND_HEADER_LINES ) {
+            long[] lastSegment = mHeaderSegments.get(lastIndex);
+            if ( lastSegment[2] == CaptureSlice.KIND_HEADER_LINES && isLineTerminatorOnly(lastSegment[0] + lastSegment[1], offset) ) {
+                lastSegment[1] = (offset + length) - lastSegment[0];
+                return;
+            }
+        }
+        mHeaderSegments.add(new long[] { offset, length, kind });
+    }
+
+    /**
+     * @return true if the bytes between the file offsets are exactly one line terminator
+     */
+    private boolean isLineTerminatorOnly(long fromOffset, long toOffset) {
+        int from = (int) (fromOffset - mWindowStart);
+        int gap = (int) (toOffset - fromOffset);
+        if ( from < 0 ) return false;
+        if ( gap == 1 ) {
+            byte b = mWindow.get(from);
+            return b == '\n' || b == '\r';
+        }
+        return gap == 2 && mWindow.get(from) == '\r' && mWindow.get(from + 1) == '\n';
+    }
+
+    private CaptureSlice createSlice(int windowOffset, int length, int kind) {
+        ByteBuffer buffer = mWindow.duplicate();
+        buffer.position(windowOffset);
+        buffer.limit(windowOffset + length);
+        return new CaptureSlice(mWindowStart + windowOffset, buffer.slice(), kind, mCharset);
+    }
+
+    /**
+     * Finds the end tag of the current envelope in the scanned line.  The end tag contains the
+     * <code>Envelop</code> marker, so only the bytes in front of the marker matches are compared.
+     *
+     * @return the position of the first end tag starting at or after the position, or -1
+     */
+    private int findEnvelopeEndTag(int fromIndex) {
+        ByteBuffer window = mWindow;
+        byte[] endTag = mEnvelopeEndTag;
+        int prefixLength = endTag.length - MARKER_ENVELOPE.length;
+        int hitCount = mMarkerMatcher.getHitCount(MARKER_INDEX_ENVELOPE);
+        for ( int hitIndex = 0; hitIndex < hitCount; hitIndex++ ) {
+            int tagStart = mMarkerMatcher.getHit(MARKER_INDEX_ENVELOPE, hitIndex) - prefixLength;
+            if ( tagStart < fromIndex ) continue;
+            int index = 0;
+            while ( index < prefixLength && window.get(tagStart + index) == endTag[index] ) {
+                index++;
+            }
+            if ( index == prefixLength ) {
+                return tagStart;
+            }
+        }
+        return -1;
+    }
+
+    private int skipWhitespace(int fromIndex, int toIndex) {
+        int pos = fromIndex;
+        while ( pos < toIndex && (mWindow.get(pos) & 0xff) <= ' ' ) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return the position of the first <code>\r</code> or <code>\n</code>, or -1
+     */
+    private int findLineTerminator(int fromIndex, int toIndex) {
+        for ( int pos = fromIndex; pos < toIndex; pos++ ) {
+            byte b = mWindow.get(pos);
+            if ( b == '\r' || b == '\n' ) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position after the line terminator at the position : \n, \r or \r\n
+     */
+    private int skipLineTerminator(int pos) {
+        if ( mWindow.get(pos) == '\r' && pos + 1 < mWindowLength && mWindow.get(pos + 1) == '\n' ) {
+            return pos + 2;
+        }
+        return pos + 1;
+    }
+
+    private boolean startsWith(int fromIndex, int toIndex, byte[] prefix) {
+        if ( toIndex - fromIndex < prefix.length ) return false;
+        for ( int index = 0; index < prefix.length; index++ ) {
+            if ( mWindow.get(fromIndex + index) != prefix[index] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param prefix the lower case ASCII prefix
+     */
+    private boolean startsWithIgnoreCase(int fromIndex, int toIndex, byte[] prefix) {
+        if ( toIndex - fromIndex < prefix.length ) return false;
+        for ( int index = 0; index < prefix.length; index++ ) {
+            int value = mWindow.get(fromIndex + index) & 0xff;
+            if ( value >= 'A' && value <= 'Z' ) {
+                value += 'a' - 'A';
+            }
+            if ( value != prefix[index] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte value, int fromIndex, int toIndex) {
+        ByteBuffer window = mWindow;
+        for ( int pos = fromIndex; pos < toIndex; pos++ ) {
+            if ( window.get(pos) == value ) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(byte value, int fromIndex, int minIndex) {
+        for ( int pos = fromIndex; pos >= minIndex; pos-- ) {
+            if ( mWindow.get(pos) == value ) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    static byte[] getAsciiBytes(String text) {
+        byte[] bytes = new byte[text.length()];
+        for ( int index = 0; index < bytes.length; index++ ) {
+            bytes[index] = (byte) text.charAt(index);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * ReadAheadInputStream.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on a separate thread, e.g. a decompressing stream, so that the decompression runs
+ * while the reader scans the previous block.
+ * <p/>
+ * The thread reads into a fixed number of blocks which are recycled, at most all blocks are read ahead.
+ * The source stream is closed by the thread at its end or when this stream is closed.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    static final int DEFAULT_BLOCK_COUNT = 4;
+
+    /**
+     * A block read from the source, the last block has the end flag or the error of the source.  The error is
+     * thrown after the bytes read before it.
+     */
+    private static class Block {
+        byte[] mData;
+        int mLength;
+        boolean mEnd;
+        IOException mError;
+
+        Block(int blockSize) {
+            mData = new byte[blockSize];
+        }
+    }
+
+    private final InputStream mSource;
+    private final BlockingQueue<Block> mEmptyBlocks;
+    private final BlockingQueue<Block> mFilledBlocks;
+    private final Thread mThread;
+    private Block mCurrent = null;
+    private int mPosition = 0;
+    private boolean mClosed = false;
+
+    /**
+     * @param source the stream to read ahead
+     */
+    public ReadAheadInputStream(InputStream source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT, "Read ahead");
+    }
+
+    /**
+     * @param source the stream to read ahead
+     * @param blockSize the size of each block
+     * @param blockCount the number of blocks, at least 2
+     * @param threadName the name of the read ahead thread
+     */
+    public ReadAheadInputStream(InputStream source, int blockSize, int blockCount, String threadName) {
+        mSource = source;
+        blockCount = Math.max(2, blockCount);
+        mEmptyBlocks = new ArrayBlockingQueue<Block>(blockCount);
+        mFilledBlocks = new ArrayBlockingQueue<Block>(blockCount);
+        for ( int index = 0; index < blockCount; index++ ) {
+            mEmptyBlocks.add(new Block(Math.max(1024, blockSize)));
+        }
+        mThread = new Thread(new Runnable() {
+            public void run() {
+                readSource();
+            }
+        }, threadName);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    private void readSource() {
+        try {
+            while ( true ) {
+                Block block = mEmptyBlocks.take();
+                block.mLength = 0;
+                try {
+                    while ( block.mLength < block.mData.length ) {
+                        int count = mSource.read(block.mData, block.mLength, block.mData.length - block.mLength);
+                        if ( count < 0 ) {
+                            block.mEnd = true;
+                            break;
+                        }
+                        block.mLength += count;
+                    }
+                } catch (IOException e) {
+                    block.mError = e;
+                } catch (RuntimeException e) {
+                    block.mError = new IOException(e.toString(), e);
+                }
+                mFilledBlocks.put(block);
+                if ( block.mEnd || block.mError != null ) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed by the reader
+        } finally {
+            try {
+                mSource.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return the current block with at least one unread byte or null at the end of the source
+     */
+    private Block nextBlock() throws IOException {
+        if ( mClosed ) {
+            throw new IOException("The stream is closed");
+        }
+        while ( mCurrent == null || mPosition >= mCurrent.mLength ) {
+            if ( mCurrent != null ) {
+                if ( mCurrent.mError != null ) {
+                    throw mCurrent.mError;
+                }
+                if ( mCurrent.mEnd ) {
+                    return null;
+                }
+                mEmptyBlocks.add(mCurrent);
+                mCurrent = null;
+            }
+            try {
+                mCurrent = mFilledBlocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Reading ahead was interrupted");
+            }
+            mPosition = 0;
+        }
+        return mCurrent;
+    }
+
+    @Override
+    public int read() throws IOException {
+        Block block = nextBlock();
+        if ( block == null ) {
+            return -1;
+        }
+        return block.mData[mPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if ( length == 0 ) {
+            return 0;
+        }
+        Block block = nextBlock();
+        if ( block == null ) {
+            return -1;
+        }
+        int count = Math.min(length, block.mLength - mPosition);
+        System.arraycopy(block.mData, mPosition, buffer, offset, count);
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (mCurrent != null && !mClosed ? mCurrent.mLength - mPosition : 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if ( !mClosed ) {
+            mClosed = true;
+            mThread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * SaxParserPool.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of SAX readers for the {@link SimpleXmlSaxParser} formatters.  Each thread keeps one
+ * {@link XMLReader}, so that the factory lookup and the parser construction are done once per thread and
+ * not for each formatter instance.
+ * <p/>
+ * The factory is configured once with secure processing and without external entities or DTDs.
+ * A reader is handed out with {@link #acquireReader(ContentHandler, ErrorHandler)} and must be given
+ * back with {@link #releaseReader(XMLReader, boolean)} after the document.  The handlers are removed on
+ * release, and a reader whose document failed is discarded instead of being reused.  If the reader of the
+ * thread is already in use (a document parsed from within a handler) a new reader is created, which is
+ * counted as miss.
+ */
+public final class SaxParserPool {
+
+    private static final String FEATURE_EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+    private static final String FEATURE_EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+    private static final String FEATURE_LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+    private static final SAXParserFactory PARSER_FACTORY = createParserFactory();
+    private static final DefaultHandler RELEASED_HANDLER = new DefaultHandler();
+
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+
+    /**
+     * The reader of a thread and whether it is currently parsing a document.
+     */
+    private static class PooledReader {
+        XMLReader mReader = null;
+        boolean mInUse = false;
+    }
+
+    private static final ThreadLocal<PooledReader> THREAD_READER = new ThreadLocal<PooledReader>() {
+        @Override
+        protected PooledReader initialValue() {
+            return new PooledReader();
+        }
+    };
+
+    private SaxParserPool() {
+    }
+
+    private static SAXParserFactory createParserFactory() {
+        SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+        parserFactory.setValidating(false);
+        setFactoryFeature(parserFactory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        setFactoryFeature(parserFactory, FEATURE_EXTERNAL_GENERAL_ENTITIES, false);
+        setFactoryFeature(parserFactory, FEATURE_EXTERNAL_PARAMETER_ENTITIES, false);
+        setFactoryFeature(parserFactory, FEATURE_LOAD_EXTERNAL_DTD, false);
+        return parserFactory;
+    }
+
+    private static void setFactoryFeature(SAXParserFactory parserFactory, String feature, boolean value) {
+        try {
+            parserFactory.setFeature(feature, value);
+        } catch (Exception e) {
+            // Not every SAX implementation supports the feature
+            System.out.println("SAX feature [" + feature + "] is not supported : " + e.getMessage());
+        }
+    }
+
+    private static XMLReader createReader() throws ParserConfigurationException, SAXException {
+        // The factory is shared, SAXParserFactory is not guaranteed to be thread safe
+        synchronized (PARSER_FACTORY) {
+            return PARSER_FACTORY.newSAXParser().getXMLReader();
+        }
+    }
+
+    /**
+     * Hands out the reader of the current thread with the specified handlers.
+     *
+     * @param contentHandler the handler receiving the elements
+     * @param errorHandler the handler receiving the parse errors
+     * @return the reader, must be given back with {@link #releaseReader(XMLReader, boolean)}
+     */
+    public static XMLReader acquireReader(ContentHandler contentHandler, ErrorHandler errorHandler) throws ParserConfigurationException, SAXException {
+        PooledReader pooledReader = THREAD_READER.get();
+        XMLReader reader;
+        if ( pooledReader.mInUse ) {
+            MISS_COUNT.incrementAndGet();
+            reader = createReader();
+        } else {
+            if ( pooledReader.mReader == null ) {
+                MISS_COUNT.incrementAndGet();
+                pooledReader.mReader = createReader();
+            } else {
+                HIT_COUNT.incrementAndGet();
+            }
+            pooledReader.mInUse = true;
+            reader = pooledReader.mReader;
+        }
+        reader.setContentHandler(contentHandler);
+        reader.setErrorHandler(errorHandler);
+        return reader;
+    }
+
+    /**
+     * Gives back a reader handed out by {@link #acquireReader(ContentHandler, ErrorHandler)}.
+     *
+     * @param reader the reader
+     * @param reusable false if the document failed, the reader is then discarded
+     */
+    public static void releaseReader(XMLReader reader, boolean reusable) {
+        if ( reader == null ) return;
+        // Do not keep the formatter referenced by the pooled reader
+        reader.setContentHandler(RELEASED_HANDLER);
+        reader.setErrorHandler(RELEASED_HANDLER);
+        PooledReader pooledReader = THREAD_READER.get();
+        if ( pooledReader.mReader == reader ) {
+            pooledReader.mInUse = false;
+            if ( !reusable ) {
+                pooledReader.mReader = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents parsed with a reader of the pool
+     */
+    public static long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * @return the number of readers that had to be created
+     */
+    public static long getMissCount() {
+        return MISS_COUNT.get();
+    }
+
+    public static void resetCounts() {
+        HIT_COUNT.set(0);
+        MISS_COUNT.set(0);
+    }
+}
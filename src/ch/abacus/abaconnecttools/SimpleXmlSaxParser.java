@@ -8,8 +8,6 @@ import java.io.InputStream;
 import java.io.Reader;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
@@ -83,7 +81,6 @@ import org.xml.sax.XMLReader;
  */
 public abstract class SimpleXmlSaxParser implements ContentHandler, ErrorHandler {
 
-   XMLReader m_XMLReader;
   /**
    * This is an character array member variable that contains the value of the each
    * element as it is parsed.  The <code>elementValue</code> will be sent, as a string,
@@ -97,7 +94,27 @@ public abstract class SimpleXmlSaxParser implements ContentHandler, ErrorHandler
    * @see #endElement(String,String,String) endElement(namespaceURI,localName,qName)
    * @see #startElement(String,String,String,Attributes) startElement(namespaceURI,localName,qName,attributes)
    */
-  public CharArrayWriter elementValue = new CharArrayWriter();
+  public ElementValueWriter elementValue = new ElementValueWriter();
+
+  /**
+   * The writer of the {@link #elementValue elementValue}, which gives access to the collected characters, so that
+   * the value can be passed to {@link #endElement(String, char[], int)} without a copy.
+   */
+  public static class ElementValueWriter extends CharArrayWriter {
+    /**
+     * @return the buffer with the collected characters from position 0 to {@link #size()}, only valid until the
+     *         next write
+     */
+    public char[] getBuffer() {
+      return buf;
+    }
+  }
+
+  /**
+   * Size of the collected {@link #elementValue elementValue} after which the value is offered to
+   * {@link #streamElementValue(char[], int)}, 0 to always collect the complete value.
+   */
+  private int mStreamElementValueSize = 0;
 
   /**
    * Receives notification of character data for an element (i.e. the element value).
@@ -124,6 +141,33 @@ public abstract class SimpleXmlSaxParser implements ContentHandler, ErrorHandler
    */
   public void characters(char ch[], int start, int length) {
     elementValue.write(ch, start, length);
+    if ( mStreamElementValueSize > 0 && elementValue.size() >= mStreamElementValueSize ) {
+      if ( streamElementValue(elementValue.getBuffer(), elementValue.size()) ) {
+        elementValue.reset();
+      }
+    }
+  }
+
+  /**
+   * Offers a part of a large element value before the end of the element, so that a derived class can
+   * write the value without keeping it in memory.  Only called when a size has been set with
+   * {@link #setStreamElementValueSize(int)}.
+   *
+   * @param value the buffer with the element value collected so far, only valid during the call
+   * @param length the length of the value in the buffer
+   * @return true if the value has been taken, the {@link #elementValue elementValue} is then cleared and
+   *         {@link #endElement(String, String) endElement(name,value)} only receives the rest of the value
+   */
+  protected boolean streamElementValue(char[] value, int length) {
+    return false;
+  }
+
+  /**
+   * @param streamElementValueSize the size of the collected element value after which the value is offered
+   *                               to {@link #streamElementValue(char[], int)}, 0 to switch off
+   */
+  protected void setStreamElementValueSize(int streamElementValueSize) {
+    mStreamElementValueSize = Math.max(0, streamElementValueSize);
   }
 
   /**
@@ -154,10 +198,23 @@ public abstract class SimpleXmlSaxParser implements ContentHandler, ErrorHandler
    * @see ContentHandler
    */
   public void endElement(String namespaceURI, String localName, String qName) {
-    endElement(qName, elementValue.toString());
+    endElement(qName, elementValue.getBuffer(), elementValue.size());
     elementValue.reset();
   }
 
+  /**
+   * Receives the end of an element with the value in the buffer of the {@link #elementValue elementValue}.
+   * Calls {@link #endElement(String,String) endElement(name,value)} with the value as String, a derived
+   * class can override the method to use the value without creating a String for each element.
+   *
+   * @param name the name of the element
+   * @param value the buffer with the value of the element, only valid during the call
+   * @param length the length of the value in the buffer
+   */
+  protected void endElement(String name, char[] value, int length) {
+    endElement(name, new String(value, 0, length));
+  }
+
   /**
    * The <code>endElement</code> method indicates the end of an element and must be
    * implemented in a derived class.  Each time <code>endElement</code> is called,
@@ -276,10 +333,15 @@ public abstract class SimpleXmlSaxParser implements ContentHandler, ErrorHandler
 //      System.setProperty("javax.xml.parsers.SAXParserFactory", "org.apache.crimson.jaxp.SAXParserFactoryImpl");
 
 
-      XMLReader reader = getReader ();
-        // allows to overwrite the error methods
-      //      parser.setErrorHandler(new SaxErrorHandler());
-      reader.parse(is);
+      // The reader is shared with the other parsers of the thread, see SaxParserPool
+      XMLReader reader = SaxParserPool.acquireReader(this, this);
+      boolean parsed = false;
+      try {
+        reader.parse(is);
+        parsed = true;
+      } finally {
+        SaxParserPool.releaseReader(reader, parsed);
+      }
       // up to the class that extends from this one
       //    } catch (SAXException e) {
       //      System.out.println("XXX: XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX");
@@ -292,19 +354,6 @@ public abstract class SimpleXmlSaxParser implements ContentHandler, ErrorHandler
     }
   }
 
-    private XMLReader getReader () throws ParserConfigurationException, SAXException {
-        if ( m_XMLReader != null ) return m_XMLReader;
-
-        SAXParserFactory spf = SAXParserFactory.newInstance();
-        spf.setValidating(false);
-        SAXParser sp = spf.newSAXParser();
-        m_XMLReader = sp.getXMLReader();
-        m_XMLReader.setContentHandler(this);
-        m_XMLReader.setErrorHandler(this);
-
-        return m_XMLReader;
-    }
-
     /**
      * The <code>startElement</b> defines the beginning of a new element and must be
      * implemented in a derived class.  Each time <code>startElement</code> is called,
@@ -0,0 +1,364 @@
+/*
+ * SoapEnvelopeInfo.java
+ *
+ * Creator:
+ * 21.12.11 08:26 Sippel
+ *
+ * Maintainer:
+ * 21.12.11 08:26 Sippel
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+/**
+ * Holds a single SOAP Envelope extracted from a TcpMon capture together with the HTTP header
+ * text that preceded it.  The message type (request or response) is derived from the header.
+ * <p/>
+ * When the envelope has been found by the {@link MappedCaptureScanner}, the envelope and header are
+ * held as {@link CaptureSlice slices} of the capture file and are only decoded when the text is requested.
+ */
+public class SoapEnvelopeInfo implements Comparable {
+    static final String SOAP_RESPONSE_MESSAGE = "RESPONSE";
+    static final String SOAP_REQUEST_MESSAGE = "REQUEST";
+    // The body element is usually near the start, only this prefix of a large envelope is decoded for its name
+    private static final int BODY_NAME_PREFIX_LENGTH = 64 * 1024;
+    private static final int PREFIX_UNDECIDED_LENGTH = 4;
+    // The WS-Addressing header elements precede the body, only this prefix of a large envelope is searched
+    private static final int ADDRESSING_PREFIX_LENGTH = 16 * 1024;
+    private static final int WSA_MESSAGE_ID = 0;
+    private static final int WSA_RELATES_TO = 1;
+    private static final XmlElementExtractor ADDRESSING_EXTRACTOR = new XmlElementExtractor("MessageID", "RelatesTo");
+
+    String mSoapEnvelopeXml = "";
+    String mSoapHeader = "";
+    String mSoapBodyName = "";
+    String mMessageType = "";   // Either be REQUEST or RESPONSE
+    String mHeaderTime = null;  // From the capture index, otherwise read from the header
+    int mOrderIndex = -1;
+    int mConnectionIndex = -1;  // The TcpMon connection (or proxied connection) of the message, -1 if unknown
+    long mCaptureTimestamp = -1;
+    String mWsaMessageId = null;
+    String mWsaRelatesTo = null;
+    boolean mAddressingExtracted = false;
+
+    CaptureSlice[] mEnvelopeSlices = null;
+    CaptureSlice[] mHeaderSlices = null;
+
+    public SoapEnvelopeInfo(String soapEnvelopeXml) {
+        mSoapEnvelopeXml = (soapEnvelopeXml == null ? "" : soapEnvelopeXml);
+    }
+
+    /**
+     * Creates the envelope info from slices of the capture file.  The slices are decoded on demand.
+     *
+     * @param envelopeSlices the slices of the SOAP Envelope
+     * @param headerSlices the slices of the HTTP header, may be empty
+     */
+    public SoapEnvelopeInfo(CaptureSlice[] envelopeSlices, CaptureSlice[] headerSlices) {
+        mSoapEnvelopeXml = null;
+        mSoapHeader = null;
+        mEnvelopeSlices = envelopeSlices;
+        mHeaderSlices = headerSlices;
+    }
+
+    @Override
+    public String toString() {
+        return getSoapEnvelopeXml();
+    }
+
+    public String getSoapEnvelopeXml() {
+        if ( mSoapEnvelopeXml == null && mEnvelopeSlices != null ) {
+            // Not cached, so that only the slices of the capture file stay referenced
+            return CaptureSlice.getText(mEnvelopeSlices);
+        }
+        return (mSoapEnvelopeXml == null ? "" : mSoapEnvelopeXml);
+    }
+
+    public void setSoapEnvelopeXml(String soapEnvelopeXml) {
+        mSoapEnvelopeXml = (soapEnvelopeXml == null ? "" : soapEnvelopeXml);
+        mEnvelopeSlices = null;
+    }
+
+    public String getSoapHeader() {
+        if ( mSoapHeader == null && mHeaderSlices != null ) {
+            mSoapHeader = CaptureSlice.getText(mHeaderSlices);
+        }
+        return mSoapHeader;
+    }
+
+    public void setSoapHeader(String soapHeader) {
+        mSoapHeader = soapHeader;
+        mHeaderSlices = null;
+    }
+
+    /**
+     * @return the slices of the SOAP Envelope in the capture file, or null if the envelope is held as text
+     */
+    public CaptureSlice[] getEnvelopeSlices() {
+        return mEnvelopeSlices;
+    }
+
+    /**
+     * @return the slices of the HTTP header in the capture file, or null if the header is held as text
+     */
+    public CaptureSlice[] getHeaderSlices() {
+        return mHeaderSlices;
+    }
+
+    public String getTimeFromSoapHeader() {
+        if ( mHeaderTime != null ) {
+            return mHeaderTime;
+        }
+        String headerTime = "";
+        String soapHeader = getSoapHeader();
+        if ( soapHeader != null ) {
+            int ipos = soapHeader.indexOf("Date:");
+            if ( ipos >= 0 ) {
+                headerTime = soapHeader.substring(ipos);
+                ipos = headerTime.indexOf("\n");
+                if ( ipos > 0 ) {
+                    headerTime = headerTime.substring(0,ipos).trim();
+                }
+            }
+        }
+        return headerTime;
+    }
+
+    public String getSoapBodyName() {
+        if ( mSoapBodyName == null || "".equals(mSoapBodyName) ) {
+            String bodyName = null;
+            if ( mSoapEnvelopeXml == null && mEnvelopeSlices != null ) {
+                String envelopePrefix = CaptureSlice.getTextPrefix(mEnvelopeSlices, BODY_NAME_PREFIX_LENGTH);
+                if ( envelopePrefix != null ) {
+                    bodyName = findActionName(envelopePrefix, envelopePrefix.length() - PREFIX_UNDECIDED_LENGTH, false);
+                }
+            }
+            if ( bodyName == null ) {
+                // The decoded envelope also serves the addressing values, so it is only decoded once
+                String envelopeText = getSoapEnvelopeXml();
+                bodyName = extractActionNameFromBodyName(envelopeText);
+                if ( !mAddressingExtracted ) {
+                    extractAddressingValues(envelopeText);
+                }
+            }
+            setSoapBodyName(bodyName);
+        }
+        return mSoapBodyName;
+    }
+
+    private void setSoapBodyName(String bodyName) {
+        mSoapBodyName = bodyName;
+        if ( mSoapBodyName.endsWith("/") ) {
+            mSoapBodyName = mSoapBodyName.substring(0,mSoapBodyName.length()-1);
+        }
+    }
+
+    public String getMessageType() {
+        if ( mMessageType == null || "".equals(mMessageType) ) {
+            String soapHeader = getSoapHeader();
+            if ( soapHeader.startsWith("HTTP/1.") ) {
+                mMessageType = SOAP_RESPONSE_MESSAGE;
+            } else if ( soapHeader.startsWith("POST ") ) {
+                mMessageType = SOAP_REQUEST_MESSAGE;
+            }
+        }
+        return mMessageType;
+    }
+
+    /**
+     * Sets the values read from a {@link CaptureIndex}, so that they are not extracted from the texts.
+     */
+    void setIndexedValues(String messageType, String soapBodyName, String headerTime) {
+        mMessageType = messageType;
+        mSoapBodyName = soapBodyName;
+        mHeaderTime = headerTime;
+    }
+
+    public boolean isRequestMessage() {
+        return SOAP_REQUEST_MESSAGE.equals(getMessageType());
+    }
+
+    public boolean isResponseMessage() {
+        return SOAP_RESPONSE_MESSAGE.equals(getMessageType());
+    }
+
+    /**
+     * @return the index of the connection the message was sent on in the order of the capture, or -1 if the
+     *         capture has no connection sections
+     */
+    public int getConnectionIndex() {
+        return mConnectionIndex;
+    }
+
+    public void setConnectionIndex(int connectionIndex) {
+        mConnectionIndex = connectionIndex;
+    }
+
+    /**
+     * @return the time in milliseconds the message was recorded : the receive time of the recording proxy or
+     *         the timestamp line in front of the message in the capture (milliseconds of the day if the line
+     *         has no date), or -1 if unknown
+     */
+    public long getCaptureTimestamp() {
+        return mCaptureTimestamp;
+    }
+
+    public void setCaptureTimestamp(long captureTimestamp) {
+        mCaptureTimestamp = captureTimestamp;
+    }
+
+    /**
+     * @return the WS-Addressing <code>MessageID</code> of the SOAP Header, or null if there is none
+     */
+    public String getWsaMessageId() {
+        extractAddressingValues();
+        return mWsaMessageId;
+    }
+
+    /**
+     * @return the WS-Addressing <code>RelatesTo</code> of the SOAP Header, or null if there is none
+     */
+    public String getWsaRelatesTo() {
+        extractAddressingValues();
+        return mWsaRelatesTo;
+    }
+
+    /**
+     * Sets the WS-Addressing values read from a {@link CaptureIndex}, so that they are not extracted from the text.
+     */
+    void setIndexedAddressingValues(String wsaMessageId, String wsaRelatesTo) {
+        mWsaMessageId = wsaMessageId;
+        mWsaRelatesTo = wsaRelatesTo;
+        mAddressingExtracted = true;
+    }
+
+    private void extractAddressingValues() {
+        if ( mAddressingExtracted ) {
+            return;
+        }
+        String envelopeText = null;
+        if ( mSoapEnvelopeXml == null && mEnvelopeSlices != null ) {
+            envelopeText = CaptureSlice.getTextPrefix(mEnvelopeSlices, ADDRESSING_PREFIX_LENGTH);
+        }
+        if ( envelopeText == null ) {
+            envelopeText = getSoapEnvelopeXml();
+            // The decoded envelope also serves the body name, so it is only decoded once
+            if ( mSoapBodyName == null || "".equals(mSoapBodyName) ) {
+                setSoapBodyName(extractActionNameFromBodyName(envelopeText));
+            }
+        }
+        extractAddressingValues(envelopeText);
+    }
+
+    private void extractAddressingValues(String envelopeText) {
+        mAddressingExtracted = true;
+        // Only the SOAP Header is searched, a body element with the same name is not an addressing value
+        int bodyPos = findElementStart(envelopeText, "Body", 0, envelopeText.length());
+        int headerEnd = (bodyPos >= 0 ? bodyPos : envelopeText.length());
+        XmlElementExtractor.Matches addressing = ADDRESSING_EXTRACTOR.findElements(envelopeText, 0, headerEnd);
+        // The first element of each name is used, so the matches are assigned backwards
+        for ( int index = addressing.getCount() - 1; index >= 0; index-- ) {
+            String value = addressing.getValue(index).trim();
+            if ( value.length() == 0 ) {
+                value = null;
+            }
+            if ( addressing.getTagIndex(index) == WSA_MESSAGE_ID ) {
+                mWsaMessageId = value;
+            } else if ( addressing.getTagIndex(index) == WSA_RELATES_TO ) {
+                mWsaRelatesTo = value;
+            }
+        }
+    }
+
+    /**
+     * @return the position of the '&lt;' of the first start tag with the local name, or -1
+     */
+    private static int findElementStart(String text, String localName, int fromPos, int endPos) {
+        int namePos = text.indexOf(localName, fromPos);
+        while ( namePos > 0 && namePos < endPos ) {
+            int nameEnd = namePos + localName.length();
+            char nextChar = (nameEnd < text.length() ? text.charAt(nameEnd) : ' ');
+            if ( nextChar == '>' || nextChar == '/' || Character.isWhitespace(nextChar) ) {
+                int tagPos = namePos - 1;
+                if ( text.charAt(tagPos) == ':' ) {
+                    // Skip the namespace prefix
+                    while ( tagPos > 0 && text.charAt(tagPos - 1) != '<' && namePos - tagPos < 64 && !Character.isWhitespace(text.charAt(tagPos - 1)) ) {
+                        tagPos--;
+                    }
+                    tagPos--;
+                }
+                if ( tagPos >= 0 && text.charAt(tagPos) == '<' ) {
+                    return tagPos;
+                }
+            }
+            namePos = text.indexOf(localName, namePos + 1);
+        }
+        return -1;
+    }
+
+    public int getOrderIndex() {
+        return mOrderIndex;
+    }
+
+    public void setOrderIndex(int orderIndex) {
+        mOrderIndex = orderIndex;
+    }
+
+    public String extractActionNameFromBodyName(String soapEnvelope) {
+        return findActionName(soapEnvelope, soapEnvelope.length(), true);
+    }
+
+    /**
+     * Finds the name of the first element in the SOAP Body.
+     *
+     * @param soapEnvelope the envelope or a prefix of the envelope
+     * @param decidedLength the length of the text that is the same as in the envelope
+     * @param isComplete false if the text is a prefix of the envelope
+     * @return the name, blank if there is none, or null if the prefix does not decide the name
+     */
+    private static String findActionName(String soapEnvelope, int decidedLength, boolean isComplete) {
+        String undecided = (isComplete ? "" : null);
+        int bodyPos = soapEnvelope.indexOf("Body");
+        while ( bodyPos > 0 ) {
+            if ( bodyPos + 4 > decidedLength ) {
+                return undecided;
+            }
+            if ( soapEnvelope.charAt(bodyPos-1) == '<' || soapEnvelope.charAt(bodyPos-1) == ':' ) {
+                int startTagPos = soapEnvelope.indexOf("<",bodyPos);
+                if ( startTagPos < 0 || startTagPos >= decidedLength ) {
+                    // No later Body element can have a start tag either
+                    return undecided;
+                }
+                int endTagPos = soapEnvelope.indexOf(">",startTagPos);
+                if ( endTagPos < 0 || endTagPos >= decidedLength ) {
+                    return undecided;
+                }
+                int spacePos = soapEnvelope.indexOf(" ",startTagPos);
+                if ( spacePos >= 0 && spacePos < endTagPos ) {
+                    endTagPos = spacePos;
+                }
+                int namespaceSeparatorPos = soapEnvelope.indexOf(":",startTagPos);
+                if ( namespaceSeparatorPos < endTagPos && namespaceSeparatorPos > startTagPos) {
+                    startTagPos = namespaceSeparatorPos;
+                }
+                if ( endTagPos > startTagPos ) {
+                    return soapEnvelope.substring(startTagPos+1,endTagPos);
+                }
+            }
+            bodyPos = soapEnvelope.indexOf("Body",bodyPos+1);
+        }
+        return undecided;
+    }
+
+    @Override
+    public int compareTo(Object o) {
+        if ( o instanceof SoapEnvelopeInfo ) {
+            return new Integer(getOrderIndex()).compareTo(((SoapEnvelopeInfo)o).getOrderIndex());
+        }
+        return 0;
+    }
+}
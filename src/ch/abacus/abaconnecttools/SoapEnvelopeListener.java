@@ -0,0 +1,30 @@
+/*
+ * SoapEnvelopeListener.java
+ *
+ * Creator:
+ * 21.12.11 08:26 Sippel
+ *
+ * Maintainer:
+ * 21.12.11 08:26 Sippel
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+/**
+ * Receives the SOAP Envelopes found while scanning a TcpMon capture file.  The envelopes are
+ * delivered in the order of appearance in the capture file, as soon as the closing
+ * <code>Envelope</code> tag has been read.
+ */
+public interface SoapEnvelopeListener {
+
+    /**
+     * Called for each complete SOAP Envelope found in the capture file.
+     *
+     * @param soapEnvelopeInfo the SOAP Envelope with the preceding HTTP header
+     */
+    void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo);
+}
@@ -0,0 +1,214 @@
+/*
+ * SoapMessageCorrelator.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Matches each SOAP response to its request, in the order the messages appear in the capture.
+ * <p/>
+ * A response is matched to the request
+ * <ol>
+ * <li>whose WS-Addressing <code>MessageID</code> is the <code>RelatesTo</code> value of the response, or</li>
+ * <li>which is the oldest unanswered request of the same connection (HTTP keep-alive and pipelining answer
+ * the requests of a connection in order).  Captures without connection sections are one connection.</li>
+ * </ol>
+ * Each request gets the next pair number and the order index <code>(pair*2)-1</code>, its response gets the
+ * order index <code>pair*2</code>.  A response without request and a message without type get a pair
+ * number of their own, so a missing message does not shift the following pairs.  The responses without
+ * request and the requests without response are reported, see {@link #getOrphanMessages()}.
+ * <p/>
+ * Each message is matched in constant time, the requests are only held until they are answered.
+ */
+public class SoapMessageCorrelator {
+
+    private static final int MAX_REPORTED_ORPHANS = 20;
+
+    /**
+     * A request that has not been answered yet.
+     */
+    private static class PendingRequest {
+        int mPairNumber;
+        int mMessageNumber;
+        String mBodyName;
+        String mMessageId;
+        boolean mAnswered = false;
+    }
+
+    private int mPairCount = 0;
+    private int mMessageCount = 0;
+    private int mAddressingMatchCount = 0;
+    private int mConnectionMatchCount = 0;
+    private int mOrphanResponseCount = 0;
+
+    private HashMap<String, PendingRequest> mRequestsByMessageId = new HashMap<String, PendingRequest>();
+    private HashMap<Integer, ArrayDeque<PendingRequest>> mPendingRequestsByConnection = new HashMap<Integer, ArrayDeque<PendingRequest>>();
+    private ArrayList<String> mOrphanResponses = new ArrayList<String>();
+
+    /**
+     * Matches the next message of the capture.
+     *
+     * @param soapEnvelopeInfo the message, in the order of the capture
+     * @return the order index of the message : <code>(pair*2)-1</code> for requests and messages without type,
+     *         <code>pair*2</code> for responses
+     */
+    public int correlate(SoapEnvelopeInfo soapEnvelopeInfo) {
+        mMessageCount++;
+        if ( soapEnvelopeInfo.isRequestMessage() ) {
+            PendingRequest request = new PendingRequest();
+            request.mPairNumber = ++mPairCount;
+            request.mMessageNumber = mMessageCount;
+            request.mBodyName = soapEnvelopeInfo.getSoapBodyName();
+            request.mMessageId = soapEnvelopeInfo.getWsaMessageId();
+            if ( request.mMessageId != null ) {
+                mRequestsByMessageId.put(request.mMessageId, request);
+            }
+            getPendingRequests(soapEnvelopeInfo.getConnectionIndex()).add(request);
+            return (request.mPairNumber * 2) - 1;
+        }
+        if ( soapEnvelopeInfo.isResponseMessage() ) {
+            ArrayDeque<PendingRequest> pendingRequests = getPendingRequests(soapEnvelopeInfo.getConnectionIndex());
+            PendingRequest request = null;
+            String relatesTo = soapEnvelopeInfo.getWsaRelatesTo();
+            if ( relatesTo != null ) {
+                request = mRequestsByMessageId.remove(relatesTo);
+                if ( request != null ) {
+                    mAddressingMatchCount++;
+                }
+            }
+            if ( request == null ) {
+                request = pollUnanswered(pendingRequests);
+                if ( request != null ) {
+                    mConnectionMatchCount++;
+                    if ( request.mMessageId != null ) {
+                        mRequestsByMessageId.remove(request.mMessageId);
+                    }
+                }
+            }
+            if ( request != null ) {
+                request.mAnswered = true;
+                // Requests answered by their MessageID are removed when they reach the head of the queue
+                removeAnsweredHead(pendingRequests);
+                return request.mPairNumber * 2;
+            }
+            mOrphanResponseCount++;
+            if ( mOrphanResponses.size() < MAX_REPORTED_ORPHANS ) {
+                mOrphanResponses.add("Response " + soapEnvelopeInfo.getSoapBodyName() + " (message " + mMessageCount + ") has no request.");
+            }
+            return (++mPairCount) * 2;
+        }
+        // Neither request nor response, the message gets the next pair of its own
+        return ((++mPairCount) * 2) - 1;
+    }
+
+    private ArrayDeque<PendingRequest> getPendingRequests(int connectionIndex) {
+        Integer connectionKey = Integer.valueOf(connectionIndex);
+        ArrayDeque<PendingRequest> pendingRequests = mPendingRequestsByConnection.get(connectionKey);
+        if ( pendingRequests == null ) {
+            pendingRequests = new ArrayDeque<PendingRequest>();
+            mPendingRequestsByConnection.put(connectionKey, pendingRequests);
+        }
+        return pendingRequests;
+    }
+
+    private static PendingRequest pollUnanswered(ArrayDeque<PendingRequest> pendingRequests) {
+        PendingRequest request = pendingRequests.poll();
+        while ( request != null && request.mAnswered ) {
+            request = pendingRequests.poll();
+        }
+        return request;
+    }
+
+    private static void removeAnsweredHead(ArrayDeque<PendingRequest> pendingRequests) {
+        while ( !pendingRequests.isEmpty() && pendingRequests.peek().mAnswered ) {
+            pendingRequests.poll();
+        }
+    }
+
+    /**
+     * @return the highest pair number assigned so far, the order indexes are at most twice the pair count
+     */
+    public int getPairCount() {
+        return mPairCount;
+    }
+
+    public int getOrphanResponseCount() {
+        return mOrphanResponseCount;
+    }
+
+    /**
+     * @return the number of requests without response so far
+     */
+    public int getUnansweredRequestCount() {
+        int unansweredCount = 0;
+        for ( ArrayDeque<PendingRequest> pendingRequests : mPendingRequestsByConnection.values() ) {
+            for ( PendingRequest request : pendingRequests ) {
+                if ( !request.mAnswered ) {
+                    unansweredCount++;
+                }
+            }
+        }
+        return unansweredCount;
+    }
+
+    /**
+     * @return the number of responses matched by their WS-Addressing <code>RelatesTo</code> value
+     */
+    public int getAddressingMatchCount() {
+        return mAddressingMatchCount;
+    }
+
+    /**
+     * @return the number of responses matched by the order of their connection
+     */
+    public int getConnectionMatchCount() {
+        return mConnectionMatchCount;
+    }
+
+    /**
+     * @return a line for each of the first responses without request and requests without response
+     */
+    public List<String> getOrphanMessages() {
+        ArrayList<String> orphanMessages = new ArrayList<String>(mOrphanResponses);
+        if ( mOrphanResponseCount > mOrphanResponses.size() ) {
+            orphanMessages.add("... " + (mOrphanResponseCount - mOrphanResponses.size()) + " more responses have no request.");
+        }
+        ArrayList<PendingRequest> unansweredRequests = new ArrayList<PendingRequest>();
+        for ( ArrayDeque<PendingRequest> pendingRequests : mPendingRequestsByConnection.values() ) {
+            for ( PendingRequest request : pendingRequests ) {
+                if ( !request.mAnswered ) {
+                    unansweredRequests.add(request);
+                }
+            }
+        }
+        // In the order of the capture
+        Collections.sort(unansweredRequests, new Comparator<PendingRequest>() {
+            public int compare(PendingRequest request1, PendingRequest request2) {
+                return (request1.mMessageNumber < request2.mMessageNumber ? -1 : (request1.mMessageNumber == request2.mMessageNumber ? 0 : 1));
+            }
+        });
+        for ( int index = 0; index < unansweredRequests.size() && index < MAX_REPORTED_ORPHANS; index++ ) {
+            PendingRequest request = unansweredRequests.get(index);
+            orphanMessages.add("Request " + request.mBodyName + " (message " + request.mMessageNumber + ") has no response.");
+        }
+        if ( unansweredRequests.size() > MAX_REPORTED_ORPHANS ) {
+            orphanMessages.add("... " + (unansweredRequests.size() - MAX_REPORTED_ORPHANS) + " more requests have no response.");
+        }
+        return orphanMessages;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * SoapMessageDeduplicator.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TimeZone;
+
+/**
+ * Finds the SOAP messages whose envelope is identical to an earlier message, e.g. the same polling
+ * <code>FindRequest</code> and its response sent thousands of times, so that each distinct envelope is
+ * only reformatted and written once.
+ * <p/>
+ * The envelopes are compared by a SHA-256 hash of their bytes, so a duplicate is not even decoded.  The values of the volatile SOAP header
+ * elements (WS-Addressing <code>MessageID</code> and <code>RelatesTo</code>, WS-Security timestamps and nonces)
+ * are not hashed, the HTTP header is not part of the envelope.  Each duplicate is listed in the manifest
+ * (order index, timestamp, body name and the file of the first occurrence), see {@link #createManifest(String)}.
+ * <p/>
+ * Only the hashes of the distinct envelopes and the manifest lines are kept in memory.
+ */
+public class SoapMessageDeduplicator {
+
+    public static final String MANIFEST_FILENAME = "duplicate_messages.txt";
+
+    private static final HashSet<String> VOLATILE_HEADER_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "MessageID", "RelatesTo", "Timestamp", "Created", "Expires", "Nonce"));
+    private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int MAX_LOCAL_NAME_LENGTH = 16;
+
+    private MessageDigest mDigest;
+    private HashMap<String, String> mFirstFilenames = new HashMap<String, String>();
+    private StringBuilder mManifestLines = new StringBuilder();
+    private int mMessageCount = 0;
+    private int mDuplicateCount = 0;
+    private SimpleDateFormat mTimeOfDayFormat;
+    private SimpleDateFormat mDateTimeFormat;
+
+    public SoapMessageDeduplicator() {
+        try {
+            mDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        // Time-of-day timestamps are shown as they are written in the capture, see LatencyAnalytics
+        mTimeOfDayFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+        mTimeOfDayFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        mDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    }
+
+    /**
+     * @return the number of messages passed to {@link #findFirstOccurrence(SoapEnvelopeInfo, int, String)}
+     */
+    public int getMessageCount() {
+        return mMessageCount;
+    }
+
+    /**
+     * @return the number of duplicate messages listed in the manifest
+     */
+    public int getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * Looks up the envelope of a message.  The first occurrence of an envelope is registered with the
+     * filename of the message, a duplicate is added to the manifest.
+     *
+     * @param soapEnvelopeInfo the SOAP message
+     * @param orderIndex the number of the message in the output
+     * @param outputFilename the name of the output file of the message
+     * @return the name of the output file of the first occurrence, or null if the message is not a duplicate
+     */
+    public String findFirstOccurrence(SoapEnvelopeInfo soapEnvelopeInfo, int orderIndex, String outputFilename) {
+        mMessageCount++;
+        String contentHash = computeContentHash(soapEnvelopeInfo);
+        String firstFilename = mFirstFilenames.get(contentHash);
+        if ( firstFilename == null ) {
+            mFirstFilenames.put(contentHash, outputFilename);
+            return null;
+        }
+        mDuplicateCount++;
+        mManifestLines.append(String.format("%05d", orderIndex));
+        mManifestLines.append('\t').append(getTimestampText(soapEnvelopeInfo));
+        mManifestLines.append('\t').append(soapEnvelopeInfo.getSoapBodyName());
+        mManifestLines.append('\t').append(contentHash, 0, 16);
+        mManifestLines.append('\t').append(new File(firstFilename).getName());
+        mManifestLines.append('\n');
+        return firstFilename;
+    }
+
+    /**
+     * @param lineFeed the line separator of the manifest
+     * @return the manifest of the duplicate messages
+     */
+    public String createManifest(String lineFeed) {
+        StringBuilder sbManifest = new StringBuilder(mManifestLines.length() + 256);
+        sbManifest.append("Duplicate messages : ").append(mDuplicateCount).append(" of ").append(mMessageCount);
+        sbManifest.append(" messages, ").append(mMessageCount - mDuplicateCount).append(" distinct messages written").append(lineFeed);
+        sbManifest.append(lineFeed);
+        sbManifest.append("Index\tTimestamp\tBody name\tContent hash\tWritten as").append(lineFeed);
+        if ( "\n".equals(lineFeed) ) {
+            sbManifest.append(mManifestLines);
+        } else {
+            sbManifest.append(mManifestLines.toString().replace("\n", lineFeed));
+        }
+        return sbManifest.toString();
+    }
+
+    /**
+     * @return the capture timestamp of the message, otherwise its <code>Date</code> header value
+     */
+    private String getTimestampText(SoapEnvelopeInfo soapEnvelopeInfo) {
+        long captureTimestamp = soapEnvelopeInfo.getCaptureTimestamp();
+        if ( captureTimestamp >= 0 ) {
+            return (captureTimestamp < DAY_MILLIS ? mTimeOfDayFormat : mDateTimeFormat).format(new Date(captureTimestamp));
+        }
+        String headerTime = soapEnvelopeInfo.getTimeFromSoapHeader();
+        if ( headerTime.startsWith("Date:") ) {
+            headerTime = headerTime.substring(5).trim();
+        }
+        return ("".equals(headerTime) ? "-" : headerTime);
+    }
+
+    /**
+     * Hashes the envelope without the values of the volatile SOAP header elements.  An envelope held as
+     * slices of the capture is hashed in its bytes without decoding it, the kind of each slice is hashed as well
+     * because it selects how the bytes are decoded.  Each slice is followed by the number of its hashed bytes,
+     * which do not include the volatile values, so that values of another length do not change the hash.
+     *
+     * @return the SHA-256 hash as hex digits
+     */
+    String computeContentHash(SoapEnvelopeInfo soapEnvelopeInfo) {
+        mDigest.reset();
+        CaptureSlice[] envelopeSlices = soapEnvelopeInfo.getEnvelopeSlices();
+        if ( envelopeSlices == null ) {
+            try {
+                updateDigest(ByteBuffer.wrap(soapEnvelopeInfo.getSoapEnvelopeXml().getBytes("UTF-8")), true);
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            for ( int index = 0; index < envelopeSlices.length; index++ ) {
+                CaptureSlice slice = envelopeSlices[index];
+                mDigest.update((byte) slice.getKind());
+                // The SOAP header is at the start of the first slice
+                int hashedLength = updateDigest(slice.getByteBuffer(), index == 0);
+                mDigest.update(new byte[] { (byte) (hashedLength >>> 24), (byte) (hashedLength >>> 16),
+                        (byte) (hashedLength >>> 8), (byte) hashedLength });
+            }
+        }
+        byte[] hash = mDigest.digest();
+        char[] hexText = new char[hash.length * 2];
+        for ( int index = 0; index < hash.length; index++ ) {
+            hexText[index * 2] = HEX_DIGITS[(hash[index] >> 4) & 0x0F];
+            hexText[index * 2 + 1] = HEX_DIGITS[hash[index] & 0x0F];
+        }
+        return new String(hexText);
+    }
+
+    /**
+     * Hashes the bytes, the values of the volatile elements in front of the SOAP Body are skipped.  The tags
+     * are found in the bytes, the capture charset is ASCII compatible.
+     *
+     * @return the number of bytes hashed
+     */
+    private int updateDigest(ByteBuffer bytes, boolean skipVolatileValues) {
+        int hashedLength = 0;
+        int end = bytes.limit();
+        int hashedPos = bytes.position();
+        int pos = (skipVolatileValues ? indexOf(bytes, '<', hashedPos, end) : -1);
+        while ( pos >= 0 && pos + 1 < end ) {
+            byte first = bytes.get(pos + 1);
+            if ( first == '/' || first == '?' || first == '!' ) {
+                pos = indexOf(bytes, '<', pos + 1, end);
+                continue;
+            }
+            int nameEnd = pos + 1;
+            int localNameStart = nameEnd;
+            while ( nameEnd < end && !isNameEnd(bytes.get(nameEnd)) ) {
+                if ( bytes.get(nameEnd) == ':' ) {
+                    localNameStart = nameEnd + 1;
+                }
+                nameEnd++;
+            }
+            String localName = (nameEnd - localNameStart <= MAX_LOCAL_NAME_LENGTH ? getAsciiText(bytes, localNameStart, nameEnd) : "");
+            if ( "Body".equals(localName) ) {
+                break;
+            }
+            int tagEnd = indexOf(bytes, '>', nameEnd, end);
+            if ( tagEnd < 0 ) {
+                break;
+            }
+            if ( VOLATILE_HEADER_ELEMENTS.contains(localName) && bytes.get(tagEnd - 1) != '/' ) {
+                int endTag = indexOfEndTag(bytes, pos + 1, nameEnd, tagEnd, end);
+                if ( endTag > 0 ) {
+                    hashedLength += updateDigest(bytes, hashedPos, tagEnd + 1);
+                    hashedPos = endTag;
+                    pos = indexOf(bytes, '<', endTag + 1, end);
+                    continue;
+                }
+            }
+            pos = indexOf(bytes, '<', tagEnd, end);
+        }
+        return hashedLength + updateDigest(bytes, hashedPos, end);
+    }
+
+    /**
+     * @return the number of bytes hashed
+     */
+    private int updateDigest(ByteBuffer bytes, int fromIndex, int toIndex) {
+        if ( toIndex <= fromIndex ) {
+            return 0;
+        }
+        ByteBuffer range = bytes.duplicate();
+        range.limit(toIndex);
+        range.position(fromIndex);
+        mDigest.update(range);
+        return toIndex - fromIndex;
+    }
+
+    private static boolean isNameEnd(byte value) {
+        return value == ' ' || value == '\t' || value == '\r' || value == '\n' || value == '/' || value == '>';
+    }
+
+    private static int indexOf(ByteBuffer bytes, char value, int fromIndex, int toIndex) {
+        for ( int index = fromIndex; index < toIndex; index++ ) {
+            if ( bytes.get(index) == value ) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the end tag <code>&lt;/name</code> of the element whose name is at
+     *         <code>nameStart</code>, or -1
+     */
+    private static int indexOfEndTag(ByteBuffer bytes, int nameStart, int nameEnd, int fromIndex, int toIndex) {
+        int nameLength = nameEnd - nameStart;
+        int pos = indexOf(bytes, '<', fromIndex, toIndex);
+        while ( pos >= 0 && pos + 1 + nameLength < toIndex ) {
+            if ( bytes.get(pos + 1) == '/' ) {
+                int index = 0;
+                while ( index < nameLength && bytes.get(pos + 2 + index) == bytes.get(nameStart + index) ) {
+                    index++;
+                }
+                if ( index == nameLength ) {
+                    return pos;
+                }
+            }
+            pos = indexOf(bytes, '<', pos + 1, toIndex);
+        }
+        return -1;
+    }
+
+    private static String getAsciiText(ByteBuffer bytes, int fromIndex, int toIndex) {
+        char[] chars = new char[toIndex - fromIndex];
+        for ( int index = fromIndex; index < toIndex; index++ ) {
+            chars[index - fromIndex] = (char) (bytes.get(index) & 0xff);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,751 @@
+/*
+ * SoapMessageOutputWriter.java
+ *
+ * Creator:
+ * 21.12.11 08:26 Sippel
+ *
+ * Maintainer:
+ * 21.12.11 08:26 Sippel
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Writes the single SOAP messages of a capture file to the output directory and passes the
+ * Save/Insert/Update data to the {@link AbaConnectImportWriter} of the AbaConnect import files
+ * (<code>ac_import_data.xml</code>).
+ * <p/>
+ * The messages must be passed in output order with {@link #writeSoapMessage(SoapEnvelopeInfo, int)},
+ * because the response timing information and the AbaConnect interface depend on the preceding messages.
+ * The AbaConnect import files are completed with {@link #close()} after the last message.
+ * <p/>
+ * With more than one format thread the reformatting and writing of the single files runs on a fork-join
+ * pool with one {@link XmlSoapAcReformatter} per worker thread.  The order dependent state is taken in
+ * {@link #writeSoapMessage(SoapEnvelopeInfo, int)} and the results are collected in the order of the
+ * messages, so that the output is the same as with a single thread.
+ * <p/>
+ * The content of each file is encoded in memory and written by the {@link AsyncFileWriter} of the writer, so
+ * neither the calling thread nor the format threads wait for the disk.  A large envelope is not held formatted
+ * in memory : the format thread only counts the bytes of its file, the calling thread formats it again and
+ * passes the file in parts to the file writer, whose queue limit then bounds the memory of the file.
+ * {@link #flush()} and {@link #close()}
+ * return after all files are written.  With an archive format the files are written in message order to a
+ * single {@link ArchiveFileWriter archive} in the output directory, the AbaConnect import files are added by
+ * {@link #close()}.
+ * <p/>
+ * With deduplication each distinct envelope is only reformatted and written once, the duplicates are listed
+ * in the manifest of the {@link SoapMessageDeduplicator}.  The Save, Insert and Update requests of the
+ * AbaConnect import file are always written.
+ */
+public class SoapMessageOutputWriter {
+
+    static final String AC_IMPORT_DATA_FILENAME = "ac_import_data.xml";
+
+    // Envelopes from this length are passed in parts to the file writer
+    static final int LARGE_ENVELOPE_LENGTH = 8 * 1024 * 1024;
+
+    private static final int ENCODED_PART_LENGTH = 8192;
+
+    private static final int ENVELOPE_FORMATTED = 0;
+    private static final int ENVELOPE_FORMATTED_UTF8 = 1;
+    private static final int ENVELOPE_UNFORMATTED = 2;
+
+    private TcpMonMessageExploder mExploder;
+    private String mOutputDirectory;
+    private boolean mOutputFiles;
+    private String m_LineFeed = "\r\n";
+    private String m_FilenamePrefix;
+
+    private XmlSoapAcReformatter mXmlFormatter;
+    private String mSingleIndent;
+    private boolean mCreateAbaConnectImportFile = false;
+    private boolean mReformatXml;
+    private boolean mOutputSoapHeaders;
+    private boolean mConvertExtendedFieldsToXmlFormat;
+    private boolean mRemoveNamespaces;
+
+    private AbaConnectImportWriter mImportWriter = null;
+    private ArrayList<String> mRequestTimingStrings = new ArrayList<String>();
+    private List<String> mXmlProblemFileNameMessages;
+
+    private int mWrittenMessageCount = 0;
+
+    private AsyncFileWriter mFileWriter = null;
+    private boolean mArchiveOutput = false;
+    private int mCountedFailedFileCount = 0;
+    private SoapMessageDeduplicator mDeduplicator = null;
+    private int mManifestWrittenCount = 0;
+
+    private ForkJoinPool mFormatPool = null;
+    private int mMaxPendingMessages = 0;
+    private LinkedList<Future<SoapMessageTask>> mPendingMessages = new LinkedList<Future<SoapMessageTask>>();
+    private ThreadLocal<XmlSoapAcReformatter> mWorkerXmlFormatter = new ThreadLocal<XmlSoapAcReformatter>() {
+        @Override
+        protected XmlSoapAcReformatter initialValue() {
+            return createXmlFormatter();
+        }
+    };
+
+    /**
+     * A single SOAP message with the order dependent state taken when the message was passed to the writer.
+     * The task reformats the envelope and writes the file, the results are applied in message order by
+     * {@link SoapMessageOutputWriter#completeSoapMessage(SoapMessageTask)}.
+     */
+    private class SoapMessageTask implements Callable<SoapMessageTask> {
+        String mOutputFilename;
+        String mSoapEnvelope;
+        String mSoapHeader;
+        boolean mIsAbaConnectImportData;
+        boolean mIsRequestMessage;
+        List<String> mTimingStrings;
+        String mApplication;
+        String mInterfaceId;
+        String mInterfaceVersion;
+
+        ArrayList<String> mAbaConnectTransactions = null;
+        ArrayList<String> mProblemMessages = new ArrayList<String>();
+        ArrayList<String> mErrorMessages = new ArrayList<String>();
+        ByteBuffer[] mFileBuffers = null;
+        // A large envelope is written in parts with the comments in the file buffers
+        boolean mStreamed = false;
+        int mEnvelopeForm = ENVELOPE_FORMATTED;
+        long mEnvelopeByteCount = 0;
+
+        public SoapMessageTask call() {
+            writeSoapMessageFile(this);
+            return this;
+        }
+    }
+
+    public SoapMessageOutputWriter(TcpMonMessageExploder exploder, String outputDirectory) {
+        mExploder = exploder;
+        mOutputDirectory = outputDirectory;
+        mOutputFiles = (outputDirectory != null && !"".equals(outputDirectory) );
+        m_FilenamePrefix = exploder.getFilenamePrefix();
+        mXmlProblemFileNameMessages = exploder.getXmlProblemFileNameMessages();
+
+        mCreateAbaConnectImportFile = exploder.isRemoveNamespaces();
+        mConvertExtendedFieldsToXmlFormat = exploder.isConvertExtendedFieldsToXmlFormat();
+        mRemoveNamespaces = exploder.isRemoveNamespaces();
+        mXmlFormatter = createXmlFormatter();
+        mSingleIndent = mXmlFormatter.getIndent();
+        mReformatXml = exploder.isReformatSoapMessages();
+        mOutputSoapHeaders = exploder.isOutputSoapHeaders();
+        if ( exploder.isDeduplicateMessages() ) {
+            mDeduplicator = new SoapMessageDeduplicator();
+        }
+
+        int formatThreads = exploder.getFormatThreadCount();
+        if ( formatThreads > 1 && mOutputFiles ) {
+            mFormatPool = new ForkJoinPool(formatThreads);
+            // Limits the number of envelopes held in memory while waiting for a slow message
+            mMaxPendingMessages = formatThreads * 4;
+        }
+        if ( mOutputFiles ) {
+            int archiveFormat = exploder.getOutputArchiveFormat();
+            if ( archiveFormat != ArchiveFileWriter.FORMAT_NONE ) {
+                String archiveFilename = ArchiveFileWriter.getArchiveFilename(outputDirectory, m_FilenamePrefix, archiveFormat);
+                try {
+                    mFileWriter = new ArchiveFileWriter(archiveFilename, archiveFormat, exploder.getOutputCompressionLevel(), exploder.getOutputSyncPolicy(), AsyncFileWriter.DEFAULT_MAX_QUEUED_BYTES);
+                } catch (IOException e) {
+                    throw new RuntimeException("The archive [" + archiveFilename + "] cannot be created. [" + e.getMessage() + "]", e);
+                }
+                mArchiveOutput = true;
+            } else {
+                mFileWriter = new AsyncFileWriter(exploder.getOutputThreadCount(), exploder.getOutputSyncPolicy(), AsyncFileWriter.DEFAULT_MAX_QUEUED_BYTES);
+            }
+            if ( mCreateAbaConnectImportFile ) {
+                mImportWriter = new AbaConnectImportWriter(outputDirectory, m_LineFeed, mSingleIndent, exploder.getMaxImportTransactionsPerFile(),
+                        exploder.getOutputSyncPolicy(), (mArchiveOutput ? mFileWriter : null));
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes of a file without holding them, {@link #reset()} starts again like with a
+     * {@link AsyncFileWriter.FileBuffer}.
+     */
+    private static class ByteCountingStream extends ByteArrayOutputStream {
+        private long mByteCount = 0;
+
+        ByteCountingStream() {
+            super(1);
+        }
+
+        @Override
+        public void write(int value) {
+            mByteCount++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            mByteCount += length;
+        }
+
+        @Override
+        public void reset() {
+            mByteCount = 0;
+        }
+
+        long getByteCount() {
+            return mByteCount;
+        }
+    }
+
+    /**
+     * Encodes a large envelope in small parts while it is read, the same bytes as {@link String#getBytes(Charset)}
+     * without an encoded copy of the whole envelope.
+     */
+    private static class EncodingInputStream extends InputStream {
+        private final CharBuffer mText;
+        private final CharsetEncoder mEncoder;
+        private final ByteBuffer mBytes = ByteBuffer.allocate(ENCODED_PART_LENGTH);
+        private boolean mEncoded = false;
+        private boolean mFlushed = false;
+
+        EncodingInputStream(String text, Charset charset) {
+            mText = CharBuffer.wrap(text);
+            mEncoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            mBytes.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (fillBytes() ? (mBytes.get() & 0xFF) : -1);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if ( length == 0 ) {
+                return 0;
+            }
+            if ( !fillBytes() ) {
+                return -1;
+            }
+            int readLength = Math.min(length, mBytes.remaining());
+            mBytes.get(bytes, offset, readLength);
+            return readLength;
+        }
+
+        private boolean fillBytes() {
+            while ( !mBytes.hasRemaining() && !mFlushed ) {
+                mBytes.clear();
+                if ( !mEncoded ) {
+                    mEncoded = mEncoder.encode(mText, mBytes, true).isUnderflow();
+                }
+                if ( mEncoded ) {
+                    mFlushed = mEncoder.flush(mBytes).isUnderflow();
+                }
+                mBytes.flip();
+            }
+            return mBytes.hasRemaining();
+        }
+    }
+
+    private static byte[] getUtf8Bytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private XmlSoapAcReformatter createXmlFormatter() {
+        XmlSoapAcReformatter xmlFormatter = new XmlSoapAcReformatter();
+        if ( mRemoveNamespaces ) {
+            xmlFormatter.setAbaConnectImportMode("SAVE");
+        }
+        xmlFormatter.setConvertExtendedFieldsToXmlFormat(mConvertExtendedFieldsToXmlFormat);
+        xmlFormatter.setRemoveNamespacePrefixes(mRemoveNamespaces);
+        xmlFormatter.setCollectAbaConnectImportData(mCreateAbaConnectImportFile && mOutputFiles);
+        return xmlFormatter;
+    }
+
+    public int getWrittenMessageCount() {
+        return mWrittenMessageCount;
+    }
+
+    /**
+     * @return the number of messages which were not written because an identical message was written before
+     */
+    public int getDuplicateMessageCount() {
+        return (mDeduplicator != null ? mDeduplicator.getDuplicateCount() : 0);
+    }
+
+    /**
+     * Reformats (if selected) and writes a single SOAP message to the output directory.  With format threads
+     * the file may still be written after the method returns, all files are written when {@link #close()} returns.
+     *
+     * @param soapEnvelopeInfo the SOAP message
+     * @param orderIndex the number of the message used in the output filename
+     * @return false if the message is a duplicate which is only listed in the manifest
+     */
+    public boolean writeSoapMessage(SoapEnvelopeInfo soapEnvelopeInfo, int orderIndex) {
+        // The body name is determined first, an envelope held as slices is then decoded only once at a time
+        String bodyName = soapEnvelopeInfo.getSoapBodyName();
+
+        if ( "SaveRequest".equalsIgnoreCase(bodyName) || "UpdateRequest".equalsIgnoreCase(bodyName) || "InsertRequest".equalsIgnoreCase(bodyName) || "FindRequest".equalsIgnoreCase(bodyName) || "DeleteRequest".equalsIgnoreCase(bodyName) ) {
+            mRequestTimingStrings.clear();
+        }
+        String soapHeaderTime = soapEnvelopeInfo.getTimeFromSoapHeader();
+        if ( !"".equals(soapHeaderTime) ) {
+            mRequestTimingStrings.add(soapHeaderTime);
+        }
+        if ( !mOutputFiles ) {
+            return true;
+        }
+        String outputFilename = mOutputDirectory + File.separator + m_FilenamePrefix + String.format("%05d",orderIndex) + "_" + bodyName + ".xml";
+        // A duplicate is found in the bytes of the envelope before it is decoded, the requests of the
+        // AbaConnect import file are always written
+        boolean isSaveInsertOrUpdateRequest = "SaveRequest".equalsIgnoreCase(bodyName) || "InsertRequest".equalsIgnoreCase(bodyName) || "UpdateRequest".equalsIgnoreCase(bodyName);
+        if ( mDeduplicator != null && !isSaveInsertOrUpdateRequest
+                && mDeduplicator.findFirstOccurrence(soapEnvelopeInfo, orderIndex, outputFilename) != null ) {
+            return false;
+        }
+        String soapEnvelope = soapEnvelopeInfo.getSoapEnvelopeXml();
+        String soapHeader = soapEnvelopeInfo.getSoapHeader();
+
+        SoapMessageTask task = new SoapMessageTask();
+        task.mOutputFilename = outputFilename;
+        task.mSoapEnvelope = soapEnvelope;
+        task.mSoapHeader = soapHeader;
+        // The import data is collected while the request is reformatted
+        task.mIsAbaConnectImportData = mCreateAbaConnectImportFile && mReformatXml && isSaveInsertOrUpdateRequest;
+        task.mIsRequestMessage = soapEnvelopeInfo.isRequestMessage();
+        task.mTimingStrings = (mOutputSoapHeaders ? new ArrayList<String>(mRequestTimingStrings) : new ArrayList<String>());
+
+        if ( mFormatPool == null ) {
+            completeSoapMessage(task.call());
+        } else {
+            mPendingMessages.add(mFormatPool.submit(task));
+            completePendingMessages(false);
+        }
+        return true;
+    }
+
+    /**
+     * Applies the results of the finished messages in message order.
+     *
+     * @param waitForAll true to wait until all pending messages are finished, otherwise only waits
+     *                   if there are too many pending messages
+     */
+    private void completePendingMessages(boolean waitForAll) {
+        while ( mPendingMessages.size() > 0 ) {
+            Future<SoapMessageTask> future = mPendingMessages.getFirst();
+            if ( !waitForAll && !future.isDone() && mPendingMessages.size() <= mMaxPendingMessages ) {
+                return;
+            }
+            mPendingMessages.removeFirst();
+            try {
+                completeSoapMessage(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Writing of the SOAP messages was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private void completeSoapMessage(SoapMessageTask task) {
+        if ( task.mStreamed ) {
+            streamSoapMessageFile(task);
+        }
+        if ( task.mAbaConnectTransactions != null ) {
+            long startTime = System.nanoTime();
+            mImportWriter.addTransactions(task.mApplication, task.mInterfaceId, task.mInterfaceVersion, task.mAbaConnectTransactions);
+            ExplodeStatistics.getInstance().addImportTransactions(task.mAbaConnectTransactions.size());
+            ExplodeStatistics.getInstance().addImportNanos(System.nanoTime() - startTime);
+        }
+        mXmlProblemFileNameMessages.addAll(task.mProblemMessages);
+        for ( String errorMessage : task.mErrorMessages ) {
+            mExploder.addMessage(errorMessage);
+        }
+        // The files are passed in message order, the order of the entries of an archive
+        if ( task.mFileBuffers != null && !task.mStreamed ) {
+            mFileWriter.writeFile(task.mOutputFilename, task.mFileBuffers);
+            mWrittenMessageCount++;
+        }
+    }
+
+    /**
+     * Reformats and writes the file of a single message.  Runs on a worker thread with format threads,
+     * so only the state in the task and the formatter of the current thread may be used.
+     */
+    private void writeSoapMessageFile(SoapMessageTask task) {
+        String soapEnvelope = task.mSoapEnvelope;
+        String soapHeader = task.mSoapHeader;
+        XmlSoapAcReformatter xmlFormatter = (mFormatPool == null ? mXmlFormatter : mWorkerXmlFormatter.get());
+        try {
+            // The envelope is formatted directly into the encoded bytes of the output file, the envelope and
+            // the comments are passed to the file writer as separate buffers
+            ByteBuffer envelopeBuffer = null;
+            if ( soapEnvelope.length() >= LARGE_ENVELOPE_LENGTH ) {
+                // Only the form and the size of the file are found here, see streamSoapMessageFile()
+                ByteCountingStream byteCountingStream = new ByteCountingStream();
+                task.mEnvelopeForm = writeSoapEnvelope(task, xmlFormatter, byteCountingStream);
+                task.mEnvelopeByteCount = byteCountingStream.getByteCount();
+                task.mStreamed = true;
+            } else if ( mReformatXml ) {
+                AsyncFileWriter.FileBuffer fileBuffer = new AsyncFileWriter.FileBuffer(soapEnvelope.length() + (soapEnvelope.length() / 4));
+                writeSoapEnvelope(task, xmlFormatter, fileBuffer);
+                envelopeBuffer = fileBuffer.toByteBuffer();
+            } else {
+                envelopeBuffer = ByteBuffer.wrap(soapEnvelope.getBytes("UTF-8"));
+            }
+
+            StringBuilder comments = new StringBuilder();
+            if ( mOutputSoapHeaders && soapHeader != null && !"".equals(soapHeader) ) {
+                comments.append(m_LineFeed);
+                comments.append("<!--  ");
+                comments.append(m_LineFeed);
+                comments.append(getValueAsXmlCompatible(soapHeader));
+                comments.append(m_LineFeed);
+                comments.append("  -->");
+                comments.append(m_LineFeed);
+            }
+
+            if ( mOutputSoapHeaders ) {
+                if ( task.mTimingStrings.size() > 0 ) {
+                    comments.append(m_LineFeed);
+                    comments.append("<!--  Response Timing Information ");
+                    comments.append(m_LineFeed);
+                    int timeSeconds = -1;
+                    int startTimeSeconds = -1;
+                    for (String requestTime : task.mTimingStrings) {
+                        timeSeconds = getSecondsFromTimeString(requestTime);
+                        if ( startTimeSeconds < 0 ) {
+                            startTimeSeconds = timeSeconds;
+                        }
+                        int diffSeconds = (startTimeSeconds > 0 ? (timeSeconds - startTimeSeconds) : -1);
+                        comments.append(getValueAsXmlCompatible(requestTime));
+                        if ( diffSeconds >= 0 ) {
+                            comments.append("  Diff(");
+                            comments.append(diffSeconds);
+                            comments.append(")");
+                        }
+                        comments.append(m_LineFeed);
+                    }
+                    comments.append("  -->");
+                    comments.append(m_LineFeed);
+                }
+            }
+
+            if ( task.mStreamed ) {
+                task.mFileBuffers = new ByteBuffer[] { ByteBuffer.wrap(comments.toString().getBytes("UTF-8")) };
+            } else if ( comments.length() > 0 ) {
+                task.mFileBuffers = new ByteBuffer[] { envelopeBuffer, ByteBuffer.wrap(comments.toString().getBytes("UTF-8")) };
+            } else {
+                task.mFileBuffers = new ByteBuffer[] { envelopeBuffer };
+            }
+            if ( !task.mStreamed ) {
+                // The envelope is not needed while the file waits for the preceding messages
+                task.mSoapEnvelope = null;
+            }
+
+        } catch (UnsupportedEncodingException e) {
+            task.mErrorMessages.add(e.getMessage());
+            e.printStackTrace();
+        } catch (IOException e) {
+            task.mErrorMessages.add(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Formats the SOAP Envelope of the task into a buffer.  If the envelope cannot be formatted, the buffer is
+     * started again with the envelope formatted from UTF-8 or finally with the unformatted envelope.
+     * The AbaConnect import data collected by the formatter is taken into the task, a request which cannot be
+     * formatted is not added to the import file.
+     *
+     * @return the form in which the envelope was written, <code>ENVELOPE_FORMATTED</code>,
+     *         <code>ENVELOPE_FORMATTED_UTF8</code> or <code>ENVELOPE_UNFORMATTED</code>
+     */
+    private int writeSoapEnvelope(SoapMessageTask task, XmlSoapAcReformatter xmlFormatter, ByteArrayOutputStream outputStream) throws IOException {
+        if ( !mReformatXml ) {
+            writeUnformattedSoapEnvelope(task.mSoapEnvelope, outputStream);
+            return ENVELOPE_UNFORMATTED;
+        }
+        String outputFilename = task.mOutputFilename;
+        long startTime = System.nanoTime();
+        int envelopeForm = ENVELOPE_FORMATTED;
+        try {
+            writeSoapEnvelope(task, xmlFormatter, ENVELOPE_FORMATTED, outputStream);
+            takeAbaConnectImportData(task, xmlFormatter);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e1) {
+            // A part of the envelope may already have been formatted
+            outputStream.reset();
+            try {
+                envelopeForm = ENVELOPE_FORMATTED_UTF8;
+                writeSoapEnvelope(task, xmlFormatter, ENVELOPE_FORMATTED_UTF8, outputStream);
+                takeAbaConnectImportData(task, xmlFormatter);
+                task.mProblemMessages.add(outputFilename);
+                task.mProblemMessages.add("   File could be formatted using UTF-8 encoding");
+                ExplodeStatistics.getInstance().addFormatUtf8Retry();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e2) {
+                outputStream.reset();
+                envelopeForm = ENVELOPE_UNFORMATTED;
+                writeUnformattedSoapEnvelope(task.mSoapEnvelope, outputStream);
+                addReformatProblemMessages(task, e1, e2);
+                ExplodeStatistics.getInstance().addFailedFormat();
+                if ( task.mIsAbaConnectImportData ) {
+                    task.mProblemMessages.add("   Not added to the AbaConnect import file");
+                }
+            }
+        }
+        ExplodeStatistics.getInstance().addFormattedEnvelope(task.mIsRequestMessage, System.nanoTime() - startTime);
+        return envelopeForm;
+    }
+
+    /**
+     * Writes the SOAP Envelope of the task in the given form.
+     */
+    private void writeSoapEnvelope(SoapMessageTask task, XmlSoapAcReformatter xmlFormatter, int envelopeForm, OutputStream outputStream) throws SAXException, IOException {
+        String soapEnvelope = task.mSoapEnvelope;
+        if ( envelopeForm == ENVELOPE_FORMATTED ) {
+            xmlFormatter.format(getEnvelopeStream(soapEnvelope, Charset.defaultCharset()), outputStream);
+        } else if ( envelopeForm == ENVELOPE_FORMATTED_UTF8 ) {
+            xmlFormatter.format(getEnvelopeStream(soapEnvelope, Charset.forName("UTF-8")), outputStream);
+        } else {
+            writeUnformattedSoapEnvelope(soapEnvelope, outputStream);
+        }
+    }
+
+    private static InputStream getEnvelopeStream(String soapEnvelope, Charset charset) {
+        if ( soapEnvelope.length() >= LARGE_ENVELOPE_LENGTH ) {
+            return new EncodingInputStream(soapEnvelope, charset);
+        }
+        return new ByteArrayInputStream(soapEnvelope.getBytes(charset));
+    }
+
+    /**
+     * Encodes the envelope in small parts, the writer would otherwise copy the whole envelope.
+     */
+    private static void writeUnformattedSoapEnvelope(String soapEnvelope, OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+        for ( int offset = 0; offset < soapEnvelope.length(); offset += ENCODED_PART_LENGTH ) {
+            writer.write(soapEnvelope, offset, Math.min(ENCODED_PART_LENGTH, soapEnvelope.length() - offset));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Formats a large SOAP Envelope again in the form found by the format thread and passes the file in parts
+     * to the file writer, so that only the queued parts of the file are held in memory.  Runs on the calling
+     * thread in message order, one file at a time.
+     */
+    private void streamSoapMessageFile(SoapMessageTask task) {
+        if ( task.mFileBuffers == null ) {
+            return;
+        }
+        long byteCount = task.mEnvelopeByteCount;
+        for ( ByteBuffer buffer : task.mFileBuffers ) {
+            byteCount += buffer.remaining();
+        }
+        // A file with fewer bytes than announced is counted as failed by the file writer
+        OutputStream outputStream = mFileWriter.openFile(task.mOutputFilename, byteCount);
+        mWrittenMessageCount++;
+        try {
+            try {
+                writeSoapEnvelope(task, mXmlFormatter, task.mEnvelopeForm, outputStream);
+                for ( ByteBuffer buffer : task.mFileBuffers ) {
+                    outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                }
+            } finally {
+                outputStream.close();
+            }
+        } catch (Exception e) {
+            task.mErrorMessages.add(task.mOutputFilename + " : " + e.getMessage());
+            e.printStackTrace();
+        }
+        task.mSoapEnvelope = null;
+    }
+
+    private void takeAbaConnectImportData(SoapMessageTask task, XmlSoapAcReformatter xmlFormatter) {
+        if ( task.mIsAbaConnectImportData && mImportWriter != null ) {
+            task.mAbaConnectTransactions = new ArrayList<String>(xmlFormatter.getAbaConnectTransactions());
+            task.mApplication = xmlFormatter.getAbaConnectApplication();
+            task.mInterfaceId = xmlFormatter.getAbaConnectInterfaceId();
+            task.mInterfaceVersion = xmlFormatter.getAbaConnectInterfaceVersion();
+        }
+    }
+
+    private void addReformatProblemMessages(SoapMessageTask task, Exception e1, Exception e2) {
+        System.out.println("Error reformatting the SOAP XML !!");
+        task.mProblemMessages.add(task.mOutputFilename);
+        task.mProblemMessages.add("   " + e1.getMessage());
+        task.mProblemMessages.add("   " + e2.getMessage());
+        if ( e1.getCause() != null ) {
+            task.mProblemMessages.add("   " + e1.getCause().toString());
+            task.mProblemMessages.add("   " + e1.getCause().getMessage());
+        }
+        if ( e2.getCause() != null ) {
+            task.mProblemMessages.add("   " + e2.getCause().toString());
+            task.mProblemMessages.add("   " + e2.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Waits for the pending messages and rewrites the AbaConnect import file if Save/Insert/Update requests were
+     * written since the last flush.  The writer stays open, used when following a growing capture file.
+     */
+    public void flush() {
+        completePendingMessages(true);
+        awaitWrittenFiles(true);
+        flushAbaConnectImportFiles(false);
+        // The entries of an archive cannot be replaced, the import files are added by close()
+        if ( !mArchiveOutput ) {
+            writeDuplicateManifest();
+            awaitWrittenFiles(false);
+        }
+    }
+
+    /**
+     * Waits for the pending messages and writes the AbaConnect import file, if Save/Insert/Update requests were written.
+     */
+    public void close() {
+        try {
+            completePendingMessages(true);
+            awaitWrittenFiles(true);
+            flushAbaConnectImportFiles(true);
+            writeDuplicateManifest();
+            if ( getDuplicateMessageCount() > 0 ) {
+                mExploder.addMessage(getDuplicateMessageCount() + " duplicate messages were not written, they are listed in "
+                        + SoapMessageDeduplicator.MANIFEST_FILENAME + ".");
+            }
+        } finally {
+            if ( mFormatPool != null ) {
+                mFormatPool.shutdownNow();
+                mFormatPool = null;
+            }
+            if ( mFileWriter != null ) {
+                for ( String errorMessage : mFileWriter.close() ) {
+                    mExploder.addMessage(errorMessage);
+                }
+                mFileWriter = null;
+            }
+        }
+    }
+
+    /**
+     * Waits for the file writer and reports the files which could not be written.
+     *
+     * @param messageFiles true if the files written since the last call are message files, which are then
+     *                     no longer counted as written
+     */
+    private void awaitWrittenFiles(boolean messageFiles) {
+        if ( mFileWriter == null ) {
+            return;
+        }
+        List<String> errorMessages = mFileWriter.awaitWritten();
+        int failedFileCount = mFileWriter.getFailedFileCount();
+        if ( messageFiles ) {
+            mWrittenMessageCount -= (failedFileCount - mCountedFailedFileCount);
+        }
+        mCountedFailedFileCount = failedFileCount;
+        for ( String errorMessage : errorMessages ) {
+            mExploder.addMessage(errorMessage);
+        }
+    }
+
+    /**
+     * Completes the AbaConnect import files with the transactions written so far.
+     *
+     * @param close true to close the files, they are then added to the archive
+     */
+    private void flushAbaConnectImportFiles(boolean close) {
+        if ( mImportWriter != null ) {
+            long startTime = System.nanoTime();
+            List<String> errorMessages = (close ? mImportWriter.close() : mImportWriter.flush());
+            ExplodeStatistics.getInstance().addImportNanos(System.nanoTime() - startTime);
+            for ( String errorMessage : errorMessages ) {
+                mExploder.addMessage(errorMessage);
+            }
+        }
+    }
+
+    /**
+     * Writes the manifest of the duplicate messages if duplicates were found since it was last written.
+     */
+    private void writeDuplicateManifest() {
+        if ( mDeduplicator != null && mOutputFiles && mDeduplicator.getDuplicateCount() > mManifestWrittenCount ) {
+            mManifestWrittenCount = mDeduplicator.getDuplicateCount();
+            String outputFilename = mOutputDirectory + File.separator + SoapMessageDeduplicator.MANIFEST_FILENAME;
+            mFileWriter.writeFile(outputFilename, new ByteBuffer[] { ByteBuffer.wrap(getUtf8Bytes(mDeduplicator.createManifest(m_LineFeed))) });
+        }
+    }
+
+    /**
+     * Converts the Date-Time String expected in an AbaCOnnect SOAP Response to seconds in the day starting from midnight
+     * The Date string normally looks like this "Date: Fri, 28 Aug 2015 13:36:54 GMT"
+     * @param text the Date string from the SOAP response message
+     * @return seconds in the day starting from midnight, or -1 if it cannot be parse
+     */
+    private int getSecondsFromTimeString(String text) {
+        int timeInSeconds = -1;
+        if ( text != null && !"".equals(text) ) {
+            int ipos = text.indexOf("Date:");
+            String txtDate = (ipos >= 0 ? text.substring(ipos+5).trim() : text.trim());
+            ipos = text.lastIndexOf(":");
+            if ( ipos > 0 ) {
+                int endPos = ipos + 3;
+                ipos = text.lastIndexOf(":",ipos-1);
+                if ( ipos > 0 ) {
+                    int startPos = ipos - 2;
+                    if ( startPos >= 0 && endPos > startPos ) {
+                        text = text.substring(startPos, endPos);
+                        String[] values = text.split(":");
+                        if ( values.length > 2 ) {
+                            int hours = Integer.valueOf(values[0]);
+                            int minutes = Integer.valueOf(values[1]);
+                            int seconds = Integer.valueOf(values[2]);
+                            timeInSeconds = (hours * 3600) + (minutes * 60) + seconds;
+                        }
+                    }
+                }
+            }
+        }
+        return timeInSeconds;
+    }
+
+    protected String getValueAsXmlCompatible(String value)
+    {
+        String xmlValue = value;
+
+//        xmlValue = xmlValue.replace("&", "&amp;");
+
+//        xmlValue = xmlValue.replace("'", "&apos;");
+//        xmlValue = xmlValue.replace("\"", "&quot;");
+//        xmlValue = xmlValue.replace(">", "&gt;");
+//        xmlValue = xmlValue.replace("<", "&lt;");
+//        xmlValue = xmlValue.replace("-", "&ndash;");
+        xmlValue = xmlValue.replace("--", "&#8211;&#8211;");
+
+
+        return xmlValue;
+    }
+}
@@ -0,0 +1,666 @@
+/*
+ * SoapRecordingProxy.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Recording HTTP proxy which replaces the external TcpMon : the proxy listens on a local port, forwards each
+ * connection to the target host and passes the SOAP Envelopes of the relayed requests and responses to a
+ * {@link SoapEnvelopeListener}, without writing a capture file.
+ * <p/>
+ * All connections are relayed by a single thread with a non-blocking {@link Selector}.  The bytes are
+ * forwarded as soon as they are read, the recording only copies them to a {@link HttpMessageRecorder} per
+ * direction, which frames the HTTP messages by their <code>Content-Length</code> or chunked
+ * <code>Transfer-Encoding</code>.  The envelope and header of a complete message are delivered as
+ * {@link CaptureSlice slices} of the recorded bytes, so the text is the same as for a TcpMon capture of
+ * the traffic exploded by the {@link MappedCaptureScanner}.
+ * <p/>
+ * The listener is called on the proxy thread and must not block, e.g. it only queues the envelopes for the
+ * output, see {@link TcpMonMessageExploder#recordProxyTraffic(int, String, int, String)}.
+ */
+public class SoapRecordingProxy {
+
+    private static final int RELAY_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+    private static final int MAX_CHUNK_LINE_LENGTH = 1024;
+    // Larger bodies are relayed but not recorded
+    private static final int MAX_RECORDED_BODY_LENGTH = 256 * 1024 * 1024;
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    private int mListenPort;
+    private InetSocketAddress mTargetAddress;
+    private SoapEnvelopeListener mSoapEnvelopeListener;
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mProxyThread;
+    private volatile boolean mClosed = false;
+
+    private volatile long mBytesRelayed = 0;
+    private volatile int mConnectionCount = 0;
+    private volatile int mOpenConnectionCount = 0;
+
+    /**
+     * The two socket channels of a proxied connection and the bytes read but not yet written in each direction.
+     */
+    private class ProxyConnection {
+        SocketChannel mClientChannel;
+        SocketChannel mServerChannel;
+        SelectionKey mClientKey;
+        SelectionKey mServerKey;
+        boolean mServerConnected = false;
+
+        // Buffers in fill mode : the bytes between 0 and the position are waiting to be written
+        ByteBuffer mRequestBuffer = ByteBuffer.allocate(RELAY_BUFFER_SIZE);
+        ByteBuffer mResponseBuffer = ByteBuffer.allocate(RELAY_BUFFER_SIZE);
+        boolean mClientInputClosed = false;
+        boolean mServerInputClosed = false;
+        boolean mClosed = false;
+
+        HttpMessageRecorder mRequestRecorder = new HttpMessageRecorder(true);
+        HttpMessageRecorder mResponseRecorder = new HttpMessageRecorder(false);
+    }
+
+    /**
+     * @param listenPort the local port the clients connect to
+     * @param targetHost the host the connections are forwarded to
+     * @param targetPort the port the connections are forwarded to
+     * @param soapEnvelopeListener receives the envelopes of the requests and responses, called on the proxy thread
+     */
+    public SoapRecordingProxy(int listenPort, String targetHost, int targetPort, SoapEnvelopeListener soapEnvelopeListener) {
+        mListenPort = listenPort;
+        mTargetAddress = new InetSocketAddress(targetHost, targetPort);
+        mSoapEnvelopeListener = soapEnvelopeListener;
+    }
+
+    /**
+     * Binds the listen port and starts the proxy thread.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        if ( mTargetAddress.isUnresolved() ) {
+            throw new IOException("Target host [" + mTargetAddress.getHostString() + "] cannot be resolved.");
+        }
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+        mServerChannel.bind(new InetSocketAddress(mListenPort));
+        mServerChannel.configureBlocking(false);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        // The actual port if 0 was specified
+        mListenPort = mServerChannel.socket().getLocalPort();
+
+        mProxyThread = new Thread("SOAP Recording Proxy :" + mListenPort) {
+            @Override
+            public void run() {
+                runSelectorLoop();
+            }
+        };
+        mProxyThread.setDaemon(true);
+        mProxyThread.start();
+    }
+
+    /**
+     * Stops accepting connections, closes all proxied connections and waits for the proxy thread.
+     */
+    public void close() {
+        mClosed = true;
+        if ( mSelector != null ) {
+            mSelector.wakeup();
+        }
+        if ( mProxyThread != null ) {
+            try {
+                mProxyThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getListenPort() {
+        return mListenPort;
+    }
+
+    /**
+     * @return the number of bytes forwarded in both directions, may be called from any thread
+     */
+    public long getBytesRelayed() {
+        return mBytesRelayed;
+    }
+
+    /**
+     * @return the number of accepted connections, may be called from any thread
+     */
+    public int getConnectionCount() {
+        return mConnectionCount;
+    }
+
+    /**
+     * @return the number of connections currently proxied, may be called from any thread
+     */
+    public int getOpenConnectionCount() {
+        return mOpenConnectionCount;
+    }
+
+    private void runSelectorLoop() {
+        try {
+            while ( !mClosed ) {
+                mSelector.select();
+                Iterator<SelectionKey> keyIterator = mSelector.selectedKeys().iterator();
+                while ( keyIterator.hasNext() ) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    if ( !key.isValid() ) {
+                        continue;
+                    }
+                    if ( key.isAcceptable() ) {
+                        acceptConnection();
+                        continue;
+                    }
+                    ProxyConnection connection = (ProxyConnection) key.attachment();
+                    try {
+                        handleKey(connection, key);
+                    } catch (IOException e) {
+                        // E.g. connection reset by one of the peers, the other side is closed as well
+                        closeConnection(connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Recording proxy on port " + mListenPort + " stopped. [" + e.getMessage() + "]");
+            e.printStackTrace();
+        } finally {
+            for ( SelectionKey key : mSelector.keys() ) {
+                if ( key.attachment() instanceof ProxyConnection ) {
+                    closeConnection((ProxyConnection) key.attachment());
+                }
+            }
+            closeQuietly(mServerChannel);
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private void acceptConnection() throws IOException {
+        SocketChannel clientChannel = mServerChannel.accept();
+        if ( clientChannel == null ) {
+            return;
+        }
+        ProxyConnection connection = new ProxyConnection();
+        connection.mClientChannel = clientChannel;
+        // The responses are matched to the requests of the same connection
+        connection.mRequestRecorder.mConnectionIndex = mConnectionCount;
+        connection.mResponseRecorder.mConnectionIndex = mConnectionCount;
+        try {
+            clientChannel.configureBlocking(false);
+            clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+            connection.mClientKey = clientChannel.register(mSelector, 0, connection);
+
+            SocketChannel serverChannel = SocketChannel.open();
+            connection.mServerChannel = serverChannel;
+            serverChannel.configureBlocking(false);
+            serverChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+            connection.mServerKey = serverChannel.register(mSelector, 0, connection);
+            connection.mServerConnected = serverChannel.connect(mTargetAddress);
+        } catch (IOException e) {
+            System.out.println("Connection to [" + mTargetAddress + "] failed. [" + e.getMessage() + "]");
+            closeConnection(connection);
+            return;
+        }
+        mConnectionCount++;
+        mOpenConnectionCount++;
+        updateInterestOps(connection);
+    }
+
+    private void handleKey(ProxyConnection connection, SelectionKey key) throws IOException {
+        boolean isClient = (key == connection.mClientKey);
+        if ( !isClient && key.isConnectable() ) {
+            connection.mServerChannel.finishConnect();
+            connection.mServerConnected = true;
+        }
+        if ( key.isValid() && key.isReadable() ) {
+            if ( isClient ) {
+                connection.mClientInputClosed = relayRead(connection.mClientChannel, connection.mRequestBuffer, connection.mRequestRecorder);
+            } else {
+                connection.mServerInputClosed = relayRead(connection.mServerChannel, connection.mResponseBuffer, connection.mResponseRecorder);
+            }
+        }
+        // The bytes just read are written at once, only a slow peer leaves them for OP_WRITE
+        if ( connection.mServerConnected ) {
+            relayWrite(connection.mServerChannel, connection.mRequestBuffer, connection.mClientInputClosed);
+        }
+        relayWrite(connection.mClientChannel, connection.mResponseBuffer, connection.mServerInputClosed);
+
+        if ( connection.mClientInputClosed && connection.mServerInputClosed
+                && connection.mRequestBuffer.position() == 0 && connection.mResponseBuffer.position() == 0 ) {
+            closeConnection(connection);
+        } else {
+            updateInterestOps(connection);
+        }
+    }
+
+    /**
+     * Reads the available bytes into the relay buffer and passes them to the recorder.
+     *
+     * @return true if the input has been closed by the peer
+     */
+    private boolean relayRead(SocketChannel channel, ByteBuffer buffer, HttpMessageRecorder recorder) throws IOException {
+        int readStart = buffer.position();
+        int count = channel.read(buffer);
+        if ( count < 0 ) {
+            recorder.endOfStream();
+            return true;
+        }
+        if ( count > 0 ) {
+            mBytesRelayed += count;
+            recorder.record(buffer.array(), buffer.arrayOffset() + readStart, count);
+        }
+        return false;
+    }
+
+    private void relayWrite(SocketChannel channel, ByteBuffer buffer, boolean inputClosed) throws IOException {
+        if ( buffer.position() > 0 ) {
+            buffer.flip();
+            channel.write(buffer);
+            buffer.compact();
+        }
+        if ( inputClosed && buffer.position() == 0 && channel.isOpen() && !channel.socket().isOutputShutdown() ) {
+            channel.shutdownOutput();
+        }
+    }
+
+    private void updateInterestOps(ProxyConnection connection) {
+        if ( connection.mClosed ) {
+            return;
+        }
+        // A full buffer stops reading from the peer until the other side has taken the bytes
+        int clientOps = 0;
+        if ( !connection.mClientInputClosed && connection.mRequestBuffer.hasRemaining() ) {
+            clientOps |= SelectionKey.OP_READ;
+        }
+        if ( connection.mResponseBuffer.position() > 0 ) {
+            clientOps |= SelectionKey.OP_WRITE;
+        }
+        int serverOps;
+        if ( !connection.mServerConnected ) {
+            serverOps = SelectionKey.OP_CONNECT;
+        } else {
+            serverOps = 0;
+            if ( !connection.mServerInputClosed && connection.mResponseBuffer.hasRemaining() ) {
+                serverOps |= SelectionKey.OP_READ;
+            }
+            if ( connection.mRequestBuffer.position() > 0 ) {
+                serverOps |= SelectionKey.OP_WRITE;
+            }
+        }
+        connection.mClientKey.interestOps(clientOps);
+        connection.mServerKey.interestOps(serverOps);
+    }
+
+    private void closeConnection(ProxyConnection connection) {
+        if ( connection.mClosed ) {
+            return;
+        }
+        connection.mClosed = true;
+        if ( connection.mClientKey != null ) {
+            mOpenConnectionCount--;
+        }
+        closeQuietly(connection.mClientChannel);
+        closeQuietly(connection.mServerChannel);
+    }
+
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        if ( channel != null ) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Frames the HTTP messages of one direction of a connection from the relayed bytes.  Each complete
+     * message with a SOAP Envelope in its body is passed to the listener.  A direction whose bytes cannot
+     * be framed (e.g. a header larger than 64K) is no longer recorded, the bytes are still relayed.
+     */
+    class HttpMessageRecorder {
+        private static final int STATE_HEADER = 0;
+        private static final int STATE_BODY = 1;
+        private static final int STATE_CHUNK_SIZE = 2;
+        private static final int STATE_CHUNK_DATA = 3;
+        private static final int STATE_CHUNK_END = 4;
+        private static final int STATE_TRAILER = 5;
+        private static final int STATE_UNTIL_CLOSE = 6;
+        private static final int STATE_NOT_RECORDED = 7;
+
+        private boolean mIsRequest;
+        private int mConnectionIndex = -1;
+        private int mState = STATE_HEADER;
+        private ByteArrayOutputStream mHeader = new ByteArrayOutputStream();
+        private ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+        private ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+        private boolean mBodyTooLarge = false;
+        private long mRemaining = 0;
+
+        private long mContentLength = -1;
+        private boolean mChunked = false;
+        private String mCharsetName = null;
+        private String mContentEncoding = null;
+
+        HttpMessageRecorder(boolean isRequest) {
+            mIsRequest = isRequest;
+        }
+
+        void record(byte[] bytes, int offset, int length) {
+            int index = offset;
+            int end = offset + length;
+            while ( index < end && mState != STATE_NOT_RECORDED ) {
+                if ( mState == STATE_BODY || mState == STATE_CHUNK_DATA || mState == STATE_UNTIL_CLOSE ) {
+                    int count = (mState == STATE_UNTIL_CLOSE ? end - index : (int) Math.min(end - index, mRemaining));
+                    appendBody(bytes, index, count);
+                    index += count;
+                    mRemaining -= count;
+                    if ( mRemaining == 0 && mState == STATE_BODY ) {
+                        messageCompleted();
+                    } else if ( mRemaining == 0 && mState == STATE_CHUNK_DATA ) {
+                        mState = STATE_CHUNK_END;
+                    }
+                    continue;
+                }
+                byte b = bytes[index++];
+                if ( mState == STATE_HEADER ) {
+                    mHeader.write(b);
+                }
+                if ( b != '\n' ) {
+                    mLine.write(b);
+                    if ( mLine.size() > (mState == STATE_HEADER ? MAX_HEADER_LENGTH : MAX_CHUNK_LINE_LENGTH) ) {
+                        stopRecording();
+                    }
+                    continue;
+                }
+                String line = mLine.toString().trim();
+                mLine.reset();
+                lineCompleted(line);
+                if ( mState == STATE_HEADER && mHeader.size() > MAX_HEADER_LENGTH ) {
+                    stopRecording();
+                }
+            }
+        }
+
+        void endOfStream() {
+            if ( mState == STATE_UNTIL_CLOSE ) {
+                messageCompleted();
+            }
+            mState = STATE_NOT_RECORDED;
+        }
+
+        private void lineCompleted(String line) {
+            switch ( mState ) {
+                case STATE_HEADER:
+                    if ( line.length() > 0 ) {
+                        parseHeaderLine(line);
+                    } else if ( mHeader.size() <= 2 ) {
+                        // Empty line between two messages
+                        mHeader.reset();
+                    } else {
+                        headerCompleted();
+                    }
+                    break;
+                case STATE_CHUNK_SIZE:
+                    int sizeEnd = 0;
+                    while ( sizeEnd < line.length() && Character.digit(line.charAt(sizeEnd), 16) >= 0 ) {
+                        sizeEnd++;
+                    }
+                    if ( sizeEnd == 0 || sizeEnd > 8 ) {
+                        stopRecording();
+                    } else {
+                        mRemaining = Long.parseLong(line.substring(0, sizeEnd), 16);
+                        mState = (mRemaining == 0 ? STATE_TRAILER : STATE_CHUNK_DATA);
+                    }
+                    break;
+                case STATE_CHUNK_END:
+                    mState = STATE_CHUNK_SIZE;
+                    break;
+                case STATE_TRAILER:
+                    if ( line.length() == 0 ) {
+                        messageCompleted();
+                    }
+                    break;
+            }
+        }
+
+        private void parseHeaderLine(String line) {
+            String lowerLine = line.toLowerCase(Locale.ENGLISH);
+            if ( lowerLine.startsWith("content-length:") ) {
+                try {
+                    mContentLength = Long.parseLong(line.substring("content-length:".length()).trim());
+                } catch (NumberFormatException e) {
+                    mContentLength = -1;
+                }
+            } else if ( lowerLine.startsWith("transfer-encoding:") ) {
+                mChunked = lowerLine.endsWith("chunked");
+            } else if ( lowerLine.startsWith("content-encoding:") ) {
+                mContentEncoding = lowerLine.substring("content-encoding:".length()).trim();
+            } else if ( lowerLine.startsWith("content-type:") ) {
+                int charsetPos = lowerLine.indexOf("charset=");
+                if ( charsetPos > 0 ) {
+                    String charsetName = line.substring(charsetPos + "charset=".length()).trim();
+                    int endPos = charsetName.indexOf(';');
+                    mCharsetName = (endPos >= 0 ? charsetName.substring(0, endPos) : charsetName).replace("\"", "").trim();
+                }
+            }
+        }
+
+        private void headerCompleted() {
+            boolean hasNoBody = false;
+            if ( !mIsRequest ) {
+                // Informational (e.g. 100 Continue), 204 and 304 responses have no body
+                String header = mHeader.toString();
+                int statusPos = header.indexOf(' ');
+                String status = (statusPos > 0 && statusPos + 4 <= header.length() ? header.substring(statusPos + 1, statusPos + 4) : "");
+                hasNoBody = status.startsWith("1") || "204".equals(status) || "304".equals(status);
+            }
+            mBody.reset();
+            mBodyTooLarge = false;
+            if ( hasNoBody ) {
+                messageCompleted();
+            } else if ( mChunked ) {
+                mState = STATE_CHUNK_SIZE;
+            } else if ( mContentLength > 0 ) {
+                mRemaining = mContentLength;
+                mState = STATE_BODY;
+            } else if ( mContentLength < 0 && !mIsRequest ) {
+                // A response without framing ends when the server closes the connection
+                mState = STATE_UNTIL_CLOSE;
+            } else {
+                messageCompleted();
+            }
+        }
+
+        private void appendBody(byte[] bytes, int offset, int length) {
+            if ( mBodyTooLarge ) {
+                return;
+            }
+            if ( mBody.size() + length > MAX_RECORDED_BODY_LENGTH ) {
+                System.out.println("Message body larger than " + MAX_RECORDED_BODY_LENGTH + " bytes is not recorded.");
+                mBodyTooLarge = true;
+                mBody.reset();
+                return;
+            }
+            mBody.write(bytes, offset, length);
+        }
+
+        private void messageCompleted() {
+            if ( !mBodyTooLarge && mBody.size() > 0 ) {
+                byte[] headerBytes = mHeader.toByteArray();
+                byte[] bodyBytes = mBody.toByteArray();
+                try {
+                    deliverEnvelope(headerBytes, bodyBytes);
+                } catch (Exception e) {
+                    System.out.println("Recorded message cannot be exploded. [" + e + "]");
+                    e.printStackTrace();
+                }
+            }
+            mHeader.reset();
+            mLine.reset();
+            mBody.reset();
+            mBodyTooLarge = false;
+            mContentLength = -1;
+            mChunked = false;
+            mCharsetName = null;
+            mContentEncoding = null;
+            mState = STATE_HEADER;
+        }
+
+        private void stopRecording() {
+            System.out.println("HTTP " + (mIsRequest ? "requests" : "responses") + " of a connection cannot be framed, they are relayed without recording.");
+            mState = STATE_NOT_RECORDED;
+            mHeader.reset();
+            mLine.reset();
+            mBody.reset();
+        }
+
+        private void deliverEnvelope(byte[] headerBytes, byte[] bodyBytes) throws IOException {
+            if ( "gzip".equals(mContentEncoding) || "x-gzip".equals(mContentEncoding) ) {
+                bodyBytes = readAll(new GZIPInputStream(new ByteArrayInputStream(bodyBytes)));
+            } else if ( "deflate".equals(mContentEncoding) ) {
+                bodyBytes = readAll(new InflaterInputStream(new ByteArrayInputStream(bodyBytes)));
+            }
+            int[] envelopeRange = findEnvelope(bodyBytes);
+            if ( envelopeRange == null ) {
+                return;
+            }
+            Charset charset = DEFAULT_CHARSET;
+            if ( mCharsetName != null ) {
+                try {
+                    charset = Charset.forName(mCharsetName);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Unknown charset [" + mCharsetName + "], the message is decoded as " + DEFAULT_CHARSET);
+                }
+            }
+            // The header without the empty line which ends it
+            int headerLength = headerBytes.length;
+            while ( headerLength > 0 && (headerBytes[headerLength - 1] == '\n' || headerBytes[headerLength - 1] == '\r') ) {
+                headerLength--;
+            }
+            CaptureSlice[] headerSlices = new CaptureSlice[] { new CaptureSlice(0, ByteBuffer.wrap(headerBytes, 0, headerLength).slice(), CaptureSlice.KIND_HEADER_LINES, charset) };
+            CaptureSlice[] envelopeSlices = new CaptureSlice[] { new CaptureSlice(headerBytes.length + envelopeRange[0],
+                    ByteBuffer.wrap(bodyBytes, envelopeRange[0], envelopeRange[1] - envelopeRange[0]).slice(), CaptureSlice.KIND_BODY_LINES, charset) };
+            SoapEnvelopeInfo soapEnvelopeInfo = new SoapEnvelopeInfo(envelopeSlices, headerSlices);
+            soapEnvelopeInfo.setConnectionIndex(mConnectionIndex);
+            soapEnvelopeInfo.setCaptureTimestamp(System.currentTimeMillis());
+            mSoapEnvelopeListener.soapEnvelopeFound(soapEnvelopeInfo);
+        }
+    }
+
+    /**
+     * Finds the SOAP Envelope in a HTTP body : from the start tag (with any namespace prefix) to the end of
+     * the last matching end tag.
+     *
+     * @return { start, end } or null if the body has no envelope
+     */
+    static int[] findEnvelope(byte[] body) {
+        byte[] marker = MappedCaptureScanner.getAsciiBytes("Envelope");
+        int markerPos = indexOf(body, marker, 0);
+        while ( markerPos > 0 ) {
+            byte previousByte = body[markerPos - 1];
+            if ( previousByte == '<' || previousByte == ':' ) {
+                int tagStart = markerPos - 1;
+                while ( tagStart >= 0 && body[tagStart] != '<' && markerPos - tagStart < 256 ) {
+                    tagStart--;
+                }
+                if ( tagStart >= 0 && body[tagStart] == '<' && body[tagStart + 1] != '/' ) {
+                    int namespaceLength = markerPos - tagStart - 1;
+                    byte[] endTag = new byte[2 + namespaceLength + marker.length];
+                    endTag[0] = '<';
+                    endTag[1] = '/';
+                    System.arraycopy(body, tagStart + 1, endTag, 2, namespaceLength);
+                    System.arraycopy(marker, 0, endTag, 2 + namespaceLength, marker.length);
+                    int endTagPos = lastIndexOf(body, endTag);
+                    if ( endTagPos < tagStart ) {
+                        return null;
+                    }
+                    int end = endTagPos + endTag.length;
+                    while ( end < body.length && body[end] != '>' ) {
+                        end++;
+                    }
+                    return (end < body.length ? new int[] { tagStart, end + 1 } : null);
+                }
+            }
+            markerPos = indexOf(body, marker, markerPos + 1);
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int fromIndex) {
+        for ( int index = fromIndex; index <= bytes.length - pattern.length; index++ ) {
+            if ( regionMatches(bytes, index, pattern) ) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte[] pattern) {
+        for ( int index = bytes.length - pattern.length; index >= 0; index-- ) {
+            if ( regionMatches(bytes, index, pattern) ) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(byte[] bytes, int offset, byte[] pattern) {
+        for ( int index = 0; index < pattern.length; index++ ) {
+            if ( bytes[offset + index] != pattern[index] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ( (count = inputStream.read(buffer)) > 0 ) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * TcpMonCaptureGenerator.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Writes synthetic TcpMon capture files with AbaConnect SOAP request/response pairs, so that performance
+ * and regression tests can run without customer captures.
+ * <p/>
+ * The number of Save, Insert, Update, Find and Delete pairs can be specified.  The pairs are mixed in a
+ * round robin order.  With a target size the mix is repeated until the capture file has reached the size,
+ * which allows to create captures from kilobytes up to many gigabytes.  The file is written as a stream,
+ * the memory usage does not depend on the size.
+ * <p/>
+ * The following variations of real captures can be switched on :
+ * <ul>
+ * <li>ExtendedFields blocks in the Data records</li>
+ * <li>different namespace prefixes (<code>soapenv</code>, <code>SOAP-ENV</code>, <code>s</code>, no prefix) per envelope</li>
+ * <li>chunked responses, the chunks split the envelope at arbitrary positions (also within elements),
+ * only the HTTP framing of the {@link MappedCaptureScanner} restores these envelopes</li>
+ * <li>several envelopes per line : the request envelope is followed by further envelopes on the same line,
+ * these envelopes are not counted in the Content-Length, have no HTTP header and are exploded as messages
+ * without type</li>
+ * <li>a large base64 payload in each Save/Insert/Update Data record</li>
+ * <li>a timestamp line with milliseconds in front of each request and response, the latencies depend on
+ * the operation and have a slow tail (see {@link LatencyAnalytics})</li>
+ * </ul>
+ * The envelopes of one message are either written on a single line or with one element per line.
+ * <pre>
+ *    java -cp explode_soap_messages_app.jar ch.abacus.abaconnecttools.TcpMonCaptureGenerator
+ *         -save 1000 -find 500 -extendedFields -prefixVariety -chunked -size 2G capture.tcptxt
+ * </pre>
+ */
+public class TcpMonCaptureGenerator {
+
+    public static final String OPERATION_SAVE = "Save";
+    public static final String OPERATION_INSERT = "Insert";
+    public static final String OPERATION_UPDATE = "Update";
+    public static final String OPERATION_FIND = "Find";
+    public static final String OPERATION_DELETE = "Delete";
+
+    private static final String[] OPERATIONS = { OPERATION_SAVE, OPERATION_INSERT, OPERATION_UPDATE, OPERATION_FIND, OPERATION_DELETE };
+    private static final String[] ENVELOPE_PREFIXES = { "soapenv", "SOAP-ENV", "s", "" };
+    private static final String[] INTERFACE_PREFIXES = { "acc", "ns1", "" };
+    private static final String SOAP_ENVELOPE_NAMESPACE = "http://schemas.xmlsoap.org/soap/envelope/";
+    private static final String INTERFACE_NAMESPACE = "http://www.abacus.ch/abaconnect/2015.00/fibu/Account";
+    private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    // The first chunk must contain the Envelope start tag, which is found on the lines before the body is framed
+    private static final int MIN_CHUNK_LENGTH = 256;
+    private static final int MAX_CHUNK_LENGTH = 8192;
+
+    private String m_LineFeed = "\r\n";
+
+    private int[] mOperationCounts = new int[] { 0, 0, 0, 0, 0 };
+    private int mDataRecordCount = 1;
+    private boolean mExtendedFields = false;
+    private boolean mNamespacePrefixVariety = false;
+    private boolean mChunkedNoise = false;
+    private int mEnvelopesPerLine = 1;
+    private int mBase64PayloadSize = 0;
+    private long mTargetSize = 0;
+    private long mSeed = 1;
+    private boolean mLineTimestamps = false;
+
+    private Random mRandom;
+    private SimpleDateFormat mHttpDateFormat;
+    private SimpleDateFormat mLineTimestampFormat;
+    private Random mLatencyRandom;
+    private long mMessageTime;
+    private String mBase64Payload = "";
+
+    private int mPairCount = 0;
+    private int mEnvelopeCount = 0;
+    private long mBytesWritten = 0;
+
+    /**
+     * Counts the bytes written to the capture file for the target size.
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mBytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mBytesWritten += len;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.exit(runGenerator(args, System.out));
+    }
+
+    static int runGenerator(String[] args, PrintStream out) {
+        TcpMonCaptureGenerator generator = new TcpMonCaptureGenerator();
+        String outputFilename = null;
+        try {
+            for ( int index = 0; index < args.length; index++ ) {
+                String arg = args[index];
+                boolean hasValue = index + 1 < args.length;
+                if ( "-save".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setOperationCount(OPERATION_SAVE, Integer.parseInt(args[++index]));
+                } else if ( "-insert".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setOperationCount(OPERATION_INSERT, Integer.parseInt(args[++index]));
+                } else if ( "-update".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setOperationCount(OPERATION_UPDATE, Integer.parseInt(args[++index]));
+                } else if ( "-find".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setOperationCount(OPERATION_FIND, Integer.parseInt(args[++index]));
+                } else if ( "-delete".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setOperationCount(OPERATION_DELETE, Integer.parseInt(args[++index]));
+                } else if ( "-records".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setDataRecordCount(Integer.parseInt(args[++index]));
+                } else if ( "-extendedFields".equalsIgnoreCase(arg) ) {
+                    generator.setExtendedFields(true);
+                } else if ( "-prefixVariety".equalsIgnoreCase(arg) ) {
+                    generator.setNamespacePrefixVariety(true);
+                } else if ( "-chunked".equalsIgnoreCase(arg) ) {
+                    generator.setChunkedNoise(true);
+                } else if ( "-lineTimestamps".equalsIgnoreCase(arg) ) {
+                    generator.setLineTimestamps(true);
+                } else if ( "-envelopesPerLine".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setEnvelopesPerLine(Integer.parseInt(args[++index]));
+                } else if ( "-base64".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setBase64PayloadSize((int) parseSize(args[++index]));
+                } else if ( "-size".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setTargetSize(parseSize(args[++index]));
+                } else if ( "-seed".equalsIgnoreCase(arg) && hasValue ) {
+                    generator.setSeed(Long.parseLong(args[++index]));
+                } else if ( arg.startsWith("-") ) {
+                    outputFilename = null;
+                    break;
+                } else {
+                    outputFilename = arg;
+                }
+            }
+        } catch (NumberFormatException e) {
+            out.println("Invalid number : " + e.getMessage());
+            outputFilename = null;
+        }
+        if ( outputFilename == null ) {
+            printUsage(out);
+            return 2;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            generator.generate(new File(outputFilename));
+            out.println("Written " + generator.getPairCount() + " request/response pairs with " + generator.getEnvelopeCount()
+                    + " envelopes (" + generator.getBytesWritten() + " bytes) to " + outputFilename
+                    + " in " + (System.currentTimeMillis() - startTime) + " ms.");
+            return 0;
+        } catch (IOException e) {
+            out.println("Capture file [" + outputFilename + "] cannot be written. [" + e.getMessage() + "]");
+            return 1;
+        }
+    }
+
+    private static void printUsage(PrintStream out) {
+        out.println("Usage : TcpMonCaptureGenerator [options] <capture file>");
+        out.println();
+        out.println("Options :");
+        out.println("  -save|-insert|-update|-find|-delete <count>  Number of request/response pairs per operation (default 1 Save)");
+        out.println("  -records <count>         Number of Data records per request (default 1)");
+        out.println("  -extendedFields          Add ExtendedFields blocks to the Data records");
+        out.println("  -prefixVariety           Use different namespace prefixes for the envelopes and interfaces");
+        out.println("  -chunked                 Write chunked responses, the chunks split the envelope at arbitrary positions");
+        out.println("  -envelopesPerLine <n>    Write n envelopes on the request line (the additional envelopes have no header)");
+        out.println("  -lineTimestamps          Write a timestamp line with milliseconds in front of each request and response");
+        out.println("  -base64 <size>           Add a base64 payload of the size (e.g. 512K) to the Save/Insert/Update records");
+        out.println("  -size <size>             Repeat the operations until the capture has the size (e.g. 500M, 20G)");
+        out.println("  -seed <number>           Seed for the random values (default 1)");
+    }
+
+    /**
+     * Parses sizes like <code>1024</code>, <code>64K</code>, <code>500M</code> or <code>20G</code>.
+     */
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        long factor = 1;
+        if ( value.endsWith("K") ) {
+            factor = 1024L;
+        } else if ( value.endsWith("M") ) {
+            factor = 1024L * 1024L;
+        } else if ( value.endsWith("G") ) {
+            factor = 1024L * 1024L * 1024L;
+        }
+        if ( factor > 1 ) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * factor;
+    }
+
+    /**
+     * @param operation one of Save, Insert, Update, Find or Delete
+     * @param count the number of request/response pairs of the operation
+     */
+    public void setOperationCount(String operation, int count) {
+        for ( int index = 0; index < OPERATIONS.length; index++ ) {
+            if ( OPERATIONS[index].equalsIgnoreCase(operation) ) {
+                mOperationCounts[index] = Math.max(0, count);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation : " + operation);
+    }
+
+    public void setDataRecordCount(int dataRecordCount) {
+        mDataRecordCount = Math.max(1, dataRecordCount);
+    }
+
+    public void setExtendedFields(boolean extendedFields) {
+        mExtendedFields = extendedFields;
+    }
+
+    public void setNamespacePrefixVariety(boolean namespacePrefixVariety) {
+        mNamespacePrefixVariety = namespacePrefixVariety;
+    }
+
+    public void setChunkedNoise(boolean chunkedNoise) {
+        mChunkedNoise = chunkedNoise;
+    }
+
+    public void setEnvelopesPerLine(int envelopesPerLine) {
+        mEnvelopesPerLine = Math.max(1, envelopesPerLine);
+    }
+
+    public void setBase64PayloadSize(int base64PayloadSize) {
+        mBase64PayloadSize = Math.max(0, base64PayloadSize);
+    }
+
+    /**
+     * @param targetSize the minimum size of the capture file in bytes, 0 to write the operation counts once
+     */
+    public void setTargetSize(long targetSize) {
+        mTargetSize = Math.max(0, targetSize);
+    }
+
+    public void setLineTimestamps(boolean lineTimestamps) {
+        mLineTimestamps = lineTimestamps;
+    }
+
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * @return the number of request/response pairs written by the last {@link #generate(File)}
+     */
+    public int getPairCount() {
+        return mPairCount;
+    }
+
+    /**
+     * @return the number of SOAP envelopes written by the last {@link #generate(File)}, this is the number
+     * of envelopes found by {@link TcpMonMessageExploder#explodeTcpMonFile(String)}
+     */
+    public int getEnvelopeCount() {
+        return mEnvelopeCount;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public void generate(File captureFile) throws IOException {
+        OutputStream outputStream = new FileOutputStream(captureFile);
+        try {
+            generate(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Writes the capture to the stream.  The stream is flushed but not closed.
+     */
+    public void generate(OutputStream outputStream) throws IOException {
+        mRandom = new Random(mSeed);
+        mHttpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        mHttpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        mMessageTime = 1440768000000L;   // Fri, 28 Aug 2015 13:20:00 GMT
+        mLineTimestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        // The latencies do not change the random values of the messages
+        mLatencyRandom = new Random(mSeed + 1);
+        mBase64Payload = createBase64Payload(mBase64PayloadSize);
+        mPairCount = 0;
+        mEnvelopeCount = 0;
+        mBytesWritten = 0;
+
+        int[] operationCounts = mOperationCounts.clone();
+        int totalCount = 0;
+        for ( int count : operationCounts ) {
+            totalCount += count;
+        }
+        if ( totalCount == 0 ) {
+            operationCounts[0] = 1;
+            totalCount = 1;
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new CountingOutputStream(outputStream), "UTF-8"), 64 * 1024);
+        do {
+            int[] remainingCounts = operationCounts.clone();
+            int remainingTotal = totalCount;
+            while ( remainingTotal > 0 ) {
+                // Round robin over the operations which still have pairs to write
+                for ( int index = 0; index < OPERATIONS.length; index++ ) {
+                    if ( remainingCounts[index] > 0 ) {
+                        remainingCounts[index]--;
+                        remainingTotal--;
+                        writePair(writer, OPERATIONS[index]);
+                    }
+                }
+                if ( mTargetSize > 0 ) {
+                    writer.flush();
+                    if ( mBytesWritten >= mTargetSize ) break;
+                }
+            }
+            writer.flush();
+        } while ( mBytesWritten < mTargetSize );
+    }
+
+    private void writePair(Writer writer, String operation) throws IOException {
+        mPairCount++;
+        int pairIndex = mPairCount;
+        String envelopePrefix = (mNamespacePrefixVariety ? ENVELOPE_PREFIXES[mRandom.nextInt(ENVELOPE_PREFIXES.length)] : "soapenv");
+        String interfacePrefix = (mNamespacePrefixVariety ? INTERFACE_PREFIXES[mRandom.nextInt(INTERFACE_PREFIXES.length)] : "acc");
+        boolean multiLine = mRandom.nextInt(3) == 0;
+
+        String requestEnvelope = createEnvelope(envelopePrefix, createRequestBody(operation, interfacePrefix, pairIndex));
+        String responseEnvelope = createEnvelope(envelopePrefix, createResponseBody(operation, interfacePrefix, pairIndex));
+
+        StringBuilder sbRequestLine = new StringBuilder(requestEnvelope);
+        mEnvelopeCount++;
+        for ( int index = 1; index < mEnvelopesPerLine; index++ ) {
+            // Further envelopes on the same line must use the same envelope prefix and be separated by a blank
+            sbRequestLine.append(' ');
+            sbRequestLine.append(createEnvelope(envelopePrefix, createRequestBody(OPERATION_FIND, interfacePrefix, pairIndex)));
+            mEnvelopeCount++;
+        }
+        if ( mEnvelopesPerLine > 1 ) {
+            sbRequestLine.append(' ');
+        }
+        String requestText = (multiLine && mEnvelopesPerLine == 1 ? toMultiLine(requestEnvelope) : requestEnvelope);
+
+        writeLine(writer, "==============");
+        writeLine(writer, "Listen Port: 8080");
+        writeLine(writer, "Target Host: abaconnect.example.com");
+        writeLine(writer, "Target Port: 40000");
+        writeLine(writer, "==== Request ====");
+        long requestTime = mMessageTime;
+        if ( mLineTimestamps ) {
+            writeLine(writer, mLineTimestampFormat.format(new Date(requestTime)));
+        }
+        writeLine(writer, "POST /abaconnect/services/Account_2015_00 HTTP/1.1");
+        writeLine(writer, "Content-Type: text/xml; charset=UTF-8");
+        writeLine(writer, "SOAPAction: \"\"");
+        writeLine(writer, "Host: abaconnect.example.com:40000");
+        writeLine(writer, "Content-Length: " + getUtf8Length(requestText));
+        writeLine(writer, "");
+        if ( mEnvelopesPerLine > 1 ) {
+            // The further envelopes follow the request body on the same line
+            writeLine(writer, sbRequestLine.toString());
+        } else {
+            writeLine(writer, requestText);
+        }
+        writeLine(writer, "==== Response ====");
+        if ( mLineTimestamps ) {
+            writeLine(writer, mLineTimestampFormat.format(new Date(requestTime + createLatency(operation))));
+        }
+        writeLine(writer, "HTTP/1.1 200 OK");
+        mMessageTime += 1000 + mRandom.nextInt(2000);
+        writeLine(writer, "Date: " + mHttpDateFormat.format(new Date(mMessageTime)));
+        writeLine(writer, "Content-Type: text/xml;charset=UTF-8");
+        if ( mChunkedNoise ) {
+            writeLine(writer, "Transfer-Encoding: chunked");
+            writeLine(writer, "");
+            writeChunked(writer, toMultiLine(responseEnvelope));
+        } else {
+            String responseText = (multiLine ? toMultiLine(responseEnvelope) : responseEnvelope);
+            writeLine(writer, "Content-Length: " + getUtf8Length(responseText));
+            writeLine(writer, "");
+            writeLine(writer, responseText);
+        }
+        mEnvelopeCount++;
+        writeLine(writer, "==============");
+    }
+
+    /**
+     * @return a latency in milliseconds, Find is the fastest operation and one request in 100 is slow
+     */
+    private long createLatency(String operation) {
+        long baseLatency = (OPERATION_FIND.equals(operation) ? 5 : 40);
+        if ( mLatencyRandom.nextInt(100) == 0 ) {
+            return baseLatency + 500 + mLatencyRandom.nextInt(1500);
+        }
+        return baseLatency + mLatencyRandom.nextInt(OPERATION_FIND.equals(operation) ? 20 : 120);
+    }
+
+    /**
+     * Writes the text in chunks, each chunk is preceded by its size in hex as it is shown by TcpMon.
+     * The chunks are split at random character positions, the size is the UTF-8 length of the chunk.
+     */
+    private void writeChunked(Writer writer, String text) throws IOException {
+        int chunkStart = 0;
+        while ( chunkStart < text.length() ) {
+            int chunkEnd = Math.min(text.length(), chunkStart + MIN_CHUNK_LENGTH + mRandom.nextInt(MAX_CHUNK_LENGTH - MIN_CHUNK_LENGTH));
+            if ( chunkEnd < text.length() && Character.isHighSurrogate(text.charAt(chunkEnd - 1)) ) {
+                chunkEnd++;
+            }
+            String chunk = text.substring(chunkStart, chunkEnd);
+            writeLine(writer, Integer.toHexString(getUtf8Length(chunk)));
+            writeLine(writer, chunk);
+            chunkStart = chunkEnd;
+        }
+        writeLine(writer, "0");
+        writeLine(writer, "");
+    }
+
+    private void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write(m_LineFeed);
+    }
+
+    private String toMultiLine(String envelope) {
+        return envelope.replace("><", ">" + m_LineFeed + "<");
+    }
+
+    private String createEnvelope(String prefix, String body) {
+        String tagPrefix = ("".equals(prefix) ? "" : prefix + ":");
+        String namespaceAttribute = ("".equals(prefix) ? "xmlns" : "xmlns:" + prefix);
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<" + tagPrefix + "Envelope " + namespaceAttribute + "=\"" + SOAP_ENVELOPE_NAMESPACE + "\">" +
+                "<" + tagPrefix + "Header/>" +
+                "<" + tagPrefix + "Body>" + body + "</" + tagPrefix + "Body>" +
+                "</" + tagPrefix + "Envelope>";
+    }
+
+    private String createRequestBody(String operation, String prefix, int pairIndex) {
+        String tagPrefix = ("".equals(prefix) ? "" : prefix + ":");
+        String namespaceAttribute = ("".equals(prefix) ? "xmlns" : "xmlns:" + prefix);
+        StringBuilder sbBody = new StringBuilder();
+        sbBody.append("<").append(tagPrefix).append(operation).append("Request ");
+        sbBody.append(namespaceAttribute).append("=\"").append(INTERFACE_NAMESPACE).append("\" ");
+        sbBody.append("xmlns:aba=\"").append(INTERFACE_NAMESPACE).append("Types\">");
+        sbBody.append("<").append(tagPrefix).append("Parameter>");
+        sbBody.append("<").append(tagPrefix).append("Mandant>7777</").append(tagPrefix).append("Mandant>");
+        sbBody.append("</").append(tagPrefix).append("Parameter>");
+        if ( OPERATION_FIND.equals(operation) || OPERATION_DELETE.equals(operation) ) {
+            sbBody.append("<").append(tagPrefix).append("Key>");
+            appendElement(sbBody, tagPrefix, "AccountNumber", String.valueOf(1000 + mRandom.nextInt(9000)));
+            sbBody.append("</").append(tagPrefix).append("Key>");
+        } else {
+            for ( int index = 0; index < mDataRecordCount; index++ ) {
+                appendDataRecord(sbBody, tagPrefix, operation.toUpperCase(), (pairIndex * 100) + index, true);
+            }
+        }
+        sbBody.append("</").append(tagPrefix).append(operation).append("Request>");
+        return sbBody.toString();
+    }
+
+    private String createResponseBody(String operation, String prefix, int pairIndex) {
+        String tagPrefix = ("".equals(prefix) ? "" : prefix + ":");
+        String namespaceAttribute = ("".equals(prefix) ? "xmlns" : "xmlns:" + prefix);
+        StringBuilder sbBody = new StringBuilder();
+        sbBody.append("<").append(tagPrefix).append(operation).append("Response ");
+        sbBody.append(namespaceAttribute).append("=\"").append(INTERFACE_NAMESPACE).append("\" ");
+        sbBody.append("xmlns:aba=\"").append(INTERFACE_NAMESPACE).append("Types\">");
+        if ( OPERATION_FIND.equals(operation) ) {
+            appendDataRecord(sbBody, tagPrefix, "", pairIndex, false);
+        } else {
+            appendElement(sbBody, tagPrefix, "Result", "OK " + pairIndex);
+        }
+        sbBody.append("</").append(tagPrefix).append(operation).append("Response>");
+        return sbBody.toString();
+    }
+
+    private void appendDataRecord(StringBuilder sbBody, String tagPrefix, String mode, int recordIndex, boolean withPayload) {
+        sbBody.append("<").append(tagPrefix).append("Data");
+        if ( !"".equals(mode) ) {
+            sbBody.append(" mode=\"").append(mode).append("\"");
+        }
+        sbBody.append(">");
+        appendElement(sbBody, tagPrefix, "AccountNumber", String.valueOf(1000 + recordIndex));
+        appendElement(sbBody, tagPrefix, "Text", "Account &amp; Co " + Integer.toString(mRandom.nextInt(100000), 36));
+        appendElement(sbBody, tagPrefix, "Currency", (mRandom.nextBoolean() ? "CHF" : "EUR"));
+        appendElement(sbBody, tagPrefix, "Balance", String.valueOf(mRandom.nextInt(1000000) / 100.0));
+        if ( withPayload && mBase64Payload.length() > 0 ) {
+            // The payload is written on one line, short wrapped lines would be dropped as chunk lines
+            appendElement(sbBody, tagPrefix, "Document", mBase64Payload);
+        }
+        if ( mExtendedFields ) {
+            sbBody.append("<").append(tagPrefix).append("ExtendedFields>");
+            int fieldCount = 1 + mRandom.nextInt(3);
+            for ( int index = 1; index <= fieldCount; index++ ) {
+                sbBody.append("<aba:ExtendedField Name=\"UserField").append(index).append("\">");
+                sbBody.append("Value ").append(mRandom.nextInt(1000));
+                sbBody.append("</aba:ExtendedField>");
+            }
+            sbBody.append("</").append(tagPrefix).append("ExtendedFields>");
+        }
+        sbBody.append("</").append(tagPrefix).append("Data>");
+    }
+
+    private void appendElement(StringBuilder sbBody, String tagPrefix, String name, String value) {
+        sbBody.append("<").append(tagPrefix).append(name).append(">");
+        sbBody.append(value);
+        sbBody.append("</").append(tagPrefix).append(name).append(">");
+    }
+
+    private String createBase64Payload(int size) {
+        if ( size <= 0 ) return "";
+        char[] payload = new char[((size + 2) / 3) * 4];
+        for ( int index = 0; index < payload.length; index++ ) {
+            payload[index] = BASE64_CHARS[mRandom.nextInt(BASE64_CHARS.length)];
+        }
+        return new String(payload);
+    }
+
+    private int getUtf8Length(String text) {
+        try {
+            return text.getBytes("UTF-8").length;
+        } catch (UnsupportedEncodingException e) {
+            return text.length();
+        }
+    }
+}
@@ -0,0 +1,1045 @@
+/*
+ * TcpMonMessageExploder.java
+ *
+ * Creator:
+ * 21.12.11 08:26 Sippel
+ *
+ * Maintainer:
+ * 21.12.11 08:26 Sippel
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts the SOAP Envelopes from a TcpMon capture file and writes them as single XML files.
+ * <p/>
+ * This class contains no UI code so that it can be used both from the {@link ExplodeTcpMonMessages}
+ * frame and from the headless {@link ExplodeTcpMonBatch} command-line mode.  An instance holds the
+ * envelopes of one capture file and must not be shared between threads.
+ */
+public class TcpMonMessageExploder {
+
+    // Starts the requests of each connection section of a TcpMon capture
+    static final String CONNECTION_REQUEST_MARKER = "==== Request ====";
+    // Finds the further envelopes in the line of an envelope end tag
+    static final XmlElementExtractor ENVELOPE_EXTRACTOR = new XmlElementExtractor("Envelope");
+
+    private String m_FilenamePrefix = "SM_";
+    private String m_LineFeed = "\r\n";
+
+    private boolean mReformatSoapMessages = true;
+    private boolean mRemoveNamespaces = false;
+    private boolean mOutputSoapHeaders = false;
+    private boolean mConvertExtendedFieldsToXmlFormat = false;
+
+    public StringBuilder m_sbMessages = new StringBuilder();
+    public ArrayList<SoapEnvelopeInfo> m_SoapEnvelopeList = new ArrayList<SoapEnvelopeInfo>();
+
+    private ArrayList<String> mXmlProblemFileNameMessages = new ArrayList<String>();
+
+    private boolean mStreamingMode = false;
+    private boolean mUseMappedScanner = true;
+    private boolean mUseCaptureIndex = true;
+    private boolean mCaptureIndexUsed = false;
+    private int mFormatThreadCount = Runtime.getRuntime().availableProcessors();
+    private int mOutputThreadCount = 2;
+    private int mOutputSyncPolicy = AsyncFileWriter.SYNC_NONE;
+    private int mOutputArchiveFormat = ArchiveFileWriter.FORMAT_NONE;
+    private int mOutputCompressionLevel = -1;
+    private int mMaxImportTransactionsPerFile = 0;
+    private long mFollowPollMillis = 50;
+    private boolean mCreateLatencyReport = false;
+    private boolean mDeduplicateMessages = false;
+    private String mLatencyReport = "";
+    private String mCaptureName = "";
+    private volatile int m_OutputMessageCount = 0;
+
+    // Progress and cancel state, read by other threads (e.g. the progress display of the UI)
+    private volatile boolean mCancelled = false;
+    private volatile long mCaptureFileSize = 0;
+    private volatile long mBytesScanned = 0;
+    private volatile int mFoundMessageCount = 0;
+    private volatile MappedCaptureScanner mActiveScanner = null;
+    // The progress of a compressed capture are the compressed bytes read, see scanCompressedCapture()
+    private volatile boolean mScanningCompressedCapture = false;
+    private volatile SoapRecordingProxy mActiveProxy = null;
+    // The lines of the last scan, see ExplodeStatistics
+    private long mLinesScanned = 0;
+
+    /**
+     * Numbers the messages by their request/response pair in the order of arrival and passes them to the
+     * output writer, see {@link #explodeAndOutputSoapMessagesStreaming(String, String)}.
+     */
+    private class StreamingOutputListener implements SoapEnvelopeListener {
+        private SoapMessageOutputWriter mOutputWriter;
+        private SoapMessageCorrelator mCorrelator = new SoapMessageCorrelator();
+        private String mOutputDirectory;
+        private LatencyAnalytics mLatencyAnalytics;
+
+        StreamingOutputListener(String outputDirectory, String captureName) {
+            mOutputWriter = new SoapMessageOutputWriter(TcpMonMessageExploder.this, outputDirectory);
+            mOutputDirectory = outputDirectory;
+            mLatencyAnalytics = createLatencyAnalytics(captureName);
+        }
+
+        public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+            if ( !soapEnvelopeInfo.isRequestMessage() && !soapEnvelopeInfo.isResponseMessage() ) {
+                System.out.println("NO Message Type for " + soapEnvelopeInfo.getSoapBodyName() + " possible.");
+            }
+            int orderIndex = mCorrelator.correlate(soapEnvelopeInfo);
+            soapEnvelopeInfo.setOrderIndex(orderIndex);
+            if ( mLatencyAnalytics != null ) {
+                mLatencyAnalytics.addMessage(soapEnvelopeInfo);
+            }
+            if ( mOutputWriter.writeSoapMessage(soapEnvelopeInfo, orderIndex) ) {
+                m_OutputMessageCount++;
+            }
+        }
+
+        void flush() {
+            mOutputWriter.flush();
+            // The report of a followed capture or the proxy is kept up to date
+            writeLatencyReport(mLatencyAnalytics, mOutputDirectory, false);
+        }
+
+        void close() {
+            mOutputWriter.close();
+            if ( !mCancelled ) {
+                addOrphanMessages(mCorrelator);
+            }
+            writeLatencyReport(mLatencyAnalytics, mOutputDirectory, true);
+        }
+    }
+
+    /**
+     * Counts the envelopes found in the capture and the time of the listener, which is not part of the scan
+     * time of the {@link ExplodeStatistics}.
+     */
+    private class CountingListener implements SoapEnvelopeListener {
+        private SoapEnvelopeListener mListener;
+        private long mListenerNanos = 0;
+
+        CountingListener(SoapEnvelopeListener listener) {
+            mListener = listener;
+        }
+
+        public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+            mFoundMessageCount++;
+            ExplodeStatistics.getInstance().addFoundEnvelope(soapEnvelopeInfo);
+            long startTime = System.nanoTime();
+            mListener.soapEnvelopeFound(soapEnvelopeInfo);
+            mListenerNanos += System.nanoTime() - startTime;
+        }
+
+        /**
+         * @return the time of the listener since the last call
+         */
+        long takeListenerNanos() {
+            long listenerNanos = mListenerNanos;
+            mListenerNanos = 0;
+            return listenerNanos;
+        }
+    }
+
+    /**
+     * Counts the bytes read from the capture file for the progress of the line based scanner.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+        ProgressInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if ( value >= 0 ) {
+                mBytesScanned++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if ( count > 0 ) {
+                mBytesScanned += count;
+            }
+            return count;
+        }
+    }
+
+    public String getFilenamePrefix() {
+        return m_FilenamePrefix;
+    }
+
+    public void setFilenamePrefix(String filenamePrefix) {
+        m_FilenamePrefix = (filenamePrefix == null || "".equals(filenamePrefix) ? "SM_" : filenamePrefix);
+    }
+
+    public boolean isReformatSoapMessages() {
+        return mReformatSoapMessages;
+    }
+
+    public void setReformatSoapMessages(boolean reformatSoapMessages) {
+        mReformatSoapMessages = reformatSoapMessages;
+    }
+
+    public boolean isRemoveNamespaces() {
+        return mRemoveNamespaces;
+    }
+
+    public void setRemoveNamespaces(boolean removeNamespaces) {
+        mRemoveNamespaces = removeNamespaces;
+    }
+
+    public boolean isOutputSoapHeaders() {
+        return mOutputSoapHeaders;
+    }
+
+    public void setOutputSoapHeaders(boolean outputSoapHeaders) {
+        mOutputSoapHeaders = outputSoapHeaders;
+    }
+
+    public boolean isConvertExtendedFieldsToXmlFormat() {
+        return mConvertExtendedFieldsToXmlFormat;
+    }
+
+    public void setConvertExtendedFieldsToXmlFormat(boolean convertExtendedFieldsToXmlFormat) {
+        mConvertExtendedFieldsToXmlFormat = convertExtendedFieldsToXmlFormat;
+    }
+
+    public boolean isStreamingMode() {
+        return mStreamingMode;
+    }
+
+    /**
+     * In streaming mode each SOAP Envelope is reformatted and written as soon as it has been read from
+     * the capture file, so that the memory usage is bounded by the largest single message and not by
+     * the size of the capture file.  The envelopes are not collected in {@link #getSoapEnvelopeList()}.
+     *
+     * @param streamingMode true to write the messages while the capture file is scanned
+     */
+    public void setStreamingMode(boolean streamingMode) {
+        mStreamingMode = streamingMode;
+    }
+
+    public boolean isUseMappedScanner() {
+        return mUseMappedScanner;
+    }
+
+    /**
+     * Selects the scanner for capture files.  The memory-mapped scanner (default) searches the markers
+     * directly in the bytes of the file and frames the HTTP bodies by their Content-Length or chunked
+     * Transfer-Encoding, the line based scanner decodes every line and relies on the line heuristics.
+     *
+     * @param useMappedScanner true to use the {@link MappedCaptureScanner}
+     */
+    public void setUseMappedScanner(boolean useMappedScanner) {
+        mUseMappedScanner = useMappedScanner;
+    }
+
+    public boolean isUseCaptureIndex() {
+        return mUseCaptureIndex;
+    }
+
+    /**
+     * Selects whether the {@link CaptureIndex} of a capture file is used.  The index is written by the
+     * memory-mapped scanner next to the capture file, a later explode of the same capture file reads the
+     * messages from the index instead of scanning the capture file again.
+     *
+     * @param useCaptureIndex true to read and write the capture index
+     */
+    public void setUseCaptureIndex(boolean useCaptureIndex) {
+        mUseCaptureIndex = useCaptureIndex;
+    }
+
+    /**
+     * @return true if the messages of the last explode were read from the capture index
+     */
+    public boolean isCaptureIndexUsed() {
+        return mCaptureIndexUsed;
+    }
+
+    public int getFormatThreadCount() {
+        return mFormatThreadCount;
+    }
+
+    /**
+     * Sets the number of threads which reformat and write the single SOAP messages.  The output is the
+     * same for any number of threads.
+     *
+     * @param formatThreadCount the number of threads, 1 to reformat on the calling thread
+     */
+    public void setFormatThreadCount(int formatThreadCount) {
+        mFormatThreadCount = Math.max(1, formatThreadCount);
+    }
+
+    public int getOutputThreadCount() {
+        return mOutputThreadCount;
+    }
+
+    /**
+     * Sets the number of I/O threads which write the output files of an explode, see {@link AsyncFileWriter}.
+     *
+     * @param outputThreadCount the number of threads
+     */
+    public void setOutputThreadCount(int outputThreadCount) {
+        mOutputThreadCount = Math.max(1, outputThreadCount);
+    }
+
+    public int getOutputSyncPolicy() {
+        return mOutputSyncPolicy;
+    }
+
+    /**
+     * Selects when the output files are forced to the disk.
+     *
+     * @param outputSyncPolicy {@link AsyncFileWriter#SYNC_NONE} (the default), {@link AsyncFileWriter#SYNC_FILE}
+     *                         or {@link AsyncFileWriter#SYNC_AWAIT}
+     */
+    public void setOutputSyncPolicy(int outputSyncPolicy) {
+        mOutputSyncPolicy = outputSyncPolicy;
+    }
+
+    public int getOutputArchiveFormat() {
+        return mOutputArchiveFormat;
+    }
+
+    /**
+     * Selects whether the output files are written to a single archive in the output directory instead of
+     * single files, see {@link ArchiveFileWriter}.
+     *
+     * @param outputArchiveFormat {@link ArchiveFileWriter#FORMAT_NONE} (the default), {@link ArchiveFileWriter#FORMAT_ZIP},
+     *                            {@link ArchiveFileWriter#FORMAT_TAR} or {@link ArchiveFileWriter#FORMAT_TAR_GZ}
+     */
+    public void setOutputArchiveFormat(int outputArchiveFormat) {
+        mOutputArchiveFormat = outputArchiveFormat;
+    }
+
+    public int getOutputCompressionLevel() {
+        return mOutputCompressionLevel;
+    }
+
+    /**
+     * @param outputCompressionLevel the compression level 0-9 of the output archive, -1 for the default level
+     */
+    public void setOutputCompressionLevel(int outputCompressionLevel) {
+        mOutputCompressionLevel = Math.max(-1, Math.min(9, outputCompressionLevel));
+    }
+
+    public int getMaxImportTransactionsPerFile() {
+        return mMaxImportTransactionsPerFile;
+    }
+
+    /**
+     * Limits the size of the AbaConnect import files, a partition with more transactions is continued in the
+     * next file, see {@link AbaConnectImportWriter}.
+     *
+     * @param maxImportTransactionsPerFile the maximum number of transactions per import file, 0 for no limit (the default)
+     */
+    public void setMaxImportTransactionsPerFile(int maxImportTransactionsPerFile) {
+        mMaxImportTransactionsPerFile = Math.max(0, maxImportTransactionsPerFile);
+    }
+
+    public long getFollowPollMillis() {
+        return mFollowPollMillis;
+    }
+
+    /**
+     * Sets the interval in which a followed capture file is checked for appended bytes, see
+     * {@link #followTcpMonFile(String, String)}.
+     *
+     * @param followPollMillis the interval in milliseconds
+     */
+    public void setFollowPollMillis(long followPollMillis) {
+        mFollowPollMillis = Math.max(1, followPollMillis);
+    }
+
+    public boolean isCreateLatencyReport() {
+        return mCreateLatencyReport;
+    }
+
+    /**
+     * Selects whether the latency of the request/response pairs is analysed per operation.  The report is
+     * written as {@link LatencyAnalytics#LATENCY_REPORT_FILENAME} to the output directory, see
+     * {@link #getLatencyReport()}.
+     *
+     * @param createLatencyReport true to write the latency report
+     */
+    public void setCreateLatencyReport(boolean createLatencyReport) {
+        mCreateLatencyReport = createLatencyReport;
+    }
+
+    public boolean isDeduplicateMessages() {
+        return mDeduplicateMessages;
+    }
+
+    /**
+     * Selects whether identical SOAP messages are only written once.  The duplicates are listed in
+     * {@link SoapMessageDeduplicator#MANIFEST_FILENAME} in the output directory, see {@link SoapMessageDeduplicator}.
+     *
+     * @param deduplicateMessages true to write each distinct envelope once
+     */
+    public void setDeduplicateMessages(boolean deduplicateMessages) {
+        mDeduplicateMessages = deduplicateMessages;
+    }
+
+    /**
+     * @return the latency report of the last explode run, or blank if no report was created
+     */
+    public String getLatencyReport() {
+        return mLatencyReport;
+    }
+
+    /**
+     * @return the number of SOAP messages written by the last explode run, without the duplicates of
+     *         {@link #setDeduplicateMessages(boolean)}
+     */
+    public int getOutputMessageCount() {
+        return m_OutputMessageCount;
+    }
+
+    /**
+     * Requests to stop the running explode.  The scan stops at the next line and the output stops before
+     * the next message, the messages written so far and the AbaConnect import file stay complete.
+     * May be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+        MappedCaptureScanner captureScanner = mActiveScanner;
+        if ( captureScanner != null ) {
+            captureScanner.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return the size of the capture file being exploded
+     */
+    public long getCaptureFileSize() {
+        return mCaptureFileSize;
+    }
+
+    /**
+     * @return the number of bytes of the capture file scanned so far, may be called from any thread
+     */
+    public long getBytesScanned() {
+        MappedCaptureScanner captureScanner = mActiveScanner;
+        SoapRecordingProxy recordingProxy = mActiveProxy;
+        if ( recordingProxy != null ) {
+            return recordingProxy.getBytesRelayed();
+        }
+        return (captureScanner != null && !mScanningCompressedCapture ? captureScanner.getBytesScanned() : mBytesScanned);
+    }
+
+    /**
+     * @return the number of SOAP messages found so far in the capture file, may be called from any thread
+     */
+    public int getFoundMessageCount() {
+        return mFoundMessageCount;
+    }
+
+    public List<SoapEnvelopeInfo> getSoapEnvelopeList() {
+        return m_SoapEnvelopeList;
+    }
+
+    public List<String> getXmlProblemFileNameMessages() {
+        return mXmlProblemFileNameMessages;
+    }
+
+    public String getMessages() {
+        return m_sbMessages.toString();
+    }
+
+    public void explodeTcpMonFile(String tcpMonLogFilename) {
+        m_SoapEnvelopeList.clear();
+        explodeTcpMonFile(tcpMonLogFilename, new SoapEnvelopeListener() {
+            public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+                m_SoapEnvelopeList.add(soapEnvelopeInfo);
+            }
+        });
+    }
+
+    /**
+     * Scans the TcpMon capture file and passes each SOAP Envelope to the listener as soon as
+     * its closing <code>Envelope</code> tag has been read.  No envelopes are kept in memory.
+     * <p/>
+     * A gzip, zip or bzip2 compressed capture file is decompressed while it is scanned, see
+     * {@link CompressedCapture}.  The capture index is not used for compressed captures.
+     *
+     * @param tcpMonLogFilename the TcpMon capture file
+     * @param soapEnvelopeListener receives the envelopes in the order of appearance
+     */
+    public void explodeTcpMonFile(String tcpMonLogFilename, final SoapEnvelopeListener soapEnvelopeListener) {
+        mFoundMessageCount = 0;
+        mBytesScanned = 0;
+        mCaptureIndexUsed = false;
+        File captureFile = new File(tcpMonLogFilename);
+        mCaptureName = captureFile.getName();
+        if ( ! captureFile.exists() ) {
+            addMessage("Specified filename [" + tcpMonLogFilename + "] cannot be found.");
+            return;
+        }
+        mCaptureFileSize = captureFile.length();
+        mLinesScanned = 0;
+        CountingListener countingListener = new CountingListener(soapEnvelopeListener);
+        long startTime = System.nanoTime();
+        try {
+            int compressionFormat = CompressedCapture.getCompressionFormat(captureFile);
+            CaptureIndex captureIndex = (mUseMappedScanner && mUseCaptureIndex && compressionFormat == CompressedCapture.FORMAT_NONE
+                    ? CaptureIndex.read(captureFile, Charset.defaultCharset()) : null);
+            if ( compressionFormat != CompressedCapture.FORMAT_NONE ) {
+                scanCompressedCapture(captureFile, compressionFormat, countingListener);
+            } else if ( captureIndex != null ) {
+                mCaptureIndexUsed = true;
+                readCaptureIndex(captureIndex, countingListener);
+            } else if ( mUseMappedScanner ) {
+                scanCaptureFile(captureFile, countingListener);
+            } else {
+                BufferedReader bufIn = new BufferedReader(new InputStreamReader(new ProgressInputStream(new FileInputStream(captureFile))));
+                try {
+                    scanTcpMonReader(bufIn, countingListener);
+                } finally {
+                    bufIn.close();
+                }
+            }
+        } catch (IOException e) {
+            addMessage("Input-Output Error for filename [" + tcpMonLogFilename + "]. [" + e.getMessage() + "]" );
+            e.printStackTrace();
+        }
+        ExplodeStatistics.getInstance().addScannedCapture(mBytesScanned, mLinesScanned, System.nanoTime() - startTime - countingListener.takeListenerNanos());
+        if ( mCancelled ) {
+            addMessage("Explode was cancelled after " + mFoundMessageCount + " messages.");
+        }
+    }
+
+    /**
+     * Passes the messages of the capture index to the listener, only the bytes of each message are read
+     * from the capture file.
+     */
+    private void readCaptureIndex(CaptureIndex captureIndex, SoapEnvelopeListener soapEnvelopeListener) {
+        for ( int index = 0; index < captureIndex.getEntryCount() && !mCancelled; index++ ) {
+            soapEnvelopeListener.soapEnvelopeFound(captureIndex.createSoapEnvelopeInfo(index));
+            mBytesScanned = Math.max(mBytesScanned, captureIndex.getEndOffset(index));
+        }
+        if ( !mCancelled ) {
+            mBytesScanned = mCaptureFileSize;
+        }
+    }
+
+    /**
+     * Scans the capture file with the memory-mapped scanner and writes the capture index of a complete scan.
+     */
+    private void scanCaptureFile(File captureFile, final SoapEnvelopeListener soapEnvelopeListener) throws IOException {
+        CaptureIndex.IndexWriter indexWriter = null;
+        if ( mUseCaptureIndex ) {
+            try {
+                indexWriter = CaptureIndex.createIndexWriter(captureFile, Charset.defaultCharset());
+            } catch (IOException e) {
+                // E.g. a read-only capture directory, the capture is exploded without index
+                System.out.println("Capture index for [" + captureFile + "] cannot be created. [" + e.getMessage() + "]");
+            }
+        }
+        final CaptureIndex.IndexWriter envelopeIndexWriter = indexWriter;
+        MappedCaptureScanner captureScanner = new MappedCaptureScanner(captureFile);
+        mActiveScanner = captureScanner;
+        boolean scanCompleted = false;
+        try {
+            if ( !mCancelled ) {
+                captureScanner.scan(envelopeIndexWriter == null ? soapEnvelopeListener : new SoapEnvelopeListener() {
+                    public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+                        envelopeIndexWriter.soapEnvelopeFound(soapEnvelopeInfo);
+                        soapEnvelopeListener.soapEnvelopeFound(soapEnvelopeInfo);
+                    }
+                });
+                scanCompleted = !mCancelled;
+            }
+        } finally {
+            mBytesScanned = captureScanner.getBytesScanned();
+            mLinesScanned = captureScanner.getLinesScanned();
+            mActiveScanner = null;
+            if ( indexWriter != null ) {
+                if ( scanCompleted ) {
+                    try {
+                        indexWriter.close();
+                    } catch (IOException e) {
+                        System.out.println(e.getMessage());
+                        indexWriter.discard();
+                    }
+                } else {
+                    indexWriter.discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the decompressed stream of a compressed capture file, the decompression runs on a read ahead
+     * thread.  The progress counts the compressed bytes read from the file.
+     */
+    private void scanCompressedCapture(File captureFile, int compressionFormat, SoapEnvelopeListener soapEnvelopeListener) throws IOException {
+        InputStream inputStream = CompressedCapture.openDecompressed(new ProgressInputStream(new FileInputStream(captureFile)), compressionFormat);
+        try {
+            if ( mUseMappedScanner ) {
+                MappedCaptureScanner captureScanner = new MappedCaptureScanner(captureFile);
+                mScanningCompressedCapture = true;
+                mActiveScanner = captureScanner;
+                try {
+                    if ( !mCancelled ) {
+                        captureScanner.scanStream(inputStream, soapEnvelopeListener);
+                    }
+                } finally {
+                    mLinesScanned = captureScanner.getLinesScanned();
+                    mActiveScanner = null;
+                    mScanningCompressedCapture = false;
+                }
+            } else {
+                scanTcpMonReader(new BufferedReader(new InputStreamReader(inputStream)), soapEnvelopeListener);
+            }
+        } finally {
+            inputStream.close();
+        }
+        if ( !mCancelled ) {
+            mBytesScanned = mCaptureFileSize;
+        }
+    }
+
+    /**
+     * Line based scanner for TcpMon captures which are not available as file (e.g. streams).  Each line is
+     * decoded and searched for the HTTP header and SOAP Envelope markers.
+     *
+     * @param bufIn the capture text
+     * @param soapEnvelopeListener receives the envelopes in the order of appearance
+     * @throws IOException if the capture cannot be read
+     */
+    void scanTcpMonReader(BufferedReader bufIn, SoapEnvelopeListener soapEnvelopeListener) throws IOException {
+        StringBuilder sbSoapEnvelope = new StringBuilder();
+        StringBuilder sbSoapHeader = new StringBuilder();
+        String inputLine;
+        String envelopeNameSpace;
+        String envelopeEndTag = "";
+        boolean inSoapEnvelope = false;
+        boolean inSoapHeader = false;
+        int connectionIndex = -1;
+        long lineTimestamp = -1;
+        inputLine = bufIn.readLine();
+        // Read from the file
+        while ( inputLine != null && !mCancelled ) {
+//                System.out.println(inputLine);
+            mLinesScanned++;
+
+            if ( inputLine.startsWith(CONNECTION_REQUEST_MARKER) ) {
+                connectionIndex++;
+            }
+            if ( !inSoapEnvelope && inputLine.length() > 0 && (Character.isDigit(inputLine.charAt(0)) || inputLine.charAt(0) == '[') ) {
+                long timestamp = LatencyAnalytics.parseLineTimestamp(inputLine);
+                if ( timestamp >= 0 ) {
+                    lineTimestamp = timestamp;
+                }
+            }
+
+            if ( inputLine.contains("POST ") || inputLine.contains("HTTP/1.")) {
+                inSoapHeader = true;
+            }
+
+            int iEnvelopeStart = inputLine.indexOf("Envelop");
+            if ( iEnvelopeStart > 0 ) {
+                if ( inputLine.charAt(iEnvelopeStart-1) == '<' || inputLine.charAt(iEnvelopeStart-1) == ':' ) {
+                    int startEnvelopeTag = inputLine.lastIndexOf("<", iEnvelopeStart);
+                    if ( startEnvelopeTag >= 0 && iEnvelopeStart > startEnvelopeTag ) {
+                        if ( inputLine.charAt(startEnvelopeTag+1) != '/' ) {
+//                            int endEnvelopeTag = inputLine.indexOf(">", iEnvelopeStart);
+                            envelopeNameSpace = inputLine.substring(startEnvelopeTag+1,iEnvelopeStart);
+                            inputLine = inputLine.substring(startEnvelopeTag);
+                            envelopeEndTag = "</" + envelopeNameSpace + "Envelop";
+                            inSoapEnvelope = true;
+                            inSoapHeader = false; // The SOAP Header must have finished
+                            if ( sbSoapEnvelope.length() > 0 ) {
+                                sbSoapEnvelope.setLength(0);
+                            }
+                        }
+                    }
+                }
+            }
+
+            if ( inSoapHeader ) {
+                if ( sbSoapHeader.length() == 0 ) {
+                    // Trim off preceding text when POST or HTTP is not at the start of line
+                    int ipos = inputLine.indexOf("POST ");
+                    if ( ipos > 0 ) {
+                        inputLine = inputLine.substring(ipos);
+                    } else if ( ipos < 0 ) {
+                        ipos = inputLine.indexOf("HTTP/1.");
+                        if ( ipos > 0 ) {
+                            inputLine = inputLine.substring(ipos);
+                        }
+                    }
+                }
+                sbSoapHeader.append(inputLine.trim());
+                sbSoapHeader.append(m_LineFeed);
+            }
+
+            if ( inSoapEnvelope ) {
+                int endSoapTagPos = inputLine.indexOf(envelopeEndTag);
+                if ( endSoapTagPos >= 0 ) {
+                    String textAfterEnvelope = "";
+                    int endTagPos = inputLine.indexOf(">",endSoapTagPos);
+                    if ( endTagPos > endSoapTagPos ) {
+                        textAfterEnvelope = inputLine.substring(endTagPos+1);
+                        inputLine = inputLine.substring(0,endTagPos+1);
+                    }
+                    sbSoapEnvelope.append(inputLine.trim());
+                    inSoapEnvelope = false;
+                    SoapEnvelopeInfo soapEnvelopeInfo = new SoapEnvelopeInfo(sbSoapEnvelope.toString());
+                    soapEnvelopeInfo.setSoapHeader(sbSoapHeader.toString());
+                    soapEnvelopeInfo.setConnectionIndex(connectionIndex);
+                    soapEnvelopeInfo.setCaptureTimestamp(lineTimestamp);
+                    lineTimestamp = -1;
+                    soapEnvelopeListener.soapEnvelopeFound(soapEnvelopeInfo);
+                    sbSoapEnvelope.setLength(0);
+                    sbSoapHeader.setLength(0);
+                    if ( textAfterEnvelope.contains(envelopeEndTag) ) {
+                        XmlElementExtractor.Matches soapMessages = ENVELOPE_EXTRACTOR.findElements(textAfterEnvelope);
+                        for ( int index = 0; index < soapMessages.getCount(); index++ ) {
+                            SoapEnvelopeInfo lineEnvelopeInfo = new SoapEnvelopeInfo(soapMessages.getElement(index));
+                            lineEnvelopeInfo.setConnectionIndex(connectionIndex);
+                            soapEnvelopeListener.soapEnvelopeFound(lineEnvelopeInfo);
+                        }
+                    }
+                    if ( textAfterEnvelope.contains("POST ") || textAfterEnvelope.contains("HTTP/1.")) {
+                        // Trim off preceding text when POST or HTTP is not at the start of line
+                        int ipos = textAfterEnvelope.indexOf("POST ");
+                        if ( ipos > 0 ) {
+                            textAfterEnvelope = textAfterEnvelope.substring(ipos);
+                        } else if ( ipos < 0 ) {
+                            ipos = textAfterEnvelope.indexOf("HTTP/1.");
+                            if ( ipos > 0 ) {
+                                textAfterEnvelope = textAfterEnvelope.substring(ipos);
+                            }
+                        }
+                        sbSoapHeader.append(textAfterEnvelope);
+                    }
+                } else {
+                    if ( inputLine.trim().length() > 4 ) {
+                        sbSoapEnvelope.append(inputLine.trim());
+                    } else if ( inputLine.trim().length() > 0) {
+                        System.out.println("Suspect Line (probably chunked breaks) : " + inputLine);
+                    }
+                }
+
+
+            }
+
+            inputLine = bufIn.readLine();
+        }
+    }
+
+    /**
+     * Explodes the capture file and writes the single SOAP messages to the output directory.  Depending
+     * on the {@link #setStreamingMode(boolean) streaming mode} the messages are either collected and sorted
+     * before the output, or written while the capture file is scanned.
+     *
+     * @param tcpMonLogFilename the TcpMon capture file
+     * @param outputDirectory the directory for the output files
+     */
+    public void explodeAndOutputSoapMessages(String tcpMonLogFilename, String outputDirectory) {
+        if ( mStreamingMode ) {
+            explodeAndOutputSoapMessagesStreaming(tcpMonLogFilename, outputDirectory);
+        } else {
+            explodeTcpMonFile(tcpMonLogFilename);
+            outputSoapMessages(outputDirectory);
+        }
+    }
+
+    /**
+     * Writes each SOAP message as soon as it is found in the capture file.
+     * <p/>
+     * The output numbering is assigned by the {@link SoapMessageCorrelator} as the messages arrive : the
+     * request of the n-th pair gets the number <code>(n*2)-1</code> and its response the number
+     * <code>n*2</code>.  For captures without missing messages this is the same numbering as the output of
+     * {@link #outputSoapMessages(String)}.  Missing requests or responses leave a gap in the numbering
+     * instead of shifting all following messages.
+     *
+     * @param tcpMonLogFilename the TcpMon capture file
+     * @param outputDirectory the directory for the output files
+     */
+    public void explodeAndOutputSoapMessagesStreaming(String tcpMonLogFilename, String outputDirectory) {
+        m_SoapEnvelopeList.clear();
+        mXmlProblemFileNameMessages.clear();
+        m_OutputMessageCount = 0;
+        StreamingOutputListener outputListener = new StreamingOutputListener(outputDirectory, new File(tcpMonLogFilename).getName());
+        try {
+            explodeTcpMonFile(tcpMonLogFilename, outputListener);
+        } finally {
+            outputListener.close();
+        }
+    }
+
+    /**
+     * Follows a capture file that is still being written (e.g. by a running TcpMon) : the messages
+     * already in the file and every message appended later are written as soon as they are complete,
+     * with the numbering of {@link #explodeAndOutputSoapMessagesStreaming(String, String)}.  The capture
+     * file is polled for appended bytes until {@link #cancel()} is called, the scan resumes at the start
+     * of the first message that was not complete yet.  The capture index is not used.
+     *
+     * @param tcpMonLogFilename the TcpMon capture file
+     * @param outputDirectory the directory for the output files
+     */
+    public void followTcpMonFile(String tcpMonLogFilename, String outputDirectory) {
+        m_SoapEnvelopeList.clear();
+        mXmlProblemFileNameMessages.clear();
+        m_OutputMessageCount = 0;
+        mFoundMessageCount = 0;
+        mBytesScanned = 0;
+        mCaptureIndexUsed = false;
+        File captureFile = new File(tcpMonLogFilename);
+        if ( ! captureFile.exists() ) {
+            addMessage("Specified filename [" + tcpMonLogFilename + "] cannot be found.");
+            return;
+        }
+        try {
+            if ( CompressedCapture.getCompressionFormat(captureFile) != CompressedCapture.FORMAT_NONE ) {
+                addMessage("The compressed capture file [" + tcpMonLogFilename + "] cannot be followed, explode it without follow mode.");
+                return;
+            }
+        } catch (IOException e) {
+            addMessage("Input-Output Error for filename [" + tcpMonLogFilename + "]. [" + e.getMessage() + "]" );
+            e.printStackTrace();
+            return;
+        }
+        StreamingOutputListener outputListener = new StreamingOutputListener(outputDirectory, captureFile.getName());
+        CountingListener countingListener = new CountingListener(outputListener);
+        ExplodeStatistics statistics = ExplodeStatistics.getInstance();
+        statistics.addScannedCapture(0, 0, 0);
+        MappedCaptureScanner captureScanner = new MappedCaptureScanner(captureFile);
+        captureScanner.setFollowMode(true);
+        mActiveScanner = captureScanner;
+        try {
+            captureScanner.open();
+            long scannedFileSize = -1;
+            while ( !mCancelled ) {
+                long captureFileSize = captureFile.length();
+                if ( captureFileSize < captureScanner.getResumeOffset() ) {
+                    addMessage("Capture file [" + tcpMonLogFilename + "] was truncated, following from the start.");
+                    captureScanner.setResumeOffset(0);
+                    scannedFileSize = -1;
+                }
+                mCaptureFileSize = captureFileSize;
+                if ( captureFileSize != scannedFileSize ) {
+                    scannedFileSize = captureFileSize;
+                    long bytesScanned = captureScanner.getBytesScanned();
+                    long linesScanned = captureScanner.getLinesScanned();
+                    long startTime = System.nanoTime();
+                    int foundCount = captureScanner.scanAppended(countingListener);
+                    statistics.addScanned(Math.max(0, captureScanner.getBytesScanned() - bytesScanned), captureScanner.getLinesScanned() - linesScanned,
+                            System.nanoTime() - startTime - countingListener.takeListenerNanos());
+                    if ( foundCount > 0 ) {
+                        outputListener.flush();
+                        System.out.println(captureFile.getName() + " : " + foundCount + " new messages (" + mFoundMessageCount + " in total)");
+                    }
+                }
+                try {
+                    Thread.sleep(mFollowPollMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            addMessage("Input-Output Error for filename [" + tcpMonLogFilename + "]. [" + e.getMessage() + "]" );
+            e.printStackTrace();
+        } finally {
+            mBytesScanned = captureScanner.getBytesScanned();
+            mActiveScanner = null;
+            try {
+                captureScanner.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            outputListener.close();
+        }
+        addMessage("Follow of [" + tcpMonLogFilename + "] was stopped after " + mFoundMessageCount + " messages.");
+    }
+
+    /**
+     * Runs a {@link SoapRecordingProxy} instead of TcpMon : the connections to the listen port are forwarded to
+     * the target and the SOAP messages of the relayed traffic are written as they arrive, with the numbering of
+     * {@link #explodeAndOutputSoapMessagesStreaming(String, String)}.  No capture file is written.  The proxy
+     * runs until {@link #cancel()} is called.
+     * <p/>
+     * The proxy thread only queues the envelopes, they are reformatted and written on the calling thread, so
+     * the output does not delay the relayed traffic.
+     *
+     * @param listenPort the local port the SOAP clients connect to
+     * @param targetHost the host of the SOAP server
+     * @param targetPort the port of the SOAP server
+     * @param outputDirectory the directory for the output files
+     */
+    public void recordProxyTraffic(int listenPort, String targetHost, int targetPort, String outputDirectory) {
+        m_SoapEnvelopeList.clear();
+        mXmlProblemFileNameMessages.clear();
+        m_OutputMessageCount = 0;
+        mFoundMessageCount = 0;
+        mBytesScanned = 0;
+        mCaptureFileSize = 0;
+        mCaptureIndexUsed = false;
+        final LinkedBlockingQueue<SoapEnvelopeInfo> recordedEnvelopes = new LinkedBlockingQueue<SoapEnvelopeInfo>();
+        SoapRecordingProxy recordingProxy = new SoapRecordingProxy(listenPort, targetHost, targetPort, new SoapEnvelopeListener() {
+            public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+                mFoundMessageCount++;
+                recordedEnvelopes.add(soapEnvelopeInfo);
+            }
+        });
+        final StreamingOutputListener outputListener = new StreamingOutputListener(outputDirectory, "recording proxy " + listenPort + " -> " + targetHost + ":" + targetPort);
+        // The envelopes are counted on this thread, the message type is taken from the decoded HTTP header
+        SoapEnvelopeListener countingListener = new SoapEnvelopeListener() {
+            public void soapEnvelopeFound(SoapEnvelopeInfo soapEnvelopeInfo) {
+                ExplodeStatistics.getInstance().addFoundEnvelope(soapEnvelopeInfo);
+                outputListener.soapEnvelopeFound(soapEnvelopeInfo);
+            }
+        };
+        try {
+            recordingProxy.start();
+        } catch (IOException e) {
+            addMessage("Recording proxy on port " + listenPort + " cannot be started. [" + e.getMessage() + "]");
+            outputListener.close();
+            return;
+        }
+        mActiveProxy = recordingProxy;
+        System.out.println("Recording proxy listens on port " + recordingProxy.getListenPort() + " for " + targetHost + ":" + targetPort);
+        try {
+            while ( !mCancelled ) {
+                SoapEnvelopeInfo soapEnvelopeInfo = recordedEnvelopes.poll(mFollowPollMillis, TimeUnit.MILLISECONDS);
+                if ( soapEnvelopeInfo == null ) {
+                    continue;
+                }
+                while ( soapEnvelopeInfo != null ) {
+                    countingListener.soapEnvelopeFound(soapEnvelopeInfo);
+                    soapEnvelopeInfo = recordedEnvelopes.poll();
+                }
+                outputListener.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            recordingProxy.close();
+            mBytesScanned = recordingProxy.getBytesRelayed();
+            mActiveProxy = null;
+            ExplodeStatistics.getInstance().addScannedCapture(mBytesScanned, 0, 0);
+            // The messages of the connections closed by the proxy
+            SoapEnvelopeInfo soapEnvelopeInfo;
+            while ( (soapEnvelopeInfo = recordedEnvelopes.poll()) != null ) {
+                countingListener.soapEnvelopeFound(soapEnvelopeInfo);
+            }
+            outputListener.close();
+        }
+        addMessage("Recording proxy was stopped after " + recordingProxy.getConnectionCount() + " connections and " + mFoundMessageCount + " messages.");
+    }
+
+    public void outputSoapMessages(String outputDirectory) {
+        m_OutputMessageCount = 0;
+        if ( m_SoapEnvelopeList.size() < 1 ) {
+            // Nothing to output
+            return;
+        }
+        mXmlProblemFileNameMessages.clear();
+
+        // Match the responses to their requests and place each pair in the order of its request
+        SoapMessageCorrelator correlator = new SoapMessageCorrelator();
+        LatencyAnalytics latencyAnalytics = createLatencyAnalytics(mCaptureName);
+        for ( SoapEnvelopeInfo soapEnvelopeInfo : m_SoapEnvelopeList ) {
+            if ( !soapEnvelopeInfo.isRequestMessage() && !soapEnvelopeInfo.isResponseMessage() ) {
+                System.out.println("NO Message Type for " + soapEnvelopeInfo.getSoapBodyName() + " possible.");
+            }
+            soapEnvelopeInfo.setOrderIndex(correlator.correlate(soapEnvelopeInfo));
+            if ( latencyAnalytics != null ) {
+                latencyAnalytics.addMessage(soapEnvelopeInfo);
+            }
+        }
+        addOrphanMessages(correlator);
+        // Each order index is used once, the messages are placed into their slot instead of sorted
+        SoapEnvelopeInfo[] orderedEnvelopes = new SoapEnvelopeInfo[(correlator.getPairCount() * 2) + 1];
+        for ( SoapEnvelopeInfo soapEnvelopeInfo : m_SoapEnvelopeList ) {
+            orderedEnvelopes[soapEnvelopeInfo.getOrderIndex()] = soapEnvelopeInfo;
+        }
+        m_SoapEnvelopeList.clear();
+        for ( SoapEnvelopeInfo soapEnvelopeInfo : orderedEnvelopes ) {
+            if ( soapEnvelopeInfo != null ) {
+                m_SoapEnvelopeList.add(soapEnvelopeInfo);
+            }
+        }
+        SoapMessageOutputWriter outputWriter = new SoapMessageOutputWriter(this, outputDirectory);
+        try {
+            int orderIndex = 0;
+            for ( SoapEnvelopeInfo soapEnvelopeInfo : m_SoapEnvelopeList ) {
+                if ( mCancelled ) {
+                    addMessage("Output was cancelled after " + m_OutputMessageCount + " of " + m_SoapEnvelopeList.size() + " messages.");
+                    break;
+                }
+                orderIndex++;
+                if ( outputWriter.writeSoapMessage(soapEnvelopeInfo, orderIndex) ) {
+                    m_OutputMessageCount++;
+                }
+            }
+        } finally {
+            outputWriter.close();
+        }
+        writeLatencyReport(latencyAnalytics, outputDirectory, true);
+    }
+
+    private LatencyAnalytics createLatencyAnalytics(String captureName) {
+        mLatencyReport = "";
+        return (mCreateLatencyReport ? new LatencyAnalytics(captureName) : null);
+    }
+
+    /**
+     * Writes the latency report to the output directory and keeps its text for {@link #getLatencyReport()}.
+     */
+    private void writeLatencyReport(LatencyAnalytics latencyAnalytics, String outputDirectory, boolean addResultMessage) {
+        if ( latencyAnalytics == null ) {
+            return;
+        }
+        mLatencyReport = latencyAnalytics.createReport("\n");
+        try {
+            File reportFile = latencyAnalytics.writeReport(outputDirectory, m_LineFeed);
+            if ( addResultMessage ) {
+                addMessage("Latency report of " + latencyAnalytics.getMeasuredPairCount() + " request/response pairs written to [" + reportFile.getPath() + "]");
+            }
+        } catch (IOException e) {
+            addMessage("Latency report cannot be written to [" + outputDirectory + "]. [" + e.getMessage() + "]");
+            e.printStackTrace();
+        }
+    }
+
+    public void addMessage(String message) {
+        m_sbMessages.append(message);
+        m_sbMessages.append(m_LineFeed);
+    }
+
+    /**
+     * Reports the responses without request and the requests without response of the capture.
+     */
+    private void addOrphanMessages(SoapMessageCorrelator correlator) {
+        int unansweredCount = correlator.getUnansweredRequestCount();
+        if ( correlator.getOrphanResponseCount() == 0 && unansweredCount == 0 ) {
+            return;
+        }
+        addMessage("WARNING : " + correlator.getOrphanResponseCount() + " responses without request and " + unansweredCount + " requests without response !");
+        for ( String orphanMessage : correlator.getOrphanMessages() ) {
+            addMessage("    " + orphanMessage);
+        }
+    }
+}
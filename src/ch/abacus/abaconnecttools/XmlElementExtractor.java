@@ -0,0 +1,312 @@
+/*
+ * XmlElementExtractor.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.util.Arrays;
+
+/**
+ * Finds the elements with a set of local names in an XML text, with or without namespace prefix, in a single
+ * pass over the tags of the text.  The extractor is created once for the names and can be used by several
+ * threads, the elements are returned as offsets in the text, see {@link Matches}.
+ * <p/>
+ * An element ends at the matching end tag with the same prefix, an element nested in an element with the same
+ * name is not returned on its own.  Comments, CDATA sections and processing instructions are skipped, an
+ * element without end tag (e.g. in a truncated text) is not returned.
+ */
+public class XmlElementExtractor {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String[] mTagNames;
+    private final int mMaxNameLength;
+
+    /**
+     * The elements found by {@link XmlElementExtractor#findElements(String)}, ordered by their start in the text.
+     * <p/>
+     * For an element <code>&lt;acc:Data mode="SAVE"&gt;value&lt;/acc:Data&gt;</code> the element start is at the
+     * '&lt;' of the start tag, the value is between the start and the end tag and the element end is behind the
+     * '&gt;' of the end tag.
+     */
+    public static class Matches {
+        private final String mText;
+        private int mCount = 0;
+        private int[] mTagIndexes = new int[INITIAL_CAPACITY];
+        private int[] mElementStarts = new int[INITIAL_CAPACITY];
+        private int[] mValueStarts = new int[INITIAL_CAPACITY];
+        private int[] mValueEnds = new int[INITIAL_CAPACITY];
+        private int[] mElementEnds = new int[INITIAL_CAPACITY];
+
+        Matches(String text) {
+            mText = text;
+        }
+
+        public String getText() {
+            return mText;
+        }
+
+        /**
+         * @return the number of elements found
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the index of the element name in the names of the extractor
+         */
+        public int getTagIndex(int index) {
+            return mTagIndexes[index];
+        }
+
+        public int getElementStart(int index) {
+            return mElementStarts[index];
+        }
+
+        public int getValueStart(int index) {
+            return mValueStarts[index];
+        }
+
+        public int getValueEnd(int index) {
+            return mValueEnds[index];
+        }
+
+        public int getElementEnd(int index) {
+            return mElementEnds[index];
+        }
+
+        /**
+         * @return the text between the start and the end tag of the element
+         */
+        public String getValue(int index) {
+            return mText.substring(mValueStarts[index], mValueEnds[index]);
+        }
+
+        /**
+         * @return the element with its start and end tag
+         */
+        public String getElement(int index) {
+            return mText.substring(mElementStarts[index], mElementEnds[index]);
+        }
+
+        private int add(int tagIndex, int elementStart, int valueStart) {
+            if ( mCount == mTagIndexes.length ) {
+                int capacity = mCount * 2;
+                mTagIndexes = Arrays.copyOf(mTagIndexes, capacity);
+                mElementStarts = Arrays.copyOf(mElementStarts, capacity);
+                mValueStarts = Arrays.copyOf(mValueStarts, capacity);
+                mValueEnds = Arrays.copyOf(mValueEnds, capacity);
+                mElementEnds = Arrays.copyOf(mElementEnds, capacity);
+            }
+            mTagIndexes[mCount] = tagIndex;
+            mElementStarts[mCount] = elementStart;
+            mValueStarts[mCount] = valueStart;
+            mValueEnds[mCount] = -1;
+            mElementEnds[mCount] = -1;
+            return mCount++;
+        }
+
+        private void setEnd(int index, int valueEnd, int elementEnd) {
+            mValueEnds[index] = valueEnd;
+            mElementEnds[index] = elementEnd;
+        }
+
+        /**
+         * Removes the elements whose end tag has not been found.
+         */
+        private void removeUnclosed() {
+            int count = 0;
+            for ( int index = 0; index < mCount; index++ ) {
+                if ( mElementEnds[index] >= 0 ) {
+                    mTagIndexes[count] = mTagIndexes[index];
+                    mElementStarts[count] = mElementStarts[index];
+                    mValueStarts[count] = mValueStarts[index];
+                    mValueEnds[count] = mValueEnds[index];
+                    mElementEnds[count] = mElementEnds[index];
+                    count++;
+                }
+            }
+            mCount = count;
+        }
+    }
+
+    /**
+     * @param tagNames the local names of the elements to find, without namespace prefix
+     */
+    public XmlElementExtractor(String... tagNames) {
+        mTagNames = tagNames.clone();
+        int maxNameLength = 0;
+        for ( String tagName : mTagNames ) {
+            maxNameLength = Math.max(maxNameLength, tagName.length());
+        }
+        mMaxNameLength = maxNameLength;
+    }
+
+    public int getTagCount() {
+        return mTagNames.length;
+    }
+
+    public String getTagName(int tagIndex) {
+        return mTagNames[tagIndex];
+    }
+
+    /**
+     * @param text the XML text
+     * @return the elements found in the text
+     */
+    public Matches findElements(String text) {
+        return findElements(text, 0, text.length());
+    }
+
+    /**
+     * @param text the XML text
+     * @param fromIndex the position to start the search
+     * @param toIndex the end of the text to search, an element must end before it
+     * @return the elements found in the range of the text
+     */
+    public Matches findElements(String text, int fromIndex, int toIndex) {
+        Matches matches = new Matches(text);
+        // The open elements with one of the names : start and length of the qualified name, tag index and match index
+        int[] openElements = new int[4 * 8];
+        int openCount = 0;
+        int[] openTagCounts = new int[mTagNames.length];
+
+        int pos = text.indexOf('<', fromIndex);
+        while ( pos >= 0 && pos + 1 < toIndex ) {
+            char first = text.charAt(pos + 1);
+            if ( first == '!' || first == '?' ) {
+                pos = skipMarkup(text, pos, toIndex);
+                continue;
+            }
+            boolean isEndTag = (first == '/');
+            int nameStart = (isEndTag ? pos + 2 : pos + 1);
+            int nameEnd = nameStart;
+            int localNameStart = nameStart;
+            while ( nameEnd < toIndex && !isNameEnd(text.charAt(nameEnd)) ) {
+                if ( text.charAt(nameEnd) == ':' ) {
+                    localNameStart = nameEnd + 1;
+                }
+                nameEnd++;
+            }
+            int tagEnd = findTagEnd(text, nameEnd, toIndex);
+            if ( tagEnd < 0 ) {
+                break;
+            }
+            if ( isEndTag ) {
+                if ( openCount > 0 ) {
+                    // The innermost open element with the same qualified name, open elements inside it are closed with it
+                    int openIndex = openCount - 1;
+                    while ( openIndex >= 0 && !isSameName(text, openElements, openIndex, nameStart, nameEnd) ) {
+                        openIndex--;
+                    }
+                    if ( openIndex >= 0 ) {
+                        while ( openCount > openIndex ) {
+                            openCount--;
+                            openTagCounts[openElements[(openCount * 4) + 2]]--;
+                        }
+                        int matchIndex = openElements[(openIndex * 4) + 3];
+                        if ( matchIndex >= 0 ) {
+                            matches.setEnd(matchIndex, pos, tagEnd + 1);
+                        }
+                    }
+                }
+            } else {
+                int tagIndex = findTagIndex(text, localNameStart, nameEnd);
+                if ( tagIndex >= 0 ) {
+                    int matchIndex = -1;
+                    if ( openTagCounts[tagIndex] == 0 ) {
+                        matchIndex = matches.add(tagIndex, pos, tagEnd + 1);
+                    }
+                    if ( text.charAt(tagEnd - 1) == '/' ) {
+                        if ( matchIndex >= 0 ) {
+                            matches.setEnd(matchIndex, tagEnd + 1, tagEnd + 1);
+                        }
+                    } else {
+                        if ( (openCount * 4) == openElements.length ) {
+                            openElements = Arrays.copyOf(openElements, openElements.length * 2);
+                        }
+                        openElements[openCount * 4] = nameStart;
+                        openElements[(openCount * 4) + 1] = nameEnd - nameStart;
+                        openElements[(openCount * 4) + 2] = tagIndex;
+                        openElements[(openCount * 4) + 3] = matchIndex;
+                        openCount++;
+                        openTagCounts[tagIndex]++;
+                    }
+                }
+            }
+            pos = text.indexOf('<', tagEnd + 1);
+        }
+        matches.removeUnclosed();
+        return matches;
+    }
+
+    private int findTagIndex(String text, int localNameStart, int nameEnd) {
+        int nameLength = nameEnd - localNameStart;
+        if ( nameLength <= mMaxNameLength ) {
+            for ( int tagIndex = 0; tagIndex < mTagNames.length; tagIndex++ ) {
+                String tagName = mTagNames[tagIndex];
+                if ( tagName.length() == nameLength && text.startsWith(tagName, localNameStart) ) {
+                    return tagIndex;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSameName(String text, int[] openElements, int openIndex, int nameStart, int nameEnd) {
+        int openNameLength = openElements[(openIndex * 4) + 1];
+        return openNameLength == nameEnd - nameStart && text.regionMatches(nameStart, text, openElements[openIndex * 4], openNameLength);
+    }
+
+    /**
+     * @return the position of the '&gt;' of the tag, '&gt;' in quoted attribute values is skipped, or -1
+     */
+    private static int findTagEnd(String text, int fromIndex, int toIndex) {
+        for ( int index = fromIndex; index < toIndex; index++ ) {
+            char value = text.charAt(index);
+            if ( value == '>' ) {
+                return index;
+            } else if ( value == '"' || value == '\'' ) {
+                index = text.indexOf(value, index + 1);
+                if ( index < 0 ) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the next '&lt;' after the comment, CDATA section, processing instruction or
+     *         declaration at the position, or -1
+     */
+    private static int skipMarkup(String text, int pos, int toIndex) {
+        int markupEnd;
+        if ( text.startsWith("<!--", pos) ) {
+            markupEnd = text.indexOf("-->", pos + 4);
+        } else if ( text.startsWith("<![CDATA[", pos) ) {
+            markupEnd = text.indexOf("]]>", pos + 9);
+        } else if ( text.charAt(pos + 1) == '?' ) {
+            markupEnd = text.indexOf("?>", pos + 2);
+        } else {
+            markupEnd = text.indexOf('>', pos + 2);
+        }
+        if ( markupEnd < 0 || markupEnd >= toIndex ) {
+            return -1;
+        }
+        return text.indexOf('<', markupEnd + 1);
+    }
+
+    private static boolean isNameEnd(char value) {
+        return value == '>' || value == '/' || value == ' ' || value == '\t' || value == '\r' || value == '\n';
+    }
+}
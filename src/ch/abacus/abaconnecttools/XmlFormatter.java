@@ -15,25 +15,57 @@
 package ch.abacus.abaconnecttools;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
 
+/**
+ * Formats an XML document with one element per line, indented by level.
+ * <p/>
+ * The formatted XML is collected in a reusable {@link XmlOutputBuffer}, the open elements are kept in a stack
+ * indexed by the depth and the names without namespace prefix are cached, so that formatting allocates close to
+ * nothing per element once the buffers are large enough.
+ */
 public class XmlFormatter extends SimpleXmlSaxParser {
 
     private boolean mStripWhitespaces = false;
     private String mLineFeed = "\n";
     private String mIndent = "  ";
     private String mLastStartElementName = "";
-    private StringBuffer mFormattedXml = new StringBuffer();
+    private XmlOutputBuffer mFormattedXml = new XmlOutputBuffer(OUTPUT_FLUSH_SIZE * 2);
 
-    ArrayList<String> mElementNames = new ArrayList<String>();
+    // The names of the open elements as written, indexed by the depth
+    private String[] mElementNames = new String[16];
+    private int mElementDepth = 0;
+    // Names without namespace prefix by element name, the reader passes the same String instances for a name
+    private static final int MAX_LOCAL_NAMES = 4096;
+    private HashMap<String, String> mLocalNames = new HashMap<String, String>();
 
     private boolean mRemoveNamespacePrefixes = true;  // Default removes the namespaces from the Xml element names
 
+    // Streaming output, see format(InputStream, Writer)
+    private static final int OUTPUT_FLUSH_SIZE = 8192;
+    private static final int STREAM_ELEMENT_VALUE_SIZE = 8192;
+    private Writer mOutputWriter = null;
+    private boolean mStreamedElementValue = false;
+
+    public XmlFormatter() {
+        mFormattedXml.setIndent(mIndent);
+    }
+
     @Override
     public void startDocument() {
         super.startDocument();
-        mFormattedXml.setLength(0);
+        mFormattedXml.clear();
+        mStreamedElementValue = false;
+        mLastStartElementName = "";
+        mElementDepth = 0;
     }
 
     public boolean isRemoveNamespacePrefixes() {
@@ -54,6 +86,7 @@ public class XmlFormatter extends SimpleXmlSaxParser {
 
     public void setIndent(String singleIndent) {
         mIndent = singleIndent == null ? "" : singleIndent;
+        mFormattedXml.setIndent(mIndent);
     }
 
     public void setLineFeed(String lineFeed) {
@@ -62,78 +95,181 @@ public class XmlFormatter extends SimpleXmlSaxParser {
 
     @Override
     public void endElement(String name, String value) {
+        endElement(name, value.toCharArray(), value.length());
+    }
+
+    @Override
+    protected void endElement(String name, char[] value, int length) {
         boolean isLastCharLineFeed = false;
-        mElementNames.remove(name);
+        String outputName = popElementName(name);
         if ( name.equals(mLastStartElementName) ) {
             mLastStartElementName = "";
         } else {
             mFormattedXml.append(mLineFeed);
-            int level = mElementNames.size();
+            int level = mElementDepth;
             isLastCharLineFeed = level == 0;
-            for ( int index = 0; index < level; index++ ) {
-                mFormattedXml.append(mIndent);
-            }
+            mFormattedXml.appendIndent(level);
         }
-        if ( value.contains("&") ) {
-            mFormattedXml.append(value.replaceAll("&","&amp;"));
-        } else {
-            if ( ! mStripWhitespaces || (!isLastCharLineFeed && !mLineFeed.equals(value)) ) {
-                mFormattedXml.append(value);
-            }
+        if ( ! mStripWhitespaces || mStreamedElementValue || (!isLastCharLineFeed && !isLineFeed(value, length)) || containsAmpersand(value, length) ) {
+            mFormattedXml.appendEscapedValue(value, 0, length);
         }
         mFormattedXml.append("</");
-        if ( mRemoveNamespacePrefixes ) {
-            mFormattedXml.append(removeNamespacePrefix(name));
-        } else {
-            mFormattedXml.append(name);
-        }
-        mFormattedXml.append(">");
-//        mFormattedXml.append(mLineFeed);
+        mFormattedXml.append(outputName);
+        mFormattedXml.append('>');
+        mStreamedElementValue = false;
+        writeFormattedXml(false);
+    }
+
+    @Override
+    protected boolean streamElementValue(char[] value, int length) {
+        // Only the value of an element without child elements so far can be written before the end tag
+        if ( mOutputWriter == null || "".equals(mLastStartElementName) ) return false;
+        mFormattedXml.appendEscapedValue(value, 0, length);
+        mStreamedElementValue = true;
+        writeFormattedXml(false);
+        return true;
     }
 
     @Override
     public void startElement(String elementName, Attributes atts) {
+        mStreamedElementValue = false;
         if ( mStripWhitespaces ) this.elementValue.reset();
-//        mFormattedXml.append(mLineFeed);
-        int level = mElementNames.size();
-        if ( level > 0 /* && !"".equals(mLastStartElementName)  */) {
+        int level = mElementDepth;
+        if ( level > 0 ) {
             mFormattedXml.append(mLineFeed);
         }
-        for ( int index = 0; index < level; index++ ) {
-            mFormattedXml.append(mIndent);
-        }
-        mElementNames.add(elementName);
-        mFormattedXml.append("<");
-        if ( mRemoveNamespacePrefixes ) {
-            mFormattedXml.append(removeNamespacePrefix(elementName));
-        } else {
-            mFormattedXml.append(elementName);
-        }
+        mFormattedXml.appendIndent(level);
+        mFormattedXml.append('<');
+        mFormattedXml.append(pushElementName(elementName));
         if ( atts != null ) {
             int attLength = atts.getLength();
-            if ( attLength > 0 ) {
-                for ( int index = 0; index < attLength; index++ ) {
-                    mFormattedXml.append(" ");
-                    mFormattedXml.append(atts.getLocalName(index));
-                    mFormattedXml.append("=");
-                    mFormattedXml.append("\"");
-                    mFormattedXml.append(atts.getValue(index));
-                    mFormattedXml.append("\"");
-                }
+            for ( int index = 0; index < attLength; index++ ) {
+                mFormattedXml.append(' ');
+                mFormattedXml.append(atts.getLocalName(index));
+                mFormattedXml.append("=\"");
+                mFormattedXml.appendEscapedAttribute(atts.getValue(index));
+                mFormattedXml.append('"');
             }
         }
-        mFormattedXml.append(">");
+        mFormattedXml.append('>');
 
         mLastStartElementName = elementName;
+        writeFormattedXml(false);
+    }
+
+    /**
+     * Adds an element to the open elements.
+     *
+     * @return the name of the element as written
+     */
+    private String pushElementName(String elementName) {
+        String outputName = (mRemoveNamespacePrefixes ? getLocalName(elementName) : elementName);
+        if ( mElementDepth == mElementNames.length ) {
+            mElementNames = Arrays.copyOf(mElementNames, mElementDepth * 2);
+        }
+        mElementNames[mElementDepth++] = outputName;
+        return outputName;
+    }
+
+    /**
+     * Removes the innermost open element, which is the element ending in a well-formed document.
+     *
+     * @return the name of the element as written
+     */
+    private String popElementName(String elementName) {
+        if ( mElementDepth == 0 ) {
+            return (mRemoveNamespacePrefixes ? getLocalName(elementName) : elementName);
+        }
+        return mElementNames[--mElementDepth];
+    }
+
+    private boolean isLineFeed(char[] value, int length) {
+        if ( length != mLineFeed.length() ) return false;
+        for ( int index = 0; index < length; index++ ) {
+            if ( value[index] != mLineFeed.charAt(index) ) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsAmpersand(char[] value, int length) {
+        for ( int index = 0; index < length; index++ ) {
+            if ( value[index] == '&' ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Formats the XML document of the stream and writes the formatted XML to the writer while the document
+     * is parsed.  Only the open elements, a small output buffer and a part of a large element value are held
+     * in memory, so the memory usage does not depend on the size of the document.
+     * <p/>
+     * The output is the same as {@link #getFormattedXml()} after {@link #saxParse(InputStream)}, except for
+     * large text in front of a child element (mixed content), which is written as text of the parent element.
+     *
+     * @param xmlStream the XML document
+     * @param writer receives the formatted XML, it is flushed but not closed
+     * @throws SAXException if the document cannot be parsed, the writer may contain a part of the document
+     * @throws IOException if the formatted XML cannot be written
+     */
+    public void format(InputStream xmlStream, Writer writer) throws SAXException, IOException {
+        mOutputWriter = writer;
+        setStreamElementValueSize(STREAM_ELEMENT_VALUE_SIZE);
+        try {
+            saxParse(xmlStream);
+            writeFormattedXml(true);
+            writer.flush();
+        } catch (RuntimeException e) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            mOutputWriter = null;
+            setStreamElementValueSize(0);
+            mFormattedXml.clear();
+        }
+    }
+
+    /**
+     * Formats the XML document of the stream and writes the formatted XML UTF-8 encoded to the output stream.
+     *
+     * @see #format(InputStream, Writer)
+     */
+    public void format(InputStream xmlStream, OutputStream outputStream) throws SAXException, IOException {
+        format(xmlStream, new OutputStreamWriter(outputStream, "UTF-8"));
+    }
+
+    /**
+     * Passes the formatted XML collected so far to the output writer when streaming.
+     *
+     * @param writeAll true to write everything, otherwise only when the collected XML is large enough
+     */
+    private void writeFormattedXml(boolean writeAll) {
+        if ( mOutputWriter == null ) return;
+        int length = mFormattedXml.length();
+        if ( length == 0 || (!writeAll && length < OUTPUT_FLUSH_SIZE) ) return;
+        try {
+            mFormattedXml.writeTo(mOutputWriter);
+        } catch (IOException e) {
+            throw new RuntimeException("The formatted XML cannot be written", e);
+        }
+        mFormattedXml.clear();
     }
 
     public String getFormattedXml() {
         return mFormattedXml.toString();
     }
 
-    private String removeNamespacePrefix(String elementName) {
-        if ( elementName == null ) return elementName;
-        int posColon = elementName.indexOf(":");
-        return (posColon >= 0 ? elementName.substring(posColon+1) : elementName);
+    private String getLocalName(String elementName) {
+        String localName = mLocalNames.get(elementName);
+        if ( localName == null ) {
+            int posColon = elementName.indexOf(':');
+            localName = (posColon >= 0 ? elementName.substring(posColon + 1) : elementName);
+            if ( mLocalNames.size() >= MAX_LOCAL_NAMES ) {
+                mLocalNames.clear();
+            }
+            mLocalNames.put(elementName, localName);
+        }
+        return localName;
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * XmlOutputBuffer.java
+ *
+ * Creator:
+ *
+ * Maintainer:
+ *
+ * Last Modification:
+ * $Id: $
+ *
+ * Copyright (c) 2003 ABACUS Research AG, All Rights Reserved
+ */
+package ch.abacus.abaconnecttools;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The formatted XML of the {@link XmlFormatter} and the {@link XmlSoapAcReformatter}, a reusable character
+ * buffer which keeps its capacity when it is cleared, so that formatting a document does not allocate once the
+ * buffer is large enough.  The buffer is not synchronized, it belongs to a single formatter.
+ * <p/>
+ * Element values and attribute values are escaped with a table indexed by the character : '&amp;', '&lt;' and
+ * '&gt;' in values, and '&quot;' in addition in attribute values, which are written in double quotes.
+ */
+public final class XmlOutputBuffer {
+
+    // The replacement of each character which is escaped, indexed by the character
+    private static final char[][] VALUE_ESCAPES = createEscapes(false);
+    private static final char[][] ATTRIBUTE_ESCAPES = createEscapes(true);
+
+    private char[] mBuffer;
+    private int mLength = 0;
+
+    private String mIndent = "";
+    private char[] mIndents = new char[0];
+
+    public XmlOutputBuffer(int initialCapacity) {
+        mBuffer = new char[Math.max(16, initialCapacity)];
+    }
+
+    private static char[][] createEscapes(boolean attribute) {
+        char[][] escapes = new char['>' + 1][];
+        escapes['&'] = "&amp;".toCharArray();
+        escapes['<'] = "&lt;".toCharArray();
+        escapes['>'] = "&gt;".toCharArray();
+        if ( attribute ) {
+            escapes['"'] = "&quot;".toCharArray();
+        }
+        return escapes;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * @param length the new length, shorter than the current length, e.g. to drop a part which has been appended
+     */
+    public void setLength(int length) {
+        mLength = length;
+    }
+
+    public void clear() {
+        mLength = 0;
+    }
+
+    /**
+     * @return the buffer with the formatted XML from position 0 to {@link #length()}, only valid until the next append
+     */
+    public char[] getBuffer() {
+        return mBuffer;
+    }
+
+    public XmlOutputBuffer append(char value) {
+        ensureCapacity(1);
+        mBuffer[mLength++] = value;
+        return this;
+    }
+
+    public XmlOutputBuffer append(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        value.getChars(0, length, mBuffer, mLength);
+        mLength += length;
+        return this;
+    }
+
+    public XmlOutputBuffer append(char[] value, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, mBuffer, mLength, length);
+        mLength += length;
+        return this;
+    }
+
+    /**
+     * Sets the indent of a single level used by {@link #appendIndent(int)}.
+     */
+    public void setIndent(String indent) {
+        mIndent = (indent == null ? "" : indent);
+        mIndents = new char[0];
+    }
+
+    /**
+     * Appends the indent of a level, the indents are prepared once for the deepest level so far.
+     */
+    public XmlOutputBuffer appendIndent(int level) {
+        int length = level * mIndent.length();
+        if ( length > mIndents.length ) {
+            StringBuilder indents = new StringBuilder(length * 2);
+            for ( int index = 0; index < level * 2; index++ ) {
+                indents.append(mIndent);
+            }
+            mIndents = indents.toString().toCharArray();
+        }
+        return append(mIndents, 0, length);
+    }
+
+    public XmlOutputBuffer appendEscapedValue(char[] value, int offset, int length) {
+        return appendEscaped(value, offset, length, VALUE_ESCAPES);
+    }
+
+    public XmlOutputBuffer appendEscapedValue(String value) {
+        return appendEscaped(value, VALUE_ESCAPES);
+    }
+
+    public XmlOutputBuffer appendEscapedAttribute(String value) {
+        return appendEscaped(value, ATTRIBUTE_ESCAPES);
+    }
+
+    private XmlOutputBuffer appendEscaped(char[] value, int offset, int length, char[][] escapes) {
+        int end = offset + length;
+        int runStart = offset;
+        for ( int index = offset; index < end; index++ ) {
+            char valueChar = value[index];
+            if ( valueChar < escapes.length && escapes[valueChar] != null ) {
+                append(value, runStart, index - runStart);
+                char[] escape = escapes[valueChar];
+                append(escape, 0, escape.length);
+                runStart = index + 1;
+            }
+        }
+        return append(value, runStart, end - runStart);
+    }
+
+    private XmlOutputBuffer appendEscaped(String value, char[][] escapes) {
+        int end = value.length();
+        int runStart = 0;
+        for ( int index = 0; index < end; index++ ) {
+            char valueChar = value.charAt(index);
+            if ( valueChar < escapes.length && escapes[valueChar] != null ) {
+                appendRange(value, runStart, index);
+                char[] escape = escapes[valueChar];
+                append(escape, 0, escape.length);
+                runStart = index + 1;
+            }
+        }
+        appendRange(value, runStart, end);
+        return this;
+    }
+
+    private void appendRange(String value, int start, int end) {
+        ensureCapacity(end - start);
+        value.getChars(start, end, mBuffer, mLength);
+        mLength += end - start;
+    }
+
+    /**
+     * @return the position of the first character at or after the position, or -1
+     */
+    public int indexOf(char value, int fromIndex) {
+        for ( int index = fromIndex; index < mLength; index++ ) {
+            if ( mBuffer[index] == value ) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the last end tag start "&lt;/", or -1
+     */
+    public int lastIndexOfEndTag() {
+        for ( int index = mLength - 2; index >= 0; index-- ) {
+            if ( mBuffer[index] == '<' && mBuffer[index + 1] == '/' ) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    public String substring(int start, int end) {
+        return new String(mBuffer, start, end - start);
+    }
+
+    /**
+     * Writes the formatted XML to the writer, the buffer is not cleared.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(mBuffer, 0, mLength);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mLength);
+    }
+
+    private void ensureCapacity(int additionalLength) {
+        int requiredLength = mLength + additionalLength;
+        if ( requiredLength > mBuffer.length ) {
+            char[] buffer = new char[Math.max(requiredLength, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+    }
+}
@@ -15,18 +15,39 @@
 package ch.abacus.abaconnecttools;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-
+import java.util.List;
+
+/**
+ * Formats SOAP messages with one element per line, indented by level, and converts the AbaConnect requests
+ * for the import file (see {@link #setAbaConnectImportMode(String)}).
+ * <p/>
+ * The formatted XML is collected in a reusable {@link XmlOutputBuffer}, the open elements are kept in a stack
+ * indexed by the depth and the names without namespace prefix are cached, so that formatting allocates close to
+ * nothing per element once the buffers are large enough.
+ */
 public class XmlSoapAcReformatter extends SimpleXmlSaxParser {
 
     private String mLineFeed = "\n";
     private String mIndent = "  ";
     private String mLastStartElementName = "";
-    private StringBuffer mFormattedXml = new StringBuffer();
+    private XmlOutputBuffer mFormattedXml = new XmlOutputBuffer(OUTPUT_FLUSH_SIZE * 2);
 
-    ArrayList<String> mElementNames = new ArrayList<String>();
+    // The names without namespace prefix of the open elements, indexed by the depth
+    private String[] mElementNames = new String[16];
+    private int mElementDepth = 0;
+    // Names without namespace prefix by element name, the reader passes the same String instances for a name
+    private static final int MAX_LOCAL_NAMES = 4096;
+    private HashMap<String, String> mLocalNames = new HashMap<String, String>();
 
     private boolean mRemoveNamespacePrefixes = true;  // Default removes the namespaces from the Xml element names
 
@@ -41,12 +62,41 @@ public class XmlSoapAcReformatter extends SimpleXmlSaxParser {
 
     private HashMap<String, String> mExtendedFieldsInfo = new HashMap<String, String>();
 
+    // Streaming output, see format(InputStream, Writer)
+    private static final int OUTPUT_FLUSH_SIZE = 8192;
+    private static final int STREAM_ELEMENT_VALUE_SIZE = 8192;
+    private Writer mOutputWriter = null;
+    private boolean mStreamedElementValue = false;
+
+    // AbaConnect import data collected while formatting, see setCollectAbaConnectImportData(boolean)
+    private static final String ABACONNECT_NAMESPACE_PREFIX = "www.abacus.ch/abaconnect/";
+    private boolean mCollectAbaConnectImportData = false;
+    private ArrayList<String> mAbaConnectTransactions = new ArrayList<String>();
+    private XmlOutputBuffer mTransactionText = new XmlOutputBuffer(0);
+    private int mTransactionStart = -1;
+    private int mTransactionDepth = 0;
+    private ArrayList<String> mPendingNamespaceUris = new ArrayList<String>();
+    private boolean mInterfaceDetected = false;
+    private String mInterfaceVersion = "20xx.00";
+    private String mInterfaceApplication = "UKNOWN";
+    private String mInterfaceId = "";
+
     @Override
     public void startDocument() {
         super.startDocument();
-        mFormattedXml.setLength(0);
+        mFormattedXml.clear();
+        mStreamedElementValue = false;
         mLastStartElementName = "";
-        mElementNames.clear();
+        mElementDepth = 0;
+        mAbaConnectTransactions.clear();
+        mTransactionText.clear();
+        mTransactionStart = -1;
+        mTransactionDepth = 0;
+        mPendingNamespaceUris.clear();
+        mInterfaceDetected = false;
+        mInterfaceVersion = "20xx.00";
+        mInterfaceApplication = "UKNOWN";
+        mInterfaceId = "";
     }
 
     public boolean isRemoveNamespacePrefixes() {
@@ -65,8 +115,13 @@ public class XmlSoapAcReformatter extends SimpleXmlSaxParser {
         mConvertExtendedFieldsToXmlFormat = convertExtendedFieldsToXmlFormat;
     }
 
+    public XmlSoapAcReformatter() {
+        mFormattedXml.setIndent(mIndent);
+    }
+
     public void setIndent(String singleIndent) {
         mIndent = singleIndent == null ? "" : singleIndent;
+        mFormattedXml.setIndent(mIndent);
     }
 
     public void setLineFeed(String lineFeed) {
@@ -77,236 +132,431 @@ public class XmlSoapAcReformatter extends SimpleXmlSaxParser {
         return mIndent;
     }
 
+    public boolean isCollectAbaConnectImportData() {
+        return mCollectAbaConnectImportData;
+    }
+
+    /**
+     * Collects the AbaConnect import data of a Save/Insert/Update request while it is formatted, so that the
+     * formatted XML is not scanned again : the content of the Data elements, see {@link #getAbaConnectTransactions()},
+     * and the interface of the request, which is detected from the namespaces declared by the request element.
+     * Requires the AbaConnect import mode, see {@link #setAbaConnectImportMode(String)}.
+     *
+     * @param collectAbaConnectImportData true to collect the import data
+     */
+    public void setCollectAbaConnectImportData(boolean collectAbaConnectImportData) {
+        mCollectAbaConnectImportData = collectAbaConnectImportData;
+    }
+
+    /**
+     * @return the trimmed formatted content of the Data elements of the last formatted request, empty Data elements
+     *         are left out
+     */
+    public List<String> getAbaConnectTransactions() {
+        return mAbaConnectTransactions;
+    }
+
+    /**
+     * @return the interface version of the last formatted request, e.g. 2015.00
+     */
+    public String getAbaConnectInterfaceVersion() {
+        return mInterfaceVersion;
+    }
+
+    /**
+     * @return the application of the interface of the last formatted request in upper case, e.g. FIBU
+     */
+    public String getAbaConnectApplication() {
+        return mInterfaceApplication;
+    }
+
+    /**
+     * @return the interface id of the last formatted request, e.g. Account
+     */
+    public String getAbaConnectInterfaceId() {
+        return mInterfaceId;
+    }
+
+    /**
+     * Collects the namespaces declared by the next element, reported by a namespace aware reader.
+     */
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        if ( mCollectAbaConnectImportData ) {
+            mPendingNamespaceUris.add(uri);
+        }
+    }
+
     @Override
     public void endElement(String name, String value) {
-        StringBuilder sbFormattedXml = new StringBuilder();
+        endElement(name, value.toCharArray(), value.length());
+    }
 
-        mElementNames.remove(name);
+    @Override
+    protected void endElement(String name, char[] value, int length) {
+        int elementStart = mFormattedXml.length();
+        String localName = popElementName(name);
         if ( name.equals(mLastStartElementName) ) {
             mLastStartElementName = "";
-            sbFormattedXml.append(">");
-        } else {
-            sbFormattedXml.append(mLineFeed);
-            int level = mElementNames.size();
-            for ( int index = 0; index < level; index++ ) {
-                sbFormattedXml.append(mIndent);
+            if ( !mStreamedElementValue ) {
+                // Otherwise the start tag has been closed before the first part of the value
+                mFormattedXml.append('>');
             }
-        }
-        if ( value.contains("&") ) {
-            sbFormattedXml.append(value.replaceAll("&","&amp;"));
         } else {
-            sbFormattedXml.append(value);
+            mFormattedXml.append(mLineFeed);
+            mFormattedXml.appendIndent(mElementDepth);
         }
-        sbFormattedXml.append("</");
-        if ( mRemoveNamespacePrefixes ) {
-            sbFormattedXml.append(removeNamespacePrefix(name));
-        } else {
-            sbFormattedXml.append(name);
-        }
-        sbFormattedXml.append(">");
-//        sbFormattedXml.append(mLineFeed);
+        mFormattedXml.appendEscapedValue(value, 0, length);
+        mFormattedXml.append("</");
+        mFormattedXml.append(mRemoveNamespacePrefixes ? localName : name);
+        mFormattedXml.append('>');
 
         if ( mInExtendedFieldElement ) {
+            // The elements of the Extended Fields are replaced by an element named by the Name attribute
+            mFormattedXml.setLength(elementStart);
             if ( !"".equals(mExtendedFieldAttributeName) ) {
                 mFormattedXml.append(mLineFeed);
-                int level = mElementNames.size();
-                for ( int index = 0; index < (level-1); index++ ) {
-                    mFormattedXml.append(mIndent);
-                }
-                mFormattedXml.append("<");
+                mFormattedXml.appendIndent(Math.max(0, mElementDepth - 1));
+                mFormattedXml.append('<');
                 mFormattedXml.append(mExtendedFieldAttributeName);
-                mFormattedXml.append(">");
-                if ( value.contains("&") ) {
-                    mFormattedXml.append(value.replaceAll("&","&amp;"));
-                } else {
-                    mFormattedXml.append(value);
-                }
+                mFormattedXml.append('>');
+                mFormattedXml.appendEscapedValue(value, 0, length);
                 mFormattedXml.append("</");
                 mFormattedXml.append(mExtendedFieldAttributeName);
-                mFormattedXml.append(">");
+                mFormattedXml.append('>');
                 mExtendedFieldAttributeName = "";
             }
-        } else {
-            mFormattedXml.append(sbFormattedXml.toString());
+        }
+        if ( mTransactionDepth > 0 && isDataElementName(localName) ) {
+            mTransactionDepth--;
+            if ( mTransactionDepth == 0 ) {
+                addAbaConnectTransaction();
+            }
         }
 
-        if ( mInSaveInsertUpdateDateElement && isExtendedFieldsElementName(name) ) {
+        if ( mInSaveInsertUpdateDateElement && isExtendedFieldsElementName(localName) ) {
             mInExtendedFieldElement = false;
         }
         if ( mInSaveInsertUpdateRequest ) {
-            if ( isDataElementName(name) ) {
+            if ( isDataElementName(localName) ) {
                 mInSaveInsertUpdateDateElement = false;
             }
         }
         if ( isAbaConnectImportModeActive() ) {
-            if (isElementNameSaveInsertUpdateRequest(name) ) {
+            if (isElementNameSaveInsertUpdateRequest(localName) ) {
                 mInSaveInsertUpdateRequest = false;
                 mDeterminedRequestImportMode = "";
             }
         }
+        mStreamedElementValue = false;
+        writeFormattedXml(false);
+    }
+
+    @Override
+    protected boolean streamElementValue(char[] value, int length) {
+        // Only the value of an element without child elements so far can be written before the end tag,
+        // Extended Field values are converted at the end of the element
+        if ( mOutputWriter == null || "".equals(mLastStartElementName) || mInExtendedFieldElement ) return false;
+        if ( !mStreamedElementValue ) {
+            mFormattedXml.append('>');
+        }
+        mFormattedXml.appendEscapedValue(value, 0, length);
+        mStreamedElementValue = true;
+        writeFormattedXml(false);
+        return true;
     }
 
     @Override
     public void startElement(String elementName, Attributes atts) {
-        StringBuilder sbFormattedXml = new StringBuilder();
+        int elementStart = mFormattedXml.length();
+        String localName = getLocalName(elementName);
 
-        if ( mInSaveInsertUpdateDateElement && isExtendedFieldsElementName(elementName) ) {
+        if ( mInSaveInsertUpdateDateElement && isExtendedFieldsElementName(localName) ) {
             // Only convert Extended Field Format if mConvertExtendedFieldsToXmlFormat option is active
             mInExtendedFieldElement = mConvertExtendedFieldsToXmlFormat;
             mExtendedFieldsInfo.clear();
         }
-//        sbFormattedXml.append(mLineFeed);
-        int level = mElementNames.size();
+        int level = mElementDepth;
         if ( level > 0 /* && !"".equals(mLastStartElementName)  */) {
-            if ( ! "".equals(mLastStartElementName) ) {
+            if ( ! "".equals(mLastStartElementName) && !mStreamedElementValue ) {
                 // This must be a parent element with child elements
                 if ( mInSaveInsertUpdateDateElement && isAbaConnectImportModeActive() ) {
-                    if ( !isDataElementName(mLastStartElementName) ) {
+                    if ( !isDataElementName(getLocalName(mLastStartElementName)) ) {
                         // Do not output mode attribute for the Data element
-                        sbFormattedXml.append(" mode=\"");
+                        mFormattedXml.append(" mode=\"");
                         
                         if ( atts != null ) {
                             int attLength = atts.getLength();
-                            if (attLength > 0) {
-                                for (int index = 0; index < attLength; index++) {
-                                    String attribVal = atts.getValue(index);
-                                    String attribName = atts.getLocalName(index);
-                                    if ( "mode".equals(attribName) ) {
-                                        // Explicit mode attirbute Overrides the mode defined by Request Parameter
-                                        mDeterminedRequestImportMode = attribVal;
-                                    }
+                            for (int index = 0; index < attLength; index++) {
+                                if ( "mode".equals(atts.getLocalName(index)) ) {
+                                    // Explicit mode attirbute Overrides the mode defined by Request Parameter
+                                    mDeterminedRequestImportMode = atts.getValue(index);
                                 }
                             }
                         }
 
                         if ( !"".equals(mDeterminedRequestImportMode) ) {
-                            sbFormattedXml.append(mDeterminedRequestImportMode);
+                            mFormattedXml.appendEscapedAttribute(mDeterminedRequestImportMode);
                         } else {
-                            sbFormattedXml.append(mAbaConnectImportMode);
+                            mFormattedXml.append(mAbaConnectImportMode);
                         }
-                        sbFormattedXml.append("\"");
+                        mFormattedXml.append('"');
                     }
                 }
-                sbFormattedXml.append(">");
+                mFormattedXml.append('>');
             }
-            sbFormattedXml.append(mLineFeed);
-        }
-        for ( int index = 0; index < level; index++ ) {
-            sbFormattedXml.append(mIndent);
-        }
-        mElementNames.add(elementName);
-        sbFormattedXml.append("<");
-        if ( mRemoveNamespacePrefixes ) {
-            sbFormattedXml.append(removeNamespacePrefix(elementName));
-        } else {
-            sbFormattedXml.append(elementName);
+            mFormattedXml.append(mLineFeed);
         }
+        mFormattedXml.appendIndent(level);
+        pushElementName(localName);
+        int tagStart = mFormattedXml.length();
+        mFormattedXml.append('<');
+        mFormattedXml.append(mRemoveNamespacePrefixes ? localName : elementName);
         mExtendedFieldAttributeName = "";
         if ( atts != null ) {
             int attLength = atts.getLength();
-            if ( attLength > 0 ) {
-                for ( int index = 0; index < attLength; index++ ) {
-                    boolean writeAttribute = true;
-                    String attribVal = atts.getValue(index);
-                    String attribName = atts.getLocalName(index);
-                    if ( isAbaConnectImportModeActive() && attribVal.contains("http://www.abacus.ch/abaconnect") ) {
-                        writeAttribute = false;
-                    }
-                    if ( writeAttribute ) {
-                        sbFormattedXml.append(" ");
-                        sbFormattedXml.append(attribName);
-                        sbFormattedXml.append("=");
-                        sbFormattedXml.append("\"");
-                        sbFormattedXml.append(attribVal);
-                        sbFormattedXml.append("\"");
-                    }
-                    if ( mInExtendedFieldElement && "Name".equals(attribName) ) {
-                        mExtendedFieldAttributeName = attribVal;
-                    }
+            for ( int index = 0; index < attLength; index++ ) {
+                boolean writeAttribute = true;
+                String attribVal = atts.getValue(index);
+                String attribName = atts.getLocalName(index);
+                if ( isAbaConnectImportModeActive() && attribVal.contains("http://www.abacus.ch/abaconnect") ) {
+                    writeAttribute = false;
+                }
+                if ( writeAttribute ) {
+                    mFormattedXml.append(' ');
+                    mFormattedXml.append(attribName);
+                    mFormattedXml.append("=\"");
+                    mFormattedXml.appendEscapedAttribute(attribVal);
+                    mFormattedXml.append('"');
+                }
+                if ( mInExtendedFieldElement && "Name".equals(attribName) ) {
+                    mExtendedFieldAttributeName = attribVal;
+                }
+                // The reader is not namespace aware, the namespace declarations are attributes
+                if ( mCollectAbaConnectImportData && atts.getQName(index).startsWith("xmlns") ) {
+                    mPendingNamespaceUris.add(attribVal);
                 }
             }
         }
-//        sbFormattedXml.append(">");
-        if ( ! mInExtendedFieldElement ) {
-            mFormattedXml.append(sbFormattedXml.toString());
+        if ( mInExtendedFieldElement ) {
+            // The Extended Field is written at the end of the element
+            mFormattedXml.setLength(elementStart);
+        }
+        if ( mCollectAbaConnectImportData && mInSaveInsertUpdateRequest && isDataElementName(localName) ) {
+            if ( mTransactionDepth == 0 ) {
+                mTransactionStart = tagStart;
+            }
+            mTransactionDepth++;
         }
 
         mLastStartElementName = elementName;
 
         if ( mInSaveInsertUpdateRequest ) {
-            if ( isDataElementName(elementName) ) {
+            if ( isDataElementName(localName) ) {
                 mInSaveInsertUpdateDateElement = true;
             }
         }
         if ( isAbaConnectImportModeActive() ) {
-            if ( isElementNameSaveInsertUpdateRequest(elementName) ) {
+            if ( isElementNameSaveInsertUpdateRequest(localName) ) {
                 mInSaveInsertUpdateRequest = true;
+                if ( mCollectAbaConnectImportData && !mInterfaceDetected ) {
+                    detectAbaConnectInterface(mPendingNamespaceUris);
+                    mInterfaceDetected = true;
+                }
             }
         }
+        mPendingNamespaceUris.clear();
+        mStreamedElementValue = false;
+        writeFormattedXml(false);
     }
 
-    private boolean isDataElementName( String elementName) {
-        if ( elementName == null ) return false;
-        if ( !elementName.endsWith("Data") ) return false;
-        String elementTagName = elementName;
-        int colonPos = elementTagName.indexOf(":");
-        if ( colonPos >= 0 ) {
-            // Cut off namespace
-            elementTagName = elementTagName.substring(colonPos+1);
+    /**
+     * Adds an element to the open elements.
+     */
+    private void pushElementName(String localName) {
+        if ( mElementDepth == mElementNames.length ) {
+            mElementNames = Arrays.copyOf(mElementNames, mElementDepth * 2);
         }
-        if ( "Data".equals(elementTagName) ) {
-            return true;
+        mElementNames[mElementDepth++] = localName;
+    }
+
+    /**
+     * Removes the innermost open element, which is the element ending in a well-formed document.
+     *
+     * @return the name of the element without namespace prefix
+     */
+    private String popElementName(String elementName) {
+        if ( mElementDepth == 0 ) {
+            return getLocalName(elementName);
+        }
+        return mElementNames[--mElementDepth];
+    }
+
+    /**
+     * Adds the content of the Data element which has just been formatted, from the '&gt;' of the start tag to
+     * the end tag, trimmed.  The element is usually still complete in the formatted XML, a large element
+     * has partly been written and collected in the transaction text.
+     */
+    private void addAbaConnectTransaction() {
+        if ( mTransactionText.length() == 0 ) {
+            addTrimmedContent(mFormattedXml, mTransactionStart);
+        } else {
+            mTransactionText.append(mFormattedXml.getBuffer(), mTransactionStart, mFormattedXml.length() - mTransactionStart);
+            addTrimmedContent(mTransactionText, 0);
+            mTransactionText.clear();
         }
-        return false;
+        mTransactionStart = -1;
     }
 
-    private boolean isExtendedFieldsElementName( String elementName) {
-        if ( elementName == null ) return false;
-        if ( !elementName.endsWith("ExtendedFields") ) return false;
-        String elementTagName = elementName;
-        int colonPos = elementTagName.indexOf(":");
-        if ( colonPos >= 0 ) {
-            // Cut off namespace
-            elementTagName = elementTagName.substring(colonPos+1);
+    private void addTrimmedContent(XmlOutputBuffer element, int elementStart) {
+        int contentStart = element.indexOf('>', elementStart) + 1;
+        int contentEnd = element.lastIndexOfEndTag();
+        if ( contentStart > 0 && contentEnd > contentStart ) {
+            char[] text = element.getBuffer();
+            while ( contentStart < contentEnd && text[contentStart] <= ' ' ) {
+                contentStart++;
+            }
+            while ( contentEnd > contentStart && text[contentEnd - 1] <= ' ' ) {
+                contentEnd--;
+            }
+            mAbaConnectTransactions.add(element.substring(contentStart, contentEnd));
         }
-        if ( "ExtendedFields".equals(elementTagName) ) {
-            return true;
+    }
+
+    /**
+     * Detects the interface of a request from the AbaConnect namespaces declared by the request element, e.g.
+     * <code>http://www.abacus.ch/abaconnect/2015.00/fibu/Account</code>.  The namespace of the types of the
+     * interface (e.g. <code>.../fibu/AccountTypes</code>) is only used if there is no other.
+     */
+    private void detectAbaConnectInterface(List<String> namespaceUris) {
+        for ( String uri : namespaceUris ) {
+            int ipos = uri.indexOf(ABACONNECT_NAMESPACE_PREFIX);
+            if ( ipos < 0 ) {
+                continue;
+            }
+            String suffix = uri.substring(ipos + ABACONNECT_NAMESPACE_PREFIX.length());
+            if ( suffix.endsWith("AbaConnectTypes") ) {
+                continue;
+            }
+            String[] interfaceValues = suffix.split("/");
+            if ( interfaceValues.length == 3 ) {
+                mInterfaceVersion = interfaceValues[0];
+                mInterfaceApplication = interfaceValues[1].toUpperCase();
+                if ( "".equals(mInterfaceId) ) {
+                    mInterfaceId = interfaceValues[2];
+                } else if ( interfaceValues[2].endsWith("Types") || mInterfaceId.endsWith("Types") ) {
+                    // Special conditions to separate names with "Types" suffix : e.g. HierarchyEmployee and HierarchyEmployeeTypes
+                    if ( !interfaceValues[2].equals(mInterfaceId + "Types") ) {
+                        mInterfaceId = interfaceValues[2];  // Adopt the name without the Types suffix
+                    } else if ( mInterfaceId.endsWith("Types") && mInterfaceId.startsWith(interfaceValues[2]) ) {
+                        mInterfaceId = interfaceValues[2];  // Adopt the name without the Types suffix
+                    }
+                } else {
+                    mInterfaceId = interfaceValues[2];
+                }
+            }
         }
-        return false;
     }
 
-    private boolean isElementNameSaveInsertUpdateRequest( String elementName) {
-        if ( elementName == null ) return false;
-        if ( !elementName.endsWith("SaveRequest") && !elementName.endsWith("InsertRequest") && !elementName.endsWith("UpdateRequest") ) return false;
-        String elementTagName = elementName;
-        int colonPos = elementTagName.indexOf(":");
-        if ( colonPos >= 0 ) {
-            // Cut off namespace
-            elementTagName = elementTagName.substring(colonPos+1);
+    private boolean isDataElementName(String localName) {
+        return "Data".equals(localName);
+    }
+
+    private boolean isExtendedFieldsElementName(String localName) {
+        return "ExtendedFields".equals(localName);
+    }
+
+    private boolean isElementNameSaveInsertUpdateRequest(String localName) {
+        if ( "UpdateRequest".equals(localName) ) {
+            mDeterminedRequestImportMode = "UPDATE";
+        } else if ( "InsertRequest".equals(localName) ) {
+            mDeterminedRequestImportMode = "INSERT";
+        } else if ( "SaveRequest".equals(localName) ) {
+            mDeterminedRequestImportMode = "SAVE";
+        } else {
+            return false;
         }
-        if ( "SaveRequest".equals(elementTagName) || "InsertRequest".equals(elementTagName) || "UpdateRequest".equals(elementTagName) ) {
-            mDeterminedRequestImportMode = "";
-            if ( "UpdateRequest".equals(elementTagName) ) {
-                mDeterminedRequestImportMode = "UPDATE";
-            } else if ( "InsertRequest".equals(elementTagName) ) {
-                mDeterminedRequestImportMode = "INSERT";
-            } else if ( "SaveRequest".equals(elementTagName) ) {
-                mDeterminedRequestImportMode = "SAVE";
+        return true;
+    }
+
+    /**
+     * Formats the XML document of the stream and writes the formatted XML to the writer while the document
+     * is parsed.  Only the open elements, a small output buffer and a part of a large element value are held
+     * in memory, so the memory usage does not depend on the size of the document.
+     * <p/>
+     * The output is the same as {@link #getFormattedXml()} after {@link #saxParse(InputStream)}, except for
+     * large text in front of a child element (mixed content), which is written as text of the parent element.
+     *
+     * @param xmlStream the XML document
+     * @param writer receives the formatted XML, it is flushed but not closed
+     * @throws SAXException if the document cannot be parsed, the writer may contain a part of the document
+     * @throws IOException if the formatted XML cannot be written
+     */
+    public void format(InputStream xmlStream, Writer writer) throws SAXException, IOException {
+        mOutputWriter = writer;
+        setStreamElementValueSize(STREAM_ELEMENT_VALUE_SIZE);
+        try {
+            saxParse(xmlStream);
+            writeFormattedXml(true);
+            writer.flush();
+        } catch (RuntimeException e) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
             }
-            return true;
+            throw e;
+        } finally {
+            mOutputWriter = null;
+            setStreamElementValueSize(0);
+            mFormattedXml.clear();
         }
+    }
+
+    /**
+     * Formats the XML document of the stream and writes the formatted XML UTF-8 encoded to the output stream.
+     *
+     * @see #format(InputStream, Writer)
+     */
+    public void format(InputStream xmlStream, OutputStream outputStream) throws SAXException, IOException {
+        format(xmlStream, new OutputStreamWriter(outputStream, "UTF-8"));
+    }
 
-        return false;
+    /**
+     * Passes the formatted XML collected so far to the output writer when streaming.
+     *
+     * @param writeAll true to write everything, otherwise only when the collected XML is large enough
+     */
+    private void writeFormattedXml(boolean writeAll) {
+        if ( mOutputWriter == null ) return;
+        int length = mFormattedXml.length();
+        if ( length == 0 || (!writeAll && length < OUTPUT_FLUSH_SIZE) ) return;
+        if ( mTransactionStart >= 0 ) {
+            // The Data element continues in the next part of the formatted XML
+            mTransactionText.append(mFormattedXml.getBuffer(), mTransactionStart, length - mTransactionStart);
+            mTransactionStart = 0;
+        }
+        try {
+            mFormattedXml.writeTo(mOutputWriter);
+        } catch (IOException e) {
+            throw new RuntimeException("The formatted XML cannot be written", e);
+        }
+        mFormattedXml.clear();
     }
 
     public String getFormattedXml() {
         return mFormattedXml.toString();
     }
 
-    private String removeNamespacePrefix(String elementName) {
-        if ( elementName == null ) return elementName;
-        int posColon = elementName.indexOf(":");
-        return (posColon >= 0 ? elementName.substring(posColon+1) : elementName);
+    private String getLocalName(String elementName) {
+        String localName = mLocalNames.get(elementName);
+        if ( localName == null ) {
+            int posColon = elementName.indexOf(':');
+            localName = (posColon >= 0 ? elementName.substring(posColon + 1) : elementName);
+            if ( mLocalNames.size() >= MAX_LOCAL_NAMES ) {
+                mLocalNames.clear();
+            }
+            mLocalNames.put(elementName, localName);
+        }
+        return localName;
     }
 
     private boolean isAbaConnectImportModeActive() {